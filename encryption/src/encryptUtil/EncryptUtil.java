@@ -2,18 +2,30 @@ package encryptUtil;
 
 import java.math.BigInteger;
 
+import encryption.AHWritable;
+import encryption.DETWritable;
+import encryption.OPEWritable;
+import encryption.SlotPacking;
+import jope.CachedOPE;
 import jope.OPE;
 import thep.paillier.EncryptedInteger;
 import thep.paillier.PrivateKey;
 import thep.paillier.PublicKey;
+import thep.paillier.RandomnessPool;
 import thep.paillier.exceptions.BigIntegerClassNotValid;
 import thep.paillier.exceptions.PublicKeysNotEqualException;
 
 public class EncryptUtil {
 	
-	private static OPE ope = new OPE();
+	private static OPE ope = new CachedOPE();
 	private static PrivateKey priv = new PrivateKey(64);
 	private static PublicKey pub = priv.getPublicKey();
+	// Used by EncryptedInteger for the blinding factors of getAH
+	private static RandomnessPool pool = RandomnessPool.register(new RandomnessPool(pub));
+	
+	public static RandomnessPool getPool() {
+		return pool;
+	}
 	
 	public static String getOPE(int clear) {
 		BigInteger clearBig = new BigInteger("" + clear);
@@ -40,20 +52,52 @@ public class EncryptUtil {
 		return eclear.getCipherVal().toString();
 	}
 	
+	/**
+	 * values packed in the slots of one ciphertext, see getPacking
+	 */
+	public static String getAH(SlotPacking packing, long... values) throws BigIntegerClassNotValid {
+		EncryptedInteger eclear = new EncryptedInteger(packing.pack(values), pub);
+		return eclear.getCipherVal().toString();
+	}
+	
+	/**
+	 * The slot packing of getAH for sums of at most maxAdditions values up to maxValue
+	 */
+	public static SlotPacking getPacking(long maxValue, long maxAdditions) {
+		return SlotPacking.plan(pub.getN().subtract(BigInteger.ONE), maxValue, maxAdditions);
+	}
+	
+	public static OPEWritable getOPEWritable(int clear) {
+		return new OPEWritable(ope.encrypt(BigInteger.valueOf(clear)));
+	}
+	
+	public static OPEWritable getOPEWritable(String ctext) {
+		return new OPEWritable(ctext);
+	}
+	
+	public static AHWritable getAHWritable(String ctext) {
+		return new AHWritable(ctext);
+	}
+	
+	public static DETWritable getDETWritable(String ctext) {
+		return new DETWritable(ctext);
+	}
+	
+	// OPE ciphertexts in decimal are compared as numbers, not as strings: "9" < "10"
 	public static boolean isGt(String a, int b) {
-		return a.compareTo(getOPE(b)) > 0;
+		return OPEWritable.compare(a, getOPE(b)) > 0;
 	}
 	
 	public static boolean isGt(String a, String b) {
-		return a.compareTo(b) > 0;
+		return OPEWritable.compare(a, b) > 0;
 	}
 	
 	public static boolean isGt(int a, String b) {
-		return getOPE(a).compareTo(b) > 0;
+		return OPEWritable.compare(getOPE(a), b) > 0;
 	}
 	
 	public static boolean isLt(String a, int b) {
-		return a.compareTo(getOPE(b)) < 0;
+		return OPEWritable.compare(a, getOPE(b)) < 0;
 	}
 	
 	public static String add(String a, int b) throws BigIntegerClassNotValid {
@@ -11,6 +11,11 @@ import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPrivateKey;
 import com.n1analytics.paillier.cli.SerialisationUtil;
 
+/**
+ * Decrypts the AH strings of AHEncryptor. The key and the context do not
+ * change after construction, so one decryptor can be shared by all the
+ * threads of a server without locking.
+ */
 public class AHDecryptor {
 
 	private PaillierPrivateKey privateKey;
@@ -33,5 +38,23 @@ public class AHDecryptor {
 		EncryptedNumber cipher = Util.getAHCipher(cipherStr, context);
 		return cipher.decrypt(privateKey);
 	}
-	
+
+	public EncodedNumber decrypt(AHWritable ctext) {
+		return ctext.get(context).decrypt(privateKey);
+	}
+
+	/**
+	 * @return the slots of a ciphertext of AHEncryptor.encrypt(packing, values), or of a sum
+	 */
+	public long[] decrypt(String cipherStr, SlotPacking packing) {
+		return packing.unpack(decrypt(cipherStr).decodeBigInteger());
+	}
+
+	/**
+	 * The slot packing of this key, the same as AHEncryptor.plan for the same arguments
+	 */
+	public SlotPacking plan(long maxValue, long maxAdditions) {
+		return SlotPacking.plan(context, maxValue, maxAdditions);
+	}
+
 }
@@ -3,22 +3,30 @@ package encryption;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.math.BigInteger;
 
+import com.n1analytics.paillier.EncodedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPrivateKey;
 import com.n1analytics.paillier.PaillierPublicKey;
 import com.n1analytics.paillier.cli.PrivateKeyJsonSerialiser;
 
+import thep.paillier.PublicKey;
+import thep.paillier.RandomnessPool;
+
 public class AHEncryptor {
 
 	private PaillierPrivateKey privateKey;
 	private PaillierPublicKey publicKey;
 	private PaillierContext context;
+	// Blinding factors for publicKey, computed in the background
+	private RandomnessPool pool;
 
 	public AHEncryptor(String outputDir) {
 		privateKey = PaillierPrivateKey.create(64);
 		publicKey = privateKey.getPublicKey();
 		context = publicKey.createSignedContext();
+		pool = new RandomnessPool(new PublicKey(64, publicKey.getModulus()));
 		PrivateKeyJsonSerialiser serializedPrivateKey = new PrivateKeyJsonSerialiser(null);
 		privateKey.serialize(serializedPrivateKey);
 		String privKeyFile = outputDir + "/key.priv";
@@ -35,15 +43,51 @@ public class AHEncryptor {
 	}
 	
 	public String encrypt(String ptext) {
-		return Util.getAHString(context.encrypt(Integer.parseInt(ptext)));
+		return encrypt(context.encode(Integer.parseInt(ptext)));
 	}
 
 	public String encrypt(int ptext) {
-		return Util.getAHString(context.encrypt(ptext));
+		return encrypt(context.encode(ptext));
 	}
 	
 	public String encrypt(double ptext) {
-		return Util.getAHString(context.encrypt(ptext));
+		return encrypt(context.encode(ptext));
+	}
+	
+	/**
+	 * Encrypts values packed in the slots of one plaintext
+	 */
+	public String encrypt(SlotPacking packing, long... values) {
+		return encrypt(context.encode(packing.pack(values)));
+	}
+
+	/**
+	 * The slot packing of this key for sums of at most maxAdditions values up to maxValue
+	 */
+	public SlotPacking plan(long maxValue, long maxAdditions) {
+		return SlotPacking.plan(context, maxValue, maxAdditions);
+	}
+
+	public RandomnessPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Stops the thread that computes the blinding factors. encrypt still works, with a modPow
+	 * per value.
+	 */
+	public void close() {
+		pool.close();
+	}
+	
+	/*
+	 * The same ciphertext as context.encrypt(encoded).calculateCiphertext(),
+	 * with a blinding factor from the pool instead of a modPow per value
+	 */
+	private String encrypt(EncodedNumber encoded) {
+		BigInteger cipher = publicKey.raw_encrypt_without_obfuscation(encoded.getValue());
+		cipher = cipher.multiply(pool.takeFactor()).mod(publicKey.getModulusSquared());
+		return cipher + "#" + encoded.getExponent();
 	}
 	
 }
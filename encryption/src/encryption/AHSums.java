@@ -0,0 +1,174 @@
+package encryption;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+
+/**
+ * The partial aggregate of the rows of a key: a fixed number of AH sums and the number of rows
+ * summed, for the averages. A mapper emits the ciphertexts of a row with a count of 1, a
+ * HomomorphicSumCombiner adds the rows of a map task, and the reducer adds the partial sums of
+ * all the tasks the same way.
+ *
+ * A sum is empty as long as only empty ciphertexts were added to it, like the empty fields of
+ * the datasets: the empty sum plus c is c.
+ */
+public class AHSums implements Writable {
+
+	private AHWritable[] sums;
+	private long count;
+
+	public AHSums() {
+		this(0);
+	}
+
+	/**
+	 * @param width
+	 *            the number of sums
+	 */
+	public AHSums(int width) {
+		resize(width);
+	}
+
+	private void resize(int width) {
+		sums = new AHWritable[width];
+		for (int i = 0; i < width; i++) {
+			sums[i] = new AHWritable();
+		}
+	}
+
+	/**
+	 * @param ctexts
+	 *            "cipher#exponent" as given by AHEncryptor, or "" for an empty sum
+	 */
+	public void set(long count, String... ctexts) {
+		check(ctexts.length);
+		for (int i = 0; i < ctexts.length; i++) {
+			sums[i].set(ctexts[i]);
+		}
+		this.count = count;
+	}
+
+	/**
+	 * @param ctexts
+	 *            the sums, null for an empty one
+	 */
+	public void set(long count, EncryptedNumber... ctexts) {
+		check(ctexts.length);
+		for (int i = 0; i < ctexts.length; i++) {
+			if (ctexts[i] == null) {
+				sums[i].set(null, 0);
+			} else {
+				sums[i].set(ctexts[i]);
+			}
+		}
+		this.count = count;
+	}
+
+	private void check(int width) {
+		if (width != sums.length) {
+			throw new IllegalArgumentException("Expected " + sums.length + " sums, got " + width);
+		}
+	}
+
+	public int width() {
+		return sums.length;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public AHWritable get(int i) {
+		return sums[i];
+	}
+
+	/**
+	 * @return sum i, or zero when it is empty
+	 */
+	public EncryptedNumber get(int i, EncryptedNumber zero) {
+		return sums[i].isEmpty() ? zero : sums[i].get(zero.getContext());
+	}
+
+	/**
+	 * Adds the sums of values, which can be reused by the iterator as Hadoop does, to sums.
+	 *
+	 * @param sums
+	 *            the sums so far, null for the empty ones, of length the width of the values
+	 * @return the number of rows of the values
+	 */
+	public static long add(Iterator<AHSums> values, EncryptedNumber[] sums, PaillierContext context) {
+		long count = 0;
+		while (values.hasNext()) {
+			AHSums value = values.next();
+			value.check(sums.length);
+			for (int i = 0; i < sums.length; i++) {
+				AHWritable c = value.sums[i];
+				if (!c.isEmpty()) {
+					sums[i] = sums[i] == null ? c.get(context) : context.add(sums[i], c.get(context));
+				}
+			}
+			count += value.count;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the sum of values, of the width of the first one, empty if there is none
+	 */
+	public static AHSums sum(Iterator<AHSums> values, PaillierContext context) {
+		if (!values.hasNext()) {
+			return new AHSums();
+		}
+		AHSums first = values.next();
+		EncryptedNumber[] sums = new EncryptedNumber[first.width()];
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] = first.sums[i].isEmpty() ? null : first.sums[i].get(context);
+		}
+		long count = first.count + add(values, sums, context);
+		AHSums result = new AHSums(sums.length);
+		result.set(count, sums);
+		return result;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, sums.length);
+		for (AHWritable c : sums) {
+			c.write(out);
+		}
+		WritableUtils.writeVLong(out, count);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int width = WritableUtils.readVInt(in);
+		if (width != sums.length) {
+			resize(width);
+		}
+		for (AHWritable c : sums) {
+			c.readFields(in);
+		}
+		count = WritableUtils.readVLong(in);
+	}
+
+	/**
+	 * @return the sums as AHEncryptor texts and the count, separated by tabs
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (AHWritable c : sums) {
+			sb.append(c).append('\t');
+		}
+		return sb.append(count).toString();
+	}
+
+}
@@ -0,0 +1,115 @@
+package encryption;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+
+/**
+ * A Paillier ciphertext and its exponent as bytes, instead of the decimal "cipher#exponent" of
+ * AHEncryptor and Util.getAHString in a Text: about 2.4 times smaller. A writable can be
+ * empty, for the empty fields of the datasets.
+ *
+ * toString() gives the text of AHEncryptor, "" when empty.
+ */
+public class AHWritable implements Writable {
+
+	private BigInteger cipher;
+	private int exponent;
+
+	public AHWritable() {
+	}
+
+	public AHWritable(BigInteger cipher, int exponent) {
+		set(cipher, exponent);
+	}
+
+	public AHWritable(EncryptedNumber number) {
+		set(number);
+	}
+
+	/**
+	 * @param ctext
+	 *            "cipher#exponent" as given by AHEncryptor, a ciphertext without exponent, or ""
+	 */
+	public AHWritable(String ctext) {
+		set(ctext);
+	}
+
+	public void set(BigInteger cipher, int exponent) {
+		this.cipher = cipher;
+		this.exponent = exponent;
+	}
+
+	public void set(EncryptedNumber number) {
+		set(number.calculateCiphertext(), number.getExponent());
+	}
+
+	public void set(String ctext) {
+		if (ctext.isEmpty()) {
+			set(null, 0);
+			return;
+		}
+		int index = ctext.indexOf('#');
+		if (index < 0) {
+			set(new BigInteger(ctext), 0);
+		} else {
+			set(new BigInteger(ctext.substring(0, index)), Integer.parseInt(ctext.substring(index + 1)));
+		}
+	}
+
+	public boolean isEmpty() {
+		return cipher == null;
+	}
+
+	public BigInteger getCipher() {
+		return cipher;
+	}
+
+	public int getExponent() {
+		return exponent;
+	}
+
+	/**
+	 * @return the ciphertext as an EncryptedNumber of context, as Util.getAHCipher
+	 */
+	public EncryptedNumber get(PaillierContext context) {
+		return new EncryptedNumber(context, cipher, exponent);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		if (cipher == null) {
+			WritableUtils.writeVInt(out, 0);
+			return;
+		}
+		byte[] bytes = cipher.toByteArray();
+		WritableUtils.writeVInt(out, bytes.length);
+		out.write(bytes);
+		WritableUtils.writeVInt(out, exponent);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int n = WritableUtils.readVInt(in);
+		if (n == 0) {
+			set(null, 0);
+			return;
+		}
+		byte[] bytes = new byte[n];
+		in.readFully(bytes);
+		set(new BigInteger(bytes), WritableUtils.readVInt(in));
+	}
+
+	@Override
+	public String toString() {
+		return cipher == null ? "" : cipher + "#" + exponent;
+	}
+
+}
@@ -0,0 +1,16 @@
+package encryption;
+
+/**
+ * How a field of a record is encrypted by EncryptionPipeline
+ */
+public interface Column {
+
+	/**
+	 * Appends the encryption of the field text[start, end) to out
+	 *
+	 * @param encryptors
+	 *            the encryptors, to be used on the calling thread only
+	 */
+	void encrypt(String text, int start, int end, Encryptors encryptors, StringBuilder out);
+
+}
@@ -3,10 +3,6 @@ package encryption;
 import java.math.BigInteger;
 import java.util.Arrays;
 
-import thep.paillier.EncryptedInteger;
-import thep.paillier.exceptions.BigIntegerClassNotValid;
-import thep.paillier.exceptions.PublicKeysNotEqualException;
-
 public class Computation {
 	
 	public static boolean equals(Object b1, Object b2) {
@@ -24,42 +20,36 @@ public class Computation {
 	}
 	
 	public static int compareTo(Object b1, Object b2) {
-		// only for String
-		String[] s1array = b1.toString().split(" ");
-		String[] s2array = b2.toString().split(" ");
-		int len1 = s1array.length;
-		int len2 = s2array.length;
-		int n = Math.min(len1, len2) - 1;
-		int k = 0;
-		while (k < n) {
-			String s1 = s1array[k];
-			String s2 = s2array[k];
-			if (!s1.equals(s2)) {
-				return new BigInteger(s1).compareTo(new BigInteger(s2));
-			}
-			k++;
-		}
-		return len1 - len2;
+		// only for String, the ciphertexts of the characters separated by spaces
+		return OPEWritable.compare(b1.toString(), b2.toString());
 	}
 
 	public static boolean lessThan(Object b1, Object b2) {
 		// only for int
-		return new BigInteger(b1.toString()).compareTo(new BigInteger(b2.toString())) == -1;
+		return compareInts(b1, b2) < 0;
 	}
 
 	public static boolean greaterThan(Object b1, Object b2) {
 		// only for int
-		return new BigInteger(b1.toString()).compareTo(new BigInteger(b2.toString())) == 1;
+		return compareInts(b1, b2) > 0;
 	}
 
 	public static boolean lessThanOrEqualTo(Object b1, Object b2) {
 		// only for int
-		return new BigInteger(b1.toString()).compareTo(new BigInteger(b2.toString())) < 1;
+		return compareInts(b1, b2) <= 0;
 	}
 
 	public static boolean greaterThanOrEqualTo(Object b1, Object b2) {
 		// only for int
-		return new BigInteger(b1.toString()).compareTo(new BigInteger(b2.toString())) > -1;
+		return compareInts(b1, b2) >= 0;
+	}
+
+	private static int compareInts(Object b1, Object b2) {
+		if (b1 instanceof BigInteger && b2 instanceof BigInteger) {
+			return ((BigInteger) b1).compareTo((BigInteger) b2);
+		}
+		// decimal ciphertexts, compared without parsing them
+		return OPEWritable.compare(b1.toString(), b2.toString());
 	}
 
 //	public static Object divide(Object b1, Object b2) {
@@ -95,43 +85,15 @@ public class Computation {
 	}
 
 	public static Object multiply(Object b1, int b2) {
-		EncryptedInteger e1 = Homomorphic.ei;
-		Homomorphic.ei.setCipherVal((BigInteger) b1);
-		try {
-			e1 = e1.multiply(BigInteger.valueOf(b2));
-		} catch (BigIntegerClassNotValid e) {
-			e.printStackTrace();
-		}
-		return e1.getCipherVal();
+		return Homomorphic.getEngine().multiply((BigInteger) b1, BigInteger.valueOf(b2));
 	}
 
 	public static Object add(Object b1, Object b2) {
-		EncryptedInteger e1 = Homomorphic.ei;
-		Homomorphic.ei.setCipherVal((BigInteger) b1);
-		EncryptedInteger e2 = new EncryptedInteger(e1);
-		e2.setCipherVal((BigInteger) b2);
-		try {
-			e1 = e1.add(e2);
-		} catch (PublicKeysNotEqualException e) {
-			e.printStackTrace();
-		}
-		return e1.getCipherVal();
+		return Homomorphic.getEngine().add((BigInteger) b1, (BigInteger) b2);
 	}
 
 	public static Object minus(Object b1, Object b2) {
-		EncryptedInteger e1 = Homomorphic.ei;
-		Homomorphic.ei.setCipherVal((BigInteger) b1);
-		EncryptedInteger e2 = new EncryptedInteger(e1);
-		e2.setCipherVal((BigInteger) b2);
-		try {
-			e2 = e2.multiply(new BigInteger("-1"));
-			e1 = e1.add(e2);
-		} catch (PublicKeysNotEqualException e) {
-			e.printStackTrace();
-		} catch (BigIntegerClassNotValid e) {
-			e.printStackTrace();
-		}
-		return e1.getCipherVal();
+		return Homomorphic.getEngine().subtract((BigInteger) b1, (BigInteger) b2);
 	}
 
 }
@@ -32,6 +32,21 @@ public class DETEncryptor {
 		}
 	}
 
+	/**
+	 * An encryptor with the keys of other and its own ciphers, for another thread:
+	 * Cipher objects cannot be shared between threads
+	 */
+	public DETEncryptor(DETEncryptor other) {
+		try {
+			cipherAES = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+			cipherBF = Cipher.getInstance("Blowfish/CBC/PKCS5PADDING");
+			keyAES = other.keyAES;
+			keyBF = other.keyBF;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	public String encrypt(int ptext) {
 		byte[] cipher = encrypt(ByteBuffer.allocate(4).putInt(ptext).array(), cipherBF, keyBF, ivBF);
 		return encoder.encodeToString(cipher);
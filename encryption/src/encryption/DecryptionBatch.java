@@ -0,0 +1,88 @@
+package encryption;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.n1analytics.paillier.EncryptedNumber;
+
+/**
+ * Records sent to a DecryptionServer in one frame. Every record of a batch has the same number
+ * of AH ciphertexts, decrypted by the server, and of plain ints, given as they are to the
+ * handler of the server.
+ *
+ * A frame is the int length of the rest, then the number of records, of ciphertexts and of ints
+ * per record as varints, then the records: the ciphertexts as AHWritables and the ints as
+ * varints. The records are serialized as they are added.
+ */
+public class DecryptionBatch {
+
+	private final int ciphers, ints;
+	private final DataOutputBuffer records = new DataOutputBuffer();
+	private final AHWritable writable = new AHWritable();
+	private int size;
+
+	public DecryptionBatch(int ciphers, int ints) {
+		this.ciphers = ciphers;
+		this.ints = ints;
+	}
+
+	public void add(EncryptedNumber[] ctexts, int... values) throws IOException {
+		check(ctexts.length, values.length);
+		for (EncryptedNumber c : ctexts) {
+			writable.set(c);
+			writable.write(records);
+		}
+		add(values);
+	}
+
+	public void add(AHWritable[] ctexts, int... values) throws IOException {
+		check(ctexts.length, values.length);
+		for (AHWritable c : ctexts) {
+			c.write(records);
+		}
+		add(values);
+	}
+
+	private void check(int c, int i) {
+		if (c != ciphers || i != ints) {
+			throw new IllegalArgumentException(
+					"Expected " + ciphers + " ciphertexts and " + ints + " ints, got " + c + " and " + i);
+		}
+	}
+
+	private void add(int[] values) throws IOException {
+		for (int v : values) {
+			WritableUtils.writeVInt(records, v);
+		}
+		size++;
+	}
+
+	/**
+	 * @return the number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		records.reset();
+		size = 0;
+	}
+
+	/**
+	 * Writes the batch as a frame
+	 */
+	public void write(DataOutput out) throws IOException {
+		DataOutputBuffer header = new DataOutputBuffer(15);
+		WritableUtils.writeVInt(header, size);
+		WritableUtils.writeVInt(header, ciphers);
+		WritableUtils.writeVInt(header, ints);
+		out.writeInt(header.getLength() + records.getLength());
+		out.write(header.getData(), 0, header.getLength());
+		out.write(records.getData(), 0, records.getLength());
+	}
+
+}
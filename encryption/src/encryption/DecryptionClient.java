@@ -0,0 +1,57 @@
+package encryption;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A connection to a DecryptionServer. Batches can be sent before the replies to the previous
+ * ones are received, the replies come back in the order of the batches.
+ */
+public class DecryptionClient implements Closeable {
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+
+	public DecryptionClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+	}
+
+	public void send(DecryptionBatch batch) throws IOException {
+		batch.write(out);
+		out.flush();
+	}
+
+	/**
+	 * @return the reply to the oldest batch without a reply: what the handler of the server wrote
+	 *         for each record, in the order of the records
+	 */
+	public DataInputStream receive() throws IOException {
+		byte[] reply = new byte[in.readInt()];
+		in.readFully(reply);
+		return new DataInputStream(new ByteArrayInputStream(reply));
+	}
+
+	/**
+	 * Sends batch and waits for its reply
+	 */
+	public DataInputStream call(DecryptionBatch batch) throws IOException {
+		send(batch);
+		return receive();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+}
@@ -0,0 +1,180 @@
+package encryption;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.n1analytics.paillier.EncryptedNumber;
+
+/**
+ * Sends records to a DecryptionServer in batches over one connection while the caller goes on,
+ * for example a mapper that decrypts each record it reads.
+ *
+ * Each record is added with a value, such as the line it comes from. When a batch is full it is
+ * sent, and at most a few batches are waiting for their reply: add blocks on the oldest reply
+ * beyond that, so the memory used does not depend on the number of records. A thread reads the
+ * replies as they arrive, and the Receiver is called with each value and its reply in the
+ * thread of the caller, in the order of the records, during add and close.
+ */
+public class DecryptionPipeline<T> implements Closeable {
+
+	// job properties of the mappers using a pipeline
+	public static final String BATCH_PROPERTY = "decryption.batch";
+	public static final String IN_FLIGHT_PROPERTY = "decryption.inflight";
+	public static final String PORT_PROPERTY = "decryption.port";
+
+	public static final int BATCH = 256;
+	public static final int IN_FLIGHT = 4;
+
+	public interface Receiver<T> {
+		/**
+		 * Reads the reply to the record added with value
+		 */
+		void receive(T value, DataInput reply) throws IOException;
+	}
+
+	private final DecryptionClient client;
+	private final Receiver<T> receiver;
+	private final DecryptionBatch batch;
+	private final int batchSize, inFlight;
+	private List<T> values = new ArrayList<T>();
+	// the values of the batches sent, oldest first
+	private final ArrayDeque<List<T>> sent = new ArrayDeque<List<T>>();
+	// replies, then FAILED if the reader stopped on an exception
+	private final BlockingQueue<DataInputStream> replies = new LinkedBlockingQueue<DataInputStream>();
+	private static final DataInputStream FAILED = new DataInputStream(null);
+	// why the reader stopped, rethrown by every later call
+	private volatile IOException failure;
+	private volatile boolean closed;
+
+	public DecryptionPipeline(String host, int port, int ciphers, int ints, Receiver<T> receiver)
+			throws IOException {
+		this(host, port, ciphers, ints, BATCH, IN_FLIGHT, receiver);
+	}
+
+	/**
+	 * @param ciphers
+	 *            the number of ciphertexts of a record
+	 * @param ints
+	 *            the number of ints of a record
+	 * @param batchSize
+	 *            the records of a batch
+	 * @param inFlight
+	 *            the batches sent and waiting for their reply
+	 */
+	public DecryptionPipeline(String host, int port, int ciphers, int ints, int batchSize, int inFlight,
+			Receiver<T> receiver) throws IOException {
+		this.client = new DecryptionClient(host, port);
+		this.receiver = receiver;
+		this.batch = new DecryptionBatch(ciphers, ints);
+		this.batchSize = batchSize;
+		this.inFlight = inFlight;
+		Thread reader = new Thread(() -> {
+			try {
+				while (true) {
+					replies.put(client.receive());
+				}
+			} catch (IOException e) {
+				if (!closed) {
+					failure = e;
+					replies.add(FAILED);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "decryption replies");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Adds a record, and gives the replies received so far to the receiver
+	 */
+	public void add(T value, EncryptedNumber[] ctexts, int... ints) throws IOException {
+		check();
+		batch.add(ctexts, ints);
+		values.add(value);
+		if (batch.size() == batchSize) {
+			send();
+		}
+		DataInputStream reply;
+		while ((reply = replies.poll()) != null) {
+			receive(reply);
+		}
+	}
+
+	/**
+	 * Sends the last records and waits for all the replies
+	 */
+	public void flush() throws IOException {
+		check();
+		if (batch.size() > 0) {
+			send();
+		}
+		while (!sent.isEmpty()) {
+			receive(take());
+		}
+	}
+
+	/**
+	 * Flushes and closes the connection, which is closed even if the reader or the flush failed
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			closed = true;
+			client.close();
+		}
+	}
+
+	private void send() throws IOException {
+		while (sent.size() >= inFlight) {
+			receive(take());
+		}
+		client.send(batch);
+		sent.add(values);
+		values = new ArrayList<T>();
+		batch.clear();
+	}
+
+	private DataInputStream take() throws IOException {
+		check();
+		try {
+			return replies.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a reply", e);
+		}
+	}
+
+	private void receive(DataInputStream reply) throws IOException {
+		if (reply == FAILED) {
+			// left for the next take
+			replies.add(FAILED);
+			check();
+		}
+		for (T value : sent.remove()) {
+			receiver.receive(value, reply);
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the reader stopped on one, in every call after it
+	 */
+	private void check() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			throw new IOException("The connection to the decryption server failed", e);
+		}
+	}
+
+}
@@ -0,0 +1,338 @@
+package encryption;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.n1analytics.paillier.EncodedNumber;
+
+/**
+ * Decrypts the batches of DecryptionClients on every core and replies with what a Handler
+ * computes from the plaintexts of each record.
+ *
+ * One thread accepts the connections and reads and writes the frames of DecryptionBatch with
+ * non-blocking channels. The records of a frame are decrypted by tasks of a work stealing pool,
+ * so a single large batch uses every core as well as many connections do. A reply is written as
+ * soon as its batch and the batches before it on the connection are done, and at most
+ * MAX_PENDING batches of a connection are in memory: the server stops reading a client that
+ * does not read its replies.
+ *
+ * The reply to a batch is a frame too, the int length then the bytes written by the handler for
+ * every record.
+ */
+public class DecryptionServer {
+
+	public static final int PORT = 44444;
+
+	// batches of a connection read and not yet replied to
+	private static final int MAX_PENDING = 8;
+	private static final int MAX_FRAME = 1 << 30;
+	// records decrypted by a task
+	private static final int RECORDS = 4;
+
+	/**
+	 * Computes the reply to a record from its plaintexts
+	 */
+	public interface Handler {
+		/**
+		 * @param plaintexts
+		 *            the decrypted ciphertexts of the record
+		 * @param ints
+		 *            the ints of the record
+		 */
+		void reply(EncodedNumber[] plaintexts, int[] ints, DataOutput out) throws IOException;
+	}
+
+	private final AHDecryptor ah;
+	private final Handler handler;
+	private final ForkJoinPool pool;
+	// connections to update in the selector thread
+	private final Queue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+	private Selector selector;
+
+	/**
+	 * A server with a thread per core
+	 */
+	public DecryptionServer(AHDecryptor ah, Handler handler) {
+		this(ah, handler, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param ah
+	 *            shared by the threads, AHDecryptor does not lock
+	 */
+	public DecryptionServer(AHDecryptor ah, Handler handler, int threads) {
+		this.ah = ah;
+		this.handler = handler;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Serves the clients on port until the thread is interrupted
+	 */
+	public void serve(int port) throws IOException {
+		selector = Selector.open();
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			while (!Thread.currentThread().isInterrupted()) {
+				selector.select();
+				Connection connection;
+				while ((connection = ready.poll()) != null) {
+					connection.update();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						SocketChannel channel = server.accept();
+						if (channel != null) {
+							try {
+								channel.configureBlocking(false);
+								channel.socket().setTcpNoDelay(true);
+								new Connection(channel);
+							} catch (IOException e) {
+								// only this client is lost
+								System.err.println("Closing connection: " + e);
+								try {
+									channel.close();
+								} catch (IOException closing) {
+									closing.printStackTrace();
+								}
+							}
+						}
+						continue;
+					}
+					connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.write();
+						}
+						connection.update();
+					} catch (IOException e) {
+						System.err.println("Closing connection: " + e);
+						connection.close();
+					}
+				}
+			}
+		} finally {
+			selector.close();
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * The reply to a frame, as a frame
+	 */
+	private ByteBuffer reply(byte[] frame) throws IOException {
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(frame, frame.length);
+		int size = WritableUtils.readVInt(in);
+		int ciphers = WritableUtils.readVInt(in);
+		int ints = WritableUtils.readVInt(in);
+		AHWritable[][] ctexts = new AHWritable[size][ciphers];
+		int[][] values = new int[size][ints];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < ciphers; j++) {
+				ctexts[i][j] = new AHWritable();
+				ctexts[i][j].readFields(in);
+			}
+			for (int j = 0; j < ints; j++) {
+				values[i][j] = WritableUtils.readVInt(in);
+			}
+		}
+		DataOutputBuffer[] replies = new DataOutputBuffer[size];
+		new Records(ctexts, values, replies, 0, size).invoke();
+
+		int length = 0;
+		for (DataOutputBuffer r : replies) {
+			length += r.getLength();
+		}
+		ByteBuffer out = ByteBuffer.allocate(4 + length);
+		out.putInt(length);
+		for (DataOutputBuffer r : replies) {
+			out.put(r.getData(), 0, r.getLength());
+		}
+		out.flip();
+		return out;
+	}
+
+	/*
+	 * Decrypts and handles records from start to end
+	 */
+	@SuppressWarnings("serial")
+	private class Records extends RecursiveAction {
+
+		private final AHWritable[][] ctexts;
+		private final int[][] values;
+		private final DataOutputBuffer[] replies;
+		private final int start, end;
+
+		Records(AHWritable[][] ctexts, int[][] values, DataOutputBuffer[] replies, int start, int end) {
+			this.ctexts = ctexts;
+			this.values = values;
+			this.replies = replies;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > RECORDS) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new Records(ctexts, values, replies, start, middle),
+						new Records(ctexts, values, replies, middle, end));
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				EncodedNumber[] plaintexts = new EncodedNumber[ctexts[i].length];
+				for (int j = 0; j < plaintexts.length; j++) {
+					plaintexts[j] = ah.decrypt(ctexts[i][j]);
+				}
+				replies[i] = new DataOutputBuffer();
+				try {
+					handler.reply(plaintexts, values[i], replies[i]);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/*
+	 * The frames of a client. Only update, read, write and close run in the selector thread, the
+	 * replies are queued by the pool.
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ByteBuffer header = ByteBuffer.allocate(4);
+		private ByteBuffer frame;
+		private ByteBuffer out;
+		// replies in the order of the frames
+		private final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<ByteBuffer>();
+		private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile boolean failed;
+		private boolean eof;
+
+		Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.key = channel.register(selector, SelectionKey.OP_READ, this);
+		}
+
+		void read() throws IOException {
+			while (!eof && pending.get() < MAX_PENDING) {
+				if (frame == null) {
+					if (channel.read(header) < 0) {
+						eof = true;
+						return;
+					}
+					if (header.hasRemaining()) {
+						return;
+					}
+					header.flip();
+					int length = header.getInt();
+					header.clear();
+					if (length < 0 || length > MAX_FRAME) {
+						throw new IOException("Bad frame length " + length);
+					}
+					frame = ByteBuffer.allocate(length);
+				}
+				if (channel.read(frame) < 0) {
+					throw new IOException("Connection closed in a frame");
+				}
+				if (frame.hasRemaining()) {
+					return;
+				}
+				submit(frame.array());
+				frame = null;
+			}
+		}
+
+		private void submit(final byte[] bytes) {
+			pending.incrementAndGet();
+			CompletableFuture<ByteBuffer> reply = CompletableFuture.supplyAsync(() -> {
+				try {
+					return reply(bytes);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, pool);
+			last = last.thenAcceptBoth(reply, (v, r) -> replies.add(r)).whenComplete((v, e) -> {
+				if (e != null) {
+					e.printStackTrace();
+					failed = true;
+				}
+				ready.add(this);
+				selector.wakeup();
+			});
+		}
+
+		void write() throws IOException {
+			while (true) {
+				if (out == null && (out = replies.poll()) == null) {
+					return;
+				}
+				channel.write(out);
+				if (out.hasRemaining()) {
+					return;
+				}
+				out = null;
+				pending.decrementAndGet();
+			}
+		}
+
+		void update() {
+			if (!key.isValid()) {
+				return;
+			}
+			boolean writing = out != null || !replies.isEmpty();
+			if (failed || eof && pending.get() == 0 && !writing) {
+				close();
+				return;
+			}
+			int ops = writing ? SelectionKey.OP_WRITE : 0;
+			if (!eof && pending.get() < MAX_PENDING) {
+				ops |= SelectionKey.OP_READ;
+			}
+			key.interestOps(ops);
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
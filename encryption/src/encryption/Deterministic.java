@@ -1,93 +1,269 @@
 package encryption;
 
-import java.security.Key;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
 
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.spec.IvParameterSpec;
-
-import java.nio.ByteBuffer;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Deterministic encryption with a synthetic IV (SIV): the IV is HMAC-SHA256 of the plaintext,
+ * cut to 16 bytes, and the plaintext is encrypted with AES-CTR from that IV. A ciphertext is
+ * the IV followed by the encrypted plaintext.
+ *
+ * Equal plaintexts give equal ciphertexts, and a ciphertext decrypts by itself with the key:
+ * nothing is kept per ciphertext, so memory does not grow with the number of values, and
+ * ciphertexts read back from files, as bytes or Base64, decrypt in any JVM with the same key.
+ * Decryption checks the IV against the decrypted plaintext.
+ *
+ * Each thread keeps its own Mac and AES cipher, initialized once with the key. CTR is done
+ * with AES in ECB mode over the counter blocks, so no IV has to be set per value and a batch
+ * is encrypted with one call to the cipher.
+ */
 public class Deterministic implements Encryption {
 
-	private static final Key keyAES, keyBF; // AES and blowfish
-	private Cipher cipherAES, cipherBF;
-	private static Map<byte[], byte[]> initIVsAES = new HashMap<>();
-	private static Map<byte[], byte[]> initIVsBF = new HashMap<>();
+	private static final int IV_LENGTH = 16;
+	private static final int BLOCK = 16;
+	// the first byte of the plaintext
+	private static final byte LONG = 0, STRING = 1;
+
+	// the key of new Deterministic(), the same for the whole JVM
+	private static final byte[] defaultKey = new byte[32];
 
 	static {
-		KeyGenerator generatorAES = null, generatorBF = null;
-		try {
-			generatorAES = KeyGenerator.getInstance("AES");
-			generatorBF = KeyGenerator.getInstance("Blowfish");
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		keyAES = generatorAES.generateKey();
-		keyBF = generatorBF.generateKey();
+		new SecureRandom().nextBytes(defaultKey);
 	}
 
+	private final byte[] key;
+	private final SecretKeySpec macKey, encKey;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(macKey);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		protected Cipher initialValue() {
+			try {
+				Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+				cipher.init(Cipher.ENCRYPT_MODE, encKey);
+				return cipher;
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	/**
+	 * Deterministic encryption with the key of this JVM
+	 */
 	public Deterministic() {
-		try {
-			cipherAES = Cipher.getInstance("AES/CBC/PKCS5PADDING");
-			cipherBF = Cipher.getInstance("Blowfish/CBC/PKCS5PADDING");
-		} catch (Exception e) {
-			e.printStackTrace();
+		this(defaultKey);
+	}
+
+	/**
+	 * Deterministic encryption with the given key, for example one saved with getKey() by the
+	 * job that encrypted the data
+	 *
+	 * @param key
+	 *            the key, of any length, at least 16 bytes
+	 */
+	public Deterministic(byte[] key) {
+		if (key.length < 16) {
+			throw new IllegalArgumentException("The key must have at least 16 bytes");
 		}
+		this.key = key.clone();
+		// independent keys for the IV and the encryption
+		this.macKey = new SecretKeySpec(derive("mac"), "HmacSHA256");
+		this.encKey = new SecretKeySpec(Arrays.copyOf(derive("enc"), 16), "AES");
 	}
 
+	/**
+	 * Returns the key, to decrypt the ciphertexts in another JVM
+	 *
+	 * @return the key
+	 */
+	public byte[] getKey() {
+		return key.clone();
+	}
+
+	@Override
 	public byte[] encrypt(String ptext) {
-		byte[] ctext = null;
-		try {
-			cipherAES.init(Cipher.ENCRYPT_MODE, keyAES);
-			ctext = cipherAES.doFinal(ptext.getBytes());
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		initIVsAES.put(ctext, cipherAES.getIV());
-		return ctext;
+		return encrypt(new byte[][] { payload(ptext) })[0];
 	}
 
+	@Override
 	public byte[] encrypt(long ptext) {
-		byte[] ctext = null;
-		try {
-			cipherBF.init(Cipher.ENCRYPT_MODE, keyBF);
-			ctext = cipherBF.doFinal(ByteBuffer.allocate(8).putLong(ptext).array());
-		} catch (Exception e) {
-			e.printStackTrace();
+		return encrypt(new byte[][] { payload(ptext) })[0];
+	}
+
+	@Override
+	public Object encrypt(int ptext) {
+		return encrypt((long) ptext);
+	}
+
+	/**
+	 * Encrypts many values at once
+	 *
+	 * @param ptexts
+	 *            the values
+	 * @return their ciphertexts, in the same order
+	 */
+	public byte[][] encrypt(long[] ptexts) {
+		byte[][] payloads = new byte[ptexts.length][];
+		for (int i = 0; i < ptexts.length; i++) {
+			payloads[i] = payload(ptexts[i]);
+		}
+		return encrypt(payloads);
+	}
+
+	/**
+	 * Encrypts many strings at once
+	 *
+	 * @param ptexts
+	 *            the strings
+	 * @return their ciphertexts, in the same order
+	 */
+	public byte[][] encrypt(String[] ptexts) {
+		byte[][] payloads = new byte[ptexts.length][];
+		for (int i = 0; i < ptexts.length; i++) {
+			payloads[i] = payload(ptexts[i]);
 		}
-		initIVsBF.put(ctext, cipherBF.getIV());
-		return ctext;
+		return encrypt(payloads);
 	}
 
+	/**
+	 * Decrypts a ciphertext, as bytes or as Base64
+	 *
+	 * @return a Long or a String
+	 */
 	@Override
 	public Object decrypt(Object ctext) {
-		byte[] plainText = null;
-		byte[] ciphertext = (byte[]) ctext;
-		if (ciphertext.length == 8) { // blowfish: 64-bit block size
-			try {
-				cipherBF.init(Cipher.DECRYPT_MODE, keyBF, new IvParameterSpec(initIVsBF.get(ctext)));
-				plainText = cipherBF.doFinal(ciphertext);
-			} catch (Exception e) {
-				e.printStackTrace();
+		byte[] ciphertext = (ctext instanceof String) ? Base64.getDecoder().decode((String) ctext) : (byte[]) ctext;
+		if (ciphertext.length <= IV_LENGTH) {
+			throw new IllegalArgumentException("Invalid ciphertext");
+		}
+
+		byte[] plaintext = new byte[ciphertext.length - IV_LENGTH];
+		byte[] keystream = keystream(ciphertext, plaintext.length);
+		for (int i = 0; i < plaintext.length; i++) {
+			plaintext[i] = (byte) (ciphertext[IV_LENGTH + i] ^ keystream[i]);
+		}
+
+		byte[] iv = Arrays.copyOf(ciphertext, IV_LENGTH);
+		if (!MessageDigest.isEqual(iv, syntheticIV(macs.get(), plaintext))) {
+			throw new IllegalArgumentException("Invalid ciphertext");
+		}
+
+		if (plaintext[0] == LONG && plaintext.length == 9) {
+			return ByteBuffer.wrap(plaintext, 1, 8).getLong();
+		} else if (plaintext[0] == STRING) {
+			return new String(plaintext, 1, plaintext.length - 1, StandardCharsets.UTF_8);
+		}
+		throw new IllegalArgumentException("Invalid ciphertext");
+	}
+
+	/*
+	 * IV and encrypted payload of every payload. The counter blocks of all the payloads are
+	 * encrypted in one call.
+	 */
+	private byte[][] encrypt(byte[][] payloads) {
+		Mac mac = macs.get();
+		byte[][] ctexts = new byte[payloads.length][];
+		int blocks = 0;
+		for (int i = 0; i < payloads.length; i++) {
+			ctexts[i] = new byte[IV_LENGTH + payloads[i].length];
+			System.arraycopy(syntheticIV(mac, payloads[i]), 0, ctexts[i], 0, IV_LENGTH);
+			blocks += (payloads[i].length + BLOCK - 1) / BLOCK;
+		}
+
+		byte[] counters = new byte[blocks * BLOCK];
+		int offset = 0;
+		for (int i = 0; i < payloads.length; i++) {
+			offset = counters(ctexts[i], payloads[i].length, counters, offset);
+		}
+		byte[] keystream = aes(counters);
+
+		offset = 0;
+		for (int i = 0; i < payloads.length; i++) {
+			byte[] payload = payloads[i];
+			for (int j = 0; j < payload.length; j++) {
+				ctexts[i][IV_LENGTH + j] = (byte) (payload[j] ^ keystream[offset + j]);
 			}
-			ByteBuffer wrapped = ByteBuffer.wrap(plainText);
-			return wrapped.getLong();
-		} else { // AES: 128-bit block size
-			try {
-				cipherAES.init(Cipher.DECRYPT_MODE, keyAES, new IvParameterSpec(initIVsAES.get(ctext)));
-				plainText = cipherAES.doFinal(ciphertext);
-			} catch (Exception e) {
-				e.printStackTrace();
+			offset += (payload.length + BLOCK - 1) / BLOCK * BLOCK;
+		}
+		return ctexts;
+	}
+
+	/*
+	 * The first length bytes of the CTR keystream for the IV at the start of ctext
+	 */
+	private byte[] keystream(byte[] ctext, int length) {
+		byte[] counters = new byte[(length + BLOCK - 1) / BLOCK * BLOCK];
+		counters(ctext, length, counters, 0);
+		return aes(counters);
+	}
+
+	/*
+	 * Writes the counter blocks for length bytes, from the IV at the start of ctext, at offset
+	 * in counters and returns the offset after them
+	 */
+	private static int counters(byte[] ctext, int length, byte[] counters, int offset) {
+		byte[] counter = Arrays.copyOf(ctext, IV_LENGTH);
+		for (int done = 0; done < length; done += BLOCK) {
+			System.arraycopy(counter, 0, counters, offset, BLOCK);
+			offset += BLOCK;
+			// the whole IV is a big endian counter
+			for (int i = BLOCK - 1; i >= 0 && ++counter[i] == 0; i--) {
 			}
-			return new String(plainText);
 		}
+		return offset;
 	}
 
-	@Override
-	public Object encrypt(int ptext) {
-		return encrypt((long) ptext);
+	private byte[] aes(byte[] blocks) {
+		try {
+			return ciphers.get().doFinal(blocks);
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] syntheticIV(Mac mac, byte[] payload) {
+		return Arrays.copyOf(mac.doFinal(payload), IV_LENGTH);
+	}
+
+	private byte[] derive(String label) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static byte[] payload(long ptext) {
+		return ByteBuffer.allocate(9).put(LONG).putLong(ptext).array();
+	}
+
+	private static byte[] payload(String ptext) {
+		byte[] bytes = ptext.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = new byte[bytes.length + 1];
+		payload[0] = STRING;
+		System.arraycopy(bytes, 0, payload, 1, bytes.length);
+		return payload;
 	}
 }
@@ -0,0 +1,68 @@
+package encryption;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+
+/**
+ * The sum of ciphertexts times plaintext ints, the dot product of an encrypted vector and a
+ * plain one, such as the reviews of a movie and the ratings of a centroid.
+ *
+ * The ciphertexts are first summed by multiplier, one homomorphic addition each. get() then
+ * combines the sums by the bucket method of multi-exponentiation: with the multipliers in
+ * decreasing order m1 > ... > mk and Ti the sum of the ciphertexts of m1 to mi,
+ * sum(mi * ci) = sum((mi - mi+1) * Ti) with mk+1 = 0. There is one scalar multiplication per
+ * distinct multiplier, by the gap to the next one, instead of one per ciphertext: for ratings
+ * from 1 to 5, only additions.
+ */
+public class DotProduct {
+
+	private final EncryptedNumber zero;
+	private final PaillierContext context;
+	// the sum of the ciphertexts of each multiplier, largest multiplier first
+	private final TreeMap<Integer, EncryptedNumber> buckets = new TreeMap<Integer, EncryptedNumber>(
+			Collections.reverseOrder());
+
+	/**
+	 * @param zero
+	 *            the ciphertext the products are added to, an encryption of 0
+	 */
+	public DotProduct(EncryptedNumber zero) {
+		this.zero = zero;
+		this.context = zero.getContext();
+	}
+
+	public void add(EncryptedNumber ctext, int multiplier) {
+		if (multiplier == 0) {
+			return;
+		}
+		EncryptedNumber sum = buckets.get(multiplier);
+		buckets.put(multiplier, sum == null ? ctext : context.add(sum, ctext));
+	}
+
+	/**
+	 * @return zero plus the ciphertexts added times their multipliers
+	 */
+	public EncryptedNumber get() {
+		EncryptedNumber result = zero, prefix = null;
+		Iterator<Map.Entry<Integer, EncryptedNumber>> entries = buckets.entrySet().iterator();
+		Map.Entry<Integer, EncryptedNumber> entry = entries.hasNext() ? entries.next() : null;
+		while (entry != null) {
+			prefix = prefix == null ? entry.getValue() : context.add(prefix, entry.getValue());
+			long multiplier = entry.getKey();
+			entry = entries.hasNext() ? entries.next() : null;
+			long gap = multiplier - (entry == null ? 0 : entry.getKey());
+			result = context.add(result, gap == 1 ? prefix : context.multiply(prefix, context.encode(gap)));
+		}
+		return result;
+	}
+
+	public void clear() {
+		buckets.clear();
+	}
+
+}
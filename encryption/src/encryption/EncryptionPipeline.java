@@ -0,0 +1,168 @@
+package encryption;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Encrypts the lines of a file on every core.
+ *
+ * The file is read with a FileChannel in chunks of whole lines, and each chunk is encrypted line
+ * by line by a task of a work stealing pool, with the encryptors of the worker thread. The
+ * encrypted chunks are written in the order of the file through a direct buffer, and at most a
+ * few chunks per thread are in memory at once, so files of any size can be encrypted.
+ *
+ * Lines end with \n or \r\n and every line of the output ends with \n, as with readLine and
+ * write(line + "\n").
+ */
+public class EncryptionPipeline {
+
+	// input bytes per task
+	private static final int CHUNK = 1 << 18;
+	private static final int OUT_BUFFER = 1 << 22;
+
+	private final Encryptors encryptors;
+	private final ForkJoinPool pool;
+
+	/**
+	 * A pipeline with a thread per core
+	 */
+	public EncryptionPipeline(Encryptors encryptors) {
+		this(encryptors, Runtime.getRuntime().availableProcessors());
+	}
+
+	public EncryptionPipeline(Encryptors encryptors, int threads) {
+		this.encryptors = encryptors;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	public Encryptors getEncryptors() {
+		return encryptors;
+	}
+
+	/**
+	 * Encrypts every line of in with the line column and writes the lines to out, in the same
+	 * order
+	 */
+	public void encrypt(File in, File out, Column line) throws IOException {
+		try (FileChannel input = FileChannel.open(in.toPath(), StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(out.toPath(), StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(OUT_BUFFER);
+			ArrayDeque<ForkJoinTask<byte[]>> tasks = new ArrayDeque<ForkJoinTask<byte[]>>();
+			int maxTasks = 2 * pool.getParallelism() + 1;
+
+			byte[] chunk = new byte[CHUNK];
+			int length = 0;
+			while (true) {
+				int read = input.read(ByteBuffer.wrap(chunk, length, chunk.length - length));
+				if (read < 0) {
+					break;
+				}
+				length += read;
+				int end = length;
+				while (end > 0 && chunk[end - 1] != '\n') {
+					end--;
+				}
+				if (end == 0) {
+					// no whole line yet
+					if (length == chunk.length) {
+						chunk = Arrays.copyOf(chunk, 2 * chunk.length);
+					}
+					continue;
+				}
+
+				if (tasks.size() == maxTasks) {
+					write(tasks.poll().join(), buffer, output);
+				}
+				tasks.add(pool.submit(new Chunk(chunk, end, line)));
+
+				byte[] next = new byte[Math.max(CHUNK, 2 * (length - end))];
+				System.arraycopy(chunk, end, next, 0, length - end);
+				chunk = next;
+				length -= end;
+			}
+			if (length > 0) {
+				// the last line without \n
+				tasks.add(pool.submit(new Chunk(chunk, length, line)));
+			}
+
+			while (!tasks.isEmpty()) {
+				write(tasks.poll().join(), buffer, output);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Stops the threads of the pipeline
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static void write(byte[] bytes, ByteBuffer buffer, FileChannel output) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					output.write(buffer);
+				}
+				buffer.clear();
+			}
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	/*
+	 * The encrypted lines of the first length bytes of a chunk
+	 */
+	private class Chunk extends RecursiveTask<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] bytes;
+		private final int length;
+		private final Column line;
+
+		Chunk(byte[] bytes, int length, Column line) {
+			this.bytes = bytes;
+			this.length = length;
+			this.line = line;
+		}
+
+		@Override
+		protected byte[] compute() {
+			String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			StringBuilder out = new StringBuilder(2 * text.length());
+			int start = 0;
+			while (start < text.length()) {
+				int newline = text.indexOf('\n', start);
+				int next = newline < 0 ? text.length() : newline + 1;
+				int end = newline < 0 ? text.length() : newline;
+				if (end > start && text.charAt(end - 1) == '\r') {
+					end--;
+				}
+				line.encrypt(text, start, end, encryptors, out);
+				out.append('\n');
+				start = next;
+			}
+			return out.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package encryption;
+
+import jope.CachedOPE;
+import jope.OPE;
+
+/**
+ * The AH, DET, RND and OPE encryptors of one dataset, for many threads.
+ *
+ * Every thread gets its own DETEncryptor and RNDEncryptor, with the same keys: the ciphers of
+ * an encryptor cannot be shared between threads, and DET has to give the same ciphertext for
+ * the same value on every thread. AHEncryptor and the OPE are thread safe and shared.
+ */
+public class Encryptors {
+
+	private final AHEncryptor ah;
+	private final DETEncryptor det;
+	private final RNDEncryptor rnd;
+	private final OPE ope;
+
+	private final ThreadLocal<DETEncryptor> dets = new ThreadLocal<DETEncryptor>() {
+		protected DETEncryptor initialValue() {
+			return new DETEncryptor(det);
+		}
+	};
+
+	private final ThreadLocal<RNDEncryptor> rnds = new ThreadLocal<RNDEncryptor>() {
+		protected RNDEncryptor initialValue() {
+			return new RNDEncryptor(rnd);
+		}
+	};
+
+	/**
+	 * New keys, the Paillier keys are written to outputDir as AHEncryptor does
+	 */
+	public Encryptors(String outputDir) {
+		this(new AHEncryptor(outputDir), new DETEncryptor(), new RNDEncryptor(), new CachedOPE());
+	}
+
+	public Encryptors(AHEncryptor ah, DETEncryptor det, RNDEncryptor rnd, OPE ope) {
+		this.ah = ah;
+		this.det = det;
+		this.rnd = rnd;
+		this.ope = ope;
+	}
+
+	public AHEncryptor ah() {
+		return ah;
+	}
+
+	/**
+	 * @return the DETEncryptor of the calling thread
+	 */
+	public DETEncryptor det() {
+		return dets.get();
+	}
+
+	/**
+	 * @return the RNDEncryptor of the calling thread
+	 */
+	public RNDEncryptor rnd() {
+		return rnds.get();
+	}
+
+	public OPE ope() {
+		return ope;
+	}
+
+	/**
+	 * Stops the background threads of the encryptors, see AHEncryptor.close
+	 */
+	public void close() {
+		ah.close();
+	}
+
+}
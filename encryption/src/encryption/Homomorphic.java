@@ -2,22 +2,23 @@ package encryption;
 
 import java.math.BigInteger;
 
-import thep.paillier.EncryptedInteger;
+import thep.paillier.PaillierEngine;
 import thep.paillier.PrivateKey;
 import thep.paillier.PublicKey;
-import thep.paillier.exceptions.BigIntegerClassNotValid;
 
+/**
+ * Paillier encryption with one key for the whole program. The key and the
+ * engine never change, so encrypt, decrypt and the operations of
+ * Computation can be called from many threads at the same time.
+ */
 public class Homomorphic implements Encryption {
 
 	private static final PrivateKey priv = new PrivateKey(54);
 	private static final PublicKey pub = priv.getPublicKey();
-	public static EncryptedInteger ei;
-	static {
-		try {
-			ei = new EncryptedInteger(pub);
-		} catch (BigIntegerClassNotValid e) {
-			e.printStackTrace();
-		}
+	private static final PaillierEngine engine = new PaillierEngine(priv);
+	
+	static PaillierEngine getEngine() {
+		return engine;
 	}
 	
 	public String getPubKeyString() {
@@ -34,29 +35,13 @@ public class Homomorphic implements Encryption {
 		
 	@Override
 	public BigInteger encrypt(int ptext) {
-		try {
-			ei.set(BigInteger.valueOf(Math.abs(ptext)));
-			if (ptext < 0) {
-				ei.set(BigInteger.valueOf(-ptext));
-				ei = ei.multiply(new BigInteger("-1"));
-			} else {
-				ei.set(BigInteger.valueOf(ptext));
-			}
-		} catch (BigIntegerClassNotValid e1) {
-			e1.printStackTrace();
-		}
-		return ei.getCipherVal();
+		// A negative value is encrypted as n - |ptext|
+		return engine.encrypt(BigInteger.valueOf(ptext));
 	}
 	
 	@Override
 	public Object decrypt(Object ctext) {
-		ei.setCipherVal((BigInteger) ctext);
-		BigInteger ptext = null;
-		try {
-			ptext = ei.decrypt(priv);
-		} catch (BigIntegerClassNotValid e) {
-			e.printStackTrace();
-		}
+		BigInteger ptext = engine.decrypt((BigInteger) ctext);
 		if (ptext.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
 			ptext = ptext.subtract(pub.getN());
 		}
@@ -0,0 +1,72 @@
+package encryption;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.n1analytics.paillier.PaillierContext;
+import com.n1analytics.paillier.PaillierPublicKey;
+
+import encryptUtil.EncryptUtil;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+
+/**
+ * Adds the AHSums of a key on the map side, so that a map task sends one partial aggregate per
+ * key instead of one per row. The reducer must add its values with AHSums.sum or AHSums.add and
+ * take the number of rows from the count, not from the number of values, as Hadoop runs a
+ * combiner any number of times, including none.
+ *
+ * The Paillier modulus is read from the "pubKey" property of the job, like the reducers.
+ */
+public class HomomorphicSumCombiner<K> extends MapReduceBase implements Reducer<K, AHSums, K, AHSums> {
+
+	public static final String PUBLIC_KEY_PROPERTY = "pubKey";
+
+	private PaillierContext context;
+
+	@Override
+	public void configure(JobConf job) {
+		String pubKey = job.get(PUBLIC_KEY_PROPERTY);
+		context = new PaillierPublicKey(new BigInteger(pubKey)).createSignedContext();
+	}
+
+	@Override
+	public void reduce(K key, Iterator<AHSums> values, OutputCollector<K, AHSums> output, Reporter reporter)
+			throws IOException {
+		output.collect(key, AHSums.sum(values, context));
+	}
+
+	/**
+	 * The combiner of the jobs generated by the JCrypt transformation, whose values are the AH
+	 * ciphertexts of EncryptUtil in a Text: set by TransformerTransformer when the reducer only
+	 * adds up its values. Empty values are skipped, and the sum of only empty ones is empty.
+	 */
+	public static class TextCombiner<K> extends MapReduceBase implements Reducer<K, Text, K, Text> {
+
+		@Override
+		public void reduce(K key, Iterator<Text> values, OutputCollector<K, Text> output, Reporter reporter)
+				throws IOException {
+			String sum = null;
+			while (values.hasNext()) {
+				String ctext = values.next().toString();
+				if (ctext.isEmpty()) {
+					continue;
+				}
+				try {
+					sum = sum == null ? ctext : EncryptUtil.add(sum, ctext);
+				} catch (BigIntegerClassNotValid e) {
+					throw new IOException(e);
+				}
+			}
+			output.collect(key, new Text(sum == null ? "" : sum));
+		}
+	}
+
+}
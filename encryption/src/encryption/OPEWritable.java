@@ -0,0 +1,317 @@
+package encryption;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * An OPE ciphertext, or the ciphertexts of the characters of a string, in a binary form whose
+ * bytes sort in the order of the plaintexts.
+ *
+ * Each value is a header byte followed by its magnitude, big endian: 0x80 for 0, 0x80 + n for
+ * a positive value of n bytes, and 0x80 - n for a negative value of n bytes, with the bytes of
+ * the magnitude inverted. A 0 byte ends the values, so a string sorts before the strings it is
+ * a prefix of. The Comparator sorts the shuffle on the serialized bytes without reading any
+ * BigInteger.
+ *
+ * toString() gives the text of OrderPreserving and jope: the decimal value, or the values each
+ * followed by a space for a string.
+ */
+public class OPEWritable implements WritableComparable<OPEWritable> {
+
+	private static final int ZERO = 0x80;
+
+	private byte[] bytes = new byte[] { 0 };
+	private int length = 1;
+	private boolean string;
+
+	public OPEWritable() {
+	}
+
+	public OPEWritable(BigInteger ctext) {
+		set(ctext);
+	}
+
+	/**
+	 * @param ctext
+	 *            a decimal ciphertext, or the ciphertexts of a string separated by spaces
+	 */
+	public OPEWritable(String ctext) {
+		set(ctext);
+	}
+
+	public void set(BigInteger ctext) {
+		set(new BigInteger[] { ctext }, false);
+	}
+
+	public void set(String ctext) {
+		String trimmed = ctext.trim();
+		if (trimmed.isEmpty()) {
+			set(new BigInteger[0], ctext.indexOf(' ') >= 0);
+			return;
+		}
+		String[] values = trimmed.split(" +");
+		BigInteger[] ctexts = new BigInteger[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ctexts[i] = new BigInteger(values[i]);
+		}
+		set(ctexts, ctext.indexOf(' ') >= 0);
+	}
+
+	/**
+	 * @param string
+	 *            whether the values are the characters of a string
+	 */
+	public void set(BigInteger[] ctexts, boolean string) {
+		int size = 1;
+		byte[][] magnitudes = new byte[ctexts.length][];
+		for (int i = 0; i < ctexts.length; i++) {
+			magnitudes[i] = magnitude(ctexts[i]);
+			size += 1 + magnitudes[i].length;
+		}
+		byte[] encoded = new byte[size];
+		int pos = 0;
+		for (int i = 0; i < ctexts.length; i++) {
+			byte[] m = magnitudes[i];
+			if (m.length > 127) {
+				throw new IllegalArgumentException("OPE ciphertext too large: " + ctexts[i]);
+			}
+			boolean negative = ctexts[i].signum() < 0;
+			encoded[pos++] = (byte) (negative ? ZERO - m.length : ZERO + m.length);
+			for (byte b : m) {
+				encoded[pos++] = negative ? (byte) ~b : b;
+			}
+		}
+		encoded[pos] = 0;
+		this.bytes = encoded;
+		this.length = size;
+		this.string = string;
+	}
+
+	/**
+	 * Copies other, for example a value that the iterator of a reducer will reuse
+	 */
+	public void set(OPEWritable other) {
+		this.bytes = Arrays.copyOf(other.bytes, other.length);
+		this.length = other.length;
+		this.string = other.string;
+	}
+
+	/**
+	 * @return the first value, the ciphertext of a number
+	 */
+	public BigInteger get() {
+		return value(0);
+	}
+
+	/**
+	 * @return all the values, the ciphertexts of the characters of a string
+	 */
+	public BigInteger[] getValues() {
+		List<BigInteger> values = new ArrayList<BigInteger>();
+		int pos = 0;
+		while (bytes[pos] != 0) {
+			values.add(value(pos));
+			pos += 1 + Math.abs((bytes[pos] & 0xff) - ZERO);
+		}
+		return values.toArray(new BigInteger[values.size()]);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		// the flag is in the sign of the length, the order only depends on the values
+		WritableUtils.writeVInt(out, string ? -length : length);
+		out.write(bytes, 0, length);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int n = WritableUtils.readVInt(in);
+		string = n < 0;
+		n = Math.abs(n);
+		if (bytes.length < n) {
+			bytes = new byte[n];
+		}
+		in.readFully(bytes, 0, n);
+		length = n;
+	}
+
+	@Override
+	public int compareTo(OPEWritable o) {
+		return WritableComparator.compareBytes(bytes, 0, length, o.bytes, 0, o.length);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof OPEWritable && compareTo((OPEWritable) o) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return WritableComparator.hashBytes(bytes, length);
+	}
+
+	@Override
+	public String toString() {
+		BigInteger[] values = getValues();
+		if (!string) {
+			return values.length == 0 ? "" : values[0].toString();
+		}
+		StringBuilder sb = new StringBuilder();
+		for (BigInteger v : values) {
+			sb.append(v).append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Compares OPE ciphertexts in decimal, numbers or strings, in the order of their
+	 * plaintexts without parsing them
+	 */
+	public static int compare(CharSequence s1, CharSequence s2) {
+		return compare(s1, 0, s1.length(), s2, 0, s2.length());
+	}
+
+	private static int compare(CharSequence s1, int p1, int end1, CharSequence s2, int p2, int end2) {
+		while (true) {
+			while (p1 < end1 && s1.charAt(p1) == ' ')
+				p1++;
+			while (p2 < end2 && s2.charAt(p2) == ' ')
+				p2++;
+			if (p1 == end1 || p2 == end2) {
+				return (p1 == end1 ? 0 : 1) - (p2 == end2 ? 0 : 1);
+			}
+			int e1 = p1, e2 = p2;
+			while (e1 < end1 && s1.charAt(e1) != ' ')
+				e1++;
+			while (e2 < end2 && s2.charAt(e2) != ' ')
+				e2++;
+			int c = compareNumber(s1, p1, e1, s2, p2, e2);
+			if (c != 0) {
+				return c;
+			}
+			p1 = e1;
+			p2 = e2;
+		}
+	}
+
+	/*
+	 * Compares two decimal numbers without leading zeros
+	 */
+	private static int compareNumber(CharSequence s1, int p1, int e1, CharSequence s2, int p2, int e2) {
+		boolean neg1 = s1.charAt(p1) == '-', neg2 = s2.charAt(p2) == '-';
+		if (neg1 != neg2) {
+			return neg1 ? -1 : 1;
+		}
+		int c = Integer.compare(e1 - p1, e2 - p2);
+		for (int i = 0; c == 0 && i < e1 - p1; i++) {
+			c = Character.compare(s1.charAt(p1 + i), s2.charAt(p2 + i));
+		}
+		c = Integer.signum(c);
+		return neg1 ? -c : c;
+	}
+
+	private BigInteger value(int pos) {
+		int header = bytes[pos] & 0xff;
+		if (header == 0) {
+			throw new IllegalStateException("No value");
+		}
+		boolean negative = header < ZERO;
+		byte[] m = Arrays.copyOfRange(bytes, pos + 1, pos + 1 + Math.abs(header - ZERO));
+		if (negative) {
+			for (int i = 0; i < m.length; i++) {
+				m[i] = (byte) ~m[i];
+			}
+		}
+		BigInteger v = new BigInteger(1, m);
+		return negative ? v.negate() : v;
+	}
+
+	private static byte[] magnitude(BigInteger v) {
+		byte[] m = v.abs().toByteArray();
+		int zeros = 0;
+		while (zeros < m.length && m[zeros] == 0) {
+			zeros++;
+		}
+		return Arrays.copyOfRange(m, zeros, m.length);
+	}
+
+	/**
+	 * Compares serialized OPEWritables without reading them
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(OPEWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+			int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+			return compareBytes(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+		}
+	}
+
+	/**
+	 * Sorts OPE ciphertexts kept in decimal in a Text in the order of their plaintexts, on the
+	 * serialized bytes, for the jobs whose keys are still Text. Text itself sorts "9" after
+	 * "10".
+	 */
+	public static class TextComparator extends WritableComparator {
+
+		public TextComparator() {
+			super(Text.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+			int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+			// the digits, '-' and ' ' are single bytes in UTF-8
+			return OPEWritable.compare(new Ascii(b1, s1 + n1, s1 + l1), 0, l1 - n1,
+					new Ascii(b2, s2 + n2, s2 + l2), 0, l2 - n2);
+		}
+	}
+
+	/*
+	 * ASCII bytes as characters, without a copy
+	 */
+	private static class Ascii implements CharSequence {
+
+		private final byte[] b;
+		private final int start, end;
+
+		Ascii(byte[] b, int start, int end) {
+			this.b = b;
+			this.start = start;
+			this.end = end;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(int index) {
+			return (char) b[start + index];
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			return new Ascii(b, start + from, start + to);
+		}
+	}
+
+	static {
+		WritableComparator.define(OPEWritable.class, new Comparator());
+	}
+
+}
@@ -1,68 +1,52 @@
 package encryption;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.math.BigInteger;
 
+import jope.CachedOPE;
+import jope.ValueRange;
+
+/**
+ * OPE in the JVM with jope, compatible with the python scripts in lib
+ * (ope_encrypt.py, ope_encrypt_String.py and ope_decrypt.py): same key, same
+ * ranges and the same ciphertexts. The splits of the tree and the last
+ * ciphertexts are cached.
+ */
 public class OrderPreserving implements Encryption {
 
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+	private static final CachedOPE ope = new CachedOPE("key goes here" + "key goes here",
+			new ValueRange(TWO.pow(31).negate(), TWO.pow(31).subtract(BigInteger.ONE)),
+			new ValueRange(TWO.pow(53).negate(), TWO.pow(53).subtract(BigInteger.ONE)), true,
+			CachedOPE.DEFAULT_SPLITS, CachedOPE.DEFAULT_RESULTS);
+
 	@Override
 	public Object decrypt(Object ctext) {
-		ArrayList<String> array = new ArrayList<>();
-		try {
-			ProcessBuilder pb = new ProcessBuilder("python", "lib/ope_decrypt.py", ctext.toString());
-			Process p = pb.start();
-
-			BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-			String s;
-			while ((s = in.readLine()) != null) {
-				array.add(s);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		String s = ctext.toString();
+		if (s.indexOf(' ') < 0) {
+			return ope.decrypt(new BigInteger(s.trim())).intValue();
 		}
-		if (array.size() == 1) {
-			return Integer.parseInt(array.get(0));
-		} else {
-			char[] charArray = new char[array.size()-1];
-			for (int i = 0; i < array.size() - 1; i++) {
-				charArray[i] = (char) Integer.parseInt(array.get(i));
-			}
-			return new String(charArray);
+		// A string, one ciphertext per character
+		String[] ctexts = s.trim().split(" +");
+		char[] charArray = new char[ctexts.length];
+		for (int i = 0; i < ctexts.length; i++) {
+			charArray[i] = (char) ope.decrypt(new BigInteger(ctexts[i])).intValue();
 		}
+		return new String(charArray);
 	}
 
 	@Override
 	public String encrypt(String ptext) {
-		String res = "";
-		try {
-			ProcessBuilder pb = new ProcessBuilder("python", "lib/ope_encrypt_String.py", ptext);
-			Process p = pb.start();
-
-			BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-			String s;
-			while ((s = in.readLine()) != null) {
-				res += s + " ";
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		// Each character followed by a space
+		StringBuilder res = new StringBuilder();
+		for (int i = 0; i < ptext.length(); i++) {
+			res.append(ope.encrypt(BigInteger.valueOf(ptext.charAt(i)))).append(' ');
 		}
-		return res;
+		return res.toString();
 	}
 
 	@Override
 	public String encrypt(int ptext) {
-		String s = null;
-		try {
-			ProcessBuilder pb = new ProcessBuilder("python", "lib/ope_encrypt.py", "" + ptext);
-			Process p = pb.start();
-
-			BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-			s = in.readLine();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return s;
+		return ope.encrypt(BigInteger.valueOf(ptext)).toString();
 	}
 
 	@Override
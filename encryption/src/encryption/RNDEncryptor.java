@@ -28,6 +28,21 @@ public class RNDEncryptor {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * An encryptor with the keys of other and its own ciphers, for another thread:
+	 * Cipher objects cannot be shared between threads
+	 */
+	public RNDEncryptor(RNDEncryptor other) {
+		try {
+			cipherAES = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+			cipherBF = Cipher.getInstance("Blowfish/CBC/PKCS5PADDING");
+			keyAES = other.keyAES;
+			keyBF = other.keyBF;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
 	
 	public String encrypt(String ptext) {
 		byte[] cipher = encrypt(ptext.getBytes(), cipherAES, keyAES);
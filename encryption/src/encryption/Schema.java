@@ -0,0 +1,98 @@
+package encryption;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import encryption.Scheme.Type;
+
+/**
+ * The columns of records with fields separated by a delimiter, for example
+ *
+ * <pre>
+ * new Schema('\001').add(Scheme.DET).add(3, Scheme.RND, Type.STRING).add(Scheme.RND, Type.INT)
+ * </pre>
+ *
+ * Field i is encrypted by column i, the fields after the last column by the rest column, or
+ * copied when there is none. The delimiters are kept, and a Schema is itself a Column, for
+ * fields made of fields with another delimiter.
+ *
+ * A record is encrypted in one pass over its text, without splitting it into strings first.
+ */
+public class Schema implements Column {
+
+	private static final Column COPY = new Column() {
+		public void encrypt(String text, int start, int end, Encryptors encryptors, StringBuilder out) {
+			out.append(text, start, end);
+		}
+	};
+
+	private final char delimiter;
+	private final List<Column> columns = new ArrayList<Column>();
+	private Column rest = COPY;
+
+	public Schema(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	public Schema add(Column column) {
+		columns.add(column);
+		return this;
+	}
+
+	/**
+	 * A column of strings
+	 */
+	public Schema add(Scheme scheme) {
+		return add(scheme, Type.STRING);
+	}
+
+	public Schema add(Scheme scheme, Type type) {
+		return add(scheme.column(type));
+	}
+
+	/**
+	 * count columns with the same scheme and type
+	 */
+	public Schema add(int count, Scheme scheme, Type type) {
+		Column column = scheme.column(type);
+		for (int i = 0; i < count; i++) {
+			add(column);
+		}
+		return this;
+	}
+
+	/**
+	 * The column of every field after the last column
+	 */
+	public Schema rest(Column column) {
+		rest = column;
+		return this;
+	}
+
+	@Override
+	public void encrypt(String text, int start, int end, Encryptors encryptors, StringBuilder out) {
+		int field = 0;
+		int from = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || text.charAt(i) == delimiter) {
+				Column column = field < columns.size() ? columns.get(field) : rest;
+				column.encrypt(text, from, i, encryptors, out);
+				if (i < end) {
+					out.append(delimiter);
+				}
+				field++;
+				from = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * Encrypts a whole record
+	 */
+	public String encrypt(String record, Encryptors encryptors) {
+		StringBuilder out = new StringBuilder();
+		encrypt(record, 0, record.length(), encryptors, out);
+		return out.toString();
+	}
+
+}
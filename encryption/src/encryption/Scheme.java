@@ -0,0 +1,98 @@
+package encryption;
+
+import java.math.BigInteger;
+
+/**
+ * The encryption of a column: left in the clear, DET, RND, AH or OPE
+ */
+public enum Scheme {
+
+	PLAIN, DET, RND, AH, OPE;
+
+	/**
+	 * The type a field is parsed to before it is encrypted, which chooses the encrypt method
+	 * of the encryptor, as in the Encryptor tools: DET and RND encrypt an int with Blowfish and
+	 * a String with AES, AH encodes an int and a double differently.
+	 */
+	public enum Type {
+		STRING, INT, LONG, FLOAT, DOUBLE
+	}
+
+	/**
+	 * The column of this scheme for fields of the given type
+	 *
+	 * @throws IllegalArgumentException
+	 *             for AH of a long, and OPE of a float or a double
+	 */
+	public Column column(final Type type) {
+		if ((this == AH && type == Type.LONG) || (this == OPE && (type == Type.FLOAT || type == Type.DOUBLE))) {
+			throw new IllegalArgumentException(this + " cannot encrypt a " + type);
+		}
+		return new Column() {
+			public void encrypt(String text, int start, int end, Encryptors encryptors, StringBuilder out) {
+				// empty fields stay empty
+				if (start < end) {
+					out.append(Scheme.this.encrypt(type, text.substring(start, end), encryptors));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Encrypts a field of the given type with this scheme
+	 */
+	public String encrypt(Type type, String field, Encryptors encryptors) {
+		switch (this) {
+		case PLAIN:
+			return field;
+		case DET:
+			DETEncryptor det = encryptors.det();
+			switch (type) {
+			case STRING:
+				return det.encrypt(field);
+			case INT:
+				return det.encrypt(Integer.parseInt(field));
+			case LONG:
+				return det.encrypt(Long.parseLong(field));
+			case FLOAT:
+				return det.encrypt(Float.parseFloat(field));
+			default:
+				return det.encrypt(Double.parseDouble(field));
+			}
+		case RND:
+			RNDEncryptor rnd = encryptors.rnd();
+			switch (type) {
+			case STRING:
+				return rnd.encrypt(field);
+			case INT:
+				return rnd.encrypt(Integer.parseInt(field));
+			case LONG:
+				return rnd.encrypt(Long.parseLong(field));
+			case FLOAT:
+				return rnd.encrypt(Float.parseFloat(field));
+			default:
+				return rnd.encrypt(Double.parseDouble(field));
+			}
+		case AH:
+			AHEncryptor ah = encryptors.ah();
+			switch (type) {
+			case STRING:
+				return ah.encrypt(field);
+			case INT:
+				return ah.encrypt(Integer.parseInt(field));
+			case FLOAT:
+				return ah.encrypt(Float.parseFloat(field));
+			case DOUBLE:
+				return ah.encrypt(Double.parseDouble(field));
+			default:
+				throw new IllegalArgumentException(this + " cannot encrypt a " + type);
+			}
+		default:
+			if (type == Type.FLOAT || type == Type.DOUBLE) {
+				throw new IllegalArgumentException(this + " cannot encrypt a " + type);
+			}
+			return encryptors.ope().encrypt(new BigInteger(field)).toString();
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package encryption;
+
+import java.math.BigInteger;
+
+import com.n1analytics.paillier.PaillierContext;
+
+/**
+ * Several small non-negative ints in one AH plaintext, each in a slot of a fixed number of
+ * bits, the first one in the lowest bits. Adding two packed ciphertexts adds all the slots at
+ * once, and decrypting the sum gives every slot sum, as long as no slot sum outgrows its bits:
+ * plan chooses slots wide enough for a declared maximum value and number of additions, and
+ * fits as many of them as the key allows.
+ *
+ * A packed ciphertext is as large as a single one, so a record and each addition cost 1/slots
+ * of a ciphertext per value.
+ */
+public class SlotPacking {
+
+	private final int bits, slots;
+	private final BigInteger mask;
+
+	/**
+	 * @param bits
+	 *            the bits of a slot, at most 63
+	 * @param slots
+	 *            the slots of a plaintext
+	 */
+	public SlotPacking(int bits, int slots) {
+		if (bits < 1 || bits > 63 || slots < 1) {
+			throw new IllegalArgumentException("Cannot pack " + slots + " slots of " + bits + " bits");
+		}
+		this.bits = bits;
+		this.slots = slots;
+		this.mask = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE);
+	}
+
+	/**
+	 * The packing of the most slots for sums of at most maxAdditions values, each at most
+	 * maxValue, in plaintexts up to maxPlaintext
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a single sum does not fit
+	 */
+	public static SlotPacking plan(BigInteger maxPlaintext, long maxValue, long maxAdditions) {
+		if (maxValue < 1 || maxAdditions < 1) {
+			throw new IllegalArgumentException("Cannot plan for " + maxAdditions + " values up to " + maxValue);
+		}
+		// the largest sum a slot has to hold
+		int bits = BigInteger.valueOf(maxValue).multiply(BigInteger.valueOf(maxAdditions)).bitLength();
+		// every packed plaintext is below 2^(bits * slots) <= maxPlaintext
+		int slots = (maxPlaintext.bitLength() - 1) / bits;
+		if (bits > 63 || slots == 0) {
+			throw new IllegalArgumentException("The sums of " + maxAdditions + " values up to " + maxValue
+					+ " do not fit in " + maxPlaintext.bitLength() + " bits");
+		}
+		return new SlotPacking(bits, slots);
+	}
+
+	/**
+	 * The packing for the AH ciphertexts of context, as AHEncryptor.plan
+	 */
+	public static SlotPacking plan(PaillierContext context, long maxValue, long maxAdditions) {
+		return plan(context.getMaxEncoded(), maxValue, maxAdditions);
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	/**
+	 * @param values
+	 *            at most getSlots() values, the missing ones are 0
+	 */
+	public BigInteger pack(long... values) {
+		if (values.length > slots) {
+			throw new IllegalArgumentException("Expected at most " + slots + " values, got " + values.length);
+		}
+		BigInteger packed = BigInteger.ZERO;
+		for (int i = values.length - 1; i >= 0; i--) {
+			if (values[i] < 0 || 64 - Long.numberOfLeadingZeros(values[i]) > bits) {
+				throw new IllegalArgumentException(values[i] + " does not fit in " + bits + " bits");
+			}
+			packed = packed.shiftLeft(bits).or(BigInteger.valueOf(values[i]));
+		}
+		return packed;
+	}
+
+	/**
+	 * @return the getSlots() slot values of a decrypted plaintext
+	 * @throws IllegalArgumentException
+	 *             if the last slot overflowed: more additions or larger values than planned
+	 */
+	public long[] unpack(BigInteger packed) {
+		if (packed.signum() < 0 || packed.bitLength() > bits * slots) {
+			throw new IllegalArgumentException("The plaintext " + packed + " overflows " + slots + " slots of "
+					+ bits + " bits");
+		}
+		long[] values = new long[slots];
+		for (int i = 0; i < slots; i++) {
+			values[i] = packed.shiftRight(bits * i).and(mask).longValue();
+		}
+		return values;
+	}
+
+	/**
+	 * @return the sum of the slots of a decrypted plaintext
+	 */
+	public long total(BigInteger packed) {
+		long total = 0;
+		for (long value : unpack(packed)) {
+			total += value;
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return slots + " slots of " + bits + " bits";
+	}
+
+}
@@ -0,0 +1,71 @@
+package test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import jope.CachedOPE;
+import jope.OPE;
+import jope.ValueRange;
+import junit.framework.TestCase;
+
+public class CachedOPETest extends TestCase {
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+	private static final String key = "key goes here" + "key goes here";
+	private static final ValueRange in = new ValueRange(TWO.pow(31).negate(), TWO.pow(31).subtract(BigInteger.ONE));
+	private static final ValueRange out = new ValueRange(TWO.pow(53).negate(), TWO.pow(53).subtract(BigInteger.ONE));
+
+	private Random rng = new Random(3);
+
+	/*
+	 * The cache does not change the ciphertexts
+	 */
+	public void testSameCiphertexts() {
+		OPE ope = new OPE(key, in, out, true);
+		CachedOPE cached = new CachedOPE(key, in, out, true, 1000, 10);
+		for (int i = 0; i < 200; i++) {
+			BigInteger p = BigInteger.valueOf(i % 3 == 0 ? rng.nextInt(10) : rng.nextInt());
+			BigInteger c = ope.encrypt(p);
+			assertEquals(c, cached.encrypt(p));
+			assertEquals(p, cached.decrypt(c));
+		}
+		assertEquals(1000, cached.splitCount());
+	}
+
+	/*
+	 * The default jope scheme, with and without the cache
+	 */
+	public void testJope() {
+		OPE ope = new OPE();
+		CachedOPE cached = new CachedOPE();
+		for (int i = 0; i < 50; i++) {
+			BigInteger p = BigInteger.valueOf(rng.nextInt(199999) - 99999);
+			assertEquals(ope.encrypt(p), cached.encrypt(p));
+			assertEquals(ope.encrypt(p), cached.encrypt(p));
+		}
+	}
+
+	/*
+	 * A sorted batch, with duplicates, gives the ciphertexts of one by one
+	 * encryption
+	 */
+	public void testBatch() {
+		OPE ope = new OPE(key, in, out, true);
+		BigInteger[] p = new BigInteger[100];
+		for (int i = 0; i < p.length; i++)
+			p[i] = BigInteger.valueOf(i % 4 == 0 ? rng.nextInt(5) : rng.nextInt());
+		Arrays.sort(p);
+		BigInteger[] c = new CachedOPE(key, in, out, true, 1 << 16, 0).encrypt(p);
+		assertEquals(p.length, c.length);
+		for (int i = 0; i < p.length; i++)
+			assertEquals(ope.encrypt(p[i]), c[i]);
+		assertEquals(0, ope.encrypt(new BigInteger[0]).length);
+		try {
+			ope.encrypt(new BigInteger[] { BigInteger.ONE, BigInteger.ZERO });
+			fail();
+		} catch (RuntimeException e) {
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package test;
+
+import java.math.BigInteger;
+
+import jope.Coins;
+import junit.framework.TestCase;
+
+public class CoinsTest extends TestCase {
+
+	/*
+	 * 64 coins from bit 0, 64, 448, 1984, 40000 and 100032 for key "key" and 12345, bit i at
+	 * 1 << i, printed by Coins before the keystream was generated in blocks
+	 */
+	private static final int[] positions = new int[] { 0, 64, 448, 1984, 40000, 100032 };
+	private static final long[] words = new long[] { 0x8bbc698f006fec8dL, 0xb96327433d15cc47L,
+			0x734de037638a6111L, 0x3f6d88f545867b58L, 0xb6416096fecd812eL, 0x260b1907ee9e59f6L };
+
+	public void testSameBits() {
+		Coins coins = new Coins("key", BigInteger.valueOf(12345));
+		int pos = 0;
+		for (int i = 0; i < positions.length; i++) {
+			for (; pos < positions[i]; pos++)
+				coins.next();
+			assertEquals(words[i], word(coins));
+			pos += 64;
+		}
+	}
+
+	/*
+	 * Coins used in turns on one thread, and on many threads, give their own bits
+	 */
+	public void testInterleaved() throws InterruptedException {
+		Coins c1 = new Coins("key", BigInteger.valueOf(12345));
+		Coins c2 = new Coins("other key", BigInteger.ONE);
+		for (int i = 0; i < 2000; i++)
+			c2.next();
+		assertEquals(words[0], word(c1));
+		assertEquals(words[1], word(c1));
+
+		final boolean[] ok = new boolean[4];
+		Thread[] threads = new Thread[ok.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 50; j++) {
+						Coins coins = new Coins("key", BigInteger.valueOf(12345));
+						if (word(coins) != words[0] || word(coins) != words[1])
+							return;
+					}
+					ok[id] = true;
+				}
+			});
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			assertTrue(ok[t]);
+		}
+	}
+
+	private static long word(Coins coins) {
+		long w = 0;
+		for (int i = 0; i < 64; i++)
+			if (coins.next())
+				w |= 1L << i;
+		return w;
+	}
+
+}
@@ -0,0 +1,232 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+import com.n1analytics.paillier.PaillierPublicKey;
+
+import encryption.AHDecryptor;
+import encryption.AHEncryptor;
+import encryption.AHWritable;
+import encryption.DecryptionBatch;
+import encryption.DecryptionClient;
+import encryption.DecryptionPipeline;
+import encryption.DecryptionServer;
+import encryption.Util;
+import junit.framework.TestCase;
+
+public class DecryptionServerTest extends TestCase {
+
+	private File dir;
+	private AHEncryptor ah;
+	private PaillierContext context;
+	private Thread server;
+	private int port;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("keys").toFile();
+		ah = new AHEncryptor(dir.getPath());
+		String modulus = Files.readAllLines(new File(dir, "key.pub").toPath()).get(0);
+		context = new PaillierPublicKey(new BigInteger(modulus)).createSignedContext();
+		final AHDecryptor decryptor = new AHDecryptor(dir.getPath() + "/key.priv");
+		try (ServerSocket free = new ServerSocket(0)) {
+			port = free.getLocalPort();
+		}
+		// the sum of the plaintexts and the ints of a record
+		final DecryptionServer.Handler sum = (plaintexts, ints, out) -> {
+			long s = 0;
+			for (int i = 0; i < plaintexts.length; i++)
+				s += plaintexts[i].decodeLong();
+			for (int i : ints)
+				s += i;
+			out.writeLong(s);
+		};
+		server = new Thread(() -> {
+			try {
+				new DecryptionServer(decryptor, sum, 4).serve(port);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		server.setDaemon(true);
+		server.start();
+		Thread.sleep(200);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.interrupt();
+		server.join(5000);
+		ah.close();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	/*
+	 * Several batches in flight on a connection, replied to in order
+	 */
+	public void testBatches() throws IOException {
+		try (DecryptionClient client = new DecryptionClient("localhost", port)) {
+			for (int b = 0; b < 5; b++) {
+				client.send(batch(b, 10 * b + 1));
+			}
+			for (int b = 0; b < 5; b++) {
+				check(client.receive(), b, 10 * b + 1);
+			}
+		}
+	}
+
+	public void testEmptyBatch() throws IOException {
+		try (DecryptionClient client = new DecryptionClient("localhost", port)) {
+			DataInputStream in = client.call(new DecryptionBatch(2, 1));
+			assertEquals(-1, in.read());
+		}
+	}
+
+	public void testClients() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int c = 0; c < 8; c++) {
+			final int first = 100 * c;
+			results.add(executor.submit(() -> {
+				try (DecryptionClient client = new DecryptionClient("localhost", port)) {
+					check(client.call(batch(first, 20)), first, 20);
+					check(client.call(batch(first + 1, 3)), first + 1, 3);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		executor.shutdown();
+	}
+
+	/*
+	 * Replies given in the order of the records, some before the end
+	 */
+	public void testPipeline() throws IOException {
+		final List<Integer> received = new ArrayList<Integer>();
+		DecryptionPipeline.Receiver<Integer> receiver = (Integer value, DataInput in) -> {
+			assertEquals(2 * value, in.readLong());
+			received.add(value);
+		};
+		int beforeClose;
+		try (DecryptionPipeline<Integer> pipeline = new DecryptionPipeline<Integer>("localhost", port, 2, 1, 7, 2,
+				receiver)) {
+			for (int i = 0; i < 200; i++) {
+				pipeline.add(i, new EncryptedNumber[] { encrypt(i), encrypt(-i) }, 2 * i);
+			}
+			beforeClose = received.size();
+		}
+		assertTrue(beforeClose >= 200 - 7 * 3);
+		assertEquals(200, received.size());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, (int) received.get(i));
+		}
+	}
+
+	public void testPipelineFlush() throws IOException {
+		final List<Integer> received = new ArrayList<Integer>();
+		try (DecryptionPipeline<Integer> pipeline = new DecryptionPipeline<Integer>("localhost", port, 2, 1,
+				(Integer value, DataInput in) -> received.add((int) in.readLong()))) {
+			pipeline.add(3, new EncryptedNumber[] { encrypt(3), encrypt(4) }, 5);
+			assertTrue(received.isEmpty());
+			pipeline.flush();
+			assertEquals(1, received.size());
+			assertEquals(12, (int) received.get(0));
+			pipeline.flush();
+		}
+		assertEquals(1, received.size());
+	}
+
+	/*
+	 * A server gone in the middle of a batch: add and close fail instead of waiting for ever
+	 */
+	public void testBrokenConnection() throws Exception {
+		try (final ServerSocket broken = new ServerSocket(0)) {
+			Thread server = new Thread(() -> {
+				try (Socket socket = broken.accept()) {
+					socket.getInputStream().read(new byte[4]);
+				} catch (IOException e) {
+				}
+			});
+			server.start();
+			final DecryptionPipeline<Integer> pipeline = new DecryptionPipeline<Integer>("localhost",
+					broken.getLocalPort(), 2, 1, 2, 4, (Integer value, DataInput in) -> fail());
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			Future<Integer> failures = executor.submit(() -> {
+				int failed = 0;
+				try {
+					for (int i = 0; i < 2; i++) {
+						pipeline.add(i, new EncryptedNumber[] { encrypt(i), encrypt(i) }, i);
+					}
+					server.join();
+					for (int i = 0; i < 100; i++) {
+						Thread.sleep(20);
+						pipeline.add(i, new EncryptedNumber[] { encrypt(i), encrypt(i) }, i);
+					}
+				} catch (IOException e) {
+					failed++;
+				}
+				try {
+					pipeline.close();
+				} catch (IOException e) {
+					failed++;
+				}
+				return failed;
+			});
+			assertEquals(2, (int) failures.get(30, TimeUnit.SECONDS));
+			executor.shutdown();
+		}
+	}
+
+	public void testBadRecord() throws IOException {
+		DecryptionBatch batch = new DecryptionBatch(2, 1);
+		try {
+			batch.add(new AHWritable[] { new AHWritable(ah.encrypt(1)) }, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(0, batch.size());
+	}
+
+	/*
+	 * Records i of first + i and -i, and the int 2i
+	 */
+	private DecryptionBatch batch(int first, int size) throws IOException {
+		DecryptionBatch batch = new DecryptionBatch(2, 1);
+		for (int i = 0; i < size; i++) {
+			batch.add(new AHWritable[] { new AHWritable(ah.encrypt(first + i)), new AHWritable(ah.encrypt(-i)) }, 2 * i);
+		}
+		return batch;
+	}
+
+	private EncryptedNumber encrypt(int ptext) {
+		return Util.getAHCipher(ah.encrypt(ptext), context);
+	}
+
+	private static void check(DataInputStream in, int first, int size) throws IOException {
+		for (int i = 0; i < size; i++) {
+			assertEquals(first + 2 * i, in.readLong());
+		}
+		assertEquals(-1, in.read());
+	}
+
+}
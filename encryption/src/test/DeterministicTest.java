@@ -0,0 +1,112 @@
+package test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import encryption.Deterministic;
+import junit.framework.TestCase;
+
+public class DeterministicTest extends TestCase {
+
+	private static final String[] strings = new String[] { "", "a", "abcdefghijklmno", "abcdefghijklmnop",
+			"http://www.example.com/index.html?q=encrypted", "\u00e9\u4e2d\u6587" };
+
+	private Deterministic det = new Deterministic();
+	private Random rng = new Random(18);
+
+	public void testDeterministic() {
+		assertTrue(Arrays.equals(det.encrypt(42L), det.encrypt(42L)));
+		assertTrue(Arrays.equals(det.encrypt(42L), (byte[]) det.encrypt(42)));
+		assertFalse(Arrays.equals(det.encrypt(42L), det.encrypt(43L)));
+		assertTrue(Arrays.equals(det.encrypt("url"), det.encrypt("url")));
+		assertFalse(Arrays.equals(det.encrypt("url"), det.encrypt("urm")));
+	}
+
+	/*
+	 * Ciphertexts decrypt by themselves: copies, Base64 and other instances with the same key
+	 */
+	public void testDecrypt() {
+		long[] longs = new long[] { 0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE, rng.nextLong() };
+		Deterministic other = new Deterministic(det.getKey());
+		for (long l : longs) {
+			byte[] c = det.encrypt(l);
+			assertEquals(l, det.decrypt(c.clone()));
+			assertEquals(l, det.decrypt(Base64.getEncoder().encodeToString(c)));
+			assertEquals(l, other.decrypt(c));
+			assertTrue(Arrays.equals(c, other.encrypt(l)));
+		}
+		for (String s : strings) {
+			byte[] c = det.encrypt(s);
+			assertEquals(s, det.decrypt(c.clone()));
+			assertEquals(s, other.decrypt(Base64.getEncoder().encodeToString(c)));
+		}
+	}
+
+	/*
+	 * Another key, or a changed byte, does not decrypt
+	 */
+	public void testInvalid() {
+		byte[] key = new byte[32];
+		rng.nextBytes(key);
+		Deterministic other = new Deterministic(key);
+		byte[] c = det.encrypt("secret");
+		assertFalse(Arrays.equals(c, other.encrypt("secret")));
+		try {
+			other.decrypt(c);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		for (int i = 0; i < c.length; i++) {
+			byte[] changed = c.clone();
+			changed[i] ^= 1;
+			try {
+				det.decrypt(changed);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	public void testBatch() {
+		long[] longs = new long[1000];
+		for (int i = 0; i < longs.length; i++)
+			longs[i] = rng.nextInt(100);
+		byte[][] c = det.encrypt(longs);
+		for (int i = 0; i < longs.length; i++) {
+			assertTrue(Arrays.equals(det.encrypt(longs[i]), c[i]));
+			assertEquals(longs[i], det.decrypt(c[i]));
+		}
+
+		c = det.encrypt(strings);
+		for (int i = 0; i < strings.length; i++) {
+			assertTrue(Arrays.equals(det.encrypt(strings[i]), c[i]));
+		}
+		assertEquals(0, det.encrypt(new long[0]).length);
+	}
+
+	public void testThreads() throws InterruptedException {
+		final byte[] expected = det.encrypt(123456789L);
+		final boolean[] ok = new boolean[4];
+		Thread[] threads = new Thread[ok.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						if (!Arrays.equals(expected, det.encrypt(123456789L))
+								|| !det.decrypt(det.encrypt("t" + i)).equals("t" + i))
+							return;
+					}
+					ok[id] = true;
+				}
+			});
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			assertTrue(ok[t]);
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package test;
+
+import java.util.Random;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+import com.n1analytics.paillier.PaillierPrivateKey;
+
+import encryption.DotProduct;
+import junit.framework.TestCase;
+
+public class DotProductTest extends TestCase {
+
+	private PaillierPrivateKey key = PaillierPrivateKey.create(256);
+	private PaillierContext context = key.getPublicKey().createSignedContext();
+	private Random rng = new Random(23);
+
+	/*
+	 * The same sum as a multiplication and an addition per value
+	 */
+	public void testRatings() {
+		EncryptedNumber zero = context.encrypt(0);
+		DotProduct dot = new DotProduct(zero);
+		for (int round = 0; round < 3; round++) {
+			dot.clear();
+			EncryptedNumber expected = zero;
+			long sum = 0;
+			for (int i = 0; i < 50; i++) {
+				int value = rng.nextInt(10), rating = 1 + rng.nextInt(5);
+				EncryptedNumber c = context.encrypt(value);
+				dot.add(c, rating);
+				expected = context.add(expected, context.multiply(c, context.encode(rating)));
+				sum += value * rating;
+			}
+			EncryptedNumber result = dot.get();
+			assertEquals(expected.decrypt(key).decodeLong(), result.decrypt(key).decodeLong());
+			assertEquals(sum, result.decrypt(key).decodeLong());
+		}
+	}
+
+	public void testMultipliers() {
+		DotProduct dot = new DotProduct(context.encrypt(0));
+		int[] multipliers = new int[] { 0, -3, 1000, 7, 7, -1, 2 };
+		long sum = 0;
+		for (int m : multipliers) {
+			int value = rng.nextInt(100) - 50;
+			dot.add(context.encrypt(value), m);
+			sum += (long) value * m;
+		}
+		assertEquals(sum, dot.get().decrypt(key).decodeLong());
+	}
+
+	public void testEmpty() {
+		EncryptedNumber zero = context.encrypt(0);
+		DotProduct dot = new DotProduct(zero);
+		assertSame(zero, dot.get());
+		dot.add(context.encrypt(5), 0);
+		assertSame(zero, dot.get());
+	}
+
+}
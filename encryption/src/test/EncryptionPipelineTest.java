@@ -0,0 +1,116 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import encryption.AHEncryptor;
+import encryption.Column;
+import encryption.DETEncryptor;
+import encryption.EncryptionPipeline;
+import encryption.Encryptors;
+import encryption.RNDEncryptor;
+import encryption.Schema;
+import encryption.Scheme;
+import encryption.Scheme.Type;
+import jope.CachedOPE;
+import junit.framework.TestCase;
+
+public class EncryptionPipelineTest extends TestCase {
+
+	private File dir;
+	private Encryptors encryptors;
+	private EncryptionPipeline pipeline;
+
+	protected void setUp() throws IOException {
+		dir = Files.createTempDirectory("pipeline").toFile();
+		encryptors = new Encryptors(new AHEncryptor(dir.getPath()), new DETEncryptor(), new RNDEncryptor(),
+				new CachedOPE());
+		pipeline = new EncryptionPipeline(encryptors, 4);
+	}
+
+	protected void tearDown() {
+		pipeline.shutdown();
+		encryptors.close();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	/*
+	 * Lines in order, DET the same on every thread, OPE and empty fields
+	 */
+	public void testSchema() throws IOException {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			input.append(i).append('|').append(i % 7).append('|').append(i % 3 == 0 ? "" : "x" + i).append('|')
+					.append(i % 11).append('\n');
+		Schema schema = new Schema('|').add(Scheme.PLAIN).add(Scheme.DET, Type.INT).add(Scheme.RND)
+				.add(Scheme.OPE, Type.INT);
+
+		List<String> lines = run(input.toString(), schema);
+		assertEquals(20000, lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			String[] fields = lines.get(i).split("\\|", -1);
+			assertEquals(4, fields.length);
+			assertEquals(String.valueOf(i), fields[0]);
+			assertEquals(encryptors.det().encrypt(i % 7), fields[1]);
+			assertEquals(i % 3 == 0, fields[2].isEmpty());
+			assertEquals(encryptors.ope().encrypt(BigInteger.valueOf(i % 11)).toString(), fields[3]);
+		}
+	}
+
+	/*
+	 * Schemas in schemas, and the fields after the last column
+	 */
+	public void testNested() throws IOException {
+		Schema kv = new Schema('=').add(Scheme.PLAIN).add(Scheme.DET);
+		Schema map = new Schema(',').rest(kv);
+		Schema schema = new Schema('\t').add(Scheme.DET).add(map);
+		List<String> lines = run("a\tk1=v1,k2=v2\tc\td\n\tk=\n", schema);
+
+		DETEncryptor det = encryptors.det();
+		assertEquals(2, lines.size());
+		assertEquals(det.encrypt("a") + "\tk1=" + det.encrypt("v1") + ",k2=" + det.encrypt("v2") + "\tc\td",
+				lines.get(0));
+		assertEquals("\tk=", lines.get(1));
+	}
+
+	/*
+	 * \r\n, a last line without \n, empty lines and lines longer than a chunk
+	 */
+	public void testLines() throws IOException {
+		StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 200000; i++)
+			longLine.append("abc");
+		Column copy = new Schema(' ');
+		List<String> lines = run("a\r\n\r\n" + longLine + "\nb\u00e9\nlast", copy);
+		assertEquals(5, lines.size());
+		assertEquals("a", lines.get(0));
+		assertEquals("", lines.get(1));
+		assertEquals(longLine.toString(), lines.get(2));
+		assertEquals("b\u00e9", lines.get(3));
+		assertEquals("last", lines.get(4));
+
+		assertTrue(run("", copy).isEmpty());
+	}
+
+	public void testInvalidScheme() {
+		try {
+			Scheme.OPE.column(Type.DOUBLE);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private List<String> run(String input, Column line) throws IOException {
+		File in = new File(dir, "in"), out = new File(dir, "out");
+		Files.write(in.toPath(), input.getBytes(StandardCharsets.UTF_8));
+		pipeline.encrypt(in, out, line);
+		return Files.readAllLines(out.toPath(), StandardCharsets.UTF_8);
+	}
+
+}
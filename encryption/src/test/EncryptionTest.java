@@ -22,6 +22,7 @@ public class EncryptionTest extends TestCase {
 		AHEncryptor ah = new AHEncryptor(".");
 		System.out.println(pti1 + ": " + ah.encrypt(pti1));
 		System.out.println(pti1 + ": " + ah.encrypt(pti1));
+		ah.close();
 	}
 	
 	public void testDoubleAH() {
@@ -0,0 +1,90 @@
+package test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import jope.Coins;
+import jope.Hgd;
+import jope.OPE;
+import jope.ValueRange;
+import junit.framework.TestCase;
+
+public class HgdTest extends TestCase {
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	/*
+	 * Keys, plaintexts and their ciphertexts with the default jope ranges, printed by jope
+	 * before the double precision sampler
+	 */
+	private static final String[][] vectors = new String[][] {
+			{ "key", "-72784", "2668159842" },
+			{ "key", "69590", "12030645380" },
+			{ "key", "3543", "7669842905" },
+			{ "key", "-87879", "1683509236" },
+			{ "another key", "21178", "7574268741" },
+			{ "another key", "-62127", "2129225347" },
+			{ "another key", "87689", "11941219577" },
+			{ "another key", "-18942", "4950754977" },
+			{ "kmeans", "-3809", "2741502384" },
+			{ "kmeans", "96045", "9270813175" },
+			{ "kmeans", "-76454", "-2011167647" },
+			{ "kmeans", "-45882", "-6211195" } };
+
+	private Random rng = new Random(16);
+
+	protected void tearDown() {
+		Hgd.setFastPath(true);
+	}
+
+	public void testVectors() {
+		ValueRange in = new ValueRange(TWO.pow(32).negate(), TWO.pow(32));
+		ValueRange out = new ValueRange(TWO.pow(48).negate(), TWO.pow(48));
+		for (String[] v : vectors) {
+			OPE ope = new OPE(v[0], in, out, false);
+			assertEquals(new BigInteger(v[2]), ope.encrypt(new BigInteger(v[1])));
+			assertEquals(new BigInteger(v[1]), ope.decrypt(new BigInteger(v[2])));
+		}
+	}
+
+	/*
+	 * The same samples with and without the double precision sampler, for populations of 5 to
+	 * 50 bits, in/out ratios as in OPE and random keys
+	 */
+	public void testSameSamples() {
+		for (int i = 0; i < 150; i++) {
+			int outBits = 5 + rng.nextInt(46);
+			BigInteger out = new BigInteger(outBits, rng).add(BigInteger.valueOf(12));
+			int inBits = Math.max(1, outBits - 1 - rng.nextInt(Math.min(20, Math.max(1, outBits - 2))));
+			BigInteger in = new BigInteger(inBits, rng).add(BigInteger.ONE).min(out);
+			BigInteger kk = out.shiftRight(1 + (i % 4 == 0 ? rng.nextInt(outBits) : 0))
+					.add(BigInteger.valueOf(1 + rng.nextInt(12))).min(out);
+			String key = "key " + rng.nextInt();
+			BigInteger d = BigInteger.valueOf(rng.nextLong());
+
+			Hgd.setFastPath(true);
+			BigInteger fast = Hgd.rhyper(kk, in, out, new Coins(key, d));
+			Hgd.setFastPath(false);
+			assertEquals(Hgd.rhyper(kk, in, out, new Coins(key, d)), fast);
+		}
+	}
+
+	/*
+	 * The same ciphertexts with and without the double precision sampler
+	 */
+	public void testSameCiphertexts() {
+		ValueRange in = new ValueRange(BigInteger.ZERO, TWO.pow(16));
+		ValueRange out = new ValueRange(BigInteger.ZERO, TWO.pow(32));
+		for (int i = 0; i < 10; i++) {
+			OPE ope = new OPE("key " + rng.nextInt(), in, out, false);
+			for (int j = 0; j < 3; j++) {
+				BigInteger p = BigInteger.valueOf(rng.nextInt(1 << 16));
+				Hgd.setFastPath(true);
+				BigInteger c = ope.encrypt(p);
+				Hgd.setFastPath(false);
+				assertEquals(ope.encrypt(p), c);
+			}
+		}
+	}
+
+}
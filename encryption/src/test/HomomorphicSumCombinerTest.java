@@ -0,0 +1,154 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+import com.n1analytics.paillier.PaillierPrivateKey;
+
+import encryptUtil.EncryptUtil;
+import encryption.AHSums;
+import encryption.HomomorphicSumCombiner;
+import junit.framework.TestCase;
+
+public class HomomorphicSumCombinerTest extends TestCase {
+
+	private PaillierPrivateKey key = PaillierPrivateKey.create(256);
+	private PaillierContext context = key.getPublicKey().createSignedContext();
+	private Random rng = new Random(24);
+
+	public void testWritable() throws IOException {
+		AHSums sums = new AHSums(3);
+		sums.set(7, context.encrypt(5), null, context.encrypt(-2));
+		DataOutputBuffer out = new DataOutputBuffer();
+		sums.write(out);
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		AHSums read = new AHSums();
+		read.readFields(in);
+		assertEquals(3, read.width());
+		assertEquals(7, read.getCount());
+		assertEquals(5, read.get(0, context.encrypt(0)).decrypt(key).decodeLong());
+		assertTrue(read.get(1).isEmpty());
+		assertEquals(-2, read.get(2, context.encrypt(0)).decrypt(key).decodeLong());
+		assertEquals(sums.toString(), read.toString());
+	}
+
+	/*
+	 * The rows of several map tasks, combined or not, give the same sums and count
+	 */
+	public void testCombiner() throws IOException {
+		HomomorphicSumCombiner<Text> combiner = new HomomorphicSumCombiner<Text>();
+		JobConf job = new JobConf();
+		job.set(HomomorphicSumCombiner.PUBLIC_KEY_PROPERTY, key.getPublicKey().getModulus().toString());
+		combiner.configure(job);
+		long sum = 0, revenues = 0, rows = 0;
+		List<AHSums> reduced = new ArrayList<AHSums>();
+		for (int task = 0; task < 4; task++) {
+			List<AHSums> mapped = new ArrayList<AHSums>();
+			for (int i = 0; i < 10; i++) {
+				int ts = rng.nextInt(100);
+				// some revenues are empty
+				Integer er = task == 0 || rng.nextBoolean() ? null : rng.nextInt(50);
+				AHSums row = new AHSums(2);
+				row.set(1, context.encrypt(ts), er == null ? null : context.encrypt(er));
+				mapped.add(row);
+				sum += ts;
+				revenues += er == null ? 0 : er;
+				rows++;
+			}
+			if (task == 3) {
+				// the combiner is not run on every task
+				reduced.addAll(mapped);
+			} else {
+				combiner.reduce(new Text("all"), reused(mapped), collector(reduced), null);
+			}
+		}
+		assertEquals(3 + 10, reduced.size());
+		AHSums total = AHSums.sum(reduced.iterator(), context);
+		EncryptedNumber zero = context.encrypt(0);
+		assertEquals(rows, total.getCount());
+		assertEquals(sum, total.get(0, zero).decrypt(key).decodeLong());
+		assertEquals(revenues, total.get(1, zero).decrypt(key).decodeLong());
+	}
+
+	public void testEmpty() {
+		EncryptedNumber zero = context.encrypt(0);
+		AHSums row = new AHSums(1);
+		row.set(1, (EncryptedNumber) null);
+		List<AHSums> rows = new ArrayList<AHSums>();
+		rows.add(row);
+		rows.add(row);
+		AHSums total = AHSums.sum(rows.iterator(), context);
+		assertTrue(total.get(0).isEmpty());
+		assertSame(zero, total.get(0, zero));
+		assertEquals(2, total.getCount());
+		assertEquals(0, AHSums.sum(new ArrayList<AHSums>().iterator(), context).getCount());
+		try {
+			rows.add(new AHSums(2));
+			AHSums.sum(rows.iterator(), context);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testTextCombiner() throws Exception {
+		HomomorphicSumCombiner.TextCombiner<Text> combiner = new HomomorphicSumCombiner.TextCombiner<Text>();
+		String a = EncryptUtil.getAH(3), b = EncryptUtil.getAH(4);
+		List<Text> values = new ArrayList<Text>();
+		values.add(new Text(a));
+		values.add(new Text(""));
+		values.add(new Text(b));
+		List<Text> out = new ArrayList<Text>();
+		combiner.reduce(new Text("k"), values.iterator(), (k, v) -> out.add(v), null);
+		values.clear();
+		values.add(new Text(""));
+		combiner.reduce(new Text("k"), values.iterator(), (k, v) -> out.add(v), null);
+		assertEquals(2, out.size());
+		assertEquals(EncryptUtil.add(a, b), out.get(0).toString());
+		assertEquals("", out.get(1).toString());
+	}
+
+	/*
+	 * The values through one object, as Hadoop gives them
+	 */
+	private static Iterator<AHSums> reused(final List<AHSums> values) {
+		final Iterator<AHSums> it = values.iterator();
+		final AHSums value = new AHSums();
+		return new Iterator<AHSums>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public AHSums next() {
+				try {
+					DataOutputBuffer out = new DataOutputBuffer();
+					it.next().write(out);
+					DataInputBuffer in = new DataInputBuffer();
+					in.reset(out.getData(), out.getLength());
+					value.readFields(in);
+					return value;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+
+	private static OutputCollector<Text, AHSums> collector(final List<AHSums> values) {
+		return (key, value) -> values.add(value);
+	}
+
+}
@@ -0,0 +1,44 @@
+package test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import jope.CachedOPE;
+import jope.Hgd;
+import jope.OPE;
+
+/**
+ * Latency of one OPE encryption with the default jope scheme: with the double precision
+ * sampler, with BigDecimal only, and with the splits cached.
+ *
+ * Usage: OPEBenchmark [encryptions]
+ */
+public class OPEBenchmark {
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+		Hgd.setFastPath(true);
+		System.out.printf("double:     %8.2f ms/encrypt%n", run(new OPE(), n));
+		System.out.printf("cached:     %8.2f ms/encrypt%n", run(new CachedOPE(), n));
+		System.out.println("fallbacks to BigDecimal: " + Hgd.getFallbacks());
+
+		Hgd.setFastPath(false);
+		System.out.printf("BigDecimal: %8.2f ms/encrypt%n", run(new OPE(), Math.max(1, n / 20)));
+		Hgd.setFastPath(true);
+	}
+
+	/*
+	 * Mean milliseconds per encryption of n random plaintexts, after n / 4 for warming up
+	 */
+	private static double run(OPE ope, int n) {
+		Random rng = new Random(1);
+		for (int i = 0; i < n / 4; i++)
+			ope.encrypt(BigInteger.valueOf(rng.nextInt(199999) - 99999));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++)
+			ope.encrypt(BigInteger.valueOf(rng.nextInt(199999) - 99999));
+		return (System.nanoTime() - start) / 1e6 / n;
+	}
+}
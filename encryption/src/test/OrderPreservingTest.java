@@ -0,0 +1,97 @@
+package test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import encryption.OrderPreserving;
+import jope.OPE;
+import junit.framework.TestCase;
+
+public class OrderPreservingTest extends TestCase {
+
+	/*
+	 * Plaintexts and their ciphertexts printed by lib/ope_encrypt.py
+	 */
+	private static final long[][] vectors = new long[][] {
+			{ -2147483648L, -9007199254006628L },
+			{ -2081147274L, -8728946637431872L },
+			{ -1708746548L, -7167080041328910L },
+			{ -1291968714L, -5419141379795458L },
+			{ -888806994L, -3728185355137088L },
+			{ -571550930L, -2397412828119031L },
+			{ -529668885L, -2221710312609348L },
+			{ -343224824L, -1439598282207089L },
+			{ -1000L, 119236600442L },
+			{ -2L, 123514055179L },
+			{ -1L, 123514136863L },
+			{ 0L, 123514150744L },
+			{ 1L, 123525071205L },
+			{ 2L, 123530965962L },
+			{ 3L, 123531266646L },
+			{ 10L, 123581111116L },
+			{ 42L, 123706846725L },
+			{ 100L, 123963579937L },
+			{ 1000L, 127779989047L },
+			{ 65535L, 399084920088L },
+			{ 450664298L, 1890385564051085L },
+			{ 1230680144L, 5162018790282152L },
+			{ 1236903878L, 5188142131819443L },
+			{ 1268369538L, 5320111149828366L },
+			{ 1738826505L, 7293266886131976L },
+			{ 1764328448L, 7400216742359879L },
+			{ 1820991853L, 7637870989768921L },
+			{ 2007580635L, 8420495016385038L },
+			{ 2108638483L, 8844320891420502L },
+			{ 2147483647L, 9007199238151771L }
+	};
+
+	/*
+	 * "Hello Jello" from lib/ope_encrypt_String.py, joined as
+	 * OrderPreserving used to read it
+	 */
+	private static final String helloJello = "123820048400 123967673655 124019607875 124019607875 124021384771 123666361158 123833044703 123967673655 124019607875 124019607875 124021384771 ";
+
+	private OrderPreserving e;
+
+	protected void setUp() {
+		e = new OrderPreserving();
+	}
+
+	public void testPythonInts() {
+		for (long[] v : vectors) {
+			assertEquals(String.valueOf(v[1]), e.encrypt((int) v[0]));
+			assertEquals((int) v[0], e.decrypt(String.valueOf(v[1])));
+		}
+	}
+
+	public void testPythonStrings() {
+		assertEquals(helloJello, e.encrypt("Hello Jello"));
+		assertEquals("Hello Jello", e.decrypt(helloJello));
+		assertEquals("H", e.decrypt(e.encrypt("H")));
+	}
+
+	public void testOrder() {
+		Random rng = new Random(1);
+		for (int i = 0; i < 200; i++) {
+			int a = rng.nextInt(), b = rng.nextInt();
+			BigInteger ca = new BigInteger(e.encrypt(a));
+			BigInteger cb = new BigInteger(e.encrypt(b));
+			assertEquals(Integer.signum(Integer.compare(a, b)), ca.compareTo(cb));
+			assertEquals(a, e.decrypt(ca));
+		}
+	}
+
+	/*
+	 * The default jope scheme still decrypts its own ciphertexts, in the
+	 * range checked by OPE.main
+	 */
+	public void testJope() {
+		OPE ope = new OPE();
+		Random rng = new Random(2);
+		for (int i = 0; i < 50; i++) {
+			BigInteger p = BigInteger.valueOf(rng.nextInt(199999) - 99999);
+			assertEquals(p, ope.decrypt(ope.encrypt(p)));
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+import com.n1analytics.paillier.PaillierPublicKey;
+
+import encryption.AHDecryptor;
+import encryption.AHEncryptor;
+import encryption.SlotPacking;
+import encryption.Util;
+import junit.framework.TestCase;
+
+public class SlotPackingTest extends TestCase {
+
+	private Random rng = new Random(25);
+
+	public void testPlan() {
+		SlotPacking packing = SlotPacking.plan(BigInteger.ONE.shiftLeft(64), 5, 1000);
+		// 5000 needs 13 bits
+		assertEquals(13, packing.getBits());
+		assertEquals(4, packing.getSlots());
+		assertEquals(1, SlotPacking.plan(BigInteger.ONE.shiftLeft(64), 1L << 40, 1L << 20).getSlots());
+		try {
+			SlotPacking.plan(BigInteger.ONE.shiftLeft(64), 1L << 40, 1L << 30);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testPack() {
+		SlotPacking packing = new SlotPacking(8, 3);
+		assertEquals(BigInteger.valueOf(0x030201), packing.pack(1, 2, 3));
+		assertEquals(BigInteger.valueOf(0x0201), packing.pack(1, 2));
+		assertTrue(Arrays.equals(new long[] { 1, 2, 0 }, packing.unpack(packing.pack(1, 2))));
+		assertTrue(Arrays.equals(new long[] { 255, 0, 255 }, packing.unpack(packing.pack(255, 0, 255))));
+		assertEquals(6, packing.total(packing.pack(1, 2, 3)));
+		for (long[] bad : new long[][] { { 256 }, { -1 }, { 1, 2, 3, 4 } }) {
+			try {
+				packing.pack(bad);
+				fail();
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		try {
+			packing.unpack(BigInteger.ONE.shiftLeft(24));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/*
+	 * The encrypted sums of packed values unpack into the sums of the slots
+	 */
+	public void testEncrypted() throws Exception {
+		File dir = Files.createTempDirectory("keys").toFile();
+		AHEncryptor ah = new AHEncryptor(dir.getPath());
+		try {
+			AHDecryptor decryptor = new AHDecryptor(dir.getPath() + "/key.priv");
+			String modulus = Files.readAllLines(new File(dir, "key.pub").toPath()).get(0);
+			PaillierContext context = new PaillierPublicKey(new BigInteger(modulus)).createSignedContext();
+			SlotPacking packing = ah.plan(5, 100);
+			assertEquals(packing.toString(), decryptor.plan(5, 100).toString());
+			assertTrue(packing.getSlots() > 1);
+			long[] sums = new long[packing.getSlots()];
+			EncryptedNumber sum = null;
+			for (int i = 0; i < 100; i++) {
+				long[] values = new long[packing.getSlots()];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = rng.nextInt(6);
+					sums[j] += values[j];
+				}
+				EncryptedNumber c = Util.getAHCipher(ah.encrypt(packing, values), context);
+				sum = sum == null ? c : context.add(sum, c);
+			}
+			assertTrue(Arrays.equals(sums, decryptor.decrypt(Util.getAHString(sum), packing)));
+		} finally {
+			ah.close();
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+
+import encryption.AHWritable;
+import encryption.Computation;
+import encryption.DETEncryptor;
+import encryption.DETWritable;
+import encryption.OPEWritable;
+import encryption.OrderPreserving;
+import junit.framework.TestCase;
+
+public class WritablesTest extends TestCase {
+
+	private Random rng = new Random(20);
+
+	public void testDET() throws IOException {
+		DETEncryptor det = new DETEncryptor();
+		String[] ctexts = new String[] { det.encrypt("a"), det.encrypt("b"), det.encrypt(12), det.encrypt(12),
+				det.encrypt("a longer string than one block"), "" };
+		WritableComparator raw = WritableComparator.get(DETWritable.class);
+		for (String c1 : ctexts) {
+			DETWritable w1 = new DETWritable(c1);
+			assertEquals(c1, w1.toString());
+			DETWritable read = new DETWritable();
+			readInto(read, bytes(w1));
+			assertEquals(w1, read);
+			assertEquals(c1, read.toString());
+			for (String c2 : ctexts) {
+				DETWritable w2 = new DETWritable(c2);
+				byte[] b1 = bytes(w1), b2 = bytes(w2);
+				assertEquals(Integer.signum(w1.compareTo(w2)), Integer.signum(raw.compare(b1, 0, b1.length, b2, 0, b2.length)));
+				assertEquals(c1.equals(c2), w1.equals(w2));
+			}
+		}
+		// reading into a writable leaves the array it was set to alone
+		byte[] ctext = new DETWritable(ctexts[4]).getBytes();
+		DETWritable reused = new DETWritable(ctext);
+		readInto(reused, bytes(new DETWritable(ctexts[0])));
+		assertEquals(ctexts[4], new DETWritable(ctext).toString());
+		assertEquals(ctexts[0], reused.toString());
+	}
+
+	/*
+	 * The serialized bytes sort as the numbers, and the decimal comparison agrees
+	 */
+	public void testOPENumbers() throws IOException {
+		BigInteger[] values = new BigInteger[300];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new BigInteger(1 + rng.nextInt(70), rng);
+			if (rng.nextBoolean())
+				values[i] = values[i].negate();
+		}
+		values[0] = BigInteger.ZERO;
+		values[1] = BigInteger.valueOf(-256);
+		values[2] = BigInteger.valueOf(-255);
+		values[3] = BigInteger.valueOf(255);
+		values[4] = BigInteger.valueOf(256);
+
+		WritableComparator raw = WritableComparator.get(OPEWritable.class);
+		WritableComparator text = new OPEWritable.TextComparator();
+		for (int i = 0; i < values.length; i++) {
+			OPEWritable w = new OPEWritable(values[i].toString());
+			assertEquals(values[i], w.get());
+			assertEquals(values[i].toString(), w.toString());
+			OPEWritable read = new OPEWritable();
+			readInto(read, bytes(w));
+			assertEquals(values[i].toString(), read.toString());
+
+			for (int j = 0; j < 10; j++) {
+				BigInteger other = values[rng.nextInt(values.length)];
+				int expected = values[i].compareTo(other);
+				byte[] b1 = bytes(w), b2 = bytes(new OPEWritable(other));
+				assertEquals(expected, Integer.signum(raw.compare(b1, 0, b1.length, b2, 0, b2.length)));
+				assertEquals(expected, OPEWritable.compare(values[i].toString(), other.toString()));
+				b1 = bytes(new Text(values[i].toString()));
+				b2 = bytes(new Text(other.toString()));
+				assertEquals(expected, Integer.signum(text.compare(b1, 0, b1.length, b2, 0, b2.length)));
+			}
+		}
+	}
+
+	/*
+	 * Strings sort character by character, a prefix first
+	 */
+	public void testOPEStrings() throws IOException {
+		OrderPreserving ope = new OrderPreserving();
+		String[] strings = new String[] { "", "a", "ab", "abc", "b", "ba", "Z" };
+		WritableComparator raw = WritableComparator.get(OPEWritable.class);
+		for (String s1 : strings) {
+			String c1 = ope.encrypt(s1);
+			OPEWritable w1 = new OPEWritable(c1);
+			assertEquals(c1, w1.toString());
+			for (String s2 : strings) {
+				String c2 = ope.encrypt(s2);
+				int expected = Integer.signum(s1.compareTo(s2));
+				byte[] b1 = bytes(w1), b2 = bytes(new OPEWritable(c2));
+				assertEquals(expected, Integer.signum(raw.compare(b1, 0, b1.length, b2, 0, b2.length)));
+				assertEquals(expected, Integer.signum(Computation.compareTo(c1, c2)));
+			}
+		}
+	}
+
+	public void testAH() throws IOException {
+		BigInteger cipher = new BigInteger(2048, rng);
+		String[] ctexts = new String[] { cipher + "#-14", cipher + "#0", "" };
+		for (String c : ctexts) {
+			AHWritable w = new AHWritable(c);
+			AHWritable read = new AHWritable();
+			readInto(read, bytes(w));
+			assertEquals(c, read.toString());
+			assertEquals(c.isEmpty(), read.isEmpty());
+			assertTrue(c.isEmpty() || bytes(w).length < c.length() / 2);
+		}
+	}
+
+	private static byte[] bytes(Writable w) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		w.write(out);
+		return Arrays.copyOf(out.getData(), out.getLength());
+	}
+
+	private static void readInto(Writable w, byte[] bytes) throws IOException {
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(bytes, bytes.length);
+		w.readFields(in);
+	}
+
+}
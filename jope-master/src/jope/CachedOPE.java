@@ -0,0 +1,105 @@
+package jope;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OPE that remembers the splits of the tree it walks.
+ *
+ * The split of a node only depends on the key and on the node, and a node is identified by the
+ * middle of its output range, so the splits are kept in a concurrent map from mid to split. The
+ * top levels are walked by every plaintext, so they are always the first ones in the map. The
+ * map stops growing at maxSplits entries and nothing is ever evicted, the splits never change.
+ *
+ * The ciphertexts of the last maxResults plaintexts are kept as well, for columns where the same
+ * values come again and again.
+ *
+ * The ciphertexts are the same as the ones of OPE with the same key and ranges.
+ */
+public class CachedOPE extends OPE {
+
+	public final static int DEFAULT_SPLITS = 1 << 16;
+	public final static int DEFAULT_RESULTS = 1 << 12;
+
+	private final ConcurrentHashMap<BigInteger, BigInteger> splits;
+	private final int maxSplits;
+	private final Map<BigInteger, BigInteger> results;
+
+	/**
+	 * The default OPE, with the default cache sizes
+	 */
+	public CachedOPE() {
+		super();
+		this.maxSplits = DEFAULT_SPLITS;
+		this.splits = new ConcurrentHashMap<BigInteger, BigInteger>();
+		this.results = lru(DEFAULT_RESULTS);
+	}
+
+	/**
+	 * @param key
+	 * @param inRange
+	 * @param outRange
+	 * @param pyope see OPE
+	 * @param maxSplits the number of splits kept
+	 * @param maxResults the number of ciphertexts kept, 0 to keep none
+	 */
+	public CachedOPE(String key, ValueRange inRange, ValueRange outRange, boolean pyope,
+			int maxSplits, int maxResults) {
+		super(key, inRange, outRange, pyope);
+		this.maxSplits = maxSplits;
+		this.splits = new ConcurrentHashMap<BigInteger, BigInteger>();
+		this.results = lru(maxResults);
+	}
+
+	@Override
+	public BigInteger encrypt(BigInteger ptxt) {
+
+		if (this.results == null)
+			return super.encrypt(ptxt);
+
+		BigInteger ctxt = this.results.get(ptxt);
+		if (ctxt == null) {
+			ctxt = super.encrypt(ptxt);
+			this.results.put(ptxt, ctxt);
+		}
+		return ctxt;
+	}
+
+	@Override
+	BigInteger split(ValueRange inRange, ValueRange outRange, BigInteger mid) {
+
+		BigInteger x = this.splits.get(mid);
+		if (x == null) {
+			x = super.split(inRange, outRange, mid);
+			if (this.splits.size() < this.maxSplits)
+				this.splits.putIfAbsent(mid, x);
+		}
+		return x;
+	}
+
+	/**
+	 * @return the number of splits kept
+	 */
+	public int splitCount() {
+		return this.splits.size();
+	}
+
+	private static Map<BigInteger, BigInteger> lru(final int maxResults) {
+
+		if (maxResults <= 0)
+			return null;
+
+		return Collections.synchronizedMap(new LinkedHashMap<BigInteger, BigInteger>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BigInteger, BigInteger> eldest) {
+				return size() > maxResults;
+			}
+		});
+	}
+}
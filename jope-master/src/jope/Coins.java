@@ -1,13 +1,9 @@
 package jope;
 
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -15,36 +11,79 @@ import javax.crypto.spec.SecretKeySpec;
 /**
  * Return a bit string, generated from the given data string
  *
+ * The bits are the AES-CTR keystream of a key derived from the data. The keystream is generated
+ * in blocks, which double from MIN_BLOCK to MAX_BLOCK bytes as the bits are used, and the bits
+ * are read with shifts from one long at a time.
+ *
  * @author savvas
  *
  */
 public class Coins {
 
-	Cipher cipher = null;
+	// most Coins give a few hundred bits, so the first block is small
+	private static final int MIN_BLOCK = 64;
+	private static final int MAX_BLOCK = 4096;
+	private static final byte[] ZEROS = new byte[MAX_BLOCK];
+
+	// getInstance looks up the provider every time, so each thread keeps its own Mac and
+	// Cipher. The cipher is initialized for every block, Coins can be used in any order.
+	private static final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		protected Mac initialValue() {
+			try {
+				return Mac.getInstance("HmacSHA256");
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+	private static final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+		protected Cipher initialValue() {
+			try {
+				return Cipher.getInstance("AES/CTR/NoPadding"); // PKCS5Padding
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
 	SecretKeySpec k;
-	byte[] counterBA;
 	long counter;
-	ByteBuffer buffer;
+	boolean msbFirst;
+
+	// the keystream generated so far, and the next byte of it to read
+	private byte[] stream = new byte[0];
+	private int streamIndex = 0;
+	// the next 8 bytes of the keystream, in the order their bits are returned
+	private long word;
+	private int wordBits = 0;
 
 	public Coins(String key, BigInteger d) {
+		this(key, d, false);
+	}
+
+	/**
+	 * The bit string of pyope when pyope is true: the AES-CTR counter starts at 1 instead of 0
+	 * and the bits of each byte are taken from the most significant one.
+	 *
+	 * @param key
+	 * @param d
+	 * @param pyope
+	 */
+	Coins(String key, BigInteger d, boolean pyope) {
 
 		try {
 			// derive a key using the data to use in AES
-			Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
+			Mac sha256_HMAC = macs.get();
 			SecretKeySpec secret_key = new SecretKeySpec(key.getBytes("UTF-8"), "HmacSHA256");
 			sha256_HMAC.init(secret_key);
 			byte[] digest = sha256_HMAC.doFinal(d.toString().getBytes("UTF-8"));
 
-			this.cipher = Cipher.getInstance("AES/CTR/NoPadding"); // PKCS5Padding
-
 			// requires Java Cryptography Extension (JCE) Unlimited Strength Jurisdiction Policy
 			// Files
 			this.k = new SecretKeySpec(digest, "AES");
 
-			// FIXME: all 0 IV
-			this.buffer = ByteBuffer.allocate(Long.BYTES);
-			this.counterBA = new byte[16];
-			this.counter = 0;
+			this.counter = pyope ? 1 : 0;
+			this.msbFirst = pyope;
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -55,59 +94,71 @@ public class Coins {
 
 	}
 
-	int byteIndex = 16;
-	int bitIndex = 8;
-	byte[] ctxt = null;
-	boolean[] coins = null;
-
 	public boolean next() {
 
-		// if we have consumed all bytes in the ciphertext, encrypt again and reset the byte index
-		if (this.byteIndex == 16) {
+		if (this.wordBits == 0)
+			nextWord();
+
+		this.wordBits--;
+		boolean bit;
+		if (this.msbFirst) {
+			bit = this.word < 0;
+			this.word <<= 1;
+		} else {
+			bit = (this.word & 1) != 0;
+			this.word >>>= 1;
+		}
+		return bit;
+	}
 
-			// encrypt again an all 0 array of 16 bytes. This should give a different ciphertext
-			// every time since we are using counter.
-			try {
-				this.buffer.putLong(this.counter);
-				byte[] b = this.buffer.array();
-				this.buffer.clear();
-				System.arraycopy(b, 0, this.counterBA, 8, 8);
-
-				IvParameterSpec iv = new IvParameterSpec(this.counterBA);
-				this.cipher.init(Cipher.ENCRYPT_MODE, this.k, iv);
-
-				this.ctxt = this.cipher.doFinal(new byte[16]);
-
-				this.counter++;
-			} catch (IllegalBlockSizeException e) {
-				e.printStackTrace();
-			} catch (BadPaddingException e) {
-				e.printStackTrace();
-			} catch (InvalidKeyException e) {
-				e.printStackTrace();
-			} catch (InvalidAlgorithmParameterException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+	/**
+	 * Read the next 8 bytes of the keystream. Bytes come in order, and their bits from the
+	 * least significant one, or from the most significant one for pyope.
+	 */
+	private void nextWord() {
+
+		if (this.streamIndex == this.stream.length)
+			nextBlock();
+
+		long w = 0;
+		if (this.msbFirst)
+			for (int i = 0; i < 8; i++)
+				w = (w << 8) | (this.stream[this.streamIndex + i] & 0xFF);
+		else
+			for (int i = 7; i >= 0; i--)
+				w = (w << 8) | (this.stream[this.streamIndex + i] & 0xFF);
+
+		this.streamIndex += 8;
+		this.word = w;
+		this.wordBits = 64;
+	}
 
-			// ciphertext should be 16 bytes long.
-			if (this.ctxt.length != 16)
-				throw new RuntimeException("invalid ctxt");
+	/**
+	 * Encrypt the next block of zeros, twice as long as the previous one up to MAX_BLOCK bytes.
+	 * The IV is all 0 but the counter in its last 8 bytes (FIXME), and CTR increments it for
+	 * every 16 bytes.
+	 */
+	private void nextBlock() {
 
-			// reset the byte index so we start from the first byte again.
-			this.byteIndex = 0;
-		}
+		int length = Math.max(MIN_BLOCK, Math.min(2 * this.stream.length, MAX_BLOCK));
+		if (length != this.stream.length)
+			this.stream = new byte[length];
 
-		// if we have exhausted all bits in the byte indicated by byte index
-		if (this.bitIndex == 8) {
+		byte[] counterBA = new byte[16];
+		for (int i = 0; i < 8; i++)
+			counterBA[15 - i] = (byte) (this.counter >>> (8 * i));
 
-			// convert current byte and move the index forward.
-			this.coins = byteToBoolArray(this.ctxt[this.byteIndex++]);
-			this.bitIndex = 0;
+		try {
+			Cipher cipher = ciphers.get();
+			cipher.init(Cipher.ENCRYPT_MODE, this.k, new IvParameterSpec(counterBA));
+			if (cipher.doFinal(ZEROS, 0, length, this.stream, 0) != length)
+				throw new RuntimeException("invalid ctxt");
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
 		}
 
-		// return current bit and move bit index forward.
-		return this.coins[this.bitIndex++];
+		this.counter += length / 16;
+		this.streamIndex = 0;
 	}
 
 	/**
@@ -0,0 +1,260 @@
+package jope;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * The hrua sampler of Hgd in double precision, with the same samples as the BigDecimal one.
+ *
+ * The setup divisions, which Hgd rounds to OPE.PRECISION digits, are still done with
+ * BigDecimal. The square root, loggam, the logarithms and the loop are done in double. Every
+ * double comes with a bound on its distance to the value Hgd computes, and every comparison
+ * that the bound does not decide makes hrua give up: it returns -1 and Hgd starts over with
+ * BigDecimal and the same draws.
+ *
+ * The loggam terms of T are taken in pairs, loggam(b) - loggam(a) with b - a = +-(Z - d9), as
+ * (a - 0.5) * log1p(d / a) + d * log(b) - d, so their error grows with Z - d9 and not with
+ * the size of the ranges.
+ */
+final class FastHgd {
+
+	/**
+	 * The largest population, in bits, for which the integers of the sampler are exact doubles
+	 */
+	static final int MAX_BITS = 52;
+
+	private final static double D1 = 1.7155277699214135;
+	private final static double D2 = 0.8989161620588988;
+	private final static double LOG_2PI = 0.5 * Math.log(2 * Math.PI);
+
+	private final static double[] a = new double[] { 8.333333333333333e-02,
+			-2.777777777777778e-03, 7.936507936507937e-04, -5.952380952380952e-04,
+			8.417508417508418e-04, -1.917526917526918e-03, 6.410256410256410e-03,
+			-2.955065359477124e-02, 1.796443723688307e-01, -1.39243221690590e+00 };
+
+	private final static BigDecimal decHalf = BigDecimal.valueOf(0.5);
+	private final static BigDecimal dec2 = BigDecimal.valueOf(2);
+	private final static BigDecimal dec7 = BigDecimal.valueOf(7);
+
+	// loggam(x) is 0 for x = 1 and x = 2
+	private final static int ZERO = -2;
+	// x > 7, no terms to subtract
+	private final static int LARGE = -1;
+
+	// the error bound of the last loggam or loggamDiff
+	private double err;
+
+	private FastHgd() {
+	}
+
+	/**
+	 * Same as Hgd.hypergeometricHrua, for good + bad of at most MAX_BITS bits
+	 *
+	 * @param draws
+	 * @param good
+	 * @param bad
+	 * @param sampleBI
+	 * @return the sample, or -1 if it could not be decided in double precision
+	 */
+	static long hrua(Hgd.Draws draws, BigInteger good, BigInteger bad, BigInteger sampleBI) {
+		return new FastHgd().sample(draws, good, bad, sampleBI);
+	}
+
+	private long sample(Hgd.Draws draws, BigInteger good, BigInteger bad, BigInteger sampleBI) {
+
+		// the setup of Hgd, exactly
+		boolean moreGood = good.compareTo(bad) > 0;
+		BigDecimal mingoodbad = new BigDecimal(moreGood ? bad : good);
+		BigDecimal maxgoodbad = new BigDecimal(moreGood ? good : bad);
+		BigDecimal popsize = new BigDecimal(good.add(bad));
+		BigDecimal sample = new BigDecimal(sampleBI);
+		BigDecimal m = sample.min(popsize.subtract(sample));
+		BigDecimal d4 = mingoodbad.divide(popsize, OPE.PRECISION, OPE.RM);
+		BigDecimal d5 = BigDecimal.ONE.subtract(d4);
+		BigDecimal d6 = m.multiply(d4).add(decHalf);
+		BigDecimal d7a = popsize.subtract(m).multiply(sample).multiply(d4).multiply(d5)
+				.divide(popsize.subtract(BigDecimal.ONE), OPE.PRECISION, OPE.RM).add(decHalf);
+		BigDecimal d9 = m.add(BigDecimal.ONE).multiply(mingoodbad.add(BigDecimal.ONE))
+				.divide(popsize.add(dec2), OPE.PRECISION, OPE.RM);
+
+		long lm = m.longValue();
+		long lmin = mingoodbad.longValue();
+		long lmax = maxgoodbad.longValue();
+
+		// d6 and d9 as an integer and a fraction, W is compared to integers relative to d6
+		long d6Int = d6.setScale(0, RoundingMode.FLOOR).longValue();
+		double d6Frac = d6.subtract(BigDecimal.valueOf(d6Int)).doubleValue();
+		long d9Int = d9.setScale(0, RoundingMode.FLOOR).longValue();
+		double d9Frac = d9.subtract(BigDecimal.valueOf(d9Int)).doubleValue();
+
+		// bigSqrt stops within 1e-20 of the square root
+		double d7 = Math.sqrt(d7a.doubleValue());
+		double d7Err = 4e-16 * d7 + 1e-20;
+		double d8 = D1 * d7 + D2;
+
+		double v = d6Frac + 16 * d7;
+		double vErr = 16 * d7Err + 1e-15 * v;
+		double vFloor = Math.floor(v);
+		if (v - vFloor <= vErr || vFloor + 1 - v <= vErr)
+			return -1;
+		long d11 = Math.min(Math.min(lm, lmin) + 1, d6Int + (long) vFloor);
+
+		// the arguments of loggam in d10, paired with the ones in T
+		BigDecimal[] args = new BigDecimal[] { d9.add(BigDecimal.ONE),
+				mingoodbad.add(BigDecimal.ONE).subtract(d9), m.subtract(d9).add(BigDecimal.ONE),
+				maxgoodbad.subtract(m).add(d9).add(BigDecimal.ONE) };
+		double[] argXm1 = new double[4];
+		int[] argN = new int[4];
+		double[] argLoggam = new double[4];
+		double[] argErr = new double[4];
+		for (int i = 0; i < 4; i++) {
+			BigDecimal x = args[i];
+			argXm1[i] = x.subtract(BigDecimal.ONE).doubleValue();
+			if (x.compareTo(BigDecimal.ONE) == 0 || x.compareTo(dec2) == 0)
+				argN[i] = ZERO;
+			else if (x.compareTo(dec7) <= 0)
+				argN[i] = (int) (7.0 - x.doubleValue());
+			else
+				argN[i] = LARGE;
+			argLoggam[i] = loggam(argXm1[i], argN[i]);
+			argErr[i] = err;
+			if (Double.isNaN(argLoggam[i]))
+				return -1;
+		}
+
+		// W < 0 and W >= d11, relative to d6Int
+		double lo = -d6Int;
+		double hi = d11 - d6Int;
+
+		long Z;
+		while (true) {
+			double X = draws.next();
+			double Y = draws.next();
+			if (X == 0)
+				return -1;
+
+			double u = d8 * (Y - 0.5) / X;
+			double Wf = d6Frac + u;
+			// Hgd rounds u to OPE.PRECISION digits
+			double wErr = 1e-10 + 1e-14 * (Math.abs(u) + d8 / X + Math.abs(Wf));
+
+			if (Math.abs(Wf - lo) <= wErr || Math.abs(Wf - hi) <= wErr)
+				return -1;
+			if (Wf < lo || Wf >= hi)
+				continue;
+
+			double wFloor = Math.floor(Wf);
+			if (Wf - wFloor <= wErr || wFloor + 1 - Wf <= wErr)
+				return -1;
+			Z = d6Int + (long) wFloor;
+
+			// T = d10 - (loggam(Z + 1) + ...), pair by pair
+			double zd = (Z - d9Int) - d9Frac;
+			long[] b = new long[] { Z + 1, lmin - Z + 1, lm - Z + 1, lmax - lm + Z + 1 };
+			double T = 0;
+			double tErr = 0;
+			for (int i = 0; i < 4; i++) {
+				double d = (i == 0 || i == 3) ? zd : -zd;
+				double diff = loggamDiff(argXm1[i], argN[i], argLoggam[i], argErr[i], b[i], d);
+				if (Double.isNaN(diff))
+					return -1;
+				T -= diff;
+				tErr += err;
+			}
+			tErr += 1e-15 * Math.abs(T);
+
+			double t1 = X * (4 - X) - 3;
+			if (Math.abs(t1 - T) <= tErr + 1e-14 * (1 + Math.abs(T)))
+				return -1;
+			if (t1 <= T)
+				break;
+
+			double t2 = X * (X - T);
+			if (Math.abs(t2 - 1) <= X * tErr + 1e-14 * (1 + Math.abs(t2) + Math.abs(T)))
+				return -1;
+			if (t2 >= 1)
+				continue;
+
+			double t3 = 2 * Math.log(X);
+			if (Math.abs(t3 - T) <= tErr + 2 * lnError(X)
+					+ 1e-14 * (1 + Math.abs(t3) + Math.abs(T)))
+				return -1;
+			if (t3 <= T)
+				break;
+		}
+
+		if (moreGood)
+			Z = lm - Z;
+
+		if (m.compareTo(sample) < 0)
+			Z = good.longValue() - Z;
+
+		return Z;
+	}
+
+	/*
+	 * loggam(b) - loggam(x) for x = xm1 + 1, with n and loggam(x) from loggam, and d = b - x.
+	 * Sets err.
+	 */
+	private double loggamDiff(double xm1, int n, double gx, double gxErr, long b, double d) {
+		if (n == LARGE && b > 7) {
+			double x = xm1 + 1;
+			double lb = Math.log(b);
+			double diff = (x - 0.5) * Math.log1p(d / x) + d * lb - d + gl0(b) / b - gl0(x) / x;
+			err = 1.2e-10 + (x + b) * lnError(7) + 1e-14 * (Math.abs(d) * (2 + lb) + 1);
+			return diff;
+		}
+
+		int bn = (b == 1 || b == 2) ? ZERO : (b <= 7 ? (int) (7 - b) : LARGE);
+		double gb = loggam(b - 1, bn);
+		err += gxErr;
+		return gb - gx;
+	}
+
+	/*
+	 * Hgd.loggam(x) for x = xm1 + 1, n being ZERO, LARGE or the n of Hgd.loggam. Returns NaN
+	 * where Hgd.loggam throws. Sets err.
+	 */
+	private double loggam(double xm1, int n) {
+		err = 0;
+		if (n == ZERO)
+			return 0;
+
+		double x0 = xm1 + 1 + (n == LARGE ? 0 : n);
+		double lx0 = Math.log(x0);
+		double gl = gl0(x0) / x0 + LOG_2PI + (x0 - 0.5) * lx0 - x0;
+		double size = LOG_2PI + (x0 - 0.5) * lx0 + x0 + 1;
+		// the division of gl0, rounded by Hgd, and log of x0
+		err = 1.2e-10 + x0 * lnError(x0);
+
+		if (n != LARGE)
+			for (int k = n; k >= 0; k--) {
+				double y = xm1 + k;
+				if (y <= 0)
+					return Double.NaN;
+				double ly = Math.log(y);
+				gl -= ly;
+				size += Math.abs(ly);
+				err += lnError(y);
+			}
+
+		err += 1e-14 * size;
+		return gl;
+	}
+
+	private static double gl0(double x0) {
+		double x2 = 1 / (x0 * x0);
+		double gl0 = a[9];
+		for (int k = 8; k >= 0; k--)
+			gl0 = gl0 * x2 + a[k];
+		return gl0;
+	}
+
+	/*
+	 * A bound on the error of BigDecimalUtils.ln(x, 20), ten times the largest one measured
+	 */
+	private static double lnError(double x) {
+		return 1e-18 + 1e-19 / x;
+	}
+}
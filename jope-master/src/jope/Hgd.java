@@ -3,6 +3,8 @@ package jope;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Hgd {
 
@@ -56,17 +58,89 @@ public class Hgd {
 
 		long out = 0;
 		for (int i = 0; i < 32; i++)
-			// TODO don't calculate powers every time
-			out += coins.next() ? Math.pow(2, i) : 0;
+			if (coins.next())
+				out |= 1L << i;
 
 		return out / TWO_32;
 	}
 
+	/**
+	 * The draws of one sample, kept so that the BigDecimal sampler can start over with the same
+	 * ones when the double precision one gives up.
+	 */
+	static class Draws {
+		private final Coins coins;
+		private double[] drawn = new double[16];
+		private int count = 0;
+		private int next = 0;
+
+		Draws(Coins coins) {
+			this.coins = coins;
+		}
+
+		double next() {
+			if (next < count)
+				return drawn[next++];
+			if (count == drawn.length)
+				drawn = Arrays.copyOf(drawn, 2 * count);
+			drawn[count++] = prngDraw(coins);
+			return drawn[next++];
+		}
+
+		void rewind() {
+			next = 0;
+		}
+	}
+
+	private static volatile boolean fastPath = true;
+	private static final AtomicLong fallbacks = new AtomicLong();
+
+	/**
+	 * Turns the double precision sampler on or off. The samples are the same either way, only
+	 * slower with BigDecimal alone.
+	 *
+	 * @param on
+	 */
+	public static void setFastPath(boolean on) {
+		fastPath = on;
+	}
+
+	/**
+	 * The number of samples the double precision sampler could not decide and left to
+	 * BigDecimal
+	 *
+	 * @return
+	 */
+	public static long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	/**
+	 * The number of white balls drawn when kk balls are drawn from an urn with nn1 white and
+	 * nn2 black balls.
+	 *
+	 * Populations of up to FastHgd.MAX_BITS bits are sampled in double precision first, with
+	 * the same result as BigDecimal.
+	 *
+	 * @param kk
+	 * @param nn1
+	 * @param nn2
+	 * @param coins
+	 * @return
+	 */
 	public static BigInteger rhyper(BigInteger kk, BigInteger nn1, BigInteger nn2, Coins coins) {
-		if (kk.compareTo(BigInteger.TEN) > 0)
-			return hypergeometricHrua(coins, nn1, nn2, kk);
-		else
+		if (kk.compareTo(BigInteger.TEN) <= 0)
 			return hypergeometricHyp(coins, nn1, nn2, kk);
+
+		Draws draws = new Draws(coins);
+		if (fastPath && nn1.add(nn2).bitLength() <= FastHgd.MAX_BITS) {
+			long Z = FastHgd.hrua(draws, nn1, nn2, kk);
+			if (Z >= 0)
+				return BigInteger.valueOf(Z);
+			fallbacks.incrementAndGet();
+			draws.rewind();
+		}
+		return hypergeometricHrua(draws, nn1, nn2, kk);
 	}
 
 	private static BigInteger hypergeometricHyp(Coins coins, BigInteger good, BigInteger bad,
@@ -101,7 +175,7 @@ public class Hgd {
 	private final static BigDecimal D1 = new BigDecimal("1.7155277699214135");
 	private final static BigDecimal D2 = new BigDecimal("0.8989161620588988");
 
-	private static BigInteger hypergeometricHrua(Coins coins, BigInteger good, BigInteger bad,
+	private static BigInteger hypergeometricHrua(Draws draws, BigInteger good, BigInteger bad,
 			BigInteger sampleBI) {
 
 		boolean moreGood;
@@ -148,8 +222,8 @@ public class Hgd {
 
 		BigDecimal Z;
 		while (true) {
-			BigDecimal X = BigDecimal.valueOf(prngDraw(coins));
-			BigDecimal Y = BigDecimal.valueOf(prngDraw(coins));
+			BigDecimal X = BigDecimal.valueOf(draws.next());
+			BigDecimal Y = BigDecimal.valueOf(draws.next());
 			BigDecimal W = d6
 					.add(d8.multiply(Y.subtract(decHalf)).divide(X, OPE.PRECISION, OPE.RM));
 
@@ -12,6 +12,7 @@ public class OPE {
 	String key;
 	ValueRange inRange;
 	ValueRange outRange;
+	boolean pyope;
 
 	public OPE() {
 
@@ -26,6 +27,29 @@ public class OPE {
 		// this.outRange = new ValueRange(BigInteger.ZERO, new BigInteger("200"));
 	}
 
+	/**
+	 * OPE with the given key and ranges. If pyope is true, the ciphertexts are the same as the
+	 * ones of pyope (the python implementation in encryption/lib) for the same key and ranges.
+	 * The sizes of the ranges must then fit in a long.
+	 *
+	 * @param key
+	 * @param inRange
+	 * @param outRange
+	 * @param pyope
+	 */
+	public OPE(String key, ValueRange inRange, ValueRange outRange, boolean pyope) {
+
+		if (inRange.size().compareTo(outRange.size()) > 0)
+			throw new RuntimeException("The input range is larger than the output range");
+		if (pyope && outRange.size().bitLength() > 62)
+			throw new RuntimeException("The output range is too large for pyope sampling");
+
+		this.key = key;
+		this.inRange = inRange;
+		this.outRange = outRange;
+		this.pyope = pyope;
+	}
+
 	public BigInteger encrypt(BigInteger ptxt) {
 
 		if (!this.inRange.contains(ptxt))
@@ -41,22 +65,14 @@ public class OPE {
 
 		assert inSize.compareTo(outSize) <= 0;
 
-		if (inRange.size().compareTo(BigInteger.ONE) == 0) {
-			Coins coins = new Coins(this.key, ptxt);
-			return sampleUniform(outRange, coins);
-		}
+		if (inRange.size().compareTo(BigInteger.ONE) == 0)
+			return leaf(outRange, ptxt);
 
 		BigInteger inEdge = inRange.start.subtract(BigInteger.ONE);
 		BigInteger outEdge = outRange.start.subtract(BigInteger.ONE);
+		BigInteger mid = mid(outRange);
 
-		BigDecimal two = new BigDecimal("2");
-		BigInteger m = new BigDecimal(outSize).divide(two, PRECISION, RoundingMode.CEILING)
-				.toBigInteger();
-		BigInteger mid = outEdge.add(m);
-
-		Coins coins = new Coins(this.key, mid);
-
-		BigInteger x = sampleHGD(inRange, outRange, mid, coins);
+		BigInteger x = split(inRange, outRange, mid);
 
 		if (ptxt.compareTo(x) <= 0) {
 			inRange = new ValueRange(inEdge.add(BigInteger.ONE), x);
@@ -69,10 +85,10 @@ public class OPE {
 		return this.encryptRecursive(ptxt, inRange, outRange);
 	}
 
-	private BigInteger decrypt(BigInteger ctxt) {
+	public BigInteger decrypt(BigInteger ctxt) {
 
 		if (!this.outRange.contains(ctxt))
-			throw new RuntimeException("Ciphertext is not within the input range");
+			throw new RuntimeException("Ciphertext is not within the output range");
 
 		return this.decryptRecursive(ctxt, this.inRange, this.outRange);
 	}
@@ -86,8 +102,7 @@ public class OPE {
 
 		if (inRange.size().compareTo(BigInteger.ONE) == 0) {
 			BigInteger inRangeMin = inRange.start;
-			Coins coins = new Coins(this.key, inRangeMin);
-			BigInteger sampledCtxt = sampleUniform(outRange, coins);
+			BigInteger sampledCtxt = leaf(outRange, inRangeMin);
 
 			if (sampledCtxt.compareTo(ctxt) == 0)
 				return inRangeMin;
@@ -98,13 +113,9 @@ public class OPE {
 
 		BigInteger inEdge = inRange.start.subtract(BigInteger.ONE);
 		BigInteger outEdge = outRange.start.subtract(BigInteger.ONE);
-		BigDecimal two = new BigDecimal("2");
-		BigInteger m = new BigDecimal(outSize).divide(two, PRECISION, RoundingMode.CEILING)
-				.toBigInteger();
-		BigInteger mid = outEdge.add(m);
+		BigInteger mid = mid(outRange);
 
-		Coins coins = new Coins(this.key, mid);
-		BigInteger x = sampleHGD(inRange, outRange, mid, coins);
+		BigInteger x = split(inRange, outRange, mid);
 
 		if (ctxt.compareTo(mid) <= 0) {
 			inRange = new ValueRange(inEdge.add(BigInteger.ONE), x);
@@ -117,14 +128,108 @@ public class OPE {
 		return this.decryptRecursive(ctxt, inRange, outRange);
 	}
 
+	/**
+	 * Encrypt plaintexts sorted in ascending order in one walk of the tree: the split of each
+	 * node is sampled once for all the plaintexts below it.
+	 *
+	 * @param ptxts plaintexts in ascending order, duplicates allowed
+	 * @return the ciphertexts, in the same order
+	 */
+	public BigInteger[] encrypt(BigInteger[] ptxts) {
+
+		for (int i = 0; i < ptxts.length; i++) {
+			if (!this.inRange.contains(ptxts[i]))
+				throw new RuntimeException("Plaintext is not within the input range");
+			if (i > 0 && ptxts[i - 1].compareTo(ptxts[i]) > 0)
+				throw new RuntimeException("Plaintexts are not sorted");
+		}
+
+		BigInteger[] ctxts = new BigInteger[ptxts.length];
+		if (ptxts.length > 0)
+			this.encryptBatch(ptxts, ctxts, 0, ptxts.length, this.inRange, this.outRange);
+		return ctxts;
+	}
+
+	private void encryptBatch(BigInteger[] ptxts, BigInteger[] ctxts, int from, int to,
+			ValueRange inRange, ValueRange outRange) {
+
+		BigInteger inSize = inRange.size();
+		BigInteger outSize = outRange.size();
+
+		// all the plaintexts from "from" to "to" are equal here
+		if (inSize.compareTo(BigInteger.ONE) == 0) {
+			BigInteger ctxt = leaf(outRange, inRange.start);
+			for (int i = from; i < to; i++)
+				ctxts[i] = ctxt;
+			return;
+		}
+
+		BigInteger inEdge = inRange.start.subtract(BigInteger.ONE);
+		BigInteger outEdge = outRange.start.subtract(BigInteger.ONE);
+		BigInteger mid = mid(outRange);
+
+		BigInteger x = split(inRange, outRange, mid);
+
+		// the first plaintext that goes right
+		int lo = from, hi = to;
+		while (lo < hi) {
+			int i = (lo + hi) >>> 1;
+			if (ptxts[i].compareTo(x) <= 0)
+				lo = i + 1;
+			else
+				hi = i;
+		}
+
+		if (lo > from)
+			this.encryptBatch(ptxts, ctxts, from, lo, new ValueRange(inEdge.add(BigInteger.ONE), x),
+					new ValueRange(outEdge.add(BigInteger.ONE), mid));
+		if (lo < to)
+			this.encryptBatch(ptxts, ctxts, lo, to, new ValueRange(x.add(BigInteger.ONE), inEdge.add(inSize)),
+					new ValueRange(mid.add(BigInteger.ONE), outEdge.add(outSize)));
+	}
+
+	/**
+	 * The last plaintext that goes to the left half of the output range at the node with the
+	 * given ranges. mid is the last ciphertext of the left half.
+	 *
+	 * @param inRange
+	 * @param outRange
+	 * @param mid
+	 * @return
+	 */
+	BigInteger split(ValueRange inRange, ValueRange outRange, BigInteger mid) {
+		Coins coins = new Coins(this.key, mid, this.pyope);
+		return sampleHGD(inRange, outRange, mid, coins, this.pyope);
+	}
+
+	/**
+	 * The ciphertext of ptxt, the only plaintext left, in outRange
+	 *
+	 * @param outRange
+	 * @param ptxt
+	 * @return
+	 */
+	BigInteger leaf(ValueRange outRange, BigInteger ptxt) {
+		Coins coins = new Coins(this.key, ptxt, this.pyope);
+		return sampleUniform(outRange, coins, this.pyope);
+	}
+
+	private static BigInteger mid(ValueRange outRange) {
+		BigDecimal two = new BigDecimal("2");
+		BigInteger m = new BigDecimal(outRange.size()).divide(two, PRECISION, RoundingMode.CEILING)
+				.toBigInteger();
+		return outRange.start.subtract(BigInteger.ONE).add(m);
+	}
+
 	/**
 	 * Uniformly select a number from the range using the bit list as a source of randomness
 	 *
 	 * @param outRange
 	 * @param coins
+	 * @param pyope round the middle down as pyope instead of toward zero
 	 * @return
 	 */
-	private static BigInteger sampleUniform(ValueRange inRange, Coins coins) {
+	private static BigInteger sampleUniform(ValueRange inRange, Coins coins, boolean pyope) {
 
 		ValueRange curRange = new ValueRange(inRange);
 
@@ -134,7 +239,8 @@ public class OPE {
 
 			// System.out.println(curRange.start + " " + curRange.end);
 
-			BigInteger mid = curRange.start.add(curRange.end).divide(new BigInteger("2"));
+			BigInteger mid = pyope ? curRange.start.add(curRange.end).shiftRight(1)
+					: curRange.start.add(curRange.end).divide(new BigInteger("2"));
 
 			boolean bit = coins.next();
 			if (bit == false)
@@ -151,7 +257,7 @@ public class OPE {
 	}
 
 	private static BigInteger sampleHGD(ValueRange inRange, ValueRange outRange,
-			BigInteger nSample, Coins coins) {
+			BigInteger nSample, Coins coins, boolean pyope) {
 
 		BigInteger inSize = inRange.size();
 		BigInteger outSize = outRange.size();
@@ -165,7 +271,12 @@ public class OPE {
 		if (inSize.compareTo(outSize) == 0)
 			return inRange.start.add(nSampleIndex).subtract(BigInteger.ONE);
 
-		BigInteger inSampleNum = Hgd.rhyper(nSampleIndex, inSize, outSize, coins);
+		BigInteger inSampleNum;
+		if (pyope)
+			inSampleNum = BigInteger.valueOf(PyopeHgd.rhyper(nSampleIndex.longValue(),
+					inSize.longValue(), outSize.subtract(inSize).longValue(), coins));
+		else
+			inSampleNum = Hgd.rhyper(nSampleIndex, inSize, outSize, coins);
 
 		if (inSampleNum.compareTo(BigInteger.ZERO) == 0)
 			return inRange.start;
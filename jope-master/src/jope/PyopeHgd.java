@@ -0,0 +1,165 @@
+package jope;
+
+import java.math.BigInteger;
+
+/**
+ * Hypergeometric sampling of pyope (pyope/hgd.py), line by line.
+ *
+ * Python 2 integers are longs here and Python floats are doubles. The one
+ * integer product that can overflow a long, (popsize - m) * sample, is done
+ * exactly before it is rounded to a double, as Python does. With the same
+ * coins this gives the same samples as pyope, so ciphertexts of the Python
+ * scripts in encryption/lib decrypt with jope and the other way around.
+ */
+public class PyopeHgd {
+
+	private final static double TWO_32 = 4294967295.0;
+	private final static double D1 = 1.7155277699214135;
+	private final static double D2 = 0.8989161620588988;
+	private final static double LOG_2PI = 0.5 * Math.log(2 * Math.PI);
+
+	private final static double[] a = new double[] { 8.333333333333333e-02,
+			-2.777777777777778e-03, 7.936507936507937e-04, -5.952380952380952e-04,
+			8.417508417508418e-04, -1.917526917526918e-03, 6.410256410256410e-03,
+			-2.955065359477124e-02, 1.796443723688307e-01, -1.39243221690590e+00 };
+
+	/**
+	 * 32 coins as an unsigned integer, most significant bit first, scaled to [0, 1]
+	 *
+	 * @param coins
+	 * @return
+	 */
+	public static double prngDraw(Coins coins) {
+		long out = 0;
+		for (int i = 0; i < 32; i++)
+			out = (out << 1) | (coins.next() ? 1 : 0);
+		return out / TWO_32;
+	}
+
+	/**
+	 * The number of white balls drawn when kk balls are drawn from an urn with nn1 white and
+	 * nn2 black balls
+	 *
+	 * @param kk
+	 * @param nn1
+	 * @param nn2
+	 * @param coins
+	 * @return
+	 */
+	public static long rhyper(long kk, long nn1, long nn2, Coins coins) {
+		if (kk > 10)
+			return hypergeometricHrua(coins, nn1, nn2, kk);
+		else
+			return hypergeometricHyp(coins, nn1, nn2, kk);
+	}
+
+	private static long hypergeometricHyp(Coins coins, long good, long bad, long sample) {
+		long d1 = bad + good - sample;
+		double d2 = Math.min(bad, good);
+
+		double Y = d2;
+		long K = sample;
+		while (Y > 0.0) {
+			double U = prngDraw(coins);
+			Y -= (long) Math.floor(U + Y / (d1 + K));
+			K--;
+			if (K == 0)
+				break;
+		}
+
+		long Z = (long) (d2 - Y);
+		if (good > bad)
+			Z = sample - Z;
+		return Z;
+	}
+
+	private static long hypergeometricHrua(Coins coins, long good, long bad, long sample) {
+		long mingoodbad = Math.min(good, bad);
+		long popsize = good + bad;
+		long maxgoodbad = Math.max(good, bad);
+		long m = Math.min(sample, popsize - sample);
+		double d4 = (double) mingoodbad / popsize;
+		double d5 = 1.0 - d4;
+		double d6 = m * d4 + 0.5;
+		double d7 = Math.sqrt(product(popsize - m, sample) * d4 * d5 / (popsize - 1) + 0.5);
+		double d8 = D1 * d7 + D2;
+		long d9 = (long) Math.floor((double) (m + 1) * (mingoodbad + 1) / (popsize + 2));
+		double d10 = loggam(d9 + 1) + loggam(mingoodbad - d9 + 1) + loggam(m - d9 + 1)
+				+ loggam(maxgoodbad - m + d9 + 1);
+		double d11 = Math.min(Math.min(m, mingoodbad) + 1.0, Math.floor(d6 + 16 * d7));
+
+		long Z;
+		while (true) {
+			double X = prngDraw(coins);
+			double Y = prngDraw(coins);
+			double W = d6 + d8 * (Y - 0.5) / X;
+
+			// fast rejection
+			if (W < 0.0 || W >= d11)
+				continue;
+
+			Z = (long) Math.floor(W);
+			double T = d10 - (loggam(Z + 1) + loggam(mingoodbad - Z + 1) + loggam(m - Z + 1)
+					+ loggam(maxgoodbad - m + Z + 1));
+
+			// fast acceptance
+			if ((X * (4.0 - X) - 3.0) <= T)
+				break;
+
+			// fast rejection
+			if (X * (X - T) >= 1)
+				continue;
+
+			// acceptance
+			if (2.0 * Math.log(X) <= T)
+				break;
+		}
+
+		if (good > bad)
+			Z = m - Z;
+
+		if (m < sample)
+			Z = good - Z;
+
+		return Z;
+	}
+
+	/**
+	 * float(x * y) in Python: the exact product rounded once
+	 */
+	private static double product(long x, long y) {
+		long high = Math.multiplyHigh(x, y);
+		long low = x * y;
+		if ((high == 0 && low >= 0) || (high == -1 && low < 0))
+			return low;
+		return BigInteger.valueOf(x).multiply(BigInteger.valueOf(y)).doubleValue();
+	}
+
+	/**
+	 * ln(Gamma(x)) for x >= 1
+	 */
+	private static double loggam(double x) {
+		double x0 = x;
+		int n = 0;
+		if (x == 1.0 || x == 2.0)
+			return 0.0;
+		else if (x <= 7.0) {
+			n = (int) (7 - x);
+			x0 = x + n;
+		}
+		double x2 = 1.0 / (x0 * x0);
+		double gl0 = a[9];
+		for (int k = 8; k >= 0; k--) {
+			gl0 *= x2;
+			gl0 += a[k];
+		}
+		double gl = gl0 / x0 + LOG_2PI + (x0 - 0.5) * Math.log(x0) - x0;
+		if (x <= 7.0) {
+			for (int k = 1; k <= n; k++) {
+				gl -= Math.log(x0 - 1.0);
+				x0 -= 1.0;
+			}
+		}
+		return gl;
+	}
+}
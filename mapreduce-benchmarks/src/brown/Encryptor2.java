@@ -1,17 +1,28 @@
 package brown;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import encryption.AHEncryptor;
-import encryption.DETEncryptor;
-import encryption.RNDEncryptor;
+
+import encryption.Column;
+import encryption.EncryptionPipeline;
+import encryption.Encryptors;
+import encryption.Schema;
+import encryption.Scheme;
+import encryption.Scheme.Type;
 
 public class Encryptor2 {
 
+	/*
+	 * DET of the ip and of its first 7 characters, separated by &
+	 */
+	static final Column IP = (text, start, end, encryptors, out) -> {
+		String ip = text.substring(start, end);
+		out.append(encryptors.det().encrypt(ip)).append('&').append(encryptors.det().encrypt(ip.substring(0, 7)));
+	};
+
+	static final Schema USERVISITS = new Schema('\t').add(IP).add(new Schema('|').add(2, Scheme.RND, Type.STRING)
+			.add(Scheme.AH, Type.DOUBLE).add(4, Scheme.RND, Type.STRING).add(Scheme.RND, Type.INT));
+
 	static void printUsage() {
 		System.out.println("Usage: java Encryptor2 <input folder> <output folder>");
 		System.exit(1);
@@ -32,43 +43,18 @@ public class Encryptor2 {
 		} else
 			outputFolder.mkdirs();
 
-		AHEncryptor ah = new AHEncryptor(args[1]);
-		RNDEncryptor rnd = new RNDEncryptor();
-		DETEncryptor det = new DETEncryptor();
-		int bufferedSize = 1024 * 1024;
+		EncryptionPipeline pipeline = new EncryptionPipeline(new Encryptors(args[1]));
 		for (File file : inputFolder.listFiles()) {
 			System.out.println("Encrypting file " + file.getName() + "...");
-			encryptUservisits(file, bufferedSize, outputFolder, det, ah, rnd);
-		}
-	}
-	
-	private static void encryptUservisits(File file, int bufferedSize, File outputFolder, DETEncryptor det,
-			AHEncryptor ah, RNDEncryptor rnd) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
 			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-			outFile.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				StringBuffer outline = new StringBuffer();
-				int indexTab = line.indexOf(9);
-				String ip = line.substring(0, indexTab);
-				outline.append(det.encrypt(ip) + '&' + det.encrypt(ip.substring(0, 7)) + "\t");
-				String[] fields = line.substring(indexTab + 1).split("\\|");
-				outline.append(rnd.encrypt(fields[0]) + "|" + rnd.encrypt(fields[1]) + "|");
-				outline.append(ah.encrypt(Double.parseDouble(fields[2])) + "|");
-				for (int i = 3; i < 7; i++)
-					outline.append(rnd.encrypt(fields[i]) + "|");
-				outline.append(rnd.encrypt(Integer.parseInt(fields[7])));
-				outline.append("\n");
-				out.write(outline.toString());
+			try {
+				pipeline.encrypt(file, outFile, USERVISITS);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			in.close();
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		pipeline.shutdown();
+		pipeline.getEncryptors().close();
 	}
 
 }
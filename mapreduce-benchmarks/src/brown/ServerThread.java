@@ -18,10 +18,7 @@ public class ServerThread implements Runnable {
 		try {
 			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
 			String total_adRevenue_AH = (String) in.readObject();
-			double total_adRevenue = 0;
-			synchronized (ah) {
-				total_adRevenue = ah.decrypt(total_adRevenue_AH).decodeDouble();
-			}
+			double total_adRevenue = ah.decrypt(total_adRevenue_AH).decodeDouble();
 			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
 			out.writeDouble(total_adRevenue);
 			out.flush();
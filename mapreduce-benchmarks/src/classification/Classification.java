@@ -1,11 +1,10 @@
 package classification;
 
+import java.io.DataInput;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.math.BigInteger;
-import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Base64.Decoder;
 
@@ -22,6 +21,8 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.DecryptionPipeline;
+import encryption.DotProduct;
 import encryption.Util;
 
 public class Classification {
@@ -42,6 +43,8 @@ public class Classification {
 
 	public static Cluster[] centroids = new Cluster[maxClusters];
 	public static Cluster[] centroids_ref = new Cluster[maxClusters];
+	// the clusters and ratings of each reviewer of the centroids_ref, see indexRaters
+	public static Map<ByteBuffer, int[]> raters = new HashMap<ByteBuffer, int[]>();
 
 	public static String strModelFile = "hdfs://cluster-m:8020/user/root/initial_centroidsCipher";
 	// Input data should have the following format. Each line of input record
@@ -52,14 +55,15 @@ public class Classification {
 
 	public static class MapClass extends MapReduceBase implements Mapper<LongWritable, Text, IntWritable, Text> {
 
-		private int totalClusters, totalNumOfLines, count, portNumber = 44444;
-		private String[][] sq_aArray, numerArray;
-		private int[][] sq_bArray;
+		private int totalClusters, portNumber = 44444;
+		// the movie ids waiting for their closest cluster
+		private DecryptionPipeline<String> pipeline;
+		private OutputCollector<IntWritable, Text> output;
+		private Reporter reporter;
 		private PaillierContext context;
 		private String hostName;
 		private PaillierPublicKey pub;
 		private EncryptedNumber zero;
-		private String[] movieIdStrArray;
 
 		public void configure(JobConf conf) {
 			try {
@@ -71,12 +75,18 @@ public class Classification {
 			pub = new PaillierPublicKey(new BigInteger(pubKey));
 			context = pub.createSignedContext();
 			hostName = conf.get("hostname");
-			totalNumOfLines = Integer.parseInt(conf.get("totalNumOfLines"));
-			sq_aArray = new String[totalNumOfLines][totalClusters];
-			numerArray = new String[totalNumOfLines][totalClusters];
-			sq_bArray = new int[totalNumOfLines][totalClusters];
-			movieIdStrArray = new String[totalNumOfLines];
 			zero = context.encrypt(0);
+			try {
+				pipeline = new DecryptionPipeline<String>(hostName, portNumber, 2 * totalClusters, totalClusters,
+						conf.getInt(DecryptionPipeline.BATCH_PROPERTY, DecryptionPipeline.BATCH),
+						conf.getInt(DecryptionPipeline.IN_FLIGHT_PROPERTY, DecryptionPipeline.IN_FLIGHT), this::emit);
+			} catch (UnknownHostException e) {
+				System.err.println("Don't know about host " + hostName);
+				System.exit(1);
+			} catch (IOException e) {
+				System.err.println("Couldn't get I/O for the connection to " + hostName);
+				System.exit(1);
+			}
 		}
 
 		public void map(LongWritable key, Text value, OutputCollector<IntWritable, Text> output, Reporter reporter)
@@ -87,26 +97,27 @@ public class Classification {
 			String reviews = new String();
 			String line = new String();
 			String tok = new String("");
-			byte[] movieId, rater, userId;
-			int p, q, r, rating, movieIndex;
+			byte[] movieId, userId;
+			int p, r, rating, movieIndex;
 			int[] n = new int[maxClusters];
 			int[] sq_b = new int[maxClusters];
-			EncryptedNumber[] numer = new EncryptedNumber[maxClusters];
+			DotProduct[] numer = new DotProduct[maxClusters];
 			EncryptedNumber[] sq_a = new EncryptedNumber[maxClusters];
 			Cluster movie = new Cluster();
 			EncryptedNumber review, reviewSquare;
 
+			this.output = output;
+			this.reporter = reporter;
 			line = ((Text) value).toString();
 			movieIndex = line.indexOf(":");
 			for (r = 0; r < maxClusters; r++) {
-				numer[r] = zero;
+				numer[r] = new DotProduct(zero);
 				sq_a[r] = zero;
 				sq_b[r] = 0;
 				n[r] = 0;
 			}
 			if (movieIndex > 0) {
 				movieIdStr = line.substring(0, movieIndex);
-				movieIdStrArray[count] = movieIdStr;
 				movieId = decoder.decode(movieIdStr);
 				movie.movie_id_sen = movieId;
 				reviews = line.substring(movieIndex + 1);
@@ -121,61 +132,40 @@ public class Classification {
 					int index = reviewStr.indexOf('&');
 					review = Util.getAHCipher(reviewStr.substring(0, index), context);
 					reviewSquare = Util.getAHCipher(reviewStr.substring(index + 1), context);
-					for (r = 0; r < totalClusters; r++) {
-						for (q = 0; q < centroids_ref[r].total; q++) {
-							rater = centroids_ref[r].reviews.get(q).rater_id_sen;
-							rating = (int) centroids_ref[r].reviews.get(q).rating;
-							if (Arrays.equals(rater, userId)) {
-								// numer[r] += (float) (review * rating);
-								EncryptedNumber mul = context.multiply(review, context.encode(rating));
-								numer[r] = context.add(numer[r], mul);
-								// sq_a[r] += (float) (review * review);
-								sq_a[r] = context.add(sq_a[r], reviewSquare);
-								sq_b[r] += rating * rating;
-								n[r]++; // counter
-								break; // to avoid multiple ratings by the same
-										// reviewer
-							}
-						}
+					// the centroids with a rating by the same reviewer
+					int[] ratings = raters.get(ByteBuffer.wrap(userId));
+					for (int m = 0; ratings != null && m < ratings.length; m += 2) {
+						r = ratings[m];
+						rating = ratings[m + 1];
+						// numer[r] += (float) (review * rating);
+						numer[r].add(review, rating);
+						// sq_a[r] += (float) (review * review);
+						sq_a[r] = context.add(sq_a[r], reviewSquare);
+						sq_b[r] += rating * rating;
+						n[r]++; // counter
 					}
 				}
+				EncryptedNumber[] ctexts = new EncryptedNumber[2 * totalClusters];
 				for (p = 0; p < totalClusters; p++) {
-					sq_aArray[count][p] = Util.getAHString(sq_a[p]);
-					sq_bArray[count][p] = sq_b[p];
-					numerArray[count][p] = Util.getAHString(numer[p]);
-				}
-				count++;
-				if (count == totalNumOfLines) {
-					try {
-						Socket socket = new Socket(hostName, portNumber);
-						ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-						out.writeInt(totalClusters);
-						for (int i = 0; i < count; i++) {
-							for (p = 0; p < totalClusters; p++) {
-								out.writeObject(sq_aArray[i][p]);
-								out.writeInt(sq_bArray[i][p]);
-								out.writeObject(numerArray[i][p]);
-							}
-						}
-						ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-						for (int i = 0; i < count; i++) {
-							int clusterId = in.readInt();
-							output.collect(new IntWritable(clusterId), new Text(movieIdStrArray[i]));
-							reporter.incrCounter(Counter.WORDS, 1);
-						}
-						socket.close();
-					} catch (UnknownHostException e) {
-						System.err.println("Don't know about host " + hostName);
-						System.exit(1);
-					} catch (IOException e) {
-						System.err.println("Couldn't get I/O for the connection to " + hostName);
-						System.exit(1);
-					}
+					ctexts[2 * p] = sq_a[p];
+					ctexts[2 * p + 1] = numer[p].get();
 				}
+				pipeline.add(movieIdStr, ctexts, Arrays.copyOf(sq_b, totalClusters));
 			}
 		}
 
-		public void close() {
+		/*
+		 * Emits a movie id with the closest cluster from the server
+		 */
+		private void emit(String movieIdStr, DataInput in) throws IOException {
+			int clusterId = in.readInt();
+			output.collect(new IntWritable(clusterId), new Text(movieIdStr));
+			reporter.incrCounter(Counter.WORDS, 1);
+		}
+
+		@Override
+		public void close() throws IOException {
+			pipeline.close();
 		}
 	}
 
@@ -231,25 +221,40 @@ public class Classification {
 			}
 		}
 		opnScanner.close();
-		// implementing naive bubble sort as maxClusters is small
-		// sorting is done to assign top most cluster ids in each iteration
-		for (int pass = 1; pass < maxClusters; pass++) {
-			for (int u = 0; u < maxClusters - pass; u++) {
-				if (centroids_ref[u].movie_id < centroids_ref[u + 1].movie_id) {
-					Cluster temp = new Cluster(centroids_ref[u]);
-					centroids_ref[u] = centroids_ref[u + 1];
-					centroids_ref[u + 1] = temp;
-				}
-			}
-		}
+		// sorting is done to assign top most cluster ids in each iteration, a stable sort
+		Arrays.sort(centroids_ref, (a, b) -> Long.compare(b.movie_id, a.movie_id));
 		for (int l = 0; l < maxClusters; l++) {
 			if (centroids_ref[l].movie_id != -1) {
 				numClust++;
 			}
 		}
+		indexRaters(numClust);
 		return numClust;
 	}
 
+	/*
+	 * Indexes the ratings of the first numClust centroids by reviewer, as pairs of a cluster and
+	 * the first rating of the reviewer in its reviews
+	 */
+	static void indexRaters(int numClust) {
+		raters.clear();
+		for (int r = 0; r < numClust; r++) {
+			for (int q = 0; q < centroids_ref[r].total; q++) {
+				Review rv = centroids_ref[r].reviews.get(q);
+				ByteBuffer rater = ByteBuffer.wrap(rv.rater_id_sen);
+				int[] ratings = raters.get(rater);
+				if (ratings == null) {
+					raters.put(rater, new int[] { r, rv.rating });
+				} else if (ratings[ratings.length - 2] != r) {
+					ratings = Arrays.copyOf(ratings, ratings.length + 2);
+					ratings[ratings.length - 2] = r;
+					ratings[ratings.length - 1] = rv.rating;
+					raters.put(rater, ratings);
+				}
+			}
+		}
+	}
+
 	public static int main(String[] args) throws Exception {
 
 		int i;
@@ -275,8 +280,8 @@ public class Classification {
 			}
 		}
 		// Make sure there are exactly 2 parameters left.
-		if (other_args.size() != 5) {
-			System.out.println("ERROR: Wrong number of parameters: " + other_args.size() + " instead of 5.");
+		if (other_args.size() != 4) {
+			System.out.println("ERROR: Wrong number of parameters: " + other_args.size() + " instead of 4.");
 			printUsage();
 		}
 
@@ -288,7 +293,6 @@ public class Classification {
 		conf.setJobName("classification");
 		conf.set("pubKey", args[2]);
 		conf.set("hostname", args[3]);
-		conf.set("totalNumOfLines", args[4]);
 		conf.setInputFormat(NonSplittableTextInputFormat.class);
 		conf.setOutputKeyClass(IntWritable.class);
 		conf.setOutputValueClass(Text.class);
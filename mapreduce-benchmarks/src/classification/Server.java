@@ -1,35 +1,54 @@
 package classification;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+
+import com.n1analytics.paillier.EncodedNumber;
 
 import encryption.AHDecryptor;
+import encryption.DecryptionServer;
 
 public class Server {
 	
 	public static void main(String[] args) {
 		
-		if (args.length != 3) {
+		if (args.length != 1) {
 			System.out.println("ERROR: Wrong number of parameters.");
-			System.out.println("Usage: java Server <private key file> <totalNumOfLines> <port number>");
+			System.out.println("Usage: java Server <private key file>");
 		}
 		
-	    int portNumber = Integer.parseInt(args[2]);
-	    int totalNumOfLines = Integer.parseInt(args[1]);
-		ExecutorService executor = Executors.newFixedThreadPool(50);
+	    int portNumber = 44444;
 		try {
-			@SuppressWarnings("resource")
-			ServerSocket serverSocket = new ServerSocket(portNumber);
-		    AHDecryptor ah = new AHDecryptor(args[0]);
-			while (true) {
-				Runnable worker = new ServerThread(serverSocket.accept(), ah, totalNumOfLines);
-	            executor.execute(worker);
-			}
+			new DecryptionServer(new AHDecryptor(args[0]), new Similarity()).serve(portNumber);
 		} catch (IOException e) {
 			System.err.println("Could not listen on port " + portNumber);
 			System.exit(-1);
 		}
 	}
 
+	/**
+	 * A record is a movie: sq_a and numer for each cluster, and the ints sq_b. The reply is the
+	 * closest cluster.
+	 */
+	static class Similarity implements DecryptionServer.Handler {
+
+		public void reply(EncodedNumber[] plaintexts, int[] ints, DataOutput out) throws IOException {
+			int clusterId = 0;
+			float max_similarity = 0.0f;
+			for (int p = 0; p < ints.length; p++) {
+				int sq_a = (int) plaintexts[2 * p].decodeLong();
+				int sq_b = ints[p];
+				float denom = (float) ((Math.sqrt((double) sq_a)) * (Math.sqrt((double) sq_b)));
+				int numer = (int) plaintexts[2 * p + 1].decodeLong();
+				if (denom > 0) {
+					float similarity = numer / denom;
+					if (similarity > max_similarity) {
+						max_similarity = similarity;
+						clusterId = p;
+					}
+				}
+			}
+			out.writeInt(clusterId);
+		}
+	}
+
 }
@@ -91,8 +91,19 @@ public class Benchmark3 extends Configured implements Tool {
       if (base.getSequenceFile()) p2_job.setOutputFormat(SequenceFileOutputFormat.class);
       p2_job.setOutputKeyClass(Text.class);
       p2_job.setOutputValueClass(Text.class);
-      p2_job.setMapperClass(IdentityMapper.class);
-      p2_job.setReducerClass(base.getTupleData() ? edu.brown.cs.mapreduce.benchmarks.benchmark3.phase2.TupleWritableReduce.class : edu.brown.cs.mapreduce.benchmarks.benchmark3.phase2.TextReduce.class);
+      if (base.getTupleData()) {
+         p2_job.setMapperClass(IdentityMapper.class);
+         p2_job.setReducerClass(edu.brown.cs.mapreduce.benchmarks.benchmark3.phase2.TupleWritableReduce.class);
+      } else {
+         //
+         // The visits of a sourceIP are summed on the map side
+         //
+         p2_job.setMapOutputKeyClass(Text.class);
+         p2_job.setMapOutputValueClass(encryption.AHSums.class);
+         p2_job.setMapperClass(edu.brown.cs.mapreduce.benchmarks.benchmark3.phase2.TextMap.class);
+         p2_job.setCombinerClass(encryption.HomomorphicSumCombiner.class);
+         p2_job.setReducerClass(edu.brown.cs.mapreduce.benchmarks.benchmark3.phase2.TextReduce.class);
+      }
       p2_job.setCompressMapOutput(base.getCompress());
       
       // -------------------------------------------
@@ -0,0 +1,40 @@
+/**
+ * 
+ */
+package edu.brown.cs.mapreduce.benchmarks.benchmark3.phase2;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import edu.brown.cs.mapreduce.benchmarks.benchmark3.Benchmark3Base;
+import encryption.AHSums;
+
+/**
+ * Sends the adRevenue and the pageRank of each joined visit as AHSums, so that the
+ * HomomorphicSumCombiner adds them up before the shuffle.
+ */
+public class TextMap extends Benchmark3Base implements Mapper<Text, Text, Text, AHSums> {
+
+	private final AHSums visit = new AHSums(2);
+
+	public void map(Text key, Text value, OutputCollector<Text, AHSums> output, Reporter reporter)
+			throws IOException {
+		String fields[] = pattern.split(value.toString());
+		//
+		// <sourceIP> -> (<pageURL>, <pageRank>, <adRevenue>)
+		//
+		if (fields.length == 3) {
+			visit.set(1, fields[2], fields[1]);
+			output.collect(key, visit);
+		//
+		// Bad mojo!
+		//
+		} else {
+			System.err.println("ERROR: Unexpected value '" + value + "' for key '" + key + "' in Phase2Map");
+		}
+	}
+}
@@ -22,13 +22,14 @@ import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
 import edu.brown.cs.mapreduce.BenchmarkBase;
+import encryption.AHSums;
 import encryption.Util;
 
 /**
  * @author pavlo
  *
  */
-public class TextReduce extends BaseReduce implements Reducer<Text, Text, Text, Text> {
+public class TextReduce extends BaseReduce implements Reducer<Text, AHSums, Text, Text> {
 	
 	private PaillierContext context;
 	private PaillierPublicKey pub;
@@ -45,33 +46,18 @@ public class TextReduce extends BaseReduce implements Reducer<Text, Text, Text,
 	}
 	
 	public void reduce(Text key,
-			   Iterator<Text> values,
+			   Iterator<AHSums> values,
 			   OutputCollector<Text, Text> output,
 			   Reporter reporter) throws IOException {
 		if (this.output_text == null) this.output_text = output;
 		
-		EncryptedNumber total_adRevenue = zero;
-		Long counter = 0l;
-		EncryptedNumber total_pageRank = zero;
-		while (values.hasNext()) {
-			Text value = values.next();
-			String fields[] = pattern.split(value.toString());
-			//
-			// <sourceIP> -> (<pageURL>, <pageRank>, <adRevenue>)
-			//
-			if (fields.length == 3) {
-				total_adRevenue = context.add(total_adRevenue, Util.getAHCipher(fields[2], context));
-				total_pageRank = context.add(total_pageRank, Util.getAHCipher(fields[1], context));
-				//total_adRevenue += Double.parseDouble(fields[2]);
-				//total_pageRank += Long.parseLong(fields[1]);
-				counter++;
-			//
-			// Bad mojo!
-			//
-			} else {
-				System.err.println("ERROR: Unexpected value '" + value + "' for key '" + key + "' in Phase2Reduce");
-			}
-		} // WHILE
+		//
+		// <sourceIP> -> (<adRevenue>, <pageRank>) summed by TextMap and the combiner
+		//
+		AHSums sums = AHSums.sum(values, context);
+		EncryptedNumber total_adRevenue = sums.get(0, zero);
+		EncryptedNumber total_pageRank = sums.get(1, zero);
+		long counter = sums.getCount();
 		
 		Double total_adRevenue_clear = 0.0;
 		try {
@@ -1,9 +1,7 @@
 package histogramMovies;
+import java.io.DataInput;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.math.BigInteger;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.*;
 
@@ -30,6 +28,7 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.DecryptionPipeline;
 import encryption.Util;
 
 import org.apache.commons.logging.Log;
@@ -71,9 +70,11 @@ public class HistogramMovies extends Configured implements Tool {
 		private PaillierPublicKey pub;
 		private String hostName;
 		private PaillierContext context;
-		private String[] sumRatingsArray;
-		private int[] totalReviewsArray;
-		private int totalNumOfLines, count, portNumber = 44444;
+		// replies in the order of the movies, nothing to keep per movie
+		private DecryptionPipeline<Void> pipeline;
+		private OutputCollector<FloatWritable, IntWritable> output;
+		private Reporter reporter;
+		private int portNumber = 44444;
 		private EncryptedNumber zero;
 		
 		@Override
@@ -82,10 +83,19 @@ public class HistogramMovies extends Configured implements Tool {
 			pub = new PaillierPublicKey(new BigInteger(pubKey));
 			context = pub.createSignedContext();
 	        hostName = jobConf.get("hostname");
-	        totalNumOfLines = Integer.parseInt(jobConf.get("totalNumOfLines"));
-	        sumRatingsArray = new String[totalNumOfLines];
-	        totalReviewsArray = new int[totalNumOfLines];
+	        portNumber = jobConf.getInt(DecryptionPipeline.PORT_PROPERTY, portNumber);
 	        zero = context.encrypt(0);
+			try {
+				pipeline = new DecryptionPipeline<Void>(hostName, portNumber, 1, 1,
+						jobConf.getInt(DecryptionPipeline.BATCH_PROPERTY, DecryptionPipeline.BATCH),
+						jobConf.getInt(DecryptionPipeline.IN_FLIGHT_PROPERTY, DecryptionPipeline.IN_FLIGHT), this::emit);
+			} catch (UnknownHostException e) {
+				System.err.println("Don't know about host " + hostName);
+				System.exit(1);
+			} catch (IOException e) {
+				System.err.println("Couldn't get I/O for the connection to " + hostName);
+				System.exit(1);
+			}
 	    }
 		
 		public void map(LongWritable key, Text value, OutputCollector<FloatWritable, IntWritable> output,
@@ -93,54 +103,54 @@ public class HistogramMovies extends Configured implements Tool {
 
 			int movieIndex, reviewIndex;
 			int totalReviews = 0;
-			float outValue = 0f;
 			String reviews = new String();
 			String line = new String();
 			String tok = new String();
 			String ratingStr = new String();
+			this.output = output;
+			this.reporter = reporter;
 			line = ((Text) value).toString();
 			movieIndex = line.indexOf(":");
 			EncryptedNumber sumRatings = zero, rating;
 			if (movieIndex > 0) {
-				reviews = line.substring(movieIndex + 1);
+				// the ratings packed by HmEncryptor come after the reviews
+				int packedIndex = line.indexOf(";", movieIndex);
+				reviews = line.substring(movieIndex + 1, packedIndex < 0 ? line.length() : packedIndex);
 				StringTokenizer token = new StringTokenizer(reviews, ",");
 				while (token.hasMoreTokens()) {
 					tok = token.nextToken();
-					reviewIndex = tok.indexOf("_");
-					ratingStr = tok.substring(reviewIndex + 1);
-					rating = Util.getAHCipher(ratingStr, context);
-					sumRatings = context.add(rating, sumRatings);
+					if (packedIndex < 0) {
+						reviewIndex = tok.indexOf("_");
+						ratingStr = tok.substring(reviewIndex + 1);
+						rating = Util.getAHCipher(ratingStr, context);
+						sumRatings = context.add(rating, sumRatings);
+					}
 					totalReviews++;
 				}
-				sumRatingsArray[count] = Util.getAHString(sumRatings);
-				totalReviewsArray[count] = totalReviews;
-				count++;
-				if (count == totalNumOfLines) {
-					try {
-						Socket socket = new Socket(hostName, portNumber);
-						ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-						for (int i = 0; i < count; i++) {
-							out.writeObject(sumRatingsArray[i]);
-							out.writeInt(totalReviewsArray[i]);
-						}
-						out.flush();
-						ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-						for (int i = 0; i < count; i++) {
-							outValue = in.readFloat();
-							output.collect(new FloatWritable(outValue), one);
-							reporter.incrCounter(Counter.WORDS, 1);
-						}
-						socket.close();
-					} catch (UnknownHostException e) {
-						System.err.println("Don't know about host " + hostName);
-						System.exit(1);
-					} catch (IOException e) {
-						System.err.println("Couldn't get I/O for the connection to " + hostName);
-						System.exit(1);
+				if (packedIndex >= 0) {
+					token = new StringTokenizer(line.substring(packedIndex + 1), ",");
+					while (token.hasMoreTokens()) {
+						rating = Util.getAHCipher(token.nextToken(), context);
+						sumRatings = context.add(rating, sumRatings);
 					}
 				}
+				pipeline.add(null, new EncryptedNumber[] { sumRatings }, totalReviews);
 			}
 		}
+
+		/*
+		 * Emits the rounded average rating of a movie from the server
+		 */
+		private void emit(Void movie, DataInput in) throws IOException {
+			float outValue = in.readFloat();
+			output.collect(new FloatWritable(outValue), one);
+			reporter.incrCounter(Counter.WORDS, 1);
+		}
+
+		@Override
+		public void close() throws IOException {
+			pipeline.close();
+		}
 	}
 
 	public static class Reduce extends MapReduceBase
@@ -177,7 +187,6 @@ public class HistogramMovies extends Configured implements Tool {
 		JobConf conf = new JobConf(HistogramMovies.class);
 		conf.set("pubKey", args[2]);
 		conf.set("hostname", args[3]);
-		conf.set("totalNumOfLines", args[4]);
 		
 		conf.setJobName("histogram_movies");
 		conf.setInputFormat(NonSplittableTextInputFormat.class);
@@ -1,25 +1,96 @@
 package histogramMovies;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.util.Arrays;
 
-import encryption.AHEncryptor;
-import encryption.RNDEncryptor;
+import encryption.Column;
+import encryption.EncryptionPipeline;
+import encryption.Encryptors;
+import encryption.Schema;
+import encryption.Scheme;
+import encryption.Scheme.Type;
+import encryption.SlotPacking;
 
 public class HmEncryptor {
 
+	// movie:reviewer_rating,reviewer_rating,...
+	static final Schema INPUT = new Schema(':').add(Scheme.RND, Type.LONG)
+			.add(new Schema(',').rest(new Schema('_').add(Scheme.RND, Type.INT).add(Scheme.AH)));
+
+	// the ratings go from 1 to 5
+	static final int MAX_RATING = 5;
+
+	/**
+	 * movie:reviewer_,reviewer_,...;ratings,ratings,... with the ratings packed in the slots of
+	 * AH ciphertexts, added up by HistogramMovies with one addition per ciphertext
+	 */
+	static Schema packed(SlotPacking packing) {
+		return new Schema(':').add(Scheme.RND, Type.LONG).add(new PackedRatings(packing));
+	}
+
+	static class PackedRatings implements Column {
+
+		private static final Column REVIEWER = Scheme.RND.column(Type.INT);
+		private final SlotPacking packing;
+
+		PackedRatings(SlotPacking packing) {
+			this.packing = packing;
+		}
+
+		public void encrypt(String text, int start, int end, Encryptors encryptors, StringBuilder out) {
+			long[] ratings = new long[packing.getSlots()];
+			int slot = 0;
+			StringBuilder packed = new StringBuilder();
+			int from = start;
+			for (int i = start; i <= end; i++) {
+				if (i == end || text.charAt(i) == ',') {
+					// empty reviews, as after the last one, stay empty
+					if (from < i) {
+						int index = text.indexOf('_', from);
+						if (index < 0 || index > i) {
+							index = i;
+						}
+						REVIEWER.encrypt(text, from, index, encryptors, out);
+						if (index < i) {
+							out.append('_');
+						}
+						if (index + 1 < i) {
+							ratings[slot++] = Long.parseLong(text.substring(index + 1, i));
+							if (slot == ratings.length) {
+								pack(ratings, slot, encryptors, packed);
+								slot = 0;
+							}
+						}
+					}
+					if (i < end) {
+						out.append(',');
+					}
+					from = i + 1;
+				}
+			}
+			if (slot > 0) {
+				pack(ratings, slot, encryptors, packed);
+			}
+			out.append(';').append(packed);
+		}
+
+		private void pack(long[] ratings, int count, Encryptors encryptors, StringBuilder packed) {
+			if (packed.length() > 0) {
+				packed.append(',');
+			}
+			packed.append(encryptors.ah().encrypt(packing, Arrays.copyOf(ratings, count)));
+		}
+	}
+
 	static void printUsage() {
-		System.out.println("Usage: java HmEncryptor <input folder> <output folder>");
+		System.out.println("Usage: java HmEncryptor <input folder> <output folder> [<max reviews per movie>]");
+		System.out.println("The ratings are packed in AH slots when the max number of reviews is given");
 		System.exit(1);
 	}
 
 	public static void main(String[] args) {
 
-		if (args.length != 2) {
+		if (args.length != 2 && args.length != 3) {
 			System.out.println("ERROR: Wrong number of parameters.");
 			printUsage();
 		}
@@ -32,40 +103,24 @@ public class HmEncryptor {
 		} else
 			outputFolder.mkdir();
 		
-		AHEncryptor ah = new AHEncryptor(args[1]);
-		RNDEncryptor rnd = new RNDEncryptor();
-		int bufferedSize = 1024 * 1024;
+		Encryptors encryptors = new Encryptors(args[1]);
+		Schema schema = INPUT;
+		if (args.length == 3) {
+			SlotPacking packing = encryptors.ah().plan(MAX_RATING, Long.parseLong(args[2]));
+			System.out.println("Packing the ratings in " + packing);
+			schema = packed(packing);
+		}
+		EncryptionPipeline pipeline = new EncryptionPipeline(encryptors);
 		for (File file : inputFolder.listFiles()) {
 			System.out.println("Encrypting file " + file.getName() + "...");
+			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
 			try {
-				BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
-				File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-				outFile.createNewFile();
-				BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-				String line = null;
-				while ((line = in.readLine()) != null) {
-					StringBuffer outline = new StringBuffer();
-					int movieIndex = line.indexOf(":");
-					long movieId = Long.parseLong(line.substring(0, movieIndex));
-					outline.append(rnd.encrypt(movieId) + ":");
-					String reviews = line.substring(movieIndex + 1);
-					StringTokenizer token = new StringTokenizer(reviews, ",");
-					while (token.hasMoreTokens()) {
-						String tok = token.nextToken();
-						int reviewIndex = tok.indexOf("_");
-						int reviewId = Integer.parseInt(tok.substring(0, reviewIndex));
-						outline.append(rnd.encrypt(reviewId) + "_");
-						String ratingStr = tok.substring(reviewIndex + 1);
-						outline.append(ah.encrypt(ratingStr) + ",");
-					}
-					outline.append("\n");
-					out.write(outline.toString());
-				}
-				in.close();
-				out.close();
+				pipeline.encrypt(file, outFile, schema);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
+		pipeline.shutdown();
+		encryptors.close();
 	}
 }
@@ -1,35 +1,69 @@
 package histogramMovies;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+
+import com.n1analytics.paillier.EncodedNumber;
 
 import encryption.AHDecryptor;
+import encryption.DecryptionServer;
+import encryption.SlotPacking;
 
 public class Server {
 	
 	public static void main(String[] args) {
 		
-		if (args.length != 3) {
+		if (args.length != 1 && args.length != 2) {
 			System.out.println("ERROR: Wrong number of parameters.");
-			System.out.println("Usage: java Server <private key file> <totalNumOfLines> <port number>");
+			System.out.println("Usage: java Server <private key file> [<max reviews per movie>]");
+			System.out.println("The max number of reviews is the one the ratings were packed for by HmEncryptor");
 		}
 		
-	    int portNumber = Integer.parseInt(args[2]);
-	    int totalNumOfLines = Integer.parseInt(args[1]);
-		ExecutorService executor = Executors.newFixedThreadPool(50);
+	    int portNumber = 44444;
 		try {
-			@SuppressWarnings("resource")
-			ServerSocket serverSocket = new ServerSocket(portNumber);
-		    AHDecryptor ah = new AHDecryptor(args[0]);
-			while (true) {
-				Runnable worker = new ServerThread(serverSocket.accept(), ah, totalNumOfLines);
-	            executor.execute(worker);
-			}
+			AHDecryptor decryptor = new AHDecryptor(args[0]);
+			SlotPacking packing = args.length == 2 ? decryptor.plan(HmEncryptor.MAX_RATING, Long.parseLong(args[1]))
+					: null;
+			new DecryptionServer(decryptor, new Rounding(packing)).serve(portNumber);
 		} catch (IOException e) {
 			System.err.println("Could not listen on port " + portNumber);
 			System.exit(-1);
 		}
 	}
 
+	/**
+	 * A record is a movie: the sum of its ratings, or of its packed ratings, and the int number
+	 * of reviews. The reply is the average rating rounded up to a half.
+	 */
+	static class Rounding implements DecryptionServer.Handler {
+
+		private final SlotPacking packing;
+
+		/**
+		 * @param packing
+		 *            the packing of the ratings, null if they are not packed
+		 */
+		Rounding(SlotPacking packing) {
+			this.packing = packing;
+		}
+
+		public void reply(EncodedNumber[] plaintexts, int[] ints, DataOutput out) throws IOException {
+			int sumRatings = (int) (packing == null ? plaintexts[0].decodeLong()
+					: packing.total(plaintexts[0].decodeBigInteger()));
+			int totalReviews = ints[0];
+			float avgReview = (float) sumRatings / (float) totalReviews;
+			float absReview = (float) Math.floor((double) avgReview);
+			float fraction = avgReview - absReview;
+			float division = 0.5f;
+			int limitInt = Math.round(1.0f / division);
+			float outValue = 0.0f;
+			for (int i = 1; i <= limitInt; i++) {
+				if (fraction < (division * i)) {
+					outValue = absReview + division * i;
+					break;
+				}
+			}
+			out.writeFloat(outValue);
+		}
+	}
+
 }
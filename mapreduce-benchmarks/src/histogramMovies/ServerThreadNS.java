@@ -18,10 +18,7 @@ public class ServerThreadNS implements Runnable {
 		try {
 			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
 			String sumRatingStr = (String) in.readObject(); // AH String
-			int sumRatings;
-			synchronized (ah) {
-				sumRatings = (int) ah.decrypt(sumRatingStr).decodeLong();
-			}
+			int sumRatings = (int) ah.decrypt(sumRatingStr).decodeLong();
 			int totalReviews = in.readInt();
 			float avgReview = (float) sumRatings / (float) totalReviews;
 			float absReview = (float) Math.floor((double) avgReview);
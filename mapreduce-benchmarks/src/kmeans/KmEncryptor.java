@@ -1,19 +1,42 @@
 package kmeans;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.StringTokenizer;
 
-import encryption.AHEncryptor;
-import encryption.DETEncryptor;
-import encryption.RNDEncryptor;
+import encryption.Column;
+import encryption.EncryptionPipeline;
+import encryption.Encryptors;
+import encryption.Schema;
+import encryption.Scheme;
+import encryption.Scheme.Type;
 
 public class KmEncryptor {
 
+	/*
+	 * AH of the rating and of its square, separated by &
+	 */
+	static final Column RATING = (text, start, end, encryptors, out) -> {
+		int rating = Integer.parseInt(text.substring(start, end));
+		out.append(encryptors.ah().encrypt(rating)).append('&').append(encryptors.ah().encrypt(rating * rating));
+	};
+
+	// movie:reviewer_rating,reviewer_rating,...
+	static final Schema INPUT = new Schema(':').add(Scheme.RND, Type.LONG)
+			.add(new Schema(',').rest(new Schema('_').add(Scheme.DET, Type.INT).add(RATING)));
+
+	static final Schema CENTROID_REVIEWS = new Schema(',').rest(new Schema('_').add(Scheme.DET, Type.INT));
+
+	/*
+	 * The reviews after the last space of a centroid, the rest is left as it is
+	 */
+	static final Column CENTROID = (text, start, end, encryptors, out) -> {
+		int index = text.lastIndexOf(' ', end - 1) + 1;
+		if (index <= start)
+			index = start;
+		out.append(text, start, index);
+		CENTROID_REVIEWS.encrypt(text, index, end, encryptors, out);
+	};
+
 	static void printUsage() {
 		System.out.println("Usage: java KmEncryptor <input folder> <output folder>");
 		System.exit(1);
@@ -34,84 +57,18 @@ public class KmEncryptor {
 		} else
 			outputFolder.mkdirs();
 
-		AHEncryptor ah = new AHEncryptor(args[1]);
-		RNDEncryptor rnd = new RNDEncryptor();
-		DETEncryptor det = new DETEncryptor();
-		int bufferedSize = 1024 * 1024;
+		EncryptionPipeline pipeline = new EncryptionPipeline(new Encryptors(args[1]));
 		for (File file : inputFolder.listFiles()) {
 			System.out.println("Encrypting file " + file.getName() + "...");
-			if (file.getName().startsWith("initial"))
-				encryptInit(outputFolder, det, bufferedSize, file);
-			else
-				encryptInput(outputFolder, ah, rnd, det, bufferedSize, file);
-		}
-	}
-
-	private static void encryptInit(File outputFolder, DETEncryptor det,
-			int bufferedSize, File file) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
-			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-			outFile.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				StringBuffer outline = new StringBuffer();
-				int index = line.lastIndexOf(' ') + 1;
-				outline.append(line.substring(0, index));
-				String reviews = line.substring(index);
-				StringTokenizer token = new StringTokenizer(reviews, ",");
-				while (token.hasMoreTokens()) {
-					String tok = token.nextToken();
-					int reviewIndex = tok.indexOf("_");
-					int reviewId = Integer.parseInt(tok.substring(0, reviewIndex));
-					outline.append(det.encrypt(reviewId) + "_");
-					outline.append(tok.substring(reviewIndex + 1) + ",");
-				}
-				outline.append("\n");
-				out.write(outline.toString());
-			}
-			in.close();
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	private static void encryptInput(File outputFolder, AHEncryptor ah, RNDEncryptor rnd, DETEncryptor det,
-			int bufferedSize, File file) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
 			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-			outFile.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				StringBuffer outline = new StringBuffer();
-				int movieIndex = line.indexOf(":");
-				String movieIdStr = line.substring(0, movieIndex);
-				long movieId = Long.parseLong(movieIdStr);
-				outline.append(rnd.encrypt(movieId) + ":");
-				String reviews = line.substring(movieIndex + 1);
-				StringTokenizer token = new StringTokenizer(reviews, ",");
-				while (token.hasMoreTokens()) {
-					String tok = token.nextToken();
-					int reviewIndex = tok.indexOf("_");
-					int reviewId = Integer.parseInt(tok.substring(0, reviewIndex));
-					outline.append(det.encrypt(reviewId) + "_");
-					String ratingStr = tok.substring(reviewIndex + 1);
-					outline.append(ah.encrypt(ratingStr) + "&");
-					int rating = Integer.parseInt(ratingStr);
-					outline.append(ah.encrypt(rating * rating) + ",");
-				}
-				outline.append("\n");
-				out.write(outline.toString());
+			try {
+				pipeline.encrypt(file, outFile, file.getName().startsWith("initial") ? CENTROID : INPUT);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			in.close();
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		pipeline.shutdown();
+		pipeline.getEncryptors().close();
 	}
 
 }
@@ -45,6 +45,7 @@ public class KmEncryptor {
 			else
 				encryptInput(outputFolder, ah, rnd, det, bufferedSize, file);
 		}
+		ah.close();
 	}
 
 	private static void encryptInit(File outputFolder, DETEncryptor det,
@@ -6,6 +6,7 @@ import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Base64.Decoder;
 
@@ -22,6 +23,7 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.DotProduct;
 import encryption.Util;
 
 public class Kmeans {
@@ -42,6 +44,8 @@ public class Kmeans {
 	}
 	public static Cluster[] centroids = new Cluster[maxClusters];
 	public static Cluster[] centroids_ref = new Cluster[maxClusters];
+	// the clusters and ratings of each reviewer of the centroids_ref, see indexRaters
+	public static Map<ByteBuffer, int[]> raters = new HashMap<ByteBuffer, int[]>();
 
 	public static String strModelFile = "hdfs://cluster-m:8020/user/root/initial_centroidsCipher";
 	// Input data should have the following format. Each line of input record
@@ -115,11 +119,11 @@ public class Kmeans {
 			String reviews = new String();
 			String line = new String();
 			String tok = new String("");
-			byte[] movieId, rater, userId;
-			int p, q, r, rating, movieIndex;
+			byte[] movieId, userId;
+			int p, r, rating, movieIndex;
 			int[] n = new int[maxClusters];
 			int[] sq_b = new int[maxClusters];
-			EncryptedNumber[] numer = new EncryptedNumber[maxClusters];
+			DotProduct[] numer = new DotProduct[maxClusters];
 			EncryptedNumber[] sq_a = new EncryptedNumber[maxClusters];
 			float max_similarity = 0.0f;
 			Cluster movie = new Cluster();
@@ -129,7 +133,7 @@ public class Kmeans {
 			line = ((Text) value).toString();
 			movieIndex = line.indexOf(":");
 			for (r = 0; r < maxClusters; r++) {
-				numer[r] = zero;
+				numer[r] = new DotProduct(zero);
 				sq_a[r] = zero;
 				sq_b[r] = 0;
 				n[r] = 0;
@@ -150,22 +154,17 @@ public class Kmeans {
 					int index = reviewStr.indexOf('&');
 					review = Util.getAHCipher(reviewStr.substring(0, index), context);
 					reviewSquare = Util.getAHCipher(reviewStr.substring(index + 1), context);
-					for (r = 0; r < totalClusters; r++) {
-						for (q = 0; q < centroids_ref[r].total; q++) {
-							rater = centroids_ref[r].reviews.get(q).rater_id_sen;
-							rating = (int) centroids_ref[r].reviews.get(q).rating;
-							if (Arrays.equals(rater, userId)) {
-								//numer[r] += (float) (review * rating);
-								EncryptedNumber mul = context.multiply(review, context.encode(rating));
-								numer[r] = context.add(numer[r], mul);
-								//sq_a[r] += (float) (review * review);
-								sq_a[r] = context.add(sq_a[r], reviewSquare);
-								sq_b[r] += rating * rating;
-								n[r]++; // counter
-								break; // to avoid multiple ratings by the same
-										// reviewer
-							}
-						}
+					// the centroids with a rating by the same reviewer
+					int[] ratings = raters.get(ByteBuffer.wrap(userId));
+					for (int m = 0; ratings != null && m < ratings.length; m += 2) {
+						r = ratings[m];
+						rating = ratings[m + 1];
+						// numer[r] += (float) (review * rating);
+						numer[r].add(review, rating);
+						// sq_a[r] += (float) (review * review);
+						sq_a[r] = context.add(sq_a[r], reviewSquare);
+						sq_b[r] += rating * rating;
+						n[r]++; // counter
 					}
 				}
 				//movies_arrl.movies.add(line);
@@ -174,7 +173,7 @@ public class Kmeans {
 				for (p = 0; p < totalClusters; p++) {
 					sq_aArray[count][p] = Util.getAHString(sq_a[p]);
 					sq_bArray[count][p] = sq_b[p];
-					numerArray[count][p] = Util.getAHString(numer[p]);
+					numerArray[count][p] = Util.getAHString(numer[p].get());
 				}
 				count++;
 				if (count == totalNumOfLines) {
@@ -332,25 +331,40 @@ public class Kmeans {
 			}
 		}
 		opnScanner.close();
-		// implementing naive bubble sort as maxClusters is small
-		// sorting is done to assign top most cluster ids in each iteration
-		for (int pass = 1; pass < maxClusters; pass++) {
-			for (int u = 0; u < maxClusters - pass; u++) {
-				if (centroids_ref[u].movie_id < centroids_ref[u + 1].movie_id) {
-					Cluster temp = new Cluster(centroids_ref[u]);
-					centroids_ref[u] = centroids_ref[u + 1];
-					centroids_ref[u + 1] = temp;
-				}
-			}
-		}
+		// sorting is done to assign top most cluster ids in each iteration, a stable sort
+		Arrays.sort(centroids_ref, (a, b) -> Long.compare(b.movie_id, a.movie_id));
 		for (int l = 0; l < maxClusters; l++) {
 			if (centroids_ref[l].movie_id != -1) {
 				numClust++;
 			}
 		}
+		indexRaters(numClust);
 		return numClust;
 	}
 
+	/*
+	 * Indexes the ratings of the first numClust centroids by reviewer, as pairs of a cluster and
+	 * the first rating of the reviewer in its reviews
+	 */
+	static void indexRaters(int numClust) {
+		raters.clear();
+		for (int r = 0; r < numClust; r++) {
+			for (int q = 0; q < centroids_ref[r].total; q++) {
+				Review rv = centroids_ref[r].reviews.get(q);
+				ByteBuffer rater = ByteBuffer.wrap(rv.rater_id_sen);
+				int[] ratings = raters.get(rater);
+				if (ratings == null) {
+					raters.put(rater, new int[] { r, rv.rating });
+				} else if (ratings[ratings.length - 2] != r) {
+					ratings = Arrays.copyOf(ratings, ratings.length + 2);
+					ratings[ratings.length - 2] = r;
+					ratings[ratings.length - 1] = rv.rating;
+					raters.put(rater, ratings);
+				}
+			}
+		}
+	}
+
 	public static int main(String[] args) throws Exception {
 
 		int i;
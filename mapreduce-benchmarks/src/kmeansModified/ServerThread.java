@@ -24,17 +24,11 @@ public class ServerThread implements Runnable {
 			for (int i = 0; i < totalNumOfLines; i++) {
 				for (int p = 0; p < totalClusters; p++) {
 					String sq_aCipher = (String) in.readObject();
-					int sq_a;
-					synchronized (ah) {
-						sq_a = (int) ah.decrypt(sq_aCipher).decodeLong();
-					}
+					int sq_a = (int) ah.decrypt(sq_aCipher).decodeLong();
 					int sq_b = in.readInt();
 					float denom = (float) ((Math.sqrt((double) sq_a)) * (Math.sqrt((double) sq_b)));
 					String numerCipher = (String) in.readObject();
-					int numer;
-					synchronized (ah) {
-						numer = (int) ah.decrypt(numerCipher).decodeLong();
-					}
+					int numer = (int) ah.decrypt(numerCipher).decodeLong();
 					if (denom > 0) {
 						float similarity = numer / denom;
 						if (similarity > max_similarityArray[i]) {
@@ -44,28 +44,29 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
-import encryption.Util;
+import encryption.AHWritable;
+import encryption.DETWritable;
+import encryption.OPEWritable;
 
 public class L12 {
 
     public static class HighestValuePagePerUser extends MapReduceBase
-        implements Mapper<LongWritable, Text, Text, Text>,
-        Reducer<Text, Text, Text, Text> {
+        implements Mapper<LongWritable, Text, DETWritable, OPEWritable>,
+        Reducer<DETWritable, OPEWritable, DETWritable, OPEWritable> {
 
-    	private BigInteger min;
-    	private String opeZeroStr;
+    	private OPEWritable min;
+    	private OPEWritable opeZero;
     	
     	@Override
     	public void configure(JobConf conf) {
-    		opeZeroStr = conf.get("opeZero");
-    		String minStr = conf.get("min");
-    		min = new BigInteger(minStr);
+    		opeZero = new OPEWritable(conf.get("opeZero"));
+    		min = new OPEWritable(conf.get("min"));
     	}
     	
     	public void map(
                 LongWritable k,
                 Text val,
-                OutputCollector<Text, Text> oc,
+                OutputCollector<DETWritable, OPEWritable> oc,
                 Reporter reporter) throws IOException {
 
             List<Text> fields = Library.splitLine(val, '');
@@ -73,30 +74,33 @@ public class L12 {
             // Filter out null users or query terms.
             if (fields.get(0).getLength() == 0 ||
                     fields.get(3).getLength() == 0) return;
+            DETWritable user = new DETWritable(fields.get(0).toString());
             Text f6 = fields.get(6);
             if (f6.getLength() == 0)
-            	oc.collect(fields.get(0), new Text(opeZeroStr));
+            	oc.collect(user, opeZero);
             else
-                oc.collect(fields.get(0), fields.get(6));
+                oc.collect(user, new OPEWritable(f6.toString()));
         }
 
         public void reduce(
-                Text key,
-                Iterator<Text> iter, 
-                OutputCollector<Text, Text> oc,
+                DETWritable key,
+                Iterator<OPEWritable> iter, 
+                OutputCollector<DETWritable, OPEWritable> oc,
                 Reporter reporter) throws IOException {
-        	BigInteger max = min;
+        	OPEWritable max = new OPEWritable();
+        	max.set(min);
             while (iter.hasNext()) {
-                BigInteger d = new BigInteger(iter.next().toString());
-                if (max.compareTo(d) < 0) max = d;
+            	// the values are reused by the iterator
+                OPEWritable d = iter.next();
+                if (max.compareTo(d) < 0) max.set(d);
             }
-            oc.collect(key, new Text(max.toString()));
+            oc.collect(key, max);
         }
     }
 
     public static class TotalTimespentPerTerm extends MapReduceBase
-        implements Mapper<LongWritable, Text, Text, Text>,
-        Reducer<Text, Text, Text, Text> {
+        implements Mapper<LongWritable, Text, DETWritable, AHWritable>,
+        Reducer<DETWritable, AHWritable, DETWritable, AHWritable> {
 
     	private PaillierContext context;
 		private PaillierPublicKey pub;
@@ -113,49 +117,49 @@ public class L12 {
 		public void map(
                 LongWritable k,
                 Text val,
-                OutputCollector<Text, Text> oc,
+                OutputCollector<DETWritable, AHWritable> oc,
                 Reporter reporter) throws IOException {
             List<Text> fields = Library.splitLine(val, '');
 
             // Filter out non-null users
             if (fields.get(0).getLength() != 0) return;
-            oc.collect(fields.get(3), fields.get(2));
+            oc.collect(new DETWritable(fields.get(3).toString()), new AHWritable(fields.get(2).toString()));
         }
 
         public void reduce(
-                Text key,
-                Iterator<Text> iter, 
-                OutputCollector<Text, Text> oc,
+                DETWritable key,
+                Iterator<AHWritable> iter, 
+                OutputCollector<DETWritable, AHWritable> oc,
                 Reporter reporter) throws IOException {
         	EncryptedNumber sum = zero;
             while (iter.hasNext()) {
-            	EncryptedNumber v = Util.getAHCipher(iter.next().toString(), context);
+            	EncryptedNumber v = iter.next().get(context);
             	sum = context.add(sum, v);
             }
-            oc.collect(key, new Text(Util.getAHString(sum)));
+            oc.collect(key, new AHWritable(sum));
         }
     }
 
     public static class QueriesPerAction extends MapReduceBase
-        implements Mapper<LongWritable, Text, Text, LongWritable>,
-        Reducer<Text, LongWritable, Text, LongWritable> {
+        implements Mapper<LongWritable, Text, DETWritable, LongWritable>,
+        Reducer<DETWritable, LongWritable, DETWritable, LongWritable> {
 
         public void map(
                 LongWritable k,
                 Text val,
-                OutputCollector<Text, LongWritable> oc,
+                OutputCollector<DETWritable, LongWritable> oc,
                 Reporter reporter) throws IOException {
             List<Text> fields = Library.splitLine(val, '');
             
             // Filter out non-null users and non-null queries
             if (fields.get(0).getLength() == 0 || fields.get(3).getLength() != 0) return;
-            oc.collect(fields.get(1), new LongWritable(1));
+            oc.collect(new DETWritable(fields.get(1).toString()), new LongWritable(1));
        }
 
         public void reduce(
-                Text key,
+                DETWritable key,
                 Iterator<LongWritable> iter, 
-                OutputCollector<Text, LongWritable> oc,
+                OutputCollector<DETWritable, LongWritable> oc,
                 Reporter reporter) throws IOException {
   
         	long cnt = 0;
@@ -182,8 +186,8 @@ public class L12 {
         lp.set("opeZero", args[3]);
         lp.set("min", args[4]);
         lp.setInputFormat(TextInputFormat.class);
-        lp.setOutputKeyClass(Text.class);
-        lp.setOutputValueClass(Text.class);
+        lp.setOutputKeyClass(DETWritable.class);
+        lp.setOutputValueClass(OPEWritable.class);
         lp.setMapperClass(HighestValuePagePerUser.class);
         lp.setCombinerClass(HighestValuePagePerUser.class);
         lp.setReducerClass(HighestValuePagePerUser.class);
@@ -200,8 +204,8 @@ public class L12 {
         lu.setJobName("L12 Find Total Timespent per Term");
         lu.set("pubKey", args[5]);
         lu.setInputFormat(TextInputFormat.class);
-        lu.setOutputKeyClass(Text.class);
-        lu.setOutputValueClass(Text.class);
+        lu.setOutputKeyClass(DETWritable.class);
+        lu.setOutputValueClass(AHWritable.class);
         lu.setMapperClass(TotalTimespentPerTerm.class);
         lu.setCombinerClass(TotalTimespentPerTerm.class);
         lu.setReducerClass(TotalTimespentPerTerm.class);
@@ -217,7 +221,7 @@ public class L12 {
         JobConf join = new JobConf(L12.class);
         join.setJobName("L12 Find Queries Per Action");
         join.setInputFormat(TextInputFormat.class);
-        join.setOutputKeyClass(Text.class);
+        join.setOutputKeyClass(DETWritable.class);
         join.setOutputValueClass(LongWritable.class);
         join.setMapperClass(QueriesPerAction.class);
         join.setCombinerClass(QueriesPerAction.class);
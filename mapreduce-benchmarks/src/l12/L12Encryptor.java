@@ -14,6 +14,7 @@ import java.util.StringJoiner;
 import encryption.AHEncryptor;
 import encryption.DETEncryptor;
 import encryption.RNDEncryptor;
+import jope.CachedOPE;
 import jope.OPE;
 
 public class L12Encryptor {
@@ -52,7 +53,7 @@ public class L12Encryptor {
 		AHEncryptor ah = new AHEncryptor(args[1]);
 		RNDEncryptor rnd = new RNDEncryptor();
 		DETEncryptor det = new DETEncryptor();
-		OPE ope = new OPE();
+		OPE ope = new CachedOPE();
 		String opeNumFile = args[1] + "/opeNum";
 		try (PrintWriter out = new PrintWriter(opeNumFile)) {
 			out.println("opeZero: " + ope.encrypt(new BigInteger("0")));
@@ -65,6 +66,7 @@ public class L12Encryptor {
 			System.out.println("Encrypting file " + file.getName() + "...");
 			encryptPageViews(file, bufferedSize, outputFolder, det, ah, rnd, ope);
 		}
+		ah.close();
 	}
 
 	private static void encryptPageViews(File file, int bufferedSize, File outputFolder, DETEncryptor det,
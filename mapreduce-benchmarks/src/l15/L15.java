@@ -17,6 +17,8 @@
  */
 package l15;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -30,6 +32,7 @@ import java.util.Map;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
@@ -46,13 +49,64 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.AHWritable;
+import encryption.DETWritable;
 import encryption.Util;
 
 public class L15 {
 
-	public static class ReadPageViews extends MapReduceBase implements Mapper<LongWritable, Text, Text, Text> {
+	/**
+	 * The action, and the DET and AH ciphertexts of the revenue and of the timespent of a page
+	 * view, as bytes. The revenue can be empty.
+	 */
+	public static class PageView implements Writable {
 
-		public void map(LongWritable k, Text val, OutputCollector<Text, Text> oc, Reporter reporter)
+		DETWritable action = new DETWritable();
+		DETWritable revenue = new DETWritable(), timespent = new DETWritable();
+		AHWritable revenueAH = new AHWritable(), timespentAH = new AHWritable();
+
+		void set(Text action, Text revenue, Text timespent) {
+			this.action.set(action.toString());
+			set(revenue.toString(), this.revenue, revenueAH);
+			set(timespent.toString(), this.timespent, timespentAH);
+		}
+
+		private static void set(String detAndAh, DETWritable det, AHWritable ah) {
+			int index = detAndAh.indexOf('&');
+			if (index > -1) {
+				det.set(detAndAh.substring(0, index));
+				ah.set(detAndAh.substring(index + 1));
+			} else {
+				det.set("");
+				ah.set("");
+			}
+		}
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			action.write(out);
+			revenue.write(out);
+			revenueAH.write(out);
+			timespent.write(out);
+			timespentAH.write(out);
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			action.readFields(in);
+			revenue.readFields(in);
+			revenueAH.readFields(in);
+			timespent.readFields(in);
+			timespentAH.readFields(in);
+		}
+	}
+
+	public static class ReadPageViews extends MapReduceBase implements Mapper<LongWritable, Text, DETWritable, PageView> {
+
+		private DETWritable user = new DETWritable();
+		private PageView view = new PageView();
+
+		public void map(LongWritable k, Text val, OutputCollector<DETWritable, PageView> oc, Reporter reporter)
 				throws IOException {
 
 			// Split the line
@@ -60,18 +114,17 @@ public class L15 {
 			if (fields.size() != 9)
 				return;
 
-			StringBuffer sb = new StringBuffer();
-			sb.append(fields.get(1).toString()); // action
-			sb.append('');
-			sb.append(fields.get(6).toString()); // estimated_revenue
-			sb.append('');
-			sb.append(fields.get(2).toString()); // timespent
-			sb.append('');
-			oc.collect(fields.get(0), new Text(sb.toString()));
+			// action, estimated_revenue and timespent
+			view.set(fields.get(1), fields.get(6), fields.get(2));
+			user.set(fields.get(0).toString());
+			oc.collect(user, view);
 		}
 	}
 
-	public static class Group extends MapReduceBase implements Reducer<Text, Text, Text, Text> {
+	public static class Group extends MapReduceBase implements Reducer<DETWritable, PageView, DETWritable, Text> {
+
+		// no revenue
+		private static final DETWritable NULL = new DETWritable();
 
 		private PaillierContext context;
 		private PaillierPublicKey pub;
@@ -85,37 +138,36 @@ public class L15 {
 			zero = context.encrypt(0);
 		}
 
-		public void reduce(Text key, Iterator<Text> iter, OutputCollector<Text, Text> oc, Reporter reporter)
-				throws IOException {
-			HashSet<Text> hash1 = new HashSet<>();
-			HashMap<String, String> hash2 = new HashMap<>();
-			HashMap<String, String> hash3 = new HashMap<>();
+		public void reduce(DETWritable key, Iterator<PageView> iter, OutputCollector<DETWritable, Text> oc,
+				Reporter reporter) throws IOException {
+			// the values are reused by the iterator, the DET ciphertexts are copied
+			HashSet<DETWritable> hash1 = new HashSet<>();
+			HashMap<DETWritable, AHWritable> hash2 = new HashMap<>();
+			HashMap<DETWritable, AHWritable> hash3 = new HashMap<>();
 			int cnt_per_combiner = 0;
 			while (iter.hasNext()) {
-				List<Text> vals = Library.splitLine(iter.next(), '');
+				PageView view = iter.next();
 				cnt_per_combiner++;
-				hash1.add(vals.get(0));
-				String val = vals.get(1).toString();
-				int index = val.indexOf('&');
-				if (index > -1)
-					hash2.put(val.substring(0, index), val.substring(index + 1));
+				hash1.add(new DETWritable(view.action.getBytes()));
+				if (!view.revenueAH.isEmpty())
+					hash2.put(new DETWritable(view.revenue.getBytes()),
+							new AHWritable(view.revenueAH.getCipher(), view.revenueAH.getExponent()));
 				else
-					hash2.put("null", "");
-				val = vals.get(2).toString();
-				index = val.indexOf('&');
-				hash3.put(val.substring(0, index), val.substring(index + 1));
+					hash2.put(NULL, new AHWritable());
+				hash3.put(new DETWritable(view.timespent.getBytes()),
+						new AHWritable(view.timespentAH.getCipher(), view.timespentAH.getExponent()));
 			}
 			EncryptedNumber rev = zero, ts = zero;
 			boolean exit = false;
-			for (String t : hash2.values())
+			for (AHWritable t : hash2.values())
 				if (t.isEmpty()) {
 					exit = true;
 					break;
 				} else
-					rev = context.add(rev, Util.getAHCipher(t, context));
+					rev = context.add(rev, t.get(context));
 			if (!exit)
-				for (String t : hash3.values())
-					ts = context.add(ts, Util.getAHCipher(t, context));
+				for (AHWritable t : hash3.values())
+					ts = context.add(ts, t.get(context));
 			StringBuffer sb = new StringBuffer();
 			sb.append((new Integer(hash1.size())).toString());
 			sb.append("");
@@ -144,7 +196,9 @@ public class L15 {
 		lp.setJobName("L15 Load Page Views");
 		lp.set("pubKey", args[3]);
 		lp.setInputFormat(TextInputFormat.class);
-		lp.setOutputKeyClass(Text.class);
+		lp.setMapOutputKeyClass(DETWritable.class);
+		lp.setMapOutputValueClass(PageView.class);
+		lp.setOutputKeyClass(DETWritable.class);
 		lp.setOutputValueClass(Text.class);
 		lp.setMapperClass(ReadPageViews.class);
 		lp.setReducerClass(Group.class);
@@ -1,33 +1,41 @@
 package l15;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.List;
-import java.util.StringJoiner;
-import encryption.AHEncryptor;
-import encryption.DETEncryptor;
-import encryption.RNDEncryptor;
+
+import encryption.Column;
+import encryption.EncryptionPipeline;
+import encryption.Encryptors;
+import encryption.Schema;
+import encryption.Scheme;
+import encryption.Scheme.Type;
 
 public class L15Encryptor {
 
+	// ^C separated ^D pairs, the values encrypted with RND
+	static final Schema MAP = new Schema('').rest(new Schema('').add(Scheme.PLAIN).add(Scheme.RND));
+
+	static final Schema PAGE_VIEWS = new Schema('').add(Scheme.DET).add(Scheme.DET, Type.INT)
+			.add(detAndAh(Type.INT)).add(Scheme.RND).add(2, Scheme.RND, Type.LONG).add(detAndAh(Type.DOUBLE))
+			.add(MAP).add(new Schema('').rest(MAP)); // ^B separated maps
+
 	static void printUsage() {
 		System.out.println("Usage: java L15Encryptor <input folder> <output folder>");
 		System.exit(1);
 	}
 
-	public static StringJoiner encryptMap(String map, RNDEncryptor rnd) {
-		List<String> kvps = Library.splitLine(map, ''); // ^C
-		StringJoiner sj = new StringJoiner("");
-		for (String potential : kvps) {
-			// Split potential on ^D
-			List<String> kv = Library.splitLine(potential, ''); // ^D
-			sj.add(kv.get(0) + '' + rnd.encrypt(kv.get(1))); // ^D
-		}
-		return sj;
+	/*
+	 * DET and AH of the same value, separated by &
+	 */
+	static Column detAndAh(Type type) {
+		Column det = Scheme.DET.column(type), ah = Scheme.AH.column(type);
+		return (text, start, end, encryptors, out) -> {
+			if (start < end) {
+				det.encrypt(text, start, end, encryptors, out);
+				out.append('&');
+				ah.encrypt(text, start, end, encryptors, out);
+			}
+		};
 	}
 
 	public static void main(String[] args) {
@@ -45,62 +53,18 @@ public class L15Encryptor {
 		} else
 			outputFolder.mkdirs();
 
-		AHEncryptor ah = new AHEncryptor(args[1]);
-		RNDEncryptor rnd = new RNDEncryptor();
-		DETEncryptor det = new DETEncryptor();
-		int bufferedSize = 1024 * 1024;
+		EncryptionPipeline pipeline = new EncryptionPipeline(new Encryptors(args[1]));
 		for (File file : inputFolder.listFiles()) {
 			System.out.println("Encrypting file " + file.getName() + "...");
-			encryptPageViews(file, bufferedSize, outputFolder, ah, rnd, det);
-		}
-	}
-
-	private static void encryptPageViews(File file, int bufferedSize, File outputFolder,
-			AHEncryptor ah, RNDEncryptor rnd, DETEncryptor det) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
 			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-			outFile.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				StringBuffer outline = new StringBuffer();
-				List<String> fields = Library.splitLine(line, '');
-				String user = fields.get(0);
-				outline.append((user.isEmpty() ? "" : det.encrypt(user)) + '');
-				outline.append(det.encrypt(Integer.parseInt(fields.get(1))) + '');
-				int f2 = Integer.parseInt(fields.get(2));
-				outline.append(det.encrypt(f2) + '&' + ah.encrypt(f2) + '');
-				String query = fields.get(3);
-				outline.append((query.isEmpty() ? "" : rnd.encrypt(query)) + '');
-				for (int i = 4; i < 6; i++) {
-					long field = Long.parseLong(fields.get(i));
-					outline.append(rnd.encrypt(field) + '');
-				}
-				String revStr = fields.get(6);
-				if (!revStr.isEmpty()) {
-					double revenue = Double.parseDouble(revStr);
-					outline.append(det.encrypt(revenue) + '&' + ah.encrypt(revenue));
-				}
-				outline.append(''); // ^A
-				outline.append(encryptMap(fields.get(7), rnd));
-				outline.append(''); // ^A
-				String mapBag = fields.get(8);
-				List<String> maps = Library.splitLine(mapBag, ''); // ^B
-				StringJoiner sj = new StringJoiner(""); // ^B
-				for (String map : maps) {
-					StringJoiner enMap = encryptMap(map, rnd);
-					sj.add(enMap.toString());
-				}
-				outline.append(sj);
-				outline.append("\n");
-				out.write(outline.toString());
+			try {
+				pipeline.encrypt(file, outFile, PAGE_VIEWS);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			in.close();
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		pipeline.shutdown();
+		pipeline.getEncryptors().close();
 	}
 
 }
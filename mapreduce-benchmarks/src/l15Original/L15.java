@@ -17,11 +17,9 @@
  */
 package l15Original;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.math.BigInteger;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -50,6 +48,9 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.AHWritable;
+import encryption.DecryptionBatch;
+import encryption.DecryptionClient;
 import encryption.Util;
 
 public class L15 {
@@ -136,6 +137,7 @@ public class L15 {
 
 	public static class Group extends MapReduceBase implements Reducer<Text, Text, Text, Text> {
 
+		private static final int BATCH = 1024;
 		private int portNumber = 44444;
 		private String hostName;
 
@@ -149,9 +151,9 @@ public class L15 {
 			HashSet<Text> hash1 = new HashSet<Text>();
 			HashSet<String> hash2 = new HashSet<>();
 			HashSet<Integer> hash3 = new HashSet<>();
-			Socket socket = null;
+			DecryptionClient client = null;
 			try {
-				socket = new Socket(hostName, portNumber);
+				client = new DecryptionClient(hostName, portNumber);
 			} catch (UnknownHostException e) {
 				System.err.println("Don't know about host " + hostName);
 				System.exit(1);
@@ -159,27 +161,24 @@ public class L15 {
 				System.err.println("Couldn't get I/O for the connection to " + hostName);
 				System.exit(1);
 			}
-			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			// the revenue and the time spent of up to BATCH values in a round trip
+			DecryptionBatch batch = new DecryptionBatch(2, 0);
 			while (iter.hasNext()) {
 				Text line = iter.next();
 				List<Text> vals = Library.splitLine(line, '');
 				hash1.add(vals.get(0));
-				out.writeObject(vals.get(1).toString());
-				String det = null;
-				try {
-					det = (String) in.readObject();
-				} catch (ClassNotFoundException e) {
-					e.printStackTrace();
+				batch.add(new AHWritable[] { new AHWritable(vals.get(1).toString()),
+						new AHWritable(vals.get(2).toString()) });
+				if (batch.size() == BATCH || !iter.hasNext()) {
+					DataInputStream in = client.call(batch);
+					for (int i = 0; i < batch.size(); i++) {
+						hash2.add(in.readUTF());
+						hash3.add(in.readInt());
+					}
+					batch.clear();
 				}
-				hash2.add(det);
-				out.writeObject(vals.get(2).toString());
-				int det2 = in.readInt();
-				hash3.add(det2);
 			}
-			out.writeObject(null);
-			out.close();
-			in.close();
+			client.close();
 			Double rev = 0.0;
 			int ts = 0;
 			for (String t : hash2)
@@ -53,6 +53,7 @@ public class L15Encryptor {
 			System.out.println("Encrypting file " + file.getName() + "...");
 			encryptPageViews(file, bufferedSize, outputFolder, ah, rnd, det);
 		}
+		ah.close();
 	}
 
 	private static void encryptPageViews(File file, int bufferedSize, File outputFolder,
@@ -1,10 +1,11 @@
 package l15Original;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+
+import com.n1analytics.paillier.EncodedNumber;
 
 import encryption.AHDecryptor;
+import encryption.DecryptionServer;
 
 public class Server {
 	
@@ -16,19 +17,25 @@ public class Server {
 		}
 		
 	    int portNumber = 44444;
-		ExecutorService executor = Executors.newFixedThreadPool(50);
 		try {
-			@SuppressWarnings("resource")
-			ServerSocket serverSocket = new ServerSocket(portNumber);
-		    AHDecryptor ah = new AHDecryptor(args[0]);
-			while (true) {
-				Runnable worker = new ServerThread(serverSocket.accept(), ah);
-	            executor.execute(worker);
-			}
+			new DecryptionServer(new AHDecryptor(args[0]), new Values()).serve(portNumber);
 		} catch (IOException e) {
 			System.err.println("Could not listen on port " + portNumber);
 			System.exit(-1);
 		}
 	}
 
+	/**
+	 * A record is the revenue and the time spent of a value of Group. The reply is the revenue
+	 * as a string and the time spent.
+	 */
+	static class Values implements DecryptionServer.Handler {
+
+		public void reply(EncodedNumber[] plaintexts, int[] ints, DataOutput out) throws IOException {
+			Double clear = plaintexts[0].decodeDouble();
+			out.writeUTF(clear.toString());
+			out.writeInt((int) plaintexts[1].decodeLong());
+		}
+	}
+
 }
@@ -44,17 +44,21 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.AHSums;
+import encryption.HomomorphicSumCombiner;
 import encryption.Util;
 
 public class L17 {
 
     public static class ReadPageViews extends MapReduceBase
-        implements Mapper<LongWritable, Text, Text, Text> {
+        implements Mapper<LongWritable, Text, Text, AHSums> {
+
+        private final AHSums row = new AHSums(6);
 
         public void map(
                 LongWritable k,
                 Text val,
-                OutputCollector<Text, Text> oc,
+                OutputCollector<Text, AHSums> oc,
                 Reporter reporter) throws IOException {
             List<Text> vals = Library.splitLine(val, '');
             if (vals.size() != 27) return;
@@ -118,93 +122,16 @@ public class L17 {
             	key.append(f24.substring(0, i24));
             key.append(vals.get(24).toString());
             
-            StringBuffer sb = new StringBuffer();
-            sb.append(f2.substring(i2 + 1));
-            sb.append("");
-            sb.append(f11.substring(i11 + 1));
-            sb.append("");
-            sb.append(f20.substring(i20 + 1));
-            sb.append("");
-            if (i6 > -1)
-            	sb.append(f6.substring(i6 + 1));
-            sb.append("");
-            if (i15 > -1)
-            	sb.append(f15.substring(i15 + 1));
-            sb.append("");
-            if (i24 > -1)
-            	sb.append(f24.substring(i24 + 1));
-            oc.collect(new Text(key.toString()), new Text(sb.toString()));
+            // the timespents and the revenues, summed by HomomorphicSumCombiner
+            row.set(1, f2.substring(i2 + 1), f11.substring(i11 + 1), f20.substring(i20 + 1),
+            		i6 > -1 ? f6.substring(i6 + 1) : "", i15 > -1 ? f15.substring(i15 + 1) : "",
+            		i24 > -1 ? f24.substring(i24 + 1) : "");
+            oc.collect(new Text(key.toString()), row);
         }
     }
 
-    public static class Combiner extends MapReduceBase
-        implements Reducer<Text, Text, Text, Text> {
-
-    	private PaillierContext context;
-		private PaillierPublicKey pub;
-		private EncryptedNumber zero;
-
-		@Override
-		public void configure(JobConf conf) {
-			String pubKey = conf.get("pubKey");
-			pub = new PaillierPublicKey(new BigInteger(pubKey));
-			context = pub.createSignedContext();
-			zero = context.encrypt(0);
-		}
-		
-		public void reduce(
-                Text key,
-                Iterator<Text> iter, 
-                OutputCollector<Text, Text> oc,
-                Reporter reporter) throws IOException {
-			int erCnt = 0;
-            EncryptedNumber tsSum = zero, tsSum1 = zero, tsSum2 = zero,
-            		erSum = zero, erSum1 = zero, erSum2 = zero;
-            while (iter.hasNext()) {
-                List<Text> vals = Library.splitLine(iter.next(), '');
-                EncryptedNumber v = Util.getAHCipher(vals.get(0).toString(), context);
-                tsSum = context.add(tsSum, v);
-                v = Util.getAHCipher(vals.get(1).toString(), context);
-                tsSum1 = context.add(tsSum1, v);
-                v = Util.getAHCipher(vals.get(2).toString(), context);
-                tsSum2 = context.add(tsSum2, v);
-                String vs = vals.get(3).toString();
-                if (!vs.isEmpty()) {
-                	v = Util.getAHCipher(vs, context);
-                    erSum = context.add(erSum, v);
-                }
-                vs = vals.get(4).toString();
-                if (!vs.isEmpty()) {
-                	v = Util.getAHCipher(vs, context);
-                    erSum1 = context.add(erSum1, v);
-                }
-                vs = vals.get(5).toString();
-                if (!vs.isEmpty()) {
-                	v = Util.getAHCipher(vs, context);
-                    erSum2 = context.add(erSum2, v);
-                }
-                erCnt++;
-            }
-            StringBuffer sb = new StringBuffer();
-            sb.append(Util.getAHString(tsSum));
-            sb.append("");
-            sb.append(Util.getAHString(tsSum1));
-            sb.append("");
-            sb.append(Util.getAHString(tsSum2));
-            sb.append("");
-            sb.append(Util.getAHString(erSum));
-            sb.append("");
-            sb.append(Util.getAHString(erSum1));
-            sb.append("");
-            sb.append(Util.getAHString(erSum2));
-            sb.append("");
-            sb.append((new Integer(erCnt)).toString());
-            oc.collect(key, new Text(sb.toString()));
-            reporter.setStatus("OK");
-        }
-    }
     public static class Group extends MapReduceBase
-        implements Reducer<Text, Text, Text, Text> {
+        implements Reducer<Text, AHSums, Text, Text> {
 
     	private PaillierContext context;
 		private PaillierPublicKey pub;
@@ -220,38 +147,15 @@ public class L17 {
 		
 		public void reduce(
                 Text key,
-                Iterator<Text> iter, 
+                Iterator<AHSums> iter, 
                 OutputCollector<Text, Text> oc,
                 Reporter reporter) throws IOException {
-        	int erCnt = 0;
-            EncryptedNumber tsSum = zero, tsSum1 = zero, tsSum2 = zero,
-            		erSum = zero, erSum1 = zero, erSum2 = zero;
-            while (iter.hasNext()) {
-                List<Text> vals = Library.splitLine(iter.next(), '');
-                EncryptedNumber v = Util.getAHCipher(vals.get(0).toString(), context);
-                tsSum = context.add(tsSum, v);
-                v = Util.getAHCipher(vals.get(1).toString(), context);
-                tsSum1 = context.add(tsSum1, v);
-                v = Util.getAHCipher(vals.get(2).toString(), context);
-                tsSum2 = context.add(tsSum2, v);
-                String vs = vals.get(3).toString();
-                if (!vs.isEmpty()) {
-                	v = Util.getAHCipher(vs, context);
-                    erSum = context.add(erSum, v);
-                }
-                vs = vals.get(4).toString();
-                if (!vs.isEmpty()) {
-                	v = Util.getAHCipher(vs, context);
-                    erSum1 = context.add(erSum1, v);
-                }
-                vs = vals.get(5).toString();
-                if (!vs.isEmpty()) {
-                	v = Util.getAHCipher(vs, context);
-                    erSum2 = context.add(erSum2, v);
-                }
-                erCnt++;
-            }
-            EncryptedNumber erAvg = erSum.divide(erCnt), erAvg1 = erSum1.divide(erCnt), erAvg2 = erSum2.divide(erCnt);
+            // the count is of the rows, whatever the combiner did
+            AHSums sums = AHSums.sum(iter, context);
+            long erCnt = sums.getCount();
+            EncryptedNumber tsSum = sums.get(0, zero), tsSum1 = sums.get(1, zero), tsSum2 = sums.get(2, zero);
+            EncryptedNumber erAvg = sums.get(3, zero).divide(erCnt), erAvg1 = sums.get(4, zero).divide(erCnt),
+            		erAvg2 = sums.get(5, zero).divide(erCnt);
             StringBuffer sb = new StringBuffer();
             sb.append(Util.getAHString(tsSum));
             sb.append("\t");
@@ -282,10 +186,12 @@ public class L17 {
         lp.setJobName("L17 Wide group by");
         lp.set("pubKey", args[3]);
         lp.setInputFormat(TextInputFormat.class);
+        lp.setMapOutputKeyClass(Text.class);
+        lp.setMapOutputValueClass(AHSums.class);
         lp.setOutputKeyClass(Text.class);
         lp.setOutputValueClass(Text.class);
         lp.setMapperClass(ReadPageViews.class);
-        lp.setCombinerClass(Combiner.class);
+        lp.setCombinerClass(HomomorphicSumCombiner.class);
         lp.setReducerClass(Group.class);
         Properties props = System.getProperties();
         for (Map.Entry<Object,Object> entry : props.entrySet()) {
@@ -53,6 +53,7 @@ public class L17Encryptor {
 			System.out.println("Encrypting file " + file.getName() + "...");
 			encryptPageViews(file, bufferedSize, outputFolder, det, ah, rnd);
 		}
+		ah.close();
 	}
 
 	private static void encryptPageViews(File file, int bufferedSize, File outputFolder, DETEncryptor det,
@@ -1,35 +1,31 @@
 package l3;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.List;
-import java.util.StringJoiner;
-import encryption.AHEncryptor;
-import encryption.DETEncryptor;
-import encryption.RNDEncryptor;
+
+import encryption.EncryptionPipeline;
+import encryption.Encryptors;
+import encryption.Schema;
+import encryption.Scheme;
+import encryption.Scheme.Type;
 
 public class L3Encryptor {
 
+	// ^C separated ^D pairs, the values encrypted with RND
+	static final Schema MAP = new Schema('').rest(new Schema('').add(Scheme.PLAIN).add(Scheme.RND));
+
+	static final Schema USERS = new Schema('').add(Scheme.DET).add(3, Scheme.RND, Type.STRING)
+			.add(Scheme.RND, Type.INT);
+
+	static final Schema PAGE_VIEWS = new Schema('').add(Scheme.DET).add(2, Scheme.RND, Type.INT)
+			.add(Scheme.RND).add(2, Scheme.RND, Type.LONG).add(Scheme.AH, Type.DOUBLE).add(MAP)
+			.add(new Schema('').rest(MAP)); // ^B separated maps
+
 	static void printUsage() {
 		System.out.println("Usage: java L3Encryptor <input folder> <output folder>");
 		System.exit(1);
 	}
 
-	public static StringJoiner encryptMap(String map, RNDEncryptor rnd) {
-		List<String> kvps = Library.splitLine(map, ''); // ^C
-		StringJoiner sj = new StringJoiner("");
-		for (String potential : kvps) {
-			// Split potential on ^D
-			List<String> kv = Library.splitLine(potential, ''); // ^D
-			sj.add(kv.get(0) + '' + rnd.encrypt(kv.get(1))); // ^D
-		}
-		return sj;
-	}
-
 	public static void main(String[] args) {
 
 		if (args.length != 2) {
@@ -45,96 +41,18 @@ public class L3Encryptor {
 		} else
 			outputFolder.mkdirs();
 
-		AHEncryptor ah = new AHEncryptor(args[1]);
-		RNDEncryptor rnd = new RNDEncryptor();
-		DETEncryptor det = new DETEncryptor();
-		int bufferedSize = 1024 * 1024;
+		EncryptionPipeline pipeline = new EncryptionPipeline(new Encryptors(args[1]));
 		for (File file : inputFolder.listFiles()) {
 			System.out.println("Encrypting file " + file.getName() + "...");
-			if (file.getName().equals("page_views"))
-				encryptPageViews(file, bufferedSize, outputFolder, det, ah, rnd);
-			else
-				encryptUsers(file, bufferedSize, outputFolder, det, rnd);
-		}
-	}
-
-	private static void encryptUsers(File file, int bufferedSize, File outputFolder, DETEncryptor det,
-			RNDEncryptor rnd) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
-			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-			outFile.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				StringBuffer outline = new StringBuffer();
-				List<String> fields = Library.splitLine(line, '');
-				String user = fields.get(0);
-				outline.append((user.isEmpty() ? "" : det.encrypt(user)) + '');
-				for (int i = 1; i < 4; i++) {
-					String field = fields.get(i);
-					outline.append((field.isEmpty() ? "" : rnd.encrypt(field)) + '');
-				}
-				if (fields.size() > 4) {
-					int zip = Integer.parseInt(fields.get(4));
-					outline.append(rnd.encrypt(zip));
-				}
-				outline.append("\n");
-				out.write(outline.toString());
-			}
-			in.close();
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	private static void encryptPageViews(File file, int bufferedSize, File outputFolder, DETEncryptor det,
-			AHEncryptor ah, RNDEncryptor rnd) {
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(file), bufferedSize);
 			File outFile = new File(outputFolder.getAbsolutePath() + File.separator + file.getName() + "Cipher");
-			outFile.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(outFile), bufferedSize);
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				StringBuffer outline = new StringBuffer();
-				List<String> fields = Library.splitLine(line, '');
-				String user = fields.get(0);
-				outline.append((user.isEmpty() ? "" : det.encrypt(user)) + '');
-				for (int i = 1; i < 3; i++) {
-					int field = Integer.parseInt(fields.get(i));
-					outline.append(rnd.encrypt(field) + '');
-				}
-				outline.append((user.isEmpty() ? "" : rnd.encrypt(fields.get(3))) + '');
-				for (int i = 4; i < 6; i++) {
-					long field = Long.parseLong(fields.get(i));
-					outline.append(rnd.encrypt(field) + '');
-				}
-				String revStr = fields.get(6);
-				if (!revStr.isEmpty()) {
-					double revenue = Double.parseDouble(revStr);
-					outline.append(ah.encrypt(revenue));
-				}
-				outline.append(''); // ^A
-				outline.append(encryptMap(fields.get(7), rnd));
-				outline.append(''); // ^A
-				String mapBag = fields.get(8);
-				List<String> maps = Library.splitLine(mapBag, ''); // ^B
-				StringJoiner sj = new StringJoiner(""); // ^B
-				for (String map : maps) {
-					StringJoiner enMap = encryptMap(map, rnd);
-					sj.add(enMap.toString());
-				}
-				outline.append(sj);
-				outline.append("\n");
-				out.write(outline.toString());
+			try {
+				pipeline.encrypt(file, outFile, file.getName().equals("page_views") ? PAGE_VIEWS : USERS);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			in.close();
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		pipeline.shutdown();
+		pipeline.getEncryptors().close();
 	}
 
 }
@@ -44,13 +44,18 @@ import com.n1analytics.paillier.EncryptedNumber;
 import com.n1analytics.paillier.PaillierContext;
 import com.n1analytics.paillier.PaillierPublicKey;
 
+import encryption.AHSums;
+import encryption.HomomorphicSumCombiner;
 import encryption.Util;
 
 public class L8 {
 
-	public static class ReadPageViews extends MapReduceBase implements Mapper<LongWritable, Text, Text, Text> {
+	public static class ReadPageViews extends MapReduceBase implements Mapper<LongWritable, Text, Text, AHSums> {
 
-		public void map(LongWritable k, Text val, OutputCollector<Text, Text> oc, Reporter reporter)
+		private final Text all = new Text("all");
+		private final AHSums row = new AHSums(2);
+
+		public void map(LongWritable k, Text val, OutputCollector<Text, AHSums> oc, Reporter reporter)
 				throws IOException {
 
 			// Split the line
@@ -58,56 +63,13 @@ public class L8 {
 			if (fields.size() != 9)
 				return;
 
-			StringBuffer sb = new StringBuffer();
-			sb.append(fields.get(2).toString());
-			sb.append("");
-			sb.append(fields.get(6).toString());
-			oc.collect(new Text("all"), new Text(sb.toString()));
-		}
-	}
-
-	public static class Combiner extends MapReduceBase implements Reducer<Text, Text, Text, Text> {
-
-		private PaillierContext context;
-		private PaillierPublicKey pub;
-		private EncryptedNumber zero;
-
-		@Override
-		public void configure(JobConf conf) {
-			String pubKey = conf.get("pubKey");
-			pub = new PaillierPublicKey(new BigInteger(pubKey));
-			context = pub.createSignedContext();
-			zero = context.encrypt(0);
-		}
-
-		public void reduce(Text key, Iterator<Text> iter, OutputCollector<Text, Text> oc, Reporter reporter)
-				throws IOException {
-			int erCnt = 0;
-			EncryptedNumber tsSum = zero, erSum = zero;
-			while (iter.hasNext()) {
-				List<Text> vals = Library.splitLine(iter.next(), '');
-				erCnt++;
-				Text ts = vals.get(0);
-				if (ts.getLength() > 0)
-					tsSum = context.add(tsSum, Util.getAHCipher(ts.toString(), context));
-				if (vals.size() > 1) {
-					Text er = vals.get(1);
-					if (er.getLength() > 0)
-					erSum = context.add(erSum, Util.getAHCipher(er.toString(), context));
-				}
-			}
-			StringBuffer sb = new StringBuffer();
-			sb.append(Util.getAHString(tsSum));
-			sb.append("");
-			sb.append(Util.getAHString(erSum));
-			sb.append("");
-			sb.append((new Integer(erCnt)).toString());
-			oc.collect(key, new Text(sb.toString()));
-			reporter.setStatus("OK");
+			// the timespent and the revenue, summed by HomomorphicSumCombiner
+			row.set(1, fields.get(2).toString(), fields.get(6).toString());
+			oc.collect(all, row);
 		}
 	}
 
-	public static class Group extends MapReduceBase implements Reducer<Text, Text, Text, Text> {
+	public static class Group extends MapReduceBase implements Reducer<Text, AHSums, Text, Text> {
 
 		private PaillierContext context;
 		private PaillierPublicKey pub;
@@ -121,23 +83,11 @@ public class L8 {
 			zero = context.encrypt(0);
 		}
 
-		public void reduce(Text key, Iterator<Text> iter, OutputCollector<Text, Text> oc, Reporter reporter)
+		public void reduce(Text key, Iterator<AHSums> iter, OutputCollector<Text, Text> oc, Reporter reporter)
 				throws IOException {
-			int erCnt = 0;
-			EncryptedNumber tsSum = zero, erSum = zero;
-			while (iter.hasNext()) {
-				List<Text> vals = Library.splitLine(iter.next(), '');
-				Text ts = vals.get(0);
-				if (ts.getLength() > 0)
-					tsSum = context.add(tsSum, Util.getAHCipher(ts.toString(), context));
-				if (vals.size() > 1) {
-					Text er = vals.get(1);
-					if (er.getLength() > 0)
-						erSum = context.add(erSum, Util.getAHCipher(er.toString(), context));
-				}
-				erCnt += Integer.valueOf(vals.get(2).toString());
-			}
-			EncryptedNumber erAvg = erSum.divide(erCnt);
+			AHSums sums = AHSums.sum(iter, context);
+			EncryptedNumber tsSum = sums.get(0, zero);
+			EncryptedNumber erAvg = sums.get(1, zero).divide(sums.getCount());
 			StringBuffer sb = new StringBuffer();
 			sb.append(Util.getAHString(tsSum));
 			sb.append("");
@@ -159,10 +109,12 @@ public class L8 {
 		lp.setJobName("L8 Load Page Views");
 		lp.set("pubKey", args[2]);
 		lp.setInputFormat(TextInputFormat.class);
+		lp.setMapOutputKeyClass(Text.class);
+		lp.setMapOutputValueClass(AHSums.class);
 		lp.setOutputKeyClass(Text.class);
 		lp.setOutputValueClass(Text.class);
 		lp.setMapperClass(ReadPageViews.class);
-		lp.setCombinerClass(Combiner.class);
+		lp.setCombinerClass(HomomorphicSumCombiner.class);
 		lp.setReducerClass(Group.class);
 		Properties props = System.getProperties();
 		for (Map.Entry<Object, Object> entry : props.entrySet()) {
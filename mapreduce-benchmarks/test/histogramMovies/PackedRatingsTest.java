@@ -0,0 +1,164 @@
+package histogramMovies;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.n1analytics.paillier.EncodedNumber;
+import com.n1analytics.paillier.EncryptedNumber;
+import com.n1analytics.paillier.PaillierContext;
+import com.n1analytics.paillier.PaillierPublicKey;
+
+import encryption.AHDecryptor;
+import encryption.DecryptionPipeline;
+import encryption.DecryptionServer;
+import encryption.Encryptors;
+import encryption.SlotPacking;
+import encryption.Util;
+import junit.framework.TestCase;
+
+public class PackedRatingsTest extends TestCase {
+
+	private File dir;
+	private Encryptors encryptors;
+	private AHDecryptor decryptor;
+	private PaillierContext context;
+	private SlotPacking packing;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("keys").toFile();
+		encryptors = new Encryptors(dir.getPath());
+		decryptor = new AHDecryptor(dir.getPath() + "/key.priv");
+		String modulus = Files.readAllLines(new File(dir, "key.pub").toPath()).get(0);
+		context = new PaillierPublicKey(new BigInteger(modulus)).createSignedContext();
+		packing = encryptors.ah().plan(HmEncryptor.MAX_RATING, 100);
+	}
+
+	@Override
+	protected void tearDown() {
+		encryptors.close();
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	/*
+	 * Empty reviews, as after the trailing comma of the datasets, stay empty
+	 */
+	public void testEmptyReviews() {
+		String[] records = new String[] { "7:1_5,2_3,", "7:,1_5,,2_3", "7:1_5,2_3" };
+		for (String record : records) {
+			String ctext = HmEncryptor.packed(packing).encrypt(record, encryptors);
+			String reviews = ctext.substring(ctext.indexOf(':') + 1, ctext.indexOf(';'));
+			assertEquals(record.length() - record.replace(",", "").length(),
+					reviews.length() - reviews.replace(",", "").length());
+			assertEquals(2, new StringTokenizer(reviews, ",").countTokens());
+			assertEquals(8, sum(ctext));
+		}
+		String ctext = HmEncryptor.packed(packing).encrypt("7:", encryptors);
+		assertTrue(ctext.endsWith(":;"));
+		assertEquals(0, sum(ctext));
+	}
+
+	/*
+	 * More ratings than slots: several packed ciphertexts
+	 */
+	public void testManyRatings() {
+		StringBuilder record = new StringBuilder("3:");
+		long expected = 0;
+		int reviews = 3 * packing.getSlots() + 1;
+		for (int i = 0; i < reviews; i++) {
+			int rating = 1 + i % HmEncryptor.MAX_RATING;
+			record.append(i).append('_').append(rating).append(',');
+			expected += rating;
+		}
+		String ctext = HmEncryptor.packed(packing).encrypt(record.toString(), encryptors);
+		assertEquals(4, new StringTokenizer(ctext.substring(ctext.indexOf(';') + 1), ",").countTokens());
+		assertEquals(expected, sum(ctext));
+	}
+
+	public void testRounding() throws IOException {
+		// 5 + 3 + 4 in two slots, as decrypted by the server
+		EncodedNumber plaintext = context.encode(packing.pack(5, 7));
+		assertEquals(round(new Server.Rounding(null), context.encode(12), 3),
+				round(new Server.Rounding(packing), plaintext, 3));
+	}
+
+	/*
+	 * The packed and the plain datasets give the same histogram
+	 */
+	public void testMap() throws Exception {
+		int port, plainPort;
+		try (ServerSocket free = new ServerSocket(0); ServerSocket other = new ServerSocket(0)) {
+			port = free.getLocalPort();
+			plainPort = other.getLocalPort();
+		}
+		startServer(new Server.Rounding(packing), port);
+		startServer(new Server.Rounding(null), plainPort);
+		String[] records = new String[] { "1:1_5,2_3,3_4,", "2:4_1,", "3:1_2,2_2,3_3,4_5,5_1" };
+		List<Float> packed = new ArrayList<Float>(), plain = new ArrayList<Float>();
+		for (String record : records) {
+			packed.addAll(map(HmEncryptor.packed(packing).encrypt(record, encryptors), port));
+			plain.addAll(map(HmEncryptor.INPUT.encrypt(record, encryptors), plainPort));
+		}
+		assertEquals(3, packed.size());
+		assertEquals(plain, packed);
+	}
+
+	private long sum(String ctext) {
+		EncryptedNumber sum = context.encrypt(0);
+		StringTokenizer token = new StringTokenizer(ctext.substring(ctext.indexOf(';') + 1), ",");
+		while (token.hasMoreTokens()) {
+			sum = context.add(sum, Util.getAHCipher(token.nextToken(), context));
+		}
+		return packing.total(decryptor.decrypt(Util.getAHString(sum)).decodeBigInteger());
+	}
+
+	private float round(Server.Rounding rounding, EncodedNumber plaintext, int reviews) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		rounding.reply(new EncodedNumber[] { plaintext }, new int[] { reviews }, out);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.getData(), 0, out.getLength()));
+		return in.readFloat();
+	}
+
+	private void startServer(final DecryptionServer.Handler handler, final int port) throws InterruptedException {
+		Thread server = new Thread(() -> {
+			try {
+				new DecryptionServer(decryptor, handler).serve(port);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		server.setDaemon(true);
+		server.start();
+		Thread.sleep(200);
+	}
+
+	private List<Float> map(String record, int port) throws IOException {
+		JobConf job = new JobConf();
+		job.set("pubKey", context.getPublicKey().getModulus().toString());
+		job.set("hostname", "localhost");
+		job.setInt(DecryptionPipeline.PORT_PROPERTY, port);
+		final List<Float> averages = new ArrayList<Float>();
+		HistogramMovies.MapClass mapper = new HistogramMovies.MapClass();
+		mapper.configure(job);
+		mapper.map(new LongWritable(0), new Text(record), (key, value) -> averages.add(key.get()), Reporter.NULL);
+		mapper.close();
+		return averages;
+	}
+
+}
@@ -0,0 +1,182 @@
+package test.thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import thep.paillier.EncryptedInteger;
+import thep.paillier.FixedBaseTable;
+import thep.paillier.PaillierEngine;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+
+public class PaillierEngineTest extends TestCase {
+	private PrivateKey priv;
+	private PublicKey pub;
+	private PaillierEngine engine;
+	private Random rng;
+
+	public PaillierEngineTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() {
+		priv = new PrivateKey(1024);
+		pub = priv.getPublicKey();
+		engine = new PaillierEngine(priv);
+		rng = new Random();
+	}
+
+	/*
+	 * With the same random number, the engine gives the same ciphertext
+	 * as EncryptedInteger
+	 */
+	public void testSameCiphertext() throws BigIntegerClassNotValid {
+		PaillierEngine plain = new PaillierEngine(pub, null, false);
+		for (int i = 0; i < 10; i++) {
+			BigInteger tmp = new BigInteger(1024, rng).mod(pub.getN());
+			EncryptedInteger e_int = new EncryptedInteger(pub);
+			BigInteger r = e_int.set(tmp);
+			assertEquals(e_int.getCipherVal(), engine.encrypt(tmp, r));
+			assertEquals(e_int.getCipherVal(), plain.encrypt(tmp, r));
+		}
+	}
+
+	/*
+	 * Ciphertexts of the engine decrypt with EncryptedInteger and the
+	 * other way around
+	 */
+	public void testInteroperability() throws BigIntegerClassNotValid {
+		for (int i = 0; i < 10; i++) {
+			BigInteger tmp = new BigInteger(1024, rng).mod(pub.getN());
+			EncryptedInteger e_int = new EncryptedInteger(tmp, pub);
+			assertEquals(tmp, engine.decrypt(e_int.getCipherVal()));
+
+			EncryptedInteger e_int2 = new EncryptedInteger(pub);
+			e_int2.setCipherVal(engine.encrypt(tmp));
+			assertEquals(tmp, e_int2.decrypt(priv));
+		}
+	}
+
+	/*
+	 * CRT decryption gives the same plaintext as decryption with lambda
+	 * and mu only
+	 */
+	public void testDecryptWithoutPrimes() {
+		PrivateKey noPrimes = new PrivateKey(priv.getLambda(), priv.getMu(), pub);
+		PaillierEngine slow = new PaillierEngine(pub, noPrimes, false);
+		for (int i = 0; i < 10; i++) {
+			BigInteger tmp = new BigInteger(1024, rng).mod(pub.getN());
+			BigInteger c = slow.encrypt(tmp);
+			assertEquals(tmp, slow.decrypt(c));
+			assertEquals(tmp, engine.decrypt(c));
+		}
+	}
+
+	/*
+	 * Encryption with the public key only
+	 */
+	public void testPublicOnly() {
+		PaillierEngine pubEngine = new PaillierEngine(pub);
+		BigInteger tmp = new BigInteger(1024, rng).mod(pub.getN());
+		assertEquals(tmp, engine.decrypt(pubEngine.encrypt(tmp)));
+		try {
+			pubEngine.decrypt(pubEngine.encrypt(tmp));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	/*
+	 * Two encryptions of the same value differ
+	 */
+	public void testRandomized() {
+		BigInteger tmp = BigInteger.TEN;
+		BigInteger c1 = engine.encrypt(tmp);
+		BigInteger c2 = engine.encrypt(tmp);
+		assertFalse(c1.equals(c2));
+		BigInteger c3 = engine.rerandomize(c1);
+		assertFalse(c1.equals(c3));
+		assertEquals(tmp, engine.decrypt(c3));
+	}
+
+	/*
+	 * Homomorphic operations
+	 */
+	public void testOperations() {
+		BigInteger tmp1 = new BigInteger(1024, rng);
+		BigInteger tmp2 = new BigInteger(1024, rng);
+		BigInteger c1 = engine.encrypt(tmp1);
+		BigInteger c2 = engine.encrypt(tmp2);
+		assertEquals(tmp1.add(tmp2).mod(pub.getN()), engine.decrypt(engine.add(c1, c2)));
+		assertEquals(tmp1.add(tmp2).mod(pub.getN()), engine.decrypt(engine.addConstant(c1, tmp2)));
+		assertEquals(tmp1.multiply(tmp2).mod(pub.getN()), engine.decrypt(engine.multiply(c1, tmp2)));
+		assertEquals(tmp1.subtract(tmp2).mod(pub.getN()), engine.decrypt(engine.subtract(c1, c2)));
+	}
+
+	/*
+	 * Negative numbers decrypt to n minus their absolute value
+	 */
+	public void testNegative() {
+		BigInteger c1 = engine.encrypt(new BigInteger("2500"));
+		BigInteger c2 = engine.encrypt(new BigInteger("-3000"));
+		assertEquals(new BigInteger("-500"), engine.decrypt(engine.add(c1, c2)).subtract(pub.getN()));
+		c1 = engine.multiply(c1, new BigInteger("-1"));
+		assertEquals(new BigInteger("-2500"), engine.decrypt(c1).subtract(pub.getN()));
+		assertEquals(BigInteger.ZERO, engine.decrypt(engine.addConstant(c1, new BigInteger("2500"))));
+	}
+
+	/*
+	 * The table gives the same powers as modPow
+	 */
+	public void testFixedBaseTable() {
+		BigInteger m = pub.getNSquared();
+		BigInteger base = new BigInteger(2048, rng).mod(m);
+		for (int window = 1; window <= 8; window++) {
+			FixedBaseTable table = new FixedBaseTable(base, m, 100, window);
+			assertEquals(BigInteger.ONE, table.pow(BigInteger.ZERO));
+			assertEquals(base, table.pow(BigInteger.ONE));
+			BigInteger max = BigInteger.ONE.shiftLeft(100).subtract(BigInteger.ONE);
+			assertEquals(base.modPow(max, m), table.pow(max));
+			for (int i = 0; i < 20; i++) {
+				BigInteger e = new BigInteger(1 + rng.nextInt(100), rng);
+				assertEquals(base.modPow(e, m), table.pow(e));
+			}
+			// Too large, falls back to modPow
+			BigInteger large = BigInteger.ONE.shiftLeft(100).add(BigInteger.TEN);
+			assertEquals(base.modPow(large, m), table.pow(large));
+		}
+	}
+
+	/*
+	 * One engine used by many threads at the same time
+	 */
+	public void testThreads() throws InterruptedException {
+		final int threads = 8;
+		final boolean[] ok = new boolean[threads];
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random(id);
+					for (int i = 0; i < 50; i++) {
+						BigInteger tmp1 = new BigInteger(1024, r).mod(pub.getN());
+						BigInteger tmp2 = new BigInteger(1024, r).mod(pub.getN());
+						BigInteger sum = engine.add(engine.encrypt(tmp1), engine.encrypt(tmp2));
+						if (!tmp1.add(tmp2).mod(pub.getN()).equals(engine.decrypt(sum))) {
+							return;
+						}
+					}
+					ok[id] = true;
+				}
+			});
+			workers[t].start();
+		}
+		for (int t = 0; t < threads; t++) {
+			workers[t].join();
+			assertTrue(ok[t]);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package test.thep.paillier;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import thep.paillier.EncryptedInteger;
+import thep.paillier.PaillierEngine;
+import thep.paillier.PrivateKey;
+import thep.paillier.PublicKey;
+import thep.paillier.RandomnessPool;
+import thep.paillier.exceptions.BigIntegerClassNotValid;
+
+public class RandomnessPoolTest extends TestCase {
+	private PrivateKey priv;
+	private PublicKey pub;
+	private Random rng;
+
+	public RandomnessPoolTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() {
+		priv = new PrivateKey(512);
+		pub = priv.getPublicKey();
+		rng = new Random();
+	}
+
+	/*
+	 * The pairs are r and r^n mod n^2 for a unit r less than n
+	 */
+	public void testPairs() {
+		RandomnessPool pool = new RandomnessPool(pub, 16, 1);
+		for (int i = 0; i < 50; i++) {
+			BigInteger[] pair = pool.take();
+			assertTrue(pair[0].signum() > 0);
+			assertTrue(pair[0].compareTo(pub.getN()) < 0);
+			assertEquals(pair[0].modPow(pub.getN(), pub.getNSquared()), pair[1]);
+		}
+		assertEquals(50, pool.getHits() + pool.getMisses());
+		pool.close();
+	}
+
+	/*
+	 * The refill threads fill the pool up to its capacity and no further
+	 */
+	public void testCapacity() throws InterruptedException {
+		RandomnessPool pool = new RandomnessPool(pub, 8, 2);
+		long deadline = System.currentTimeMillis() + 30000;
+		while (pool.available() < 8 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		assertEquals(8, pool.available());
+		assertEquals(8, pool.getRefills());
+		assertTrue(pool.getRefillRate() > 0);
+
+		pool.take();
+		assertEquals(1, pool.getHits());
+		assertEquals(0, pool.getMisses());
+		pool.close();
+	}
+
+	/*
+	 * An empty pool computes the pairs inline
+	 */
+	public void testMiss() {
+		RandomnessPool pool = new RandomnessPool(pub, 0, 1);
+		BigInteger[] pair = pool.take();
+		assertEquals(pair[0].modPow(pub.getN(), pub.getNSquared()), pair[1]);
+		assertEquals(0, pool.getHits());
+		assertEquals(1, pool.getMisses());
+		assertEquals(0, pool.getRefills());
+		pool.close();
+	}
+
+	/*
+	 * With a registered pool, EncryptedInteger gives the same ciphertext
+	 * for the returned r, and ciphertexts still decrypt
+	 */
+	public void testEncryptedInteger() throws BigIntegerClassNotValid {
+		RandomnessPool pool = RandomnessPool.register(new RandomnessPool(pub, 16, 1));
+		assertSame(pool, RandomnessPool.get(pub));
+		PaillierEngine engine = new PaillierEngine(priv);
+		for (int i = 0; i < 20; i++) {
+			BigInteger tmp = new BigInteger(512, rng).mod(pub.getN());
+			EncryptedInteger e_int = new EncryptedInteger(pub);
+			BigInteger r = e_int.set(tmp);
+			assertEquals(engine.encrypt(tmp, r), e_int.getCipherVal());
+			assertEquals(tmp, e_int.decrypt(priv));
+
+			BigInteger before = e_int.getCipherVal();
+			e_int.rerandomize();
+			assertFalse(before.equals(e_int.getCipherVal()));
+			assertEquals(tmp, e_int.decrypt(priv));
+		}
+		EncryptedInteger negative = new EncryptedInteger(new BigInteger("-42"), pub);
+		assertEquals(new BigInteger("-42"), negative.decrypt(priv).subtract(pub.getN()));
+		// The constructor, set and rerandomize each take a pair
+		assertEquals(61, pool.getHits() + pool.getMisses());
+
+		pool.close();
+		assertNull(RandomnessPool.get(pub));
+	}
+}
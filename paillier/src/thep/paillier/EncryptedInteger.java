@@ -101,6 +101,16 @@ public class EncryptedInteger implements Serializable {
 		BigInteger r = BigInteger.ZERO;
 		BigInteger x;
 		
+		RandomnessPool pool = this.findPool();
+		if (pool != null) {
+			// g = n+1, so g^plainval mod n^2 is 1 + plainval*n
+			BigInteger[] pair = pool.take();
+			cipherval = plainval.mod(this.pub.getN()).multiply(this.pub.getN()).add(BigInteger.ONE);
+			cipherval = cipherval.multiply(pair[1]);
+			cipherval = cipherval.mod(this.pub.getNSquared());
+			return pair[0];
+		}
+		
 		// Generate random blinding factor less than n
 		do {
 			try {
@@ -215,6 +225,12 @@ public class EncryptedInteger implements Serializable {
 	 */
 	public void rerandomize() throws BigIntegerClassNotValid {
 		BigInteger r = BigInteger.ZERO;
+		RandomnessPool pool = this.findPool();
+		if (pool != null) {
+			cipherval = cipherval.multiply(pool.takeFactor());
+			cipherval = cipherval.mod(this.pub.getNSquared());
+			return;
+		}
 		try {
 			r = (BigInteger) this.rngCons.newInstance(this.pub.getBits(), rng);
 		} catch (Exception e) {
@@ -296,6 +312,17 @@ public class EncryptedInteger implements Serializable {
 		return cons;
 	}
 	
+	/*
+	 * The pool registered for the public key, only used with plain
+	 * BigInteger as the underlying class
+	 */
+	private RandomnessPool findPool() {
+		if (this.rngCons == null || this.rngCons.getDeclaringClass() != BigInteger.class) {
+			return null;
+		}
+		return RandomnessPool.get(this.pub);
+	}
+	
 	@SuppressWarnings("rawtypes")
 	private Constructor findBICons(Class<? extends BigInteger> c) {
 		Constructor cons = null;
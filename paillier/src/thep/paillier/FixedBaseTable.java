@@ -0,0 +1,114 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+
+/**
+ * Precomputed powers of a fixed base, for computing base^e mod m many
+ * times with different exponents.
+ *
+ * The exponent is cut into windows of w bits, and the table holds
+ * base^(d * 2^(w*i)) for every window i and every digit d, so a power is
+ * the product of one table entry per non zero window: about maxBits/w
+ * multiplications and no squaring, instead of maxBits squarings for
+ * modPow. The table takes (2^w - 1) * maxBits/w numbers of the size of m.
+ *
+ * The products are reduced with Barrett reduction, which only needs
+ * multiplications and shifts and is about twice as fast as mod for the
+ * sizes used by Paillier.
+ */
+public class FixedBaseTable {
+	private final BigInteger base;
+	private final BigInteger modulus;
+	private final int window;
+	private final int maxBits;
+	private final BigInteger[][] table;
+	private final int k; // bits of the modulus
+	private final BigInteger mu; // floor(4^k / modulus), for Barrett reduction
+
+	/**
+	 * Precomputes the table for exponents of up to maxBits bits
+	 *
+	 * @param base the fixed base
+	 * @param modulus the modulus
+	 * @param maxBits the largest exponent, in bits
+	 * @param window the number of bits per window
+	 */
+	public FixedBaseTable(BigInteger base, BigInteger modulus, int maxBits, int window) {
+		if (window < 1 || window > 16) {
+			throw new IllegalArgumentException("Window must be between 1 and 16 bits");
+		}
+		this.base = base.mod(modulus);
+		this.modulus = modulus;
+		this.window = window;
+		this.maxBits = maxBits;
+		this.k = modulus.bitLength();
+		this.mu = BigInteger.ONE.shiftLeft(2 * k).divide(modulus);
+
+		int windows = (maxBits + window - 1) / window;
+		this.table = new BigInteger[windows][1 << window];
+		BigInteger b = this.base; // base^(2^(w*i))
+		for (int i = 0; i < windows; i++) {
+			table[i][0] = BigInteger.ONE;
+			for (int d = 1; d < (1 << window); d++) {
+				table[i][d] = multiply(table[i][d - 1], b);
+			}
+			b = multiply(table[i][(1 << window) - 1], b);
+		}
+	}
+
+	/**
+	 * Returns base^e mod m. Exponents that are negative or longer than
+	 * maxBits are computed with modPow.
+	 *
+	 * @param e the exponent
+	 * @return base^e mod m
+	 */
+	public BigInteger pow(BigInteger e) {
+		if (e.signum() < 0 || e.bitLength() > maxBits) {
+			return base.modPow(e, modulus);
+		}
+		byte[] mag = e.toByteArray(); // big endian, may have a leading 0
+		BigInteger result = null;
+		int bits = e.bitLength();
+		for (int i = 0, pos = 0; pos < bits; i++, pos += window) {
+			int d = 0;
+			for (int j = Math.min(window, bits - pos) - 1; j >= 0; j--) {
+				int bit = pos + j;
+				d = (d << 1) | ((mag[mag.length - 1 - (bit >>> 3)] >>> (bit & 7)) & 1);
+			}
+			if (d != 0) {
+				result = (result == null) ? table[i][d] : multiply(result, table[i][d]);
+			}
+		}
+		return (result == null) ? BigInteger.ONE.mod(modulus) : result;
+	}
+
+	/*
+	 * x * y mod m for x and y less than m
+	 */
+	private BigInteger multiply(BigInteger x, BigInteger y) {
+		BigInteger product = x.multiply(y);
+		BigInteger quotient = product.shiftRight(k - 1).multiply(mu).shiftRight(k + 1);
+		BigInteger r = product.subtract(quotient.multiply(modulus));
+		while (r.compareTo(modulus) >= 0) {
+			r = r.subtract(modulus);
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the largest exponent handled by the table, in bits
+	 * @return the largest exponent, in bits
+	 */
+	public int getMaxBits() {
+		return maxBits;
+	}
+
+	/**
+	 * Returns the fixed base
+	 * @return the base
+	 */
+	public BigInteger getBase() {
+		return base;
+	}
+}
@@ -15,6 +15,8 @@ public class PrivateKey implements Serializable {
 	private PublicKey pub;
 	private BigInteger lambda;
 	private BigInteger mu;
+	private BigInteger p; // null for keys built from lambda and mu
+	private BigInteger q;
 	
 	public PrivateKey(BigInteger lambda, BigInteger mu, PublicKey pub) {
 		this.lambda = lambda;
@@ -38,6 +40,8 @@ public class PrivateKey implements Serializable {
 		
 		// Compute values
 		BigInteger n = p.multiply(q);
+		this.p = p;
+		this.q = q;
 		p = p.subtract(BigInteger.ONE); // p is now p-1
 		q = q.subtract(BigInteger.ONE); // q is now q-1
 		this.lambda = p.multiply(q); // (p-1) * (q-1)
@@ -72,4 +76,22 @@ public class PrivateKey implements Serializable {
 	public BigInteger getMu() {
 		return mu;
 	}
+	
+	/**
+	 * Returns the first prime factor of n, used for CRT decryption
+	 * 
+	 * @return p, or null if the key was built from lambda and mu
+	 */
+	public BigInteger getP() {
+		return p;
+	}
+	
+	/**
+	 * Returns the second prime factor of n, used for CRT decryption
+	 * 
+	 * @return q, or null if the key was built from lambda and mu
+	 */
+	public BigInteger getQ() {
+		return q;
+	}
 }
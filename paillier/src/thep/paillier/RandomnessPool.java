@@ -0,0 +1,240 @@
+package thep.paillier;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Blinding factors for a public key, computed ahead of time.
+ *
+ * Background threads draw random units r and compute r^n mod n^2 into a
+ * bounded, lock-free queue. take() returns a pair from the queue when one
+ * is ready and computes one inline otherwise, so encryption is one
+ * multiplication when the pool keeps up.
+ *
+ * A pool can be registered for its key, then EncryptedInteger.set and
+ * rerandomize take their blinding factors from it.
+ */
+public class RandomnessPool {
+	/**
+	 * The default number of pairs kept ready
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/*
+	 * Nanoseconds a full refill thread waits before checking again, if it
+	 * is not woken up by take()
+	 */
+	private static final long PARK_NANOS = 10000000L;
+
+	private static final ConcurrentHashMap<BigInteger, RandomnessPool> pools =
+			new ConcurrentHashMap<BigInteger, RandomnessPool>();
+
+	private final PublicKey pub;
+	private final BigInteger n;
+	private final BigInteger nSquared;
+	private final int capacity;
+	private final Random rng;
+
+	private final ConcurrentLinkedQueue<BigInteger[]> queue = new ConcurrentLinkedQueue<BigInteger[]>();
+	// Pairs in the queue plus pairs being computed, at most capacity
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refills = new AtomicLong();
+	private final long startTime;
+
+	private final Thread[] workers;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a pool of DEFAULT_CAPACITY pairs refilled by one thread
+	 *
+	 * @param pub the public key
+	 */
+	public RandomnessPool(PublicKey pub) {
+		this(pub, DEFAULT_CAPACITY, 1);
+	}
+
+	/**
+	 * Creates a pool and starts its refill threads
+	 *
+	 * @param pub the public key
+	 * @param capacity the number of pairs kept ready
+	 * @param threads the number of refill threads
+	 */
+	public RandomnessPool(PublicKey pub, int capacity, int threads) {
+		this.pub = pub;
+		this.n = pub.getN();
+		this.nSquared = pub.getNSquared();
+		this.capacity = capacity;
+		this.rng = new SecureRandom();
+		this.startTime = System.nanoTime();
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					refill();
+				}
+			}, "randomness-pool-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Registers a pool, so that EncryptedInteger uses it for its key
+	 *
+	 * @param pool the pool
+	 * @return the pool
+	 */
+	public static RandomnessPool register(RandomnessPool pool) {
+		pools.put(pool.getPublicKey().getN(), pool);
+		return pool;
+	}
+
+	/**
+	 * Returns the pool registered for a key
+	 *
+	 * @param pub the public key
+	 * @return the pool, or null if there is none
+	 */
+	public static RandomnessPool get(PublicKey pub) {
+		if (pools.isEmpty()) {
+			return null;
+		}
+		return pools.get(pub.getN());
+	}
+
+	/**
+	 * Returns a random unit r less than n and r^n mod n^2
+	 *
+	 * @return {r, r^n mod n^2}
+	 */
+	public BigInteger[] take() {
+		BigInteger[] pair = queue.poll();
+		if (pair == null) {
+			misses.incrementAndGet();
+			return generate();
+		}
+		hits.incrementAndGet();
+		if (size.decrementAndGet() <= capacity / 2) {
+			for (Thread worker : workers) {
+				LockSupport.unpark(worker);
+			}
+		}
+		return pair;
+	}
+
+	/**
+	 * Returns a blinding factor r^n mod n^2
+	 *
+	 * @return r^n mod n^2 for a random unit r
+	 */
+	public BigInteger takeFactor() {
+		return take()[1];
+	}
+
+	/**
+	 * Stops the refill threads and unregisters the pool. take() still
+	 * works, inline.
+	 */
+	public void close() {
+		closed = true;
+		pools.remove(n, this);
+		for (Thread worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * Returns the number of take() calls served from the queue
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of take() calls that computed a pair inline
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of pairs computed by the refill threads
+	 * @return the number of refills
+	 */
+	public long getRefills() {
+		return refills.get();
+	}
+
+	/**
+	 * Returns the number of pairs computed by the refill threads per
+	 * second since the pool was created
+	 * @return the refill rate
+	 */
+	public double getRefillRate() {
+		long nanos = System.nanoTime() - startTime;
+		return nanos == 0 ? 0 : refills.get() * 1e9 / nanos;
+	}
+
+	/**
+	 * Returns the number of pairs ready
+	 * @return the number of pairs in the queue
+	 */
+	public int available() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of pairs kept ready
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the public key of the pool
+	 * @return the public key
+	 */
+	public PublicKey getPublicKey() {
+		return pub;
+	}
+
+	public String toString() {
+		return "RandomnessPool[hits=" + hits.get() + ", misses=" + misses.get() + ", refills=" + refills.get()
+				+ ", refill rate=" + String.format("%.1f", getRefillRate()) + "/s, available=" + available() + "]";
+	}
+
+	private void refill() {
+		while (!closed) {
+			// Reserve a slot before computing, so the queue never grows
+			// past capacity
+			if (size.incrementAndGet() > capacity) {
+				size.decrementAndGet();
+				LockSupport.parkNanos(this, PARK_NANOS);
+				continue;
+			}
+			queue.offer(generate());
+			refills.incrementAndGet();
+		}
+	}
+
+	private BigInteger[] generate() {
+		BigInteger r;
+		do {
+			r = new BigInteger(pub.getBits(), rng);
+		} while (r.signum() == 0 || r.compareTo(n) >= 0);
+		return new BigInteger[] { r, r.modPow(n, nSquared) };
+	}
+}
@@ -1,4 +1,6 @@
 #!/usr/bin/env python
+# The solvers write a binary trace log, convert it to the SQL script first:
+#   java edu.rpi.TraceReader sootOutput/sflow-traces.bin sql > sootOutput/sflow-traces.sql
 import sqlite3
 import sys
 import re
@@ -0,0 +1,144 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/* Loads the binary constraint graph written by edu.rpi.ConstraintGraphWriter
+   (sflow-constraints.bin) into a Graph. It registers the same nodes and edges
+   as Parser does for sflow-constraints.log, without parsing any text: the
+   writer splits each node into its fields, and every distinct string is read
+   once and referred to by its ordinal.
+   The file is memory mapped, in windows so that it can be larger than 2GB.
+*/
+public class BinaryParser {
+
+    static final int MAGIC = 0x43475246;
+    static final int VERSION = 2;
+    static final int STRING = 1, NODE = 2, EDGE = 3;
+
+    static final long WINDOW = 1L << 28;
+
+    Graph g;
+
+    FileChannel channel;
+    long size;
+    long base; // file offset of buf
+    MappedByteBuffer buf;
+
+    ArrayList<String> strings = new ArrayList<String>();
+
+    BinaryParser(Graph g) { this.g = g; }
+
+    void loadGraph(String fileName) throws IOException {
+	RandomAccessFile file = new RandomAccessFile(fileName,"r");
+	try {
+	    channel = file.getChannel();
+	    size = channel.size();
+	    map(0);
+	    int magic = (get() << 24) | (get() << 16) | (get() << 8) | get();
+	    if (magic != MAGIC) throw new IOException(fileName+" is not a constraint graph");
+	    int version = readVarint();
+	    if (version != VERSION) throw new IOException("Unsupported constraint graph version "+version);
+
+	    Side lhs = new Side(), rhs = new Side();
+	    while (base+buf.position() < size) {
+		int tag = get();
+		if (tag == STRING) {
+		    strings.add(readString());
+		}
+		else if (tag == NODE) {
+		    long id = readVarint();
+		    boolean isField = get() == 1;
+		    String kind = readRef(), enclClass = readRef(), enclMethod = readRef(), name = readRef();
+		    String sflowType = readRef(), javaType = readRef();
+		    g.registerNode(id,isField,kind,enclClass,enclMethod,name,sflowType,javaType);
+		}
+		else if (tag == EDGE) {
+		    long edgeId = readVarint();
+		    int kind = readVarint();
+		    readSide(lhs); readSide(rhs);
+		    long[] causes = new long[readVarint()];
+		    for (int i=0; i<causes.length; i++) causes[i] = readVarint();
+		    if (kind == 2) continue; // Parser does not handle != either
+		    registerEdge(edgeId,lhs,rhs,kind == 1,causes);
+		}
+		else throw new IOException("Unknown record "+tag+" at "+(base+buf.position()-1));
+	    }
+	}
+	finally { file.close(); }
+    }
+
+    /* Same as Parser.parseLine */
+    void registerEdge(long edgeId, Side lhs, Side rhs, boolean equ, long[] causes) {
+        long call=0, field=0;
+        if (lhs.call != 0) call = lhs.call;
+        else if (rhs.call != 0) call = -rhs.call;
+        else if (lhs.field != 0) field = lhs.field;
+        else if (rhs.field != 0) field = -rhs.field;
+
+        if (causes.length > 0)
+            g.registerCausedByEdge(edgeId,lhs.var,rhs.var,call,field,causes);
+        else
+            g.registerEdge(edgeId,lhs.var,rhs.var,call,field,"");
+
+        if (equ == true) g.registerEdge(Parser.FROM_CLASS_EDGE+edgeId,rhs.var,lhs.var,call,field,"");
+    }
+
+    /* Same as Parser.parseSide */
+    void readSide(Side result) throws IOException {
+	int form = readVarint();
+	result.call = 0; result.field = 0;
+	if (form == 0) {
+	    result.var = readVarint();
+	}
+	else if (form == 1 || form == 3) { // field: context =f=> decl
+	    result.var = readVarint();
+	    result.field = readVarint();
+	    if (form == 3) result.field = Parser.ARRAY_ACCESS; // the decl is an array access
+	}
+	else { // call: callsite =m=> decl
+	    result.call = readVarint();
+	    result.var = readVarint();
+	}
+    }
+
+    void map(long offset) throws IOException {
+	base = offset;
+	buf = channel.map(FileChannel.MapMode.READ_ONLY,offset,Math.min(WINDOW,size-offset));
+    }
+
+    /* Make sure the next n bytes are in buf */
+    void ensure(int n) throws IOException {
+	if (buf.remaining() < n) {
+	    if (base+buf.position()+n > size) throw new EOFException("Truncated constraint graph");
+	    map(base+buf.position());
+	}
+    }
+
+    int get() throws IOException {
+	ensure(1);
+	return buf.get() & 0xFF;
+    }
+
+    int readVarint() throws IOException {
+	int v = 0;
+	for (int shift = 0; ; shift += 7) {
+	    int b = get();
+	    v |= (b & 0x7F) << shift;
+	    if ((b & 0x80) == 0) return v;
+	}
+    }
+
+    /* A string ordinal */
+    String readRef() throws IOException {
+	return strings.get(readVarint());
+    }
+
+    String readString() throws IOException {
+	int n = readVarint();
+	ensure(n);
+	byte[] b = new byte[n];
+	buf.get(b);
+	return new String(b,"UTF-8");
+    }
+}
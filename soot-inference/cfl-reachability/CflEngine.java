@@ -0,0 +1,705 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/* CFL reachability over a Graph, stored in flat arrays.
+
+   Nodes are numbered 0..numNodes-1 in the order of their ids, and the
+   out-edges of node i are edges offsets[i]..offsets[i+1]-1 (CSR), each
+   with its target, its kind (the info of the Edge) and its label (the
+   call or the field of the Edge, numbered densely by labelIds). The arrays are IntBuffers, either
+   wrapping arrays when built from a Graph, or memory mapped from an index
+   file written by save(), so that a graph is parsed only once.
+
+   Call and field stacks are interned in a StackTrie, so a vertex of the
+   search is a few ints. The search does the same as Graph.bfs, for all
+   sources in one run instead of one id read from stdin at a time.
+*/
+public class CflEngine {
+
+    static final int MAGIC = 0x43464c58;
+    static final int VERSION = 2;
+
+    static final int MAX_DEPTH = 100; // as in Graph.bfs
+
+    // node flags
+    static final int SINK = 1;        // Node.isSink()
+    static final int SKIP = 2;        // lib or a Context, the search does not go through it
+    static final int UNREACHABLE = 4; // local in a method not in the call graph
+    static final int SOURCE = 8;      // lib with {@Tainted}, the default sources
+
+    // edge kinds, one per Edge.info
+    static final byte CALL = 0, CALL_SUPER = 1, RETURN = 2, RETURN_SUPER = 3, WRITE = 4, READ = 5,
+	TO_CLASS = 6, FROM_CLASS = 7, TO_STATIC = 8, FROM_STATIC = 9, LOCAL = 10,
+	SUBTYPE_MINUS = 11, SUBTYPE_PLUS = 12, OTHER = 13;
+    static final byte NONE = -1; // no edge, at a source
+
+    static final String[] KIND_NAMES = { "call", "call-super", "return", "return-super", "write", "read",
+					 "toClass", "fromClass", "toStatic", "fromStatic", "local",
+					 "subtype-minus", "subtype-plus", "other" };
+
+    int numNodes;
+    int numEdges;
+    int numLabels;
+    LongBuffer ids;       // node -> Node.id, sorted
+    IntBuffer flags;      // node -> flags
+    IntBuffer offsets;    // node -> first edge, numNodes+1 entries
+    IntBuffer targets;    // edge -> target node
+    IntBuffer labels;     // edge -> Edge.call for calls and returns, Edge.field for writes and reads, as +-label
+    LongBuffer labelIds;  // label -> |Edge.call| or |Edge.field|, 0 for label 0
+    ByteBuffer kinds;     // edge -> kind
+    IntBuffer descOffsets; // node -> first byte of its description, numNodes+1 entries
+    ByteBuffer descs;     // UTF-8 descriptions, as printed by Node.printNode
+
+    static byte kindOf(String info) {
+	if (info.indexOf("local") > -1) return LOCAL;
+	for (byte k = 0; k < KIND_NAMES.length; k++)
+	    if (KIND_NAMES[k].equals(info)) return k;
+	return OTHER;
+    }
+
+    static String describe(Node n) {
+	return "[Node Id: "+n.id+"], [Java Type & Name: "+n.javaType+" "+n.name+"], [EnclClass: "+n.enclClass+"], [EnclMethod: "+n.enclMethod+
+	    "], [SflowType: "+n.sflowType+"], [Kind: "+n.kind+"]";
+    }
+
+    /* The dense label of a call or field id, keeping its sign; the ids are
+       longs and could not be cast to int */
+    static int label(long id, Map<Long,Integer> labels, List<Long> labelIds) {
+	if (id == 0) return 0;
+	Long key = Long.valueOf(Math.abs(id));
+	Integer label = labels.get(key);
+	if (label == null) {
+	    label = Integer.valueOf(labelIds.size());
+	    labels.put(key,label);
+	    labelIds.add(key);
+	}
+	return id < 0 ? -label.intValue() : label.intValue();
+    }
+
+    /* Builds the arrays from a loaded graph; loadReachableMethods should
+       have been called already */
+    static CflEngine build(Graph g) throws IOException {
+	CflEngine e = new CflEngine();
+	Node[] nodes = g.getNodes().toArray(new Node[0]);
+	Arrays.sort(nodes, new Comparator<Node>() {
+		public int compare(Node a, Node b) { return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1); }
+	    });
+	int n = nodes.length;
+	long[] ids = new long[n];
+	for (int i=0; i<n; i++) ids[i] = nodes[i].id;
+
+	int[] flags = new int[n];
+	int[] offsets = new int[n+1];
+	int m = 0;
+	for (int i=0; i<n; i++) {
+	    Node node = nodes[i];
+	    if (node.isSink()) flags[i] |= SINK;
+	    if (node.kind.equals("lib") || node.javaType.equals("android.content.Context") ||
+		node.javaType.equals("android.app.Activity") || node.javaType.equals("android.app.Application"))
+		flags[i] |= SKIP;
+	    if (!g.isReachable(node)) flags[i] |= UNREACHABLE;
+	    if (node.kind.equals("lib") && node.sflowType.equals("@Tainted")) flags[i] |= SOURCE;
+	    HashSet<Edge> edges = g.getEdges(node.id);
+	    if (edges != null) m += edges.size();
+	}
+
+	// The edges of a node keep the order of its HashSet, so the search
+	// visits them as Graph.bfs does
+	int[] targets = new int[m];
+	int[] labels = new int[m];
+	byte[] kinds = new byte[m];
+	HashMap<Long,Integer> labelMap = new HashMap<Long,Integer>();
+	ArrayList<Long> labelIds = new ArrayList<Long>();
+	labelIds.add(Long.valueOf(0));
+	int skipped = 0;
+	m = 0;
+	for (int i=0; i<n; i++) {
+	    offsets[i] = m;
+	    HashSet<Edge> edges = g.getEdges(nodes[i].id);
+	    if (edges == null) continue;
+	    for (Edge edge : edges) {
+		// ANA: A local edge that returns an android.* result leads almost always to an FP:
+		if (edge.info.contains("local android.") && !edge.info.contains("local android.net.Uri")) continue;
+		int target = Arrays.binarySearch(ids,edge.target);
+		if (target < 0) { skipped++; continue; } // no constraint registered the target
+		targets[m] = target;
+		kinds[m] = kindOf(edge.info);
+		labels[m] = label((edge.info.indexOf("call") > -1 || edge.info.indexOf("return") > -1) ? edge.call : edge.field,
+				  labelMap,labelIds);
+		m++;
+	    }
+	}
+	offsets[n] = m;
+	if (skipped > 0) System.err.println("Skipped "+skipped+" edges to unregistered nodes");
+
+	ByteArrayOutputStream descs = new ByteArrayOutputStream();
+	int[] descOffsets = new int[n+1];
+	for (int i=0; i<n; i++) {
+	    descOffsets[i] = descs.size();
+	    descs.write(describe(nodes[i]).getBytes("UTF-8"));
+	}
+	descOffsets[n] = descs.size();
+
+	e.numNodes = n;
+	e.numEdges = m;
+	e.numLabels = labelIds.size();
+	e.ids = LongBuffer.wrap(ids);
+	e.flags = IntBuffer.wrap(flags);
+	e.offsets = IntBuffer.wrap(offsets);
+	e.targets = IntBuffer.wrap(targets);
+	e.labels = IntBuffer.wrap(labels);
+	long[] labelArray = new long[labelIds.size()];
+	for (int i=0; i<labelArray.length; i++) labelArray[i] = labelIds.get(i).longValue();
+	e.labelIds = LongBuffer.wrap(labelArray);
+	e.kinds = ByteBuffer.wrap(kinds);
+	e.descOffsets = IntBuffer.wrap(descOffsets);
+	e.descs = ByteBuffer.wrap(descs.toByteArray());
+	return e;
+    }
+
+    /* Index file: MAGIC, VERSION, numNodes, numEdges, numLabels, 0, then
+       ids, labelIds, flags, offsets, targets, labels, descOffsets, kinds
+       and descs, all big endian, so that every section is aligned */
+    void save(String fileName) throws IOException {
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName),1<<16));
+	try {
+	    out.writeInt(MAGIC); out.writeInt(VERSION);
+	    out.writeInt(numNodes); out.writeInt(numEdges);
+	    out.writeInt(numLabels); out.writeInt(0);
+	    for (int i=0; i<numNodes; i++) out.writeLong(ids.get(i));
+	    for (int i=0; i<numLabels; i++) out.writeLong(labelIds.get(i));
+	    for (int i=0; i<numNodes; i++) out.writeInt(flags.get(i));
+	    for (int i=0; i<=numNodes; i++) out.writeInt(offsets.get(i));
+	    for (int i=0; i<numEdges; i++) out.writeInt(targets.get(i));
+	    for (int i=0; i<numEdges; i++) out.writeInt(labels.get(i));
+	    for (int i=0; i<=numNodes; i++) out.writeInt(descOffsets.get(i));
+	    for (int i=0; i<numEdges; i++) out.writeByte(kinds.get(i));
+	    for (int i=0; i<descs.limit(); i++) out.writeByte(descs.get(i));
+	}
+	finally { out.close(); }
+    }
+
+    /* Maps an index file written by save(); it must be smaller than 2GB */
+    static CflEngine load(String fileName) throws IOException {
+	RandomAccessFile file = new RandomAccessFile(fileName,"r");
+	MappedByteBuffer buf;
+	try {
+	    FileChannel channel = file.getChannel();
+	    if (channel.size() > Integer.MAX_VALUE) throw new IOException(fileName+" is too large to be mapped");
+	    buf = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+	}
+	finally { file.close(); } // the mapping stays valid
+	if (buf.getInt(0) != MAGIC) throw new IOException(fileName+" is not a CFL index");
+	if (buf.getInt(4) != VERSION) throw new IOException("Unsupported CFL index version "+buf.getInt(4));
+	CflEngine e = new CflEngine();
+	int n = e.numNodes = buf.getInt(8);
+	int m = e.numEdges = buf.getInt(12);
+	int k = e.numLabels = buf.getInt(16);
+	int pos = 24;
+	e.ids = section(buf,pos,8*n).asLongBuffer(); pos += 8*n;
+	e.labelIds = section(buf,pos,8*k).asLongBuffer(); pos += 8*k;
+	e.flags = section(buf,pos,4*n).asIntBuffer(); pos += 4*n;
+	e.offsets = section(buf,pos,4*(n+1)).asIntBuffer(); pos += 4*(n+1);
+	e.targets = section(buf,pos,4*m).asIntBuffer(); pos += 4*m;
+	e.labels = section(buf,pos,4*m).asIntBuffer(); pos += 4*m;
+	e.descOffsets = section(buf,pos,4*(n+1)).asIntBuffer(); pos += 4*(n+1);
+	e.kinds = section(buf,pos,m); pos += m;
+	e.descs = section(buf,pos,buf.limit()-pos);
+	return e;
+    }
+
+    static ByteBuffer section(ByteBuffer buf, int pos, int length) {
+	ByteBuffer b = buf.duplicate();
+	b.position(pos); b.limit(pos+length);
+	return b.slice();
+    }
+
+    /* The node with the given Node.id, or -1 */
+    int indexOf(long id) {
+	int lo = 0, hi = numNodes-1;
+	while (lo <= hi) {
+	    int mid = (lo+hi) >>> 1;
+	    long v = ids.get(mid);
+	    if (v < id) lo = mid+1;
+	    else if (v > id) hi = mid-1;
+	    else return mid;
+	}
+	return -1;
+    }
+
+    boolean has(int node, int flag) {
+	return (flags.get(node) & flag) != 0;
+    }
+
+    String describe(int node) {
+	int from = descOffsets.get(node), to = descOffsets.get(node+1);
+	byte[] b = new byte[to-from];
+	ByteBuffer d = descs.duplicate();
+	d.position(from);
+	d.get(b);
+	try { return new String(b,"UTF-8"); }
+	catch (UnsupportedEncodingException e) { throw new RuntimeException(e); }
+    }
+
+    int[] defaultSources() {
+	int count = 0;
+	for (int i=0; i<numNodes; i++) if (has(i,SOURCE)) count++;
+	int[] result = new int[count];
+	count = 0;
+	for (int i=0; i<numNodes; i++) if (has(i,SOURCE)) result[count++] = i;
+	return result;
+    }
+
+    /* Hash-consed stacks: a stack is the id of its top entry, which points
+       to the entry below it; 0 is the empty stack. Pushing the same label
+       on the same stack always gives the same id, so stacks are compared
+       with ==. */
+    static class StackTrie {
+	int size = 1;
+	int[] parent = new int[1024];
+	int[] label = new int[1024];
+	int[] depth = new int[1024];
+	// open addressing table from (parent, label) to the child
+	long[] keys = new long[2048];
+	int[] values = new int[2048];
+
+	StackTrie() { Arrays.fill(keys,-1L); }
+
+	int push(int stack, int l) {
+	    long key = ((long) stack << 32) | (l & 0xffffffffL);
+	    int mask = keys.length-1;
+	    int h = hash(key) & mask;
+	    while (keys[h] != -1L) {
+		if (keys[h] == key) return values[h];
+		h = (h+1) & mask;
+	    }
+	    if (size == parent.length) {
+		parent = Arrays.copyOf(parent,2*size);
+		label = Arrays.copyOf(label,2*size);
+		depth = Arrays.copyOf(depth,2*size);
+	    }
+	    int id = size++;
+	    parent[id] = stack; label[id] = l; depth[id] = depth[stack]+1;
+	    keys[h] = key; values[h] = id;
+	    if (2*size > keys.length) rehash();
+	    return id;
+	}
+
+	boolean contains(int stack, int l) {
+	    for (; stack != 0; stack = parent[stack])
+		if (label[stack] == l) return true;
+	    return false;
+	}
+
+	void rehash() {
+	    long[] oldKeys = keys; int[] oldValues = values;
+	    keys = new long[2*oldKeys.length]; values = new int[2*oldKeys.length];
+	    Arrays.fill(keys,-1L);
+	    int mask = keys.length-1;
+	    for (int i=0; i<oldKeys.length; i++) {
+		if (oldKeys[i] == -1L) continue;
+		int h = hash(oldKeys[i]) & mask;
+		while (keys[h] != -1L) h = (h+1) & mask;
+		keys[h] = oldKeys[i]; values[h] = oldValues[i];
+	    }
+	}
+
+	static int hash(long key) {
+	    key *= 0x9E3779B97F4A7C15L;
+	    return (int) (key ^ (key >>> 32));
+	}
+
+	/* The labels of a stack, from the bottom */
+	int[] toArray(int stack) {
+	    int[] result = new int[depth[stack]];
+	    for (int i = result.length-1; stack != 0; i--, stack = parent[stack]) result[i] = label[stack];
+	    return result;
+	}
+    }
+
+    /* A path from a source to a sink. Step i is a vertex, the node and
+       the stacks, and the kind of the edge into it; step 0 is the source
+       and the sink is reached by one more edge from the last step. */
+    static class Path {
+	int sink;
+	int depth;
+	int[] nodes;
+	byte[] kinds;
+	int[][] calls;
+	int[][] fields;
+    }
+
+    /* The paths found from one source */
+    static class Result {
+	int source;
+	List<Path> paths;
+	int visited;     // vertices
+	boolean timedOut;
+	long millis;
+    }
+
+    /* The state of one search. Vertices are records in parallel arrays;
+       since they are appended in BFS order, the arrays are also the queue.
+       A Search can be reused for many sources, but not by two threads. */
+    class Search {
+	StackTrie trie = new StackTrie();
+
+	int maxDepth = MAX_DEPTH;
+	int maxPaths = Integer.MAX_VALUE; // per source
+	long timeout = 0;                 // ms per source, 0 for none
+
+	int size;
+	int[] node = new int[1024];
+	int[] calls = new int[1024];
+	int[] fields = new int[1024];
+	int[] depth = new int[1024];
+	int[] parent = new int[1024];
+	byte[] kind = new byte[1024];
+	int[] next = new int[1024]; // next vertex with the same node
+
+	int[] head = new int[numNodes]; // first vertex of a node, plus one
+	BitSet sinks = new BitSet();
+
+	/* Same as Graph.bfs, but returns the paths instead of waiting for
+	   Enter after each. Stops after maxPaths paths, like answering "no",
+	   or after timeout ms, keeping the paths found so far. */
+	Result run(int source) {
+	    long start = System.currentTimeMillis();
+	    long deadline = timeout > 0 ? start+timeout : Long.MAX_VALUE;
+	    Result result = new Result();
+	    result.source = source;
+	    result.paths = new ArrayList<Path>();
+	    for (int i=0; i<size; i++) head[node[i]] = 0;
+	    size = 0;
+	    sinks.clear();
+	    add(source,0,0,0,-1,NONE);
+
+	    search:
+	    for (int v=0; v<size; v++) {
+		if ((v & 1023) == 1023 && System.currentTimeMillis() > deadline) {
+		    result.timedOut = true;
+		    break;
+		}
+		int n = node[v];
+		int first = offsets.get(n), last = offsets.get(n+1);
+		if (first == last) continue;
+		if (depth[v] > maxDepth) continue;
+		if (has(n,UNREACHABLE)) continue;
+
+		for (int e=first; e<last; e++) {
+		    int target = targets.get(e);
+		    if (has(target,SINK)) {
+			if (!sinks.get(target)) {
+			    sinks.set(target);
+			    result.paths.add(path(v,target));
+			    if (result.paths.size() >= maxPaths) break search;
+			}
+			continue;
+		    }
+		    else if (has(target,SKIP)) continue;
+		    step(v,target,kinds.get(e),labels.get(e));
+		}
+	    }
+	    result.visited = size;
+	    result.millis = System.currentTimeMillis()-start;
+	    return result;
+	}
+
+	/* ExtendedVertex.newExtendedVertex */
+	void step(int v, int target, byte k, int label) {
+	    byte prev = kind[v];
+	    int c = calls[v], f = fields[v];
+	    switch (k) {
+	    case CALL: case CALL_SUPER:
+		if (prev == SUBTYPE_PLUS || prev == SUBTYPE_MINUS) return;
+		if (trie.contains(c,Math.abs(label))) return;
+		c = trie.push(c,Math.abs(label));
+		break;
+	    case WRITE:
+		if (trie.contains(f,Math.abs(label))) return;
+		f = trie.push(f,Math.abs(label));
+		break;
+	    case RETURN: case RETURN_SUPER:
+		if (prev == SUBTYPE_MINUS) return;
+		if (k == RETURN_SUPER && prev == SUBTYPE_PLUS) return;
+		if (c != 0) {
+		    if (trie.label[c] != label) return;
+		    c = trie.parent[c];
+		}
+		break;
+	    case READ:
+		if (f != 0) {
+		    if (trie.label[f] != label) return;
+		    f = trie.parent[f];
+		}
+		break;
+	    case TO_CLASS: case TO_STATIC:
+		c = 0;
+		break;
+	    case FROM_CLASS: case FROM_STATIC: case LOCAL:
+		break;
+	    case SUBTYPE_MINUS:
+		if (prev != SUBTYPE_MINUS && prev != CALL) return;
+		break;
+	    case SUBTYPE_PLUS:
+		if (prev != SUBTYPE_PLUS && prev != LOCAL) return;
+		break;
+	    default:
+		return;
+	    }
+	    if (!contains(target,c,f)) add(target,c,f,depth[v]+1,v,k);
+	}
+
+	/* Whether a vertex equal to (n, c, f) was added, where equal is
+	   ExtendedVertex.equals: only the two top entries of the stacks
+	   count, and the fields only if the calls are not empty */
+	boolean contains(int n, int c, int f) {
+	    for (int v = head[n]-1; v >= 0; v = next[v]-1) {
+		if (calls[v] == c && fields[v] == f) return true;
+		if (equalTops(c,calls[v]) && (c == 0 || equalTops(f,fields[v]))) return true;
+	    }
+	    return false;
+	}
+
+	boolean equalTops(int s, int t) {
+	    if (s == 0 || t == 0) return s == t;
+	    if (trie.label[s] != trie.label[t]) return false;
+	    int ps = trie.parent[s], pt = trie.parent[t];
+	    return ps == 0 || pt == 0 || trie.label[ps] == trie.label[pt];
+	}
+
+	void add(int n, int c, int f, int d, int p, byte k) {
+	    if (size == node.length) grow();
+	    node[size] = n; calls[size] = c; fields[size] = f;
+	    depth[size] = d; parent[size] = p; kind[size] = k;
+	    next[size] = head[n];
+	    head[n] = ++size;
+	}
+
+	void grow() {
+	    int capacity = 2*node.length;
+	    node = Arrays.copyOf(node,capacity);
+	    calls = Arrays.copyOf(calls,capacity);
+	    fields = Arrays.copyOf(fields,capacity);
+	    depth = Arrays.copyOf(depth,capacity);
+	    parent = Arrays.copyOf(parent,capacity);
+	    kind = Arrays.copyOf(kind,capacity);
+	    next = Arrays.copyOf(next,capacity);
+	}
+
+	Path path(int v, int sink) {
+	    Path p = new Path();
+	    p.sink = sink;
+	    p.depth = depth[v]+1;
+	    int length = depth[v]+1;
+	    p.nodes = new int[length]; p.kinds = new byte[length];
+	    p.calls = new int[length][]; p.fields = new int[length][];
+	    for (int i=length-1; v >= 0; i--, v = parent[v]) {
+		p.nodes[i] = node[v]; p.kinds[i] = kind[v];
+		p.calls[i] = trie.toArray(calls[v]); p.fields[i] = trie.toArray(fields[v]);
+	    }
+	    return p;
+	}
+    }
+
+    static String kindName(byte k) {
+	return k == NONE ? null : KIND_NAMES[k];
+    }
+
+    /* The call or field ids of a stack of labels */
+    String join(int[] labels, String separator) {
+	StringBuilder sb = new StringBuilder();
+	for (int i=0; i<labels.length; i++) {
+	    if (i > 0) sb.append(separator);
+	    sb.append(labelIds.get(labels[i]));
+	}
+	return sb.toString();
+    }
+
+    /* Same layout as Graph.bfs and retrievePath, from the last vertex
+       back to the source */
+    void print(Result r, PrintStream out) {
+	out.println("Source: "+describe(r.source));
+	for (Path p : r.paths) {
+	    out.print("\nFound a good path to sink at depth "+p.depth+" ");
+	    out.println(describe(p.sink));
+	    for (int i=p.nodes.length-1; i>=0; i--) {
+		out.println(describe(p.nodes[i]));
+		out.println("---- The calls array: "+join(p.calls[i],"    "));
+		out.println("---- The fields array: "+join(p.fields[i],"    "));
+		out.println("---- The edge info: "+kindName(p.kinds[i]));
+	    }
+	}
+	if (r.timedOut) out.println("\nTimed out after "+r.millis+" ms");
+	out.println("\nNumber of paths found: "+r.paths.size()+"\n");
+    }
+
+    static String quote(String s) {
+	StringBuilder sb = new StringBuilder("\"");
+	for (int i=0; i<s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c == '"' || c == '\\') sb.append('\\').append(c);
+	    else if (c < 0x20) sb.append(String.format("\\u%04x",(int) c));
+	    else sb.append(c);
+	}
+	return sb.append('"').toString();
+    }
+
+    /* One object per source, with its paths from the source to the sink */
+    void writeJson(List<Result> results, PrintStream out) {
+	out.println("[");
+	for (int r=0; r<results.size(); r++) {
+	    Result result = results.get(r);
+	    out.print("  {\"source\": "+ids.get(result.source)+", \"description\": "+quote(describe(result.source))+
+		      ", \"visited\": "+result.visited+", \"millis\": "+result.millis+", \"timedOut\": "+result.timedOut+
+		      ", \"paths\": [");
+	    for (int i=0; i<result.paths.size(); i++) {
+		Path p = result.paths.get(i);
+		out.print((i == 0 ? "" : ",")+"\n    {\"sink\": "+ids.get(p.sink)+", \"description\": "+quote(describe(p.sink))+
+			  ", \"depth\": "+p.depth+", \"steps\": [");
+		for (int k=0; k<p.nodes.length; k++) {
+		    String kind = kindName(p.kinds[k]);
+		    out.print((k == 0 ? "" : ",")+"\n      {\"node\": "+ids.get(p.nodes[k])+", \"edge\": "+(kind == null ? "null" : quote(kind))+
+			      ", \"calls\": ["+join(p.calls[k],", ")+"], \"fields\": ["+join(p.fields[k],", ")+"]}");
+		}
+		out.print("]}");
+	    }
+	    out.println((result.paths.isEmpty() ? "" : "\n  ")+"]}"+(r == results.size()-1 ? "" : ","));
+	}
+	out.println("]");
+    }
+
+    /* One row per step, the sink being the last step of its path */
+    void writeCsv(List<Result> results, PrintStream out) {
+	out.println("source,sink,depth,step,node,edge,calls,fields,timedOut");
+	for (Result result : results) {
+	    for (Path p : result.paths) {
+		String prefix = ids.get(result.source)+","+ids.get(p.sink)+","+p.depth+",";
+		for (int k=0; k<p.nodes.length; k++)
+		    out.println(prefix+k+","+ids.get(p.nodes[k])+","+(p.kinds[k] == NONE ? "" : KIND_NAMES[p.kinds[k]])+","+
+				join(p.calls[k]," ")+","+join(p.fields[k]," ")+","+result.timedOut);
+		out.println(prefix+p.nodes.length+","+ids.get(p.sink)+",,,,"+result.timedOut);
+	    }
+	}
+    }
+
+    /* Searches from all sources on a pool of threads, each with its own
+       Search. The results are in the order of sources. */
+    List<Result> runAll(int[] sources, final int threads, final int maxDepth, final int maxPaths, final long timeout)
+	throws InterruptedException {
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+	    protected Search initialValue() {
+		Search s = new Search();
+		s.maxDepth = maxDepth; s.maxPaths = maxPaths; s.timeout = timeout;
+		return s;
+	    }
+	};
+	try {
+	    List<Future<Result>> futures = new ArrayList<Future<Result>>();
+	    for (final int source : sources) {
+		futures.add(pool.submit(new Callable<Result>() {
+			public Result call() { return searches.get().run(source); }
+		    }));
+	    }
+	    List<Result> results = new ArrayList<Result>();
+	    for (Future<Result> f : futures) {
+		try { results.add(f.get()); }
+		catch (ExecutionException e) { throw new RuntimeException(e.getCause()); }
+	    }
+	    return results;
+	}
+	finally { pool.shutdown(); }
+    }
+
+    /* Usage: CflEngine dir [sources]
+       Loads dir/sflow-cfl.idx if it is newer than the constraints, otherwise
+       builds it from the graph. Searches from the node ids listed in the
+       file sources, one per line, or from every lib with {@Tainted}.
+       Options, as system properties:
+         -Dthreads=n    threads, the number of processors by default
+         -Ddepth=n      vertices deeper than n are not expanded, 100 by default
+         -Dpaths=n      stop a source after n paths
+         -Dtimeout=ms   stop a source after ms milliseconds
+         -Dreport=file  also write the paths to file, as CSV if it ends
+                        with .csv and JSON otherwise
+         -Dquiet        do not print the paths */
+    public static void main(String[] arg) throws Exception {
+	String file = arg[0];
+	String indexName = file+"/sflow-cfl.idx";
+	File index = new File(indexName);
+	File bin = new File(file+"/sflow-constraints.bin"), log = new File(file+"/sflow-constraints.log");
+	long start = System.currentTimeMillis();
+	CflEngine e = null;
+	if (index.exists() && index.lastModified() >= Math.max(bin.lastModified(),log.lastModified())) {
+	    try {
+		e = load(indexName);
+		System.out.println("INDEX LOADED");
+	    }
+	    catch (IOException x) { System.err.println(x.getMessage()+", building it again"); } // e.g. an older version
+	}
+	if (e == null) {
+	    Graph g = new Graph();
+	    Parser p = new Parser(g);
+	    p.loadGraph(file);
+	    p.loadReachableMethods(file);
+	    e = build(g);
+	    e.save(indexName);
+	    System.out.println("GRAPH LOADED");
+	}
+	System.out.println(e.numNodes+" nodes, "+e.numEdges+" edges in "+(System.currentTimeMillis()-start)+" ms");
+
+	int[] sources;
+	if (arg.length > 1) {
+	    ArrayList<Integer> list = new ArrayList<Integer>();
+	    BufferedReader reader = new BufferedReader(new FileReader(arg[1]));
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		line = line.trim();
+		if (line.length() == 0 || line.startsWith("#")) continue;
+		int n = e.indexOf(Long.parseLong(line));
+		if (n < 0) System.out.println("No node "+line);
+		else list.add(n);
+	    }
+	    reader.close();
+	    sources = new int[list.size()];
+	    for (int i=0; i<sources.length; i++) sources[i] = list.get(i);
+	}
+	else sources = e.defaultSources();
+
+	int threads = Integer.getInteger("threads",Runtime.getRuntime().availableProcessors());
+	int maxDepth = Integer.getInteger("depth",MAX_DEPTH);
+	int maxPaths = Integer.getInteger("paths",Integer.MAX_VALUE);
+	long timeout = Long.getLong("timeout",0L);
+
+	start = System.currentTimeMillis();
+	List<Result> results = e.runAll(sources,threads,maxDepth,maxPaths,timeout);
+	long millis = System.currentTimeMillis()-start;
+
+	PrintStream out = new PrintStream(new BufferedOutputStream(System.out,1<<16));
+	long visited = 0;
+	int found = 0, timedOut = 0;
+	for (Result r : results) {
+	    visited += r.visited;
+	    found += r.paths.size();
+	    if (r.timedOut) timedOut++;
+	    if (System.getProperty("quiet") == null) e.print(r,out);
+	}
+	out.println(sources.length+" sources, "+found+" paths, "+visited+" vertices, "+timedOut+" timed out in "+millis+" ms on "+threads+" threads");
+	out.flush();
+
+	String report = System.getProperty("report");
+	if (report != null) {
+	    PrintStream r = new PrintStream(new BufferedOutputStream(new FileOutputStream(report),1<<16));
+	    try {
+		if (report.endsWith(".csv")) e.writeCsv(results,r);
+		else e.writeJson(results,r);
+	    }
+	    finally { r.close(); }
+	    System.out.println("Report written to "+report);
+	}
+    }
+}
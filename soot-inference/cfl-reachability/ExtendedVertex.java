@@ -83,19 +83,19 @@ public class ExtendedVertex {
 
 	if (edge.info.equals("call") || edge.info.equals("call-super")) {
 	    if ((info != null) && (info.equals("subtype-plus") || info.equals("subtype-minus"))) return null; 
-	    if (calls.contains(new Long(Math.abs(edge.call)))) 
+	    if (calls.contains(Long.valueOf(Math.abs(edge.call)))) 
 		result = null;
 	    else {
 		result = new ExtendedVertex(id,calls,true,fields,false);
-		result.calls.add(new Long(Math.abs(edge.call)));
+		result.calls.add(Long.valueOf(Math.abs(edge.call)));
 	    }
 	}
 	else if (edge.info.equals("write")) { 
-	    if (fields.contains(new Long(Math.abs(edge.field))))
+	    if (fields.contains(Long.valueOf(Math.abs(edge.field))))
                 result = null;
             else {
 		result = new ExtendedVertex(id,calls,false,fields,true);
-		result.fields.add(new Long(Math.abs(edge.field)));
+		result.fields.add(Long.valueOf(Math.abs(edge.field)));
 	    }
 	}
 	else if (edge.info.equals("return") || edge.info.equals("return-super")) {
@@ -20,6 +20,16 @@ public class Parser {
 
     void loadGraph(String file) {
 
+	String binName = file+"/sflow-constraints.bin";
+	File bin = new File(binName), log = new File(file+"/sflow-constraints.log");
+	if (bin.exists() && bin.lastModified() >= log.lastModified()) {
+	    // written next to the log by SootInference, much faster to load,
+	    // unless the log was written again by an older SootInference
+	    try { new BinaryParser(g).loadGraph(binName); }
+	    catch (IOException e) { System.out.println("Can't read file "+binName+": "+e.getMessage()); }
+	    return;
+	}
+
 	String fileName = file+"/sflow-constraints.log";
 
 	//String fileName = "logs-preferSource/DroidBench-preferSource/"+file+"/sflow-constraints.log";
@@ -0,0 +1,8 @@
+/* Class Side records the call, field, and var id of lhs or rhs 
+   of the constraint. Used in liue of out parameters.
+*/
+class Side {
+    long call;
+    long field;
+    long var;
+}
@@ -0,0 +1,49 @@
+/* TODO: Make Edge an abstract superclass with all 
+   kinds of Edges subclasses */
+/* Edge is an immutable class */
+
+class Edge {
+    long id;
+    long source;
+    long target;
+    long field;
+    long call;
+    String info; // One of "local", "call", "call-super", 
+                 // "return", "return-super", 
+                 // "write", "read", "toStatic", "fromStatic", 
+                 // "subtype-minus" (contravariant subtyping), "subtype-plus" (covariant subtyping), 
+                 // "lib-lib", "toCLASS", "fromCLASS"
+    
+    Edge(long id, long s, long t, long c, long f, String i) {
+	this.id = id;
+	this.source = s;
+	this.target = t;
+	this.field = f;
+	this.call = c;
+	this.info = i;
+    }
+    public boolean equals(Object e) {
+	Edge other = (Edge) e;
+	if ((source == other.source) && (target == other.target) && 
+            (field == other.field) && (call == other.call) && (info.equals(other.info)))
+	    return true;
+	else
+	    return false;		
+    }
+    public int hashCode() {
+	long l = source+target+field+call;
+	return (int) l;
+    }
+
+    public boolean isInverseOf(Edge e) {
+	if ((source == e.target) && (target == e.source) && (call == -e.call) && (field == -e.field)) return true;
+	else return false;
+    }
+
+    void printEdge() {
+        System.out.println("[Edge Id: "+id+"], [Source: "+source+"], [Target: "+target+"], [Field: "+field+"], [Call: "+call+
+                           "], [Info: "+info+"]");
+    }
+
+
+}
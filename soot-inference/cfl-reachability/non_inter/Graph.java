@@ -1,120 +1,6 @@
 import java.util.*;
 import java.io.*;
 
-/* Node is an immutable class */
-
-class Node {
-    long id;
-    String name;
-    String sflowType;
-    String javaType;
-    String enclMethod;
-    String enclClass;
-    String kind; // one of "local", "field", "static field", "CLASS", "lib", "array access"
-    boolean isTainted; // when kind == "field" {Tainted,Poly}, otherwise == {Tainted,Poly,Safe}
-
-    public boolean equals(Object n) {
-	Node other = (Node) n;
-	if (id == other.id) 
-	    return true;
-	else
-	    return false;
-    }
-    public int hashCode() {
-	return (int) id;
-    }
-    void printNode() {
-	/*
-	System.out.println("[Node Id: "+id+"], [Java Type & Name: "+javaType+" "+name+"], [EnclClass: "+enclClass+"], [EnclMethod: "+enclMethod+
-                            "], [SflowType: "+sflowType+"], [Kind: "+kind+"]");
-	*/
-	if(enclMethod.indexOf(' ')>=0 && enclMethod.indexOf('(')>0){
-		System.out.print(enclMethod.substring(enclMethod.lastIndexOf(' ')+1, enclMethod.indexOf('(')) +"	");
-	}
-	else{
-		System.out.print(enclMethod);
-	}
-    }
-
-    boolean isType(String type) {
-	if (sflowType.indexOf(type) > -1) return true;
-	return false;
-    }
-    // TODO: An ugly hack. Needs a fix.
-    boolean isSink() {
-	if (!kind.equals("lib")) return false;
-	if (isType("@Poly,") || sflowType.endsWith("@Poly") || isType("@Tainted")) return false;
-	return true;
-    }
-    boolean isParameter() {
-	if ((name.indexOf("parameter")>-1) || name.equals("@this")) return true;
-	return false;
-    }
-    boolean isReturn() {
-	if (name.indexOf("@return")>-1) return true;
-	return false;
-    }
-
-}
-/* TODO: Make Edge an abstract superclass with all 
-   kinds of Edges subclasses */
-/* Edge is an immutable class */
-
-class Edge {
-    long id;
-    long source;
-    long target;
-    long field;
-    long call;
-    String info; // One of "local", "call", "call-super", 
-                 // "return", "return-super", 
-                 // "write", "read", "toStatic", "fromStatic", 
-                 // "subtype-minus" (contravariant subtyping), "subtype-plus" (covariant subtyping), 
-                 // "lib-lib", "toCLASS", "fromCLASS"
-    
-    Edge(long id, long s, long t, long c, long f, String i) {
-	this.id = id;
-	this.source = s;
-	this.target = t;
-	this.field = f;
-	this.call = c;
-	this.info = i;
-    }
-    public boolean equals(Object e) {
-	Edge other = (Edge) e;
-	if ((source == other.source) && (target == other.target) && 
-            (field == other.field) && (call == other.call) && (info.equals(other.info)))
-	    return true;
-	else
-	    return false;		
-    }
-    public int hashCode() {
-	long l = source+target+field+call;
-	return (int) l;
-    }
-
-    public boolean isInverseOf(Edge e) {
-	if ((source == e.target) && (target == e.source) && (call == -e.call) && (field == -e.field)) return true;
-	else return false;
-    }
-
-    void printEdge() {
-        System.out.println("[Edge Id: "+id+"], [Source: "+source+"], [Target: "+target+"], [Field: "+field+"], [Call: "+call+
-                           "], [Info: "+info+"]");
-    }
-
-
-}
-
- /* Class Side records the call, field, and var id of lhs or rhs 
-    of the constraint. Used in liue of out parameters.
- */
-class Side {
-    long call;
-    long field;
-    long var;
-}
-
 public class Graph {
 
     private Hashtable<Long,Node> nodes = new Hashtable<Long,Node>(); // Node id -> Node
@@ -136,7 +22,7 @@ public class Graph {
 
 
     Node getNode(long n) {
-	return nodes.get(new Long(n));
+	return nodes.get(Long.valueOf(n));
     }
 
     long registerNode(String side, boolean isField) {
@@ -146,7 +32,6 @@ public class Graph {
 	else id = Long.parseLong(getSubstring(side,'(',')'));
 	if (getNode(id) == null) { // need to parse and add node into Hashtable of nodes
 	    Node node = new Node();
-	    node.id = id;
 	    if ((side.indexOf("@CLASS") > -1) || (side.indexOf("this$0") > 0)) {
 		// CLASS and inner class this$0 should be treated the same
 		node.enclClass = ""; 
@@ -177,14 +62,35 @@ public class Graph {
 	    // System.out.print("=========> The new node: ");
 	    // node.printNode();
 
-	    node.isTainted = node.kind.equals("field") ? (node.sflowType.indexOf("@Tainted") > -1) : (node.sflowType.indexOf("@Tainted") > -1) && (node.sflowType.indexOf("@Poly") > -1) && (node.sflowType.indexOf("@Safe") > -1);
-   
-	    nodes.put(new Long(id),node);
+	    addNode(id,node);
+	}
+	return id;
+    }
 
+    /* Same as registerNode(String,boolean), for a node that is already split
+       into its fields (see BinaryParser), so there is no text to parse */
+    long registerNode(long valueId, boolean isField, String kind, String enclClass, String enclMethod,
+                      String name, String sflowType, String javaType) {
+	long id = isField ? Parser.ARRAY_ACCESS + valueId : valueId;
+	if (getNode(id) == null) {
+	    Node node = new Node();
+	    node.kind = kind;
+	    node.enclClass = enclClass;
+	    node.enclMethod = enclMethod;
+	    node.name = name;
+	    node.sflowType = sflowType;
+	    node.javaType = javaType;
+	    addNode(id,node);
 	}
 	return id;
     }
 
+    void addNode(long id, Node node) {
+	node.id = id;
+	node.isTainted = node.kind.equals("field") ? (node.sflowType.indexOf("@Tainted") > -1) : (node.sflowType.indexOf("@Tainted") > -1) && (node.sflowType.indexOf("@Poly") > -1) && (node.sflowType.indexOf("@Safe") > -1);
+	nodes.put(Long.valueOf(id),node);
+    }
+
     Edge lastRegisteredEdge;
 
     void registerEdge(long edgeId, long s, long t, long call, long field, String libMethod) {
@@ -262,7 +168,7 @@ public class Graph {
 	// System.out.print("------->Registering Edge: "); edge.printEdge();
 	registerEdgeIntoAdjList(s,edge);
 
-	edges.put(new Long(edgeId),edge);
+	edges.put(Long.valueOf(edgeId),edge);
 	lastRegisteredEdge = edge;
     } 
    
@@ -283,17 +189,24 @@ public class Graph {
 
 
     void registerCausedByEdge(long edgeId, long lhs, long rhs, long call, long field, String causedBy) {
+	// causedBy is [id,id,...]
+	String[] ids = causedBy.substring(1,causedBy.length()-1).split(",");
+	long[] causes = new long[ids.length];
+	for (int i=0; i<ids.length; i++) causes[i] = Long.parseLong(ids[i].trim());
+	registerCausedByEdge(edgeId,lhs,rhs,call,field,causes);
+    }
+
+    void registerCausedByEdge(long edgeId, long lhs, long rhs, long call, long field, long[] causes) {
 	// Looking for l -(_id-> lib1 -> lib2 -)_id-> l2 edge.
 
-	int firstComma = causedBy.indexOf(','); if (firstComma < -1) return;
-	int secondComma = causedBy.lastIndexOf(','); if (secondComma == firstComma) return;
-	// System.out.println("CausedBy string: "+causedBy);
-	long callConstraint = Long.parseLong(causedBy.substring(1,firstComma));
-	long liblib = Long.parseLong(causedBy.substring(firstComma+1,secondComma));
-	long retConstraint = Long.parseLong(causedBy.substring(secondComma+1,causedBy.length()-1));
-	Edge callEdge = edges.get(new Long(callConstraint));
-	Edge liblibEdge = edges.get(new Long(liblib));
-	Edge retEdge = edges.get(new Long(retConstraint));
+	if (causes.length != 3) return;
+	// System.out.println("CausedBy: "+Arrays.toString(causes));
+	long callConstraint = causes[0];
+	long liblib = causes[1];
+	long retConstraint = causes[2];
+	Edge callEdge = edges.get(Long.valueOf(callConstraint));
+	Edge liblibEdge = edges.get(Long.valueOf(liblib));
+	Edge retEdge = edges.get(Long.valueOf(retConstraint));
 	if ((callEdge == null) || (liblibEdge == null) || (retEdge == null)) return;
 	if (!liblibEdge.info.equals("lib-lib")) return;
 	if ((callEdge.info.equals("call") || callEdge.info.equals("call-super")) && 
@@ -306,7 +219,7 @@ public class Graph {
     }
 
     void registerEdgeIntoAdjList(long s, Edge e) {
-	Long source = new Long(s);
+	Long source = Long.valueOf(s);
 	HashSet<Edge> set = adjLists.get(source);
 	if (set == null) { set = new HashSet<Edge>(); adjLists.put(source,set); }
 	set.add(e);
@@ -342,15 +255,15 @@ public class Graph {
 
 	while (queue.size() > 0) {
 	    ExtendedVertex v = queue.remove();
-	    // System.out.print("\nProcessing dequed node at detph: "+v.depth+" "); nodes.get(new Long(v.id)).printNode();
+	    // System.out.print("\nProcessing dequed node at detph: "+v.depth+" "); nodes.get(Long.valueOf(v.id)).printNode();
 	    //v.printVertex(0);
-	    HashSet<Edge> edges = adjLists.get(new Long(v.id));
+	    HashSet<Edge> edges = adjLists.get(Long.valueOf(v.id));
 	    if (edges == null) continue;
 
 	    if (v.depth > 100) continue;
 
 	    //Checks if v is in a reachable method
-	    Node tmp = nodes.get(new Long(v.id));	    
+	    Node tmp = nodes.get(Long.valueOf(v.id));	    
 	    if (callGraph && tmp.kind.equals("local") && !reachableMethods.contains(tmp.enclClass+":"+tmp.enclMethod)) {
 		/*
 		System.out.println(tmp.enclClass+":"+tmp.enclMethod+" is not reachable!");
@@ -362,7 +275,7 @@ public class Graph {
 
 	    for (Iterator<Edge> it = edges.iterator(); it.hasNext();) {
 		Edge edge = it.next(); // current edge to examine.
-		// System.out.print("\n Target of edge: "); nodes.get(new Long(edge.target)).printNode();
+		// System.out.print("\n Target of edge: "); nodes.get(Long.valueOf(edge.target)).printNode();
 
 		// ANA: A local edge that returns an android.* result leads almost always to an FP:
 		if (edge.info.contains("local android.") && !edge.info.contains("local android.net.Uri")) continue;
@@ -402,7 +315,7 @@ public class Graph {
 		if (!set.contains(t)) {
 		    set.add(t);
 		    queue.add(t);
-		    // System.out.print("\n----Added node to set and queue at depth: "+t.depth+" "); nodes.get(new Long(t.id)).printNode();
+		    // System.out.print("\n----Added node to set and queue at depth: "+t.depth+" "); nodes.get(Long.valueOf(t.id)).printNode();
 		    // t.printVertex(0);
 		}
 		else {
@@ -446,27 +359,27 @@ public class Graph {
 
     s = arg[1];
 	try {		
-		g.bfs(g.nodes.get(new Long(Long.parseLong(s))));
+		g.bfs(g.nodes.get(Long.valueOf(Long.parseLong(s))));
 	}
 	    catch (NumberFormatException e) { }
 	
 
 	// System.out.println("# edges: "+g.edges.size());
-	// g.bfs(g.nodes.get(new Long(514818))); // uber
-	// g.bfs(g.nodes.get(new Long(534752))); // uber-non FP
-	// g.bfs(g.nodes.get(new Long(534581))); // uber-non FP
-	// g.bfs(g.nodes.get(new Long(534574))); // uber-non FP 
-	// g.bfs(g.nodes.get(new Long(195431))); // uber FP
-	// g.bfs(g.nodes.get(new Long(426174))); // uber FP
-	// g.bfs(g.nodes.get(new Long(787503))); // NYtimes FP
-	// g.bfs(g.nodes.get(new Long(117538))); // NYtimes non-FP?
-	// g.bfs(g.nodes.get(new Long(399212))); // NYtimes FP
-
-	// g.bfs(g.nodes.get(new Long(53))); // Button1
-	// g.bfs(g.nodes.get(new Long(117))); // Button2
-	// g.bfs(g.nodes.get(new Long(36))); // Leak1
-	// g.bfs(g.nodes.get(new Long(84))); // Leak2
-	// g.bfs(g.nodes.get(new Long(12))); // Leak3
+	// g.bfs(g.nodes.get(Long.valueOf(514818))); // uber
+	// g.bfs(g.nodes.get(Long.valueOf(534752))); // uber-non FP
+	// g.bfs(g.nodes.get(Long.valueOf(534581))); // uber-non FP
+	// g.bfs(g.nodes.get(Long.valueOf(534574))); // uber-non FP 
+	// g.bfs(g.nodes.get(Long.valueOf(195431))); // uber FP
+	// g.bfs(g.nodes.get(Long.valueOf(426174))); // uber FP
+	// g.bfs(g.nodes.get(Long.valueOf(787503))); // NYtimes FP
+	// g.bfs(g.nodes.get(Long.valueOf(117538))); // NYtimes non-FP?
+	// g.bfs(g.nodes.get(Long.valueOf(399212))); // NYtimes FP
+
+	// g.bfs(g.nodes.get(Long.valueOf(53))); // Button1
+	// g.bfs(g.nodes.get(Long.valueOf(117))); // Button2
+	// g.bfs(g.nodes.get(Long.valueOf(36))); // Leak1
+	// g.bfs(g.nodes.get(Long.valueOf(84))); // Leak2
+	// g.bfs(g.nodes.get(Long.valueOf(12))); // Leak3
     }
 
 
@@ -0,0 +1,55 @@
+/* Node is an immutable class */
+
+class Node {
+    long id;
+    String name;
+    String sflowType;
+    String javaType;
+    String enclMethod;
+    String enclClass;
+    String kind; // one of "local", "field", "static field", "CLASS", "lib", "array access"
+    boolean isTainted; // when kind == "field" {Tainted,Poly}, otherwise == {Tainted,Poly,Safe}
+
+    public boolean equals(Object n) {
+	Node other = (Node) n;
+	if (id == other.id) 
+	    return true;
+	else
+	    return false;
+    }
+    public int hashCode() {
+	return (int) id;
+    }
+    void printNode() {
+	/*
+	System.out.println("[Node Id: "+id+"], [Java Type & Name: "+javaType+" "+name+"], [EnclClass: "+enclClass+"], [EnclMethod: "+enclMethod+
+                            "], [SflowType: "+sflowType+"], [Kind: "+kind+"]");
+	*/
+	if(enclMethod.indexOf(' ')>=0 && enclMethod.indexOf('(')>0){
+		System.out.print(enclMethod.substring(enclMethod.lastIndexOf(' ')+1, enclMethod.indexOf('(')) +"	");
+	}
+	else{
+		System.out.print(enclMethod);
+	}
+    }
+
+    boolean isType(String type) {
+	if (sflowType.indexOf(type) > -1) return true;
+	return false;
+    }
+    // TODO: An ugly hack. Needs a fix.
+    boolean isSink() {
+	if (!kind.equals("lib")) return false;
+	if (isType("@Poly,") || sflowType.endsWith("@Poly") || isType("@Tainted")) return false;
+	return true;
+    }
+    boolean isParameter() {
+	if ((name.indexOf("parameter")>-1) || name.equals("@this")) return true;
+	return false;
+    }
+    boolean isReturn() {
+	if (name.indexOf("@return")>-1) return true;
+	return false;
+    }
+
+}
@@ -7,6 +7,7 @@ import soot.SootClass;
 import soot.SootMethod;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.lang.annotation.*;
 
 public class AnnotatedValue {
@@ -25,7 +26,7 @@ public class AnnotatedValue {
         FIELD_ADAPT
     }
 
-    private static int counter = 0;
+    private static final AtomicInteger counter = new AtomicInteger();
 
     private int id;
 
@@ -45,18 +46,28 @@ public class AnnotatedValue {
 
     private int restoreNum = 0;
 
-    protected Set<Annotation> annos;
+    /** Qualifiers of all hierarchies, encoded by AnnotationLattice */
+    protected volatile long annoBits;
+
+    /**
+     * Analyses can be solved at the same time (see SolverScheduler), and
+     * each of them replaces only the bits of its own hierarchy. The word is
+     * also where the components SetbasedSolver solves in parallel meet, so
+     * it is only ever updated with a compare-and-set.
+     */
+    private static final AtomicLongFieldUpdater<AnnotatedValue> ANNO_BITS
+        = AtomicLongFieldUpdater.newUpdater(AnnotatedValue.class, "annoBits");
 
     public static int maxId() {
-        return counter;
+        return counter.get();
     }
 
     public static void reset() {
-        counter = 0;
+        counter.set(0);
     }
 
     public AnnotatedValue(String identifier, Type type, Kind kind, Object v) {
-        init(identifier, type, kind, v, AnnotationUtils.createAnnotationSet());
+        init(identifier, type, kind, v, 0L);
     }
 
 //    public AnnotatedValue(String identifier, Type type, Kind kind, Object v, Annotation anno) {
@@ -66,18 +77,16 @@ public class AnnotatedValue {
 //    }
 
     public AnnotatedValue(String identifier, Type type, Kind kind, Object v, Set<Annotation> annos) {
-        Set<Annotation> set = AnnotationUtils.createAnnotationSet();
-        set.addAll(annos);
-        init(identifier, type, kind, v, set);
+        init(identifier, type, kind, v, AnnotationLattice.toBits(annos));
     }
 
-    private void init(String identifier, Type type, Kind kind, Object v, Set<Annotation> annos) {
-        this.id = counter++;
+    private void init(String identifier, Type type, Kind kind, Object v, long annoBits) {
+        this.id = counter.getAndIncrement();
         this.identifier = identifier;
         this.type = type;
         this.kind = kind;
         this.value = v;
-        this.annos = annos;
+        this.annoBits = annoBits;
 
         int i = identifier.lastIndexOf('@');
         name = (i >= 0 ? identifier.substring(i+1) : identifier);
@@ -132,42 +141,63 @@ public class AnnotatedValue {
     }
 
     public void clearAnnotations() {
-        annos.clear();
+        annoBits = 0;
     }
 
     public Set<Annotation> getRawAnnotations() {
-        Set<Annotation> annos = AnnotationUtils.createAnnotationSet();
-        annos.addAll(this.annos);
-        return annos;
+        return AnnotationLattice.fromBits(annoBits);
+    }
+
+    public long getRawAnnotationBits() {
+        return annoBits;
     }
 
     public Set<Annotation> getAnnotations(InferenceTransformer t) {
-        Set<Annotation> annos = getRawAnnotations();
-        annos.retainAll(t.getSourceLevelQualifiers());
-        return annos;
+        return AnnotationLattice.fromBits(getAnnotationBits(t));
+    }
+
+    public long getAnnotationBits(InferenceTransformer t) {
+        return annoBits & t.getSourceLevelMask();
     }
 
     public void setRawAnnotations(Set<Annotation> annos) {
-        this.annos.clear();
-        this.annos.addAll(annos);
+        this.annoBits = AnnotationLattice.toBits(annos);
     }
 
     public void setAnnotations(Set<Annotation> annos, InferenceTransformer t) {
-        this.annos.removeAll(t.getSourceLevelQualifiers());
-        this.annos.addAll(annos);
+        setAnnotationBits(AnnotationLattice.toBits(annos), t);
+    }
+
+    public void setAnnotationBits(long bits, InferenceTransformer t) {
+        long mask = t.getSourceLevelMask();
+        long old;
+        do {
+            old = annoBits;
+        } while (!ANNO_BITS.compareAndSet(this, old, (old & ~mask) | bits));
     }
 
     public void addAnnotation(Annotation anno) {
-        this.annos.add(anno);
+        long bit = AnnotationLattice.toBits(anno);
+        long old;
+        do {
+            old = annoBits;
+        } while (!ANNO_BITS.compareAndSet(this, old, old | bit));
     }
 
     public boolean containsAnno(Annotation anno) {
-        return annos.contains(anno);
+        return AnnotationLattice.contains(annoBits, anno);
     }
 
     public String toString() {
+        return toString(-1L);
+    }
+
+    /**
+     * Like toString(), but only print the qualifiers in mask
+     */
+    public String toString(long mask) {
         return "(" +id + ")" + identifier + ": " 
-            + annos.toString().replace('[', '{').replace(']', '}') 
+            + AnnotationLattice.toString(annoBits & mask).replace('[', '{').replace(']', '}') 
             + " [" + type.toString() + "]";
     }
 
@@ -218,8 +248,8 @@ public class AnnotatedValue {
         }
 
         @Override
-        public String toString() {
-            return "(" + context.toString() + " =f=> " + decl.toString() + ")";
+        public String toString(long mask) {
+            return "(" + context.toString(mask) + " =f=> " + decl.toString(mask) + ")";
         }
 
         @Override
@@ -231,8 +261,7 @@ public class AnnotatedValue {
         @Override
         public void setAnnotations(ViewpointAdapter va, Set<Annotation> annos) {
             // TODO
-            this.annos.clear();
-            this.annos.addAll(annos);
+            this.annoBits = AnnotationLattice.toBits(annos);
         }
     }
 
@@ -242,8 +271,8 @@ public class AnnotatedValue {
         }
 
         @Override
-        public String toString() {
-            return "(" + context.toString() + " =m=> " + decl.toString() + ")";
+        public String toString(long mask) {
+            return "(" + context.toString(mask) + " =m=> " + decl.toString(mask) + ")";
         }
 
         @Override
@@ -255,8 +284,7 @@ public class AnnotatedValue {
         @Override
         public void setAnnotations(ViewpointAdapter va, Set<Annotation> annos) {
             // TODO
-            this.annos.clear();
-            this.annos.addAll(annos);
+            this.annoBits = AnnotationLattice.toBits(annos);
         }
     }
 }
@@ -7,10 +7,11 @@ import soot.SootClass;
 import soot.SootMethod;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.annotation.*;
 
 
-public class AnnotatedValueMap extends HashMap<String, AnnotatedValue> {
+public class AnnotatedValueMap extends ConcurrentHashMap<String, AnnotatedValue> {
 
     private static AnnotatedValueMap instance = new AnnotatedValueMap();
 
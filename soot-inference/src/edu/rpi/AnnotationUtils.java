@@ -2,6 +2,7 @@ package edu.rpi;
 
 import java.lang.annotation.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import soot.tagkit.*;
 
@@ -22,10 +23,10 @@ public class AnnotationUtils {
 
     /** Caching for annotation creation. */
     private static final Map<String, Annotation> annotationsFromNames
-        = new HashMap<String, Annotation>();
+        = new ConcurrentHashMap<String, Annotation>();
 
     private static final Map<String, Set<String>> supertypes 
-        = new HashMap<String, Set<String>>();
+        = new ConcurrentHashMap<String, Set<String>>();
 
     public static Annotation fromName(String name) {
         if (annotationsFromNames.containsKey(name))
@@ -50,6 +51,7 @@ public class AnnotationUtils {
                         && annotationType().equals(((Annotation) obj).annotationType());
                 }
             };
+            annotationsFromNames.put(name, ret);
         } catch (Exception e) {
             error("Cannot find class: " + name);
         }
@@ -78,7 +80,7 @@ public class AnnotationUtils {
     public static boolean isSubtype(Annotation sub, Annotation sup) {
         String subStr = sub.annotationType().getCanonicalName();
         String supStr = sup.annotationType().getCanonicalName();
-        Set<String> sups = supertypes.get(sub); 
+        Set<String> sups = supertypes.get(subStr);
         if (sups == null) {
             sups = new HashSet<String>();
             // add itself
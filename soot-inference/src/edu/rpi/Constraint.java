@@ -2,6 +2,7 @@ package edu.rpi;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class Constraint {
 
@@ -15,10 +16,10 @@ public abstract class Constraint {
 
     private int kind;
 
-    private static int counter = 0; 
+    private static final AtomicInteger counter = new AtomicInteger();
 
     public Constraint(int kind) {
-        id = counter++;
+        id = counter.getAndIncrement();
         this.kind = kind;
     }
 
@@ -47,8 +48,17 @@ public abstract class Constraint {
     }
 
     public String toString(String type, String sep) {
-        return type + "-" + id + ": " + left.toString() + "  " 
-            + sep + "  " + right.toString() 
+        return toString(type, sep, -1L);
+    }
+
+    /**
+     * Like toString(), but only print the qualifiers in mask
+     */
+    public abstract String toString(long mask);
+
+    public String toString(String type, String sep, long mask) {
+        return type + "-" + id + ": " + left.toString(mask) + "  " 
+            + sep + "  " + right.toString(mask) 
             + (causes.size() == 0 ? "" : " caused by " + causeIds());
     }
 
@@ -83,6 +93,12 @@ public abstract class Constraint {
 		public String toString() {
             return super.toString("SUB", "<:");
 		}
+
+        @Override
+        public String toString(long mask) {
+            return super.toString("SUB", "<:", mask);
+        }
+
         @Override
 
         public boolean equals(Object o) {
@@ -103,6 +119,12 @@ public abstract class Constraint {
 		public String toString() {
             return super.toString("EQU", "==");
 		}
+
+        @Override
+        public String toString(long mask) {
+            return super.toString("EQU", "==", mask);
+        }
+
         @Override
 
         public boolean equals(Object o) {
@@ -123,6 +145,12 @@ public abstract class Constraint {
 		public String toString() {
             return super.toString("UNE", "!=");
 		}
+
+        @Override
+        public String toString(long mask) {
+            return super.toString("UNE", "!=", mask);
+        }
+
         @Override
 
         public boolean equals(Object o) {
@@ -0,0 +1,240 @@
+package edu.rpi;
+
+import java.io.*;
+import java.util.*;
+
+import edu.rpi.Constraint.SubtypeConstraint;
+import edu.rpi.Constraint.EqualityConstraint;
+import edu.rpi.AnnotatedValue.*;
+
+/**
+ * Writes constraints as a binary graph, which cfl-reachability loads
+ * without parsing the text of *-constraints.log (see BinaryParser there).
+ * Constraints are written as they come, so the memory used does not grow
+ * with the number of constraints, only with the number of values (one bit
+ * each).
+ *
+ * The file starts with MAGIC and VERSION, followed by records. Each
+ * record is a tag byte and its fields, where ints are unsigned LEB128
+ * varints:
+ * <pre>
+ * STRING  length, UTF-8 bytes                 (next string ordinal)
+ * NODE    value id, 0 or 1 (field), kind*, class*, method*, name*,
+ *         qualifiers*, type*
+ * EDGE    constraint id, kind (0 &lt;:, 1 ==, 2 !=), left side, right side,
+ *         causes (count, ids)
+ * </pre>
+ * Fields marked * are string ordinals, each distinct string is written
+ * once. The fields of a NODE are the ones cfl-reachability's Graph takes
+ * out of the text of the value in the log (see split()), with the
+ * qualifiers in the mask. A side is 0 and a value id for a plain value,
+ * 1, the id of the context and the id of the decl for a field adapt value
+ * (the decl is the field), 3 and the same ids if the field is an array
+ * access, or 2, the id of the context and the id of the decl for a method
+ * adapt value (the context is the call site). A NODE comes before the
+ * first EDGE that mentions it.
+ */
+public class ConstraintGraphWriter {
+
+    public static final int MAGIC = 0x43475246;
+
+    public static final int VERSION = 2;
+
+    public static final int STRING = 1;
+
+    public static final int NODE = 2;
+
+    public static final int EDGE = 3;
+
+    private final OutputStream out;
+
+    private final long mask;
+
+    private final byte[] buf = new byte[1 << 16];
+
+    private int len = 0;
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    /** Values written as NODE, plain and as a field */
+    private final BitSet nodes = new BitSet();
+
+    private final BitSet fieldNodes = new BitSet();
+
+    /** Values written as a field NODE of kind "array access" */
+    private final BitSet arrayNodes = new BitSet();
+
+    public ConstraintGraphWriter(String fileName) throws IOException {
+        this(fileName, -1L);
+    }
+
+    public ConstraintGraphWriter(String fileName, long mask) throws IOException {
+        out = new FileOutputStream(fileName);
+        this.mask = mask;
+        writeByte(MAGIC >>> 24);
+        writeByte(MAGIC >>> 16);
+        writeByte(MAGIC >>> 8);
+        writeByte(MAGIC);
+        writeVarint(VERSION);
+    }
+
+    /**
+     * Write all constraints to fileName
+     */
+    public static void write(Collection<Constraint> cons, String fileName) throws IOException {
+        ConstraintGraphWriter w = new ConstraintGraphWriter(fileName);
+        try {
+            for (Constraint c : cons)
+                w.write(c);
+        } finally {
+            w.close();
+        }
+    }
+
+    public void write(Constraint c) throws IOException {
+        AnnotatedValue left = c.getLeft();
+        AnnotatedValue right = c.getRight();
+        writeNodes(left);
+        writeNodes(right);
+        writeByte(EDGE);
+        writeVarint(c.getId());
+        writeVarint(c instanceof SubtypeConstraint ? 0 : (c instanceof EqualityConstraint ? 1 : 2));
+        writeSide(left);
+        writeSide(right);
+        List<Constraint> causes = c.getCauses();
+        writeVarint(causes.size());
+        for (Constraint cause : causes)
+            writeVarint(cause.getId());
+    }
+
+    private void writeNodes(AnnotatedValue av) throws IOException {
+        if (av instanceof FieldAdaptValue) {
+            writeNode(((AdaptValue) av).getContextValue(), false);
+            writeNode(((AdaptValue) av).getDeclValue(), true);
+        } else if (av instanceof MethodAdaptValue) {
+            writeNode(((AdaptValue) av).getDeclValue(), false);
+        } else
+            writeNode(av, false);
+    }
+
+    private void writeNode(AnnotatedValue av, boolean isField) throws IOException {
+        BitSet seen = (isField ? fieldNodes : nodes);
+        if (seen.get(av.getId()))
+            return;
+        seen.set(av.getId());
+        String[] fields = split(av.toString(mask), isField);
+        if (isField && fields[0].equals("array access"))
+            arrayNodes.set(av.getId());
+        int[] ordinals = new int[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            ordinals[i] = string(fields[i]);
+        writeByte(NODE);
+        writeVarint(av.getId());
+        writeByte(isField ? 1 : 0);
+        for (int ordinal : ordinals)
+            writeVarint(ordinal);
+    }
+
+    /**
+     * Split the text of a value into its kind, class, method, name,
+     * qualifiers and type, the same way Graph.registerNode in
+     * cfl-reachability does for the log
+     */
+    static String[] split(String side, boolean isField) {
+        String kind, cls, method, name;
+        if (side.indexOf("@CLASS") > -1 || side.indexOf("this$0") > 0) {
+            // CLASS and inner class this$0 are treated the same
+            kind = "CLASS";
+            cls = "";
+            method = "";
+            name = substring(side, ')', ':');
+        } else {
+            name = substring(side, '>', ':');
+            if (name.equals("")) {
+                kind = isField ? "field" : "static field";
+                name = substring(side, ':', '>');
+                method = "";
+            } else {
+                if (isField)
+                    kind = "array access";
+                else
+                    kind = side.indexOf("lib-<") > -1 ? "lib" : "local";
+                method = substring(side, ':', '>');
+            }
+            cls = substring(side, '<', ':');
+        }
+        int end = side.lastIndexOf(']');
+        String type = side.substring(side.lastIndexOf(' ', end) + 2, end);
+        return new String[] { kind, cls, method, name, substring(side, '{', '}'), type };
+    }
+
+    private static String substring(String str, char from, char to) {
+        int i = (from == '>' ? str.lastIndexOf(from) : str.indexOf(from)) + 1;
+        int j = (to == '>' ? str.lastIndexOf(to) : str.indexOf(to, i));
+        return str.substring(i, j);
+    }
+
+    /** The ordinal of a string, writing it the first time */
+    private int string(String s) throws IOException {
+        Integer i = strings.get(s);
+        if (i != null)
+            return i;
+        i = strings.size();
+        strings.put(s, i);
+        writeByte(STRING);
+        writeString(s);
+        return i;
+    }
+
+    private void writeSide(AnnotatedValue av) throws IOException {
+        if (av instanceof AdaptValue) {
+            if (av instanceof FieldAdaptValue)
+                writeVarint(arrayNodes.get(((AdaptValue) av).getDeclValue().getId()) ? 3 : 1);
+            else
+                writeVarint(2);
+            writeVarint(((AdaptValue) av).getContextValue().getId());
+            writeVarint(((AdaptValue) av).getDeclValue().getId());
+        } else {
+            writeVarint(0);
+            writeVarint(av.getId());
+        }
+    }
+
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        writeVarint(b.length);
+        if (len + b.length > buf.length) {
+            flush();
+            if (b.length > buf.length) {
+                out.write(b);
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (len == buf.length)
+            flush();
+        buf[len++] = (byte) b;
+    }
+
+    private void writeVarint(int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        writeByte(v);
+    }
+
+    private void flush() throws IOException {
+        out.write(buf, 0, len);
+        len = 0;
+    }
+}
@@ -0,0 +1,165 @@
+package edu.rpi;
+
+import java.lang.annotation.*;
+import java.util.*;
+
+/**
+ * Precomputed tables for one qualifier hierarchy (e.g. Reim or SFlow).
+ * The subtype relation and the viewpoint adaptation are evaluated once for
+ * every pair of qualifiers, so that the solvers only do array lookups
+ * instead of going through AnnotationUtils.isSubtype and the
+ * ViewpointAdapter.
+ *
+ * Qualifiers are numbered by their ordinal in the hierarchy, in the order
+ * of getSourceLevelQualifiers(). The tables are N x N, stored row-major,
+ * and map to bit positions of AnnotationLattice.
+ */
+public class QualifierHierarchy {
+
+    private final Annotation[] qualifiers;
+
+    /** ordinal -> bit position in AnnotationLattice */
+    private final int[] bits;
+
+    /** bit position -> ordinal, -1 if not in this hierarchy */
+    private final int[] ordinals;
+
+    private final long mask;
+
+    /** subtype[sub * n + sup] */
+    private final boolean[] subtype;
+
+    /** bit of the adapted qualifier, [context * n + decl], -1 if none */
+    private final int[] fieldAdapt;
+
+    private final int[] methodAdapt;
+
+    /** By bit position: the bits of all supertypes/subtypes in this hierarchy */
+    private final long[] supertypeMasks;
+
+    private final long[] subtypeMasks;
+
+    public QualifierHierarchy(Set<Annotation> sourceQualifiers, ViewpointAdapter vpa) {
+        int n = sourceQualifiers.size();
+        qualifiers = sourceQualifiers.toArray(new Annotation[n]);
+        bits = new int[n];
+        ordinals = new int[AnnotationLattice.MAX_QUALIFIERS];
+        Arrays.fill(ordinals, -1);
+        long m = 0;
+        for (int i = 0; i < n; i++) {
+            bits[i] = AnnotationLattice.bitOf(qualifiers[i]);
+            ordinals[bits[i]] = i;
+            m |= 1L << bits[i];
+        }
+        mask = m;
+
+        subtype = new boolean[n * n];
+        fieldAdapt = new int[n * n];
+        methodAdapt = new int[n * n];
+        supertypeMasks = new long[AnnotationLattice.MAX_QUALIFIERS];
+        subtypeMasks = new long[AnnotationLattice.MAX_QUALIFIERS];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (AnnotationUtils.isSubtype(qualifiers[i], qualifiers[j])) {
+                    subtype[i * n + j] = true;
+                    supertypeMasks[bits[i]] |= 1L << bits[j];
+                    subtypeMasks[bits[j]] |= 1L << bits[i];
+                }
+                fieldAdapt[i * n + j] = bitOf(vpa.adaptField(qualifiers[i], qualifiers[j]));
+                methodAdapt[i * n + j] = bitOf(vpa.adaptMethod(qualifiers[i], qualifiers[j]));
+            }
+        }
+    }
+
+    private static int bitOf(Annotation anno) {
+        return anno == null ? -1 : AnnotationLattice.bitOf(anno);
+    }
+
+    public int size() {
+        return qualifiers.length;
+    }
+
+    public long getMask() {
+        return mask;
+    }
+
+    public Annotation getQualifier(int ordinal) {
+        return qualifiers[ordinal];
+    }
+
+    public int getBit(int ordinal) {
+        return bits[ordinal];
+    }
+
+    /**
+     * Return the ordinal of the qualifier at bit, or -1 if it does not
+     * belong to this hierarchy.
+     */
+    public int getOrdinal(int bit) {
+        return ordinals[bit];
+    }
+
+    public boolean isSubtype(int subOrdinal, int supOrdinal) {
+        return subtype[subOrdinal * qualifiers.length + supOrdinal];
+    }
+
+    /**
+     * The mask of the qualifiers that the qualifier at bit is a subtype of
+     */
+    public long getSupertypes(int bit) {
+        return supertypeMasks[bit];
+    }
+
+    /**
+     * The mask of the qualifiers that are subtypes of the qualifier at bit
+     */
+    public long getSubtypes(int bit) {
+        return subtypeMasks[bit];
+    }
+
+    /**
+     * Bit of the adapted qualifier, or -1 if it cannot be adapted. Both
+     * arguments are bit positions of qualifiers in this hierarchy.
+     */
+    public int adaptFieldBit(int contextBit, int declBit) {
+        return fieldAdapt[ordinalOf(contextBit) * qualifiers.length + ordinalOf(declBit)];
+    }
+
+    public int adaptMethodBit(int contextBit, int declBit) {
+        return methodAdapt[ordinalOf(contextBit) * qualifiers.length + ordinalOf(declBit)];
+    }
+
+    private int ordinalOf(int bit) {
+        int ordinal = bit >= 0 && bit < ordinals.length ? ordinals[bit] : -1;
+        if (ordinal < 0)
+            throw new IllegalArgumentException("Bit " + bit + " is not a qualifier of this hierarchy");
+        return ordinal;
+    }
+
+    public long adaptFieldBits(long contextBits, long declBits) {
+        return adaptBits(fieldAdapt, contextBits, declBits);
+    }
+
+    public long adaptMethodBits(long contextBits, long declBits) {
+        return adaptBits(methodAdapt, contextBits, declBits);
+    }
+
+    private long adaptBits(int[] table, long contextBits, long declBits) {
+        int n = qualifiers.length;
+        long out = 0;
+        for (long d = declBits & mask; d != 0; d &= d - 1) {
+            int declOrdinal = ordinals[Long.numberOfTrailingZeros(d)];
+            for (long c = contextBits & mask; c != 0; c &= c - 1) {
+                int bit = table[ordinals[Long.numberOfTrailingZeros(c)] * n + declOrdinal];
+                if (bit >= 0)
+                    out |= 1L << bit;
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(qualifiers);
+    }
+}
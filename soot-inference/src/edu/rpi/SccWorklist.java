@@ -0,0 +1,248 @@
+package edu.rpi;
+
+import java.util.*;
+
+import edu.rpi.Constraint.SubtypeConstraint;
+import edu.rpi.Constraint.EqualityConstraint;
+import edu.rpi.Constraint.UnequalityConstraint;
+import edu.rpi.AnnotatedValue.AdaptValue;
+
+/**
+ * Visits constraints by the strongly connected components of the
+ * dependency graph, in topological order. A constraint depends on the
+ * values it reads, and a value depends on the constraints that may update
+ * it. A component is finished before any component that depends on it is
+ * started, so a constraint is only visited again when something in its own
+ * cycle changes.
+ *
+ * Within a component the constraints are visited in the order they are
+ * queued. Each component has its own queue, linked through next[].
+ *
+ * The components are computed once for the constraints in the index when
+ * the worklist is created, so constraints added to the index later cannot
+ * be queued.
+ */
+public class SccWorklist extends Worklist {
+
+    /** Topological rank of the component of each constraint */
+    private final int[] rank;
+
+    private final int[] next;
+
+    private final int[] head;
+
+    private final int[] tail;
+
+    /** Ranks whose queue is not empty */
+    private final BitSet nonEmpty = new BitSet();
+
+    /** No queue with a rank less than this is non-empty */
+    private int cursor = 0;
+
+    private int numComponents = 0;
+
+    private int largestComponent = 0;
+
+    public SccWorklist(ConstraintIndex index, boolean isStrictSubtyping) {
+        int numCons = index.size();
+        int n = numCons + index.getValueBound();
+
+        // The values each constraint may update, as a CSR
+        int[] writeOffsets = new int[numCons + 1];
+        int[] writes = new int[4 * numCons];
+        int numWrites = 0;
+        for (int pos = 0; pos < numCons; pos++) {
+            Constraint c = index.getConstraint(pos);
+            if (c instanceof SubtypeConstraint) {
+                numWrites = addWrites(c.getLeft(), writes, numWrites);
+                if (isStrictSubtyping)
+                    numWrites = addWrites(c.getRight(), writes, numWrites);
+            } else if (c instanceof EqualityConstraint) {
+                numWrites = addWrites(c.getLeft(), writes, numWrites);
+                numWrites = addWrites(c.getRight(), writes, numWrites);
+            } else if (c instanceof UnequalityConstraint) {
+                numWrites = addWrites(c.getLeft(), writes, numWrites);
+            }
+            writeOffsets[pos + 1] = numWrites;
+        }
+
+        // Tarjan's algorithm without recursion. Nodes below numCons are
+        // constraints, the others are values (numCons + id).
+        int[] num = new int[n];
+        int[] low = new int[n];
+        int[] comp = new int[n];
+        Arrays.fill(comp, -1);
+        int[] stack = new int[n];
+        int sp = 0;
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        List<?>[] callList = new List<?>[n];
+        int depth = 0;
+        int counter = 0;
+        int emitted = 0;
+        int[] compSize = new int[n];
+
+        for (int root = 0; root < numCons; root++) {
+            if (num[root] != 0)
+                continue;
+            num[root] = low[root] = ++counter;
+            stack[sp++] = root;
+            callNode[depth] = root;
+            callEdge[depth] = 0;
+            depth++;
+            while (depth > 0) {
+                int v = callNode[depth - 1];
+                int i = callEdge[depth - 1]++;
+                int w = -1;
+                if (v < numCons) {
+                    if (writeOffsets[v] + i < writeOffsets[v + 1])
+                        w = numCons + writes[writeOffsets[v] + i];
+                } else {
+                    if (i == 0)
+                        callList[depth - 1] = index.getConstraints(index.getValue(v - numCons));
+                    List<?> readers = callList[depth - 1];
+                    if (i < readers.size())
+                        w = index.getPosition((Constraint) readers.get(i));
+                }
+                if (w >= 0) {
+                    if (num[w] == 0) {
+                        num[w] = low[w] = ++counter;
+                        stack[sp++] = w;
+                        callNode[depth] = w;
+                        callEdge[depth] = 0;
+                        depth++;
+                    } else if (comp[w] < 0) {
+                        // w is still on the stack
+                        low[v] = Math.min(low[v], num[w]);
+                    }
+                    continue;
+                }
+                // All successors of v are done
+                if (low[v] == num[v]) {
+                    int x;
+                    do {
+                        x = stack[--sp];
+                        comp[x] = emitted;
+                        if (x < numCons)
+                            compSize[emitted]++;
+                    } while (x != v);
+                    if (compSize[emitted] > 0)
+                        numComponents++;
+                    largestComponent = Math.max(largestComponent, compSize[emitted]);
+                    emitted++;
+                }
+                callList[depth - 1] = null;
+                depth--;
+                if (depth > 0) {
+                    int u = callNode[depth - 1];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+            }
+        }
+
+        // Tarjan emits a component after everything reachable from it,
+        // so the emit order is the reverse of the topological order
+        rank = new int[numCons];
+        for (int pos = 0; pos < numCons; pos++)
+            rank[pos] = emitted - 1 - comp[pos];
+        next = new int[numCons];
+        head = new int[emitted];
+        tail = new int[emitted];
+        Arrays.fill(head, -1);
+    }
+
+    /**
+     * A worklist over ranks that are already computed, numbered from 0
+     */
+    private SccWorklist(int[] rank, int numRanks) {
+        this.rank = rank;
+        next = new int[rank.length];
+        head = new int[numRanks];
+        tail = new int[numRanks];
+        Arrays.fill(head, -1);
+    }
+
+    private static int addWrites(AnnotatedValue av, int[] writes, int numWrites) {
+        if (av instanceof AdaptValue) {
+            writes[numWrites++] = ((AdaptValue) av).getDeclValue().getId();
+            writes[numWrites++] = ((AdaptValue) av).getContextValue().getId();
+        } else if (av != null)
+            writes[numWrites++] = av.getId();
+        return numWrites;
+    }
+
+    @Override
+    public String getName() {
+        return "scc";
+    }
+
+    /** Number of components with at least one constraint */
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /** Number of constraints in the largest component */
+    public int getLargestComponent() {
+        return largestComponent;
+    }
+
+    /**
+     * The ranks of the constraints at positions, renumbered from 0 in the
+     * same order
+     */
+    @Override
+    public Worklist restrict(int[] positions) {
+        int[] ranks = new int[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            ranks[i] = rank[positions[i]];
+        int[] sorted = ranks.clone();
+        Arrays.sort(sorted);
+        int numRanks = 0;
+        int largest = 0;
+        for (int i = 0, run = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[numRanks++] = sorted[i];
+                run = 0;
+            }
+            largest = Math.max(largest, ++run);
+        }
+        int[] local = new int[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            local[i] = Arrays.binarySearch(sorted, 0, numRanks, ranks[i]);
+        SccWorklist wl = new SccWorklist(local, numRanks);
+        wl.numComponents = numRanks;
+        wl.largestComponent = largest;
+        return wl;
+    }
+
+    @Override
+    protected void push(int pos) {
+        int r = rank[pos];
+        next[pos] = -1;
+        if (head[r] < 0) {
+            head[r] = pos;
+            nonEmpty.set(r);
+        } else
+            next[tail[r]] = pos;
+        tail[r] = pos;
+        if (r < cursor)
+            cursor = r;
+    }
+
+    @Override
+    protected int pop() {
+        int r = nonEmpty.nextSetBit(cursor);
+        cursor = r;
+        int pos = head[r];
+        head[r] = next[pos];
+        if (head[r] < 0)
+            nonEmpty.clear(r);
+        return pos;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + ", " + numComponents + " components, largest "
+            + largestComponent;
+    }
+}
@@ -9,6 +9,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.io.PrintStream;
 import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 
 import soot.Body;
 import soot.BodyTransformer;
@@ -87,8 +89,8 @@ public class SootInference {
         set(LEVEL_DEBUG);
 
 
-        InferenceTransformer reimTransformer = new ReimTransformer();
-        InferenceTransformer sflowTransformer = new SFlowTransformer();
+        final InferenceTransformer reimTransformer = new ReimTransformer();
+        final InferenceTransformer sflowTransformer = new SFlowTransformer();
         PackManager.v().getPack("jtp").add(new Transform("jtp.reim", reimTransformer));
         PackManager.v().getPack("jtp").add(new Transform("jtp.sflow", sflowTransformer));
 
@@ -98,58 +100,89 @@ public class SootInference {
         info(String.format("%6s: %14f MB", "free", ((float) Runtime.getRuntime().freeMemory()) / (1024*1024)));
         info(String.format("%6s: %14f MB", "total", ((float) Runtime.getRuntime().totalMemory()) / (1024*1024)));
 
-        String outputDir = SourceLocator.v().getOutputDir();
+        final String outputDir = SourceLocator.v().getOutputDir();
 
         boolean needTrace = !(System.getProperty("noTrace") != null);
 
-        System.out.println("INFO: Solving Reim constraints:  " + reimTransformer.getConstraints().size() + " in total...");
-        ConstraintSolver cs = new SetbasedSolver(reimTransformer, false);
-        Set<Constraint> errors = cs.solve();
-        try {
-            PrintStream reimOut = new PrintStream(outputDir + File.separator + "reim-constraints.log");
-            for (Constraint c : reimTransformer.getConstraints()) {
-                reimOut.println(c);
+        // SFlow reads the Reim qualifiers, so it waits for Reim
+        final SolverScheduler scheduler = new SolverScheduler();
+        scheduler.register("Reim", reimTransformer, new SetbasedSolver(reimTransformer, false));
+        scheduler.register("SFlow", sflowTransformer, 
+                new SFlowConstraintSolver(sflowTransformer, needTrace), "Reim");
+
+        scheduler.addOutput("Reim", constraintLog(reimTransformer, 
+                    outputDir + File.separator + "reim-constraints.log",
+                    scheduler.getQualifierMask("Reim")));
+        scheduler.addOutput("Reim", new SolverScheduler.Output() {
+            public void write(Set<Constraint> errors) {
+                for (Constraint c : errors)
+                    System.out.println(c);
+                System.out.println("INFO: Finish solving Reim constraints. " + errors.size() + " error(s)");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        for (Constraint c : errors)
-            System.out.println(c);
-        System.out.println("INFO: Finish solving Reim constraints. " + errors.size() + " error(s)");
-
-        try {
-            PrintStream reimOut = new PrintStream(outputDir + File.separator + "reim-result.jaif");
-            reimTransformer.printJaif(reimOut);
-            reimTransformer.clear();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        System.out.println("INFO: Solving SFlow constraints:  " + sflowTransformer.getConstraints().size() + " in total...");
-        ConstraintSolver sflowSolver = new SFlowConstraintSolver(sflowTransformer, needTrace);
-        errors = sflowSolver.solve();
-        try {
-            PrintStream sflowOut = new PrintStream(outputDir + File.separator + "sflow-constraints.log");
-            for (Constraint c : sflowTransformer.getConstraints()) {
-                sflowOut.println(c);
+        });
+        scheduler.addOutput("Reim", jaif(reimTransformer, 
+                    outputDir + File.separator + "reim-result.jaif"));
+        scheduler.addOutput("Reim", new SolverScheduler.Output() {
+            public void write(Set<Constraint> errors) {
+                reimTransformer.clear();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        System.out.println();
-        for (Constraint c : errors)
-            System.out.println(c + "\n");
-        System.out.println("INFO: Finish solving SFlow constraints. " + errors.size() + " error(s)");
-        try {
-            PrintStream sflowOut = new PrintStream(outputDir + File.separator + "sflow-result.jaif");
-            sflowTransformer.printJaif(sflowOut);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        });
+
+        scheduler.addOutput("SFlow", constraintLog(sflowTransformer, 
+                    outputDir + File.separator + "sflow-constraints.log",
+                    scheduler.getQualifierMask("SFlow")));
+        scheduler.addOutput("SFlow", new SolverScheduler.Output() {
+            public void write(Set<Constraint> errors) {
+                System.out.println();
+                for (Constraint c : errors)
+                    System.out.println(c + "\n");
+                System.out.println("INFO: Finish solving SFlow constraints. " + errors.size() + " error(s)");
+            }
+        });
+        scheduler.addOutput("SFlow", jaif(sflowTransformer, 
+                    outputDir + File.separator + "sflow-result.jaif"));
+
+        scheduler.run();
 
         System.out.println("INFO: Annotated value size: " + AnnotatedValueMap.v().size());
 		
         long endTime   = System.currentTimeMillis();
         System.out.println("INFO: Total running time: " + ((float)(endTime - startTime) / 1000) + " sec");
 	}
+
+    /**
+     * Write the constraints of t, with the qualifiers in mask, to fileName,
+     * and as a binary graph for cfl-reachability to the same name with
+     * .bin instead of .log
+     */
+    static SolverScheduler.Output constraintLog(final InferenceTransformer t, final String fileName,
+            final long mask) {
+        return new SolverScheduler.Output() {
+            public void write(Set<Constraint> errors) throws Exception {
+                PrintStream out = new PrintStream(new BufferedOutputStream(
+                            new FileOutputStream(fileName), 1 << 16));
+                ConstraintGraphWriter graph = new ConstraintGraphWriter(
+                        fileName.replaceFirst("\\.log$", "") + ".bin", mask);
+                try {
+                    for (Constraint c : t.getConstraints()) {
+                        out.println(c.toString(mask));
+                        graph.write(c);
+                    }
+                } finally {
+                    out.close();
+                    graph.close();
+                }
+            }
+        };
+    }
+
+    static SolverScheduler.Output jaif(final InferenceTransformer t, final String fileName) {
+        return new SolverScheduler.Output() {
+            public void write(Set<Constraint> errors) throws Exception {
+                PrintStream out = new PrintStream(fileName);
+                t.printJaif(out);
+                out.close();
+            }
+        };
+    }
 }
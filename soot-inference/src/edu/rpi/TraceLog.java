@@ -0,0 +1,438 @@
+package edu.rpi;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+import soot.SootClass;
+import soot.SootMethod;
+
+import edu.rpi.Constraint.SubtypeConstraint;
+import edu.rpi.Constraint.EqualityConstraint;
+import edu.rpi.Constraint.UnequalityConstraint;
+import edu.rpi.AnnotatedValue.*;
+
+/**
+ * Binary, append-only log of the traces of a solver, read back by
+ * TraceReader.
+ *
+ * The solver thread puts records into a ring buffer and a writer thread
+ * encodes them, so the solver never waits on a lock or on I/O unless the
+ * buffer is full. There is exactly one producer (the solver) and one
+ * consumer (the writer), so the buffer only needs the two counters. The
+ * solver publishes its counter once per BATCH records, not per record.
+ * Traces are put as primitives; qualifier sets are turned into text on
+ * the writer thread, and each set is written once and referred to by its
+ * ordinal after that.
+ *
+ * The file starts with MAGIC and VERSION, followed by records. Each
+ * record is a tag byte and its fields, where ints are unsigned LEB128
+ * varints and strings are a varint length plus UTF-8 bytes:
+ * <pre>
+ * STRING     text                      (next string ordinal)
+ * ANNOS      bits (varlong), text      (next qualifier set ordinal)
+ * TRACE      value id, old set, new set, constraint id
+ * VALUE      id, identifier, set, type*, kind*, value (length + 1, 0 is null),
+ *            class*, name, method*
+ * CONSTRAINT id, kind, left side, right side, causes (count, ids),
+ *            0 or 1 and text
+ * </pre>
+ * Fields marked * are string ordinals. A side is a value id followed by 0,
+ * identifier*, type* and the set of all its qualifiers for a plain value,
+ * or by 1 (field) or 2 (method) and the sides of the context and the decl
+ * for an adapt value. The text of a constraint is only written if it
+ * cannot be rebuilt from its sides, i.e. for other classes than the ones
+ * in Constraint.
+ */
+public class TraceLog {
+
+    public static final int MAGIC = 0x54524143;
+
+    public static final int VERSION = 1;
+
+    public static final int STRING = 1;
+
+    public static final int ANNOS = 2;
+
+    public static final int TRACE = 3;
+
+    public static final int VALUE = 4;
+
+    public static final int CONSTRAINT = 5;
+
+    private static final int CAPACITY = 1 << 16;
+
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int BATCH = 256;
+
+    private static final long MIN_IDLE = 100000;
+
+    private static final long MAX_IDLE = 10000000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The ring buffer. A slot holds either a trace or an object.
+    private final int[] ids = new int[CAPACITY];
+    private final int[] causes = new int[CAPACITY];
+    private final long[] olds = new long[CAPACITY];
+    private final long[] news = new long[CAPACITY];
+    private final Object[] objects = new Object[CAPACITY];
+
+    /** Slots the writer may read, published by the solver */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Next slot the solver writes */
+    private long next = 0;
+
+    /** Next slot the writer reads, only advanced by the writer */
+    private final AtomicLong head = new AtomicLong();
+
+    /** The solver's last view of head */
+    private long cachedHead = 0;
+
+    private volatile boolean closed = false;
+
+    private final InferenceTransformer t;
+
+    private final Thread writer;
+
+    // Writer state
+    private final OutputStream out;
+    private final byte[] buf = new byte[1 << 16];
+    private int len = 0;
+    private final Map<Long, Integer> annoSets = new HashMap<Long, Integer>();
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private int numStrings = 0;
+    // The ordinals of the identifier and type of a value, by value id, plus one
+    private int[] identOrdinals = new int[1024];
+    private int[] typeOrdinals = new int[1024];
+    // The first qualifier sets, scanned before annoSets
+    private final long[] recentSets = new long[16];
+    private IOException failure;
+
+    private long records = 0;
+
+    public TraceLog(InferenceTransformer t, String fileName) throws IOException {
+        this.t = t;
+        out = new FileOutputStream(fileName);
+        writeInt32(MAGIC);
+        writeVarint(VERSION);
+        writer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "trace-writer-" + t.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * av was changed from oldAnnos to newAnnos by the constraint with
+     * id cause
+     */
+    public void trace(int avId, long oldAnnos, long newAnnos, int cause) {
+        int i = (int) (claim() & MASK);
+        ids[i] = avId;
+        olds[i] = oldAnnos;
+        news[i] = newAnnos;
+        causes[i] = cause;
+        objects[i] = null;
+        publish();
+    }
+
+    /**
+     * Log an AnnotatedValue or a Constraint. The object is encoded later,
+     * so it must not change anymore.
+     */
+    public void add(Object o) {
+        objects[(int) (claim() & MASK)] = o;
+        publish();
+    }
+
+    /** Wait until the buffer has a free slot and return its position */
+    private long claim() {
+        long pos = next;
+        while (pos - cachedHead >= CAPACITY) {
+            cachedHead = head.get();
+            if (pos - cachedHead >= CAPACITY) {
+                // the writer may be waiting for the slots not published yet.
+                // Sleep instead of spinning, the writer may need the core.
+                tail.lazySet(pos);
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(MIN_IDLE);
+            }
+        }
+        return pos;
+    }
+
+    private void publish() {
+        if ((++next & (BATCH - 1)) == 0)
+            tail.lazySet(next);
+    }
+
+    /**
+     * Write everything that is queued and close the file
+     */
+    public void close() throws IOException {
+        tail.set(next);
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /** Number of records written, not counting STRING and ANNOS */
+    public long getRecords() {
+        return records;
+    }
+
+    private void drain() {
+        long h = head.get();
+        // How long to sleep when there is nothing to write. It grows while
+        // the solver is quiet, so an idle writer does not keep waking up on
+        // the solver's core; a full buffer or close() wakes it up early.
+        long idle = MIN_IDLE;
+        while (true) {
+            long end = tail.get();
+            if (h == end) {
+                if (closed && tail.get() == h)
+                    break;
+                flush();
+                LockSupport.parkNanos(idle);
+                idle = Math.min(idle * 2, MAX_IDLE);
+                continue;
+            }
+            idle = MIN_IDLE;
+            for (; h < end; h++) {
+                int i = (int) (h & MASK);
+                Object o = objects[i];
+                objects[i] = null;
+                if (failure != null)
+                    continue;
+                try {
+                    if (o == null)
+                        writeTrace(ids[i], olds[i], news[i], causes[i]);
+                    else if (o instanceof AnnotatedValue)
+                        writeValue((AnnotatedValue) o);
+                    else if (o instanceof Constraint)
+                        writeConstraint((Constraint) o);
+                    records++;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            head.lazySet(h);
+        }
+        try {
+            flush();
+            out.close();
+        } catch (IOException e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+
+    private void writeTrace(int avId, long oldAnnos, long newAnnos, int cause) throws IOException {
+        int oldSet = annoSet(oldAnnos);
+        int newSet = annoSet(newAnnos);
+        writeByte(TRACE);
+        writeVarint(avId);
+        writeVarint(oldSet);
+        writeVarint(newSet);
+        writeVarint(cause);
+    }
+
+    private void writeValue(AnnotatedValue av) throws IOException {
+        int set = annoSet(av.getAnnotationBits(t));
+        int type = typeOrdinal(av);
+        int kind = string(av.getKind().toString());
+        SootClass sc = av.getEnclosingClass();
+        int cls = string(sc != null ? sc.getName() : "");
+        SootMethod sm = av.getEnclosingMethod();
+        int method = string(sm != null ? sm.getSubSignature() : "");
+        writeByte(VALUE);
+        writeVarint(av.getId());
+        writeString(av.getIdentifier());
+        writeVarint(set);
+        writeVarint(type);
+        writeVarint(kind);
+        if (av.getValue() == null)
+            writeVarint(0);
+        else
+            writeString(av.getValue().toString(), 1);
+        writeVarint(cls);
+        writeString(av.getName());
+        writeVarint(method);
+    }
+
+    private void writeConstraint(Constraint c) throws IOException {
+        // The strings and sets of the sides are written before the record
+        internSide(c.getLeft());
+        internSide(c.getRight());
+        writeByte(CONSTRAINT);
+        writeVarint(c.getId());
+        writeVarint(c.getKind());
+        writeSide(c.getLeft());
+        writeSide(c.getRight());
+        List<Constraint> cs = c.getCauses();
+        writeVarint(cs.size());
+        for (Constraint cause : cs)
+            writeVarint(cause.getId());
+        Class<?> cls = c.getClass();
+        if (cls == SubtypeConstraint.class || cls == EqualityConstraint.class
+                || cls == UnequalityConstraint.class)
+            writeVarint(0);
+        else
+            writeString(c.toString(), 1);
+    }
+
+    private void internSide(AnnotatedValue av) throws IOException {
+        if (av instanceof AdaptValue) {
+            internSide(((AdaptValue) av).getContextValue());
+            internSide(((AdaptValue) av).getDeclValue());
+        } else {
+            identOrdinal(av);
+            typeOrdinal(av);
+            annoSet(av.getRawAnnotationBits());
+        }
+    }
+
+    private void writeSide(AnnotatedValue av) throws IOException {
+        writeVarint(av.getId());
+        if (av instanceof AdaptValue) {
+            writeVarint(av instanceof FieldAdaptValue ? 1 : 2);
+            writeSide(((AdaptValue) av).getContextValue());
+            writeSide(((AdaptValue) av).getDeclValue());
+        } else {
+            writeVarint(0);
+            writeVarint(identOrdinal(av));
+            writeVarint(typeOrdinal(av));
+            writeVarint(annoSet(av.getRawAnnotationBits()));
+        }
+    }
+
+    /**
+     * The string ordinal of the identifier of av. Constraints repeat the
+     * same values, so the ordinals are kept by value id. Identifiers are
+     * unique to a value, so they are not looked up in strings.
+     */
+    private int identOrdinal(AnnotatedValue av) throws IOException {
+        int id = av.getId();
+        if (id >= identOrdinals.length)
+            identOrdinals = Arrays.copyOf(identOrdinals, Math.max(id + 1, identOrdinals.length * 2));
+        if (identOrdinals[id] == 0)
+            identOrdinals[id] = newString(av.getIdentifier()) + 1;
+        return identOrdinals[id] - 1;
+    }
+
+    /** The string ordinal of the type of av, see identOrdinal() */
+    private int typeOrdinal(AnnotatedValue av) throws IOException {
+        int id = av.getId();
+        if (id >= typeOrdinals.length)
+            typeOrdinals = Arrays.copyOf(typeOrdinals, Math.max(id + 1, typeOrdinals.length * 2));
+        if (typeOrdinals[id] == 0)
+            typeOrdinals[id] = string(av.getType().toString()) + 1;
+        return typeOrdinals[id] - 1;
+    }
+
+    /** The ordinal of a qualifier set, writing it the first time */
+    private int annoSet(long bits) throws IOException {
+        // A solver only sees a few distinct sets, look for them without
+        // boxing the bits
+        int n = Math.min(annoSets.size(), recentSets.length);
+        for (int j = 0; j < n; j++) {
+            if (recentSets[j] == bits)
+                return j;
+        }
+        Integer i = annoSets.get(bits);
+        if (i != null)
+            return i;
+        i = annoSets.size();
+        annoSets.put(bits, i);
+        if (i < recentSets.length)
+            recentSets[i] = bits;
+        writeByte(ANNOS);
+        writeVarlong(bits);
+        writeString(AnnotationLattice.toString(bits));
+        return i;
+    }
+
+    /** The ordinal of a string, writing it the first time */
+    private int string(String s) throws IOException {
+        Integer i = strings.get(s);
+        if (i != null)
+            return i;
+        i = newString(s);
+        strings.put(s, i);
+        return i;
+    }
+
+    /** Write s as the next string and return its ordinal */
+    private int newString(String s) throws IOException {
+        writeByte(STRING);
+        writeString(s);
+        return numStrings++;
+    }
+
+    private void writeString(String s) throws IOException {
+        writeString(s, 0);
+    }
+
+    private void writeString(String s, int lengthBias) throws IOException {
+        byte[] b = s.getBytes(UTF_8);
+        writeVarint(b.length + lengthBias);
+        if (len + b.length > buf.length) {
+            flush();
+            if (b.length > buf.length) {
+                out.write(b);
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (len == buf.length)
+            flush();
+        buf[len++] = (byte) b;
+    }
+
+    private void writeInt32(int v) throws IOException {
+        writeByte(v >>> 24);
+        writeByte(v >>> 16);
+        writeByte(v >>> 8);
+        writeByte(v);
+    }
+
+    private void writeVarint(int v) throws IOException {
+        writeVarlong(v & 0xFFFFFFFFL);
+    }
+
+    private void writeVarlong(long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        writeByte((int) v);
+    }
+
+    private void flush() {
+        if (len == 0 || failure != null)
+            return;
+        try {
+            out.write(buf, 0, len);
+        } catch (IOException e) {
+            failure = e;
+        }
+        len = 0;
+    }
+}
@@ -121,9 +121,7 @@ public class ReimTransformer extends InferenceTransformer {
 
     @Override
     protected boolean isAnnotated(AnnotatedValue v) {
-        Set<Annotation> diff = v.getRawAnnotations();
-        diff.retainAll(sourceAnnos);
-        return !diff.isEmpty();
+        return (v.getRawAnnotationBits() & getSourceLevelMask()) != 0;
     }
 
     @Override
@@ -6,7 +6,6 @@ import java.lang.annotation.*;
 import static com.esotericsoftware.minlog.Log.info;
 
 import java.io.*;
-import java.util.concurrent.*;
 
 import soot.SourceLocator;
 import soot.SootClass;
@@ -35,70 +34,20 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
 
     protected InferenceTransformer t;
 
-    protected Constraint currentConstraint;
-
-    private boolean needTrace = true;;
-
-    private ThreadFactory tFactory;
-    /** for storing traces */
-    private Thread worker; 
-
-    private boolean stop = false;
-
-    private PrintStream out;
-
-    private Deque<Object> queue = new LinkedList<>();
-
-    private final String DB_NAME, DB_SCRIPT;
-
-    private final String VALUE_TABLE_NAME = "avalues";
-
-    private final String CONSTRAINT_TABLE_NAME = "constraints";
-
-    private final String TRACE_TABLE_NAME = "traces";
-
-    private final String CREATE_VALUE_TABLE = "create table " + VALUE_TABLE_NAME + "("
-        + "id integer, "
-        + "identifier string, " 
-        + "annos string, " 
-        + "type string, "
-        + "kind string, "
-        + "value string, "
-        + "class string, " 
-        + "name string, "
-        + "method string" + ");\n"
-        + "create index " + VALUE_TABLE_NAME + "_idx "
-        + "on " + VALUE_TABLE_NAME + "(id);";
+    protected QualifierHierarchy hierarchy;
 
     /**
-     * kind = 0: subkind 
-     * kind = 1: equality
-     * kind = 2: inequality
+     * The constraint being handled by each thread, the cause of its
+     * traces. SetbasedSolver handles components on several threads.
      */
-    private final String CREATE_CONSTRAINT_TABLE = "create table " + CONSTRAINT_TABLE_NAME + "("
-        + "id integer, "
-        + "str string, "
-        + "left_id integer, " 
-        + "right_id integer, " 
-        + "cause_1 integer, " 
-        + "cause_2 integer, " 
-        + "cause_3 integer, " 
-        + "kind integer" + ");\n"
-        + "create index " + CONSTRAINT_TABLE_NAME + "_idx " 
-        + "on " + CONSTRAINT_TABLE_NAME + "(id);";
+    private final ThreadLocal<Constraint> currentConstraint = new ThreadLocal<Constraint>();
+
+    private boolean needTrace = true;;
 
+    /** for storing traces, see TraceLog */
+    private TraceLog traceLog;
 
-    /**
-     * direction = 0: forward
-     * direction = 1: backword
-     */
-    private final String CREATE_TRACE_TABLE = "create table " + TRACE_TABLE_NAME + "("
-        + "value_id integer,"
-        + "old string,"
-        + "new string,"
-        + "constraint_id integer" + ");\n"
-        + "create index " + TRACE_TABLE_NAME + "_idx " 
-        + "on " + TRACE_TABLE_NAME + "(value_id);";
+    private final String TRACE_FILE;
 
     public AbstractConstraintSolver(InferenceTransformer t) {
 //        needTrace = !(System.getProperty("noTrace") != null);
@@ -108,14 +57,13 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
     public AbstractConstraintSolver(InferenceTransformer t, boolean b) {
     	this.needTrace = b;
         this.t = t;
-        DB_NAME = SourceLocator.v().getOutputDir() + File.separator + t.getName() + "-traces.sqlite";
-        DB_SCRIPT = SourceLocator.v().getOutputDir() + File.separator + t.getName() + "-traces.sql";
-        tFactory =  Executors.defaultThreadFactory();
+        this.hierarchy = t.getQualifierHierarchy();
+        TRACE_FILE = SourceLocator.v().getOutputDir() + File.separator + t.getName() + "-traces.bin";
         //System.out.println("INFO: needTrace = " + needTrace);
     }
 
     public Constraint getCurrentConstraint() {
-        return currentConstraint;
+        return currentConstraint.get();
     }
 
     protected boolean needTrace() {
@@ -123,7 +71,7 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
     }
 
 	protected boolean handleConstraint(Constraint c) throws SolverException {
-		currentConstraint = c;
+		currentConstraint.set(c);
 		boolean hasUpdate = false;
         try {
             if (c instanceof SubtypeConstraint) {
@@ -134,7 +82,7 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
                 hasUpdate = handleInequalityConstraint((UnequalityConstraint) c);
             } 
         } finally {
-            currentConstraint = null;
+            currentConstraint.remove();
         }
         return hasUpdate;
 	}
@@ -152,45 +100,29 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
 		boolean hasUpdate = false;		
 		
 		// Get the annotations
-		Set<Annotation> subAnnos = getAnnotations(sub);
-		Set<Annotation> supAnnos = getAnnotations(sup);
+		long subAnnos = getAnnotationBits(sub);
+		long supAnnos = getAnnotationBits(sup);
 
 		// First update the left: If a left annotation is not 
 		// subtype of any right annotation, then remove it. 
-		for (Iterator<Annotation> it = subAnnos.iterator(); 
-				it.hasNext();) {
-			Annotation subAnno = it.next();
-			boolean isFeasible = false;
-			for (Annotation supAnno : supAnnos) {
-                if (AnnotationUtils.isSubtype(subAnno, supAnno)) {
-					isFeasible = true;
-					break;
-				}
-			}
-			if (!isFeasible)
-				it.remove();
+		for (long b = subAnnos; b != 0; b &= b - 1) {
+			int subBit = Long.numberOfTrailingZeros(b);
+			if ((hierarchy.getSupertypes(subBit) & supAnnos) == 0)
+				subAnnos &= ~(1L << subBit);
 		}
 		
 		// Now update the right: If a right annotation is not super type 
 		// of any left annotation, remove it
 		// We only do this if it is strict subtyping
 		if (t.isStrictSubtyping()) {
-			for (Iterator<Annotation> it = supAnnos.iterator(); 
-					it.hasNext();) {
-				Annotation supAnno = it.next();
-				boolean isFeasible = false;
-				for (Annotation subAnno : subAnnos) {
-                    if (AnnotationUtils.isSubtype(subAnno, supAnno)) {
-						isFeasible = true;
-						break;
-					}
-				}
-				if (!isFeasible)
-					it.remove();
+			for (long b = supAnnos; b != 0; b &= b - 1) {
+				int supBit = Long.numberOfTrailingZeros(b);
+				if ((hierarchy.getSubtypes(supBit) & subAnnos) == 0)
+					supAnnos &= ~(1L << supBit);
 			}
 		}
 
-		if (subAnnos.isEmpty() || supAnnos.isEmpty())
+		if (subAnnos == 0 || supAnnos == 0)
             throw new SolverException("ERROR: solve " + c + " failed becaue of an empty set.");
 		
         hasUpdate = setAnnotations(sub, subAnnos) || setAnnotations(sup, supAnnos) || hasUpdate;
@@ -203,13 +135,12 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
 		AnnotatedValue right = c.getRight();
 		
 		// Get the annotations
-		Set<Annotation> leftAnnos = getAnnotations(left);
-		Set<Annotation> rightAnnos = getAnnotations(right);
+		long leftAnnos = getAnnotationBits(left);
+		long rightAnnos = getAnnotationBits(right);
 		
-		Set<Annotation> interAnnos = leftAnnos;
-        interAnnos.retainAll(rightAnnos);
+		long interAnnos = leftAnnos & rightAnnos;
 		
-		if (interAnnos.isEmpty()) {
+		if (interAnnos == 0) {
             throw new SolverException("ERROR: solve " + c + " failed becaue of an empty set.");
 		}
 		// update both
@@ -222,14 +153,12 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
 		AnnotatedValue right = c.getRight();
 		
 		// Get the annotations
-		Set<Annotation> leftAnnos = getAnnotations(left);
-		Set<Annotation> rightAnnos = getAnnotations(right);
+		long leftAnnos = getAnnotationBits(left);
+		long rightAnnos = getAnnotationBits(right);
 	
-		// The default intersection of Set doesn't work well
-		Set<Annotation> differAnnos = leftAnnos;
-        differAnnos.removeAll(rightAnnos);
+		long differAnnos = leftAnnos & ~rightAnnos;
 		
-		if (differAnnos.isEmpty()) {
+		if (differAnnos == 0) {
 			throw new SolverException("ERROR: solve " + c 
 					+ " failed becaue of an empty set.");
 		}
@@ -238,19 +167,23 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
     }
 
 	public Set<Annotation> getAnnotations(AnnotatedValue av) {
+		return AnnotationLattice.fromBits(getAnnotationBits(av));
+	}
+
+	protected long getAnnotationBits(AnnotatedValue av) {
 		if (av instanceof AdaptValue) {
 			AdaptValue aav = (AdaptValue) av;
 			AnnotatedValue context = aav.getContextValue();
 			AnnotatedValue decl = aav.getDeclValue();
 			
 			if (av instanceof FieldAdaptValue)
-				return t.adaptFieldSet(context.getAnnotations(t), 
-						decl.getAnnotations(t));
+				return hierarchy.adaptFieldBits(context.getAnnotationBits(t), 
+						decl.getAnnotationBits(t));
 			else
-				return t.adaptMethodSet(context.getAnnotations(t), 
-						decl.getAnnotations(t));
+				return hierarchy.adaptMethodBits(context.getAnnotationBits(t), 
+						decl.getAnnotationBits(t));
 		} else
-			return av.getAnnotations(t);
+			return av.getAnnotationBits(t);
 	}
 
 	/**
@@ -260,244 +193,103 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
 	 * @return
 	 * @throws SolverException
 	 */
-	protected boolean setAnnotations(AnnotatedValue av, Set<Annotation> annos)
+	protected boolean setAnnotations(AnnotatedValue av, long annos)
 			throws SolverException {
-        Set<Annotation> oldAnnos = av.getAnnotations(t);
 		if (av instanceof AdaptValue)
 			return setAnnotations((AdaptValue) av, annos);
-		if (oldAnnos.equals(annos))
+        long oldAnnos = av.getAnnotationBits(t);
+		if (oldAnnos == annos)
 			return false;
 
         if (needTrace())
-            insertObject(new Trace(av.getId(), oldAnnos.toString(), annos.toString(), 
-                    getCurrentConstraint().getId()));
+            traceLog.trace(av.getId(), oldAnnos, annos, getCurrentConstraint().getId());
 
-        av.setAnnotations(annos, t);
+        av.setAnnotationBits(annos, t);
 
         return true;
     }
 
-	protected boolean setAnnotations(AdaptValue aav, Set<Annotation> annos)
+	protected boolean setAnnotations(AdaptValue aav, long annos)
 			throws SolverException {
         AnnotatedValue context = aav.getContextValue();
         AnnotatedValue decl = aav.getDeclValue();
 
-		Set<Annotation> contextAnnos = context.getAnnotations(t);
-		Set<Annotation> declAnnos = decl.getAnnotations(t);
+		long contextAnnos = context.getAnnotationBits(t);
+		long declAnnos = decl.getAnnotationBits(t);
+		boolean isField = aav instanceof FieldAdaptValue;
 
 		// First iterate through contextAnnos and remove infeasible annotations
-		for (Iterator<Annotation> it = contextAnnos.iterator(); it.hasNext();) {
-			Annotation contextAnno = it.next();
-			boolean isFeasible = false;
-			for (Annotation declAnno : declAnnos) {
-				Annotation outAnno = null;
-				if (aav instanceof FieldAdaptValue)
-					outAnno = t.adaptField(contextAnno, declAnno);
-				else
-					outAnno = t.adaptMethod(contextAnno, declAnno);
-				if (outAnno != null && annos.contains(outAnno)) {
-					isFeasible = true;
-					break;
-				}
-			}
-			if (!isFeasible)
-				it.remove();
+		for (long b = contextAnnos; b != 0; b &= b - 1) {
+			int contextBit = Long.numberOfTrailingZeros(b);
+			if (!isFeasible(isField, contextBit, declAnnos, annos, true))
+				contextAnnos &= ~(1L << contextBit);
 		}
 		
-		if (contextAnnos.isEmpty())
+		if (contextAnnos == 0)
 			throw new SolverException("ERROR: Empty set for contextRef in AdaptConstraint");
 		
 		// Now iterate through declAnnos and remove infeasible annotations
-		for (Iterator<Annotation> it = declAnnos.iterator(); it.hasNext();) {
-			Annotation declAnno = it.next();
-			boolean isFeasible = false;
-			for (Annotation contextAnno : contextAnnos) {
-				Annotation outAnno = null;
-				if (aav instanceof FieldAdaptValue)
-					outAnno = t.adaptField(contextAnno, declAnno);
-				else
-					outAnno = t.adaptMethod(contextAnno, declAnno);
-				if (outAnno != null && annos.contains(outAnno)) {
-					isFeasible = true;
-					break;
-				}
-			}
-			if (!isFeasible)
-				it.remove();
+		for (long b = declAnnos; b != 0; b &= b - 1) {
+			int declBit = Long.numberOfTrailingZeros(b);
+			if (!isFeasible(isField, declBit, contextAnnos, annos, false))
+				declAnnos &= ~(1L << declBit);
 		}
 		
-		if (declAnnos.isEmpty())
+		if (declAnnos == 0)
 			throw new SolverException("ERROR: Empty set for declRef in AdaptConstraint");
 		
 		return setAnnotations(context, contextAnnos)
 				|| setAnnotations(decl, declAnnos);
 	}
 
-    protected void insertValue(AdaptValue av) {
-        try {
-//            pInsertAValue.setInt(1, av.getId());
-//            pInsertAValue.setString(2, av.getContextValue().toString());
-//            pInsertAValue.setString(3, av.getDeclValue().toString());
-//            pInsertAValue.setInt(4, av.getContextValue().getId());
-//            pInsertAValue.setInt(5, av.getDeclValue().getId());
-//            pInsertAValue.setString(6, av.getKind().toString());
-//            adaptvalueNum--;
-//            if (adaptvalueNum == 0) {
-//                pInsertAValue.executeBatch();
-//                adaptvalueNum = 100;
-//            } else 
-//                pInsertAValue.addBatch();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void insertValue(AnnotatedValue av) {
-        if (av instanceof AdaptValue) {
-//            insertValue((AdaptValue) av);
-        }
-        try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("insert into ").append(VALUE_TABLE_NAME)
-                .append(" values (");
-            sb.append(av.getId()).append(",\"");
-            sb.append(av.getIdentifier().replace('\"', '_')).append("\",\"");
-            sb.append(av.getAnnotations(t).toString()).append("\",\"");
-            sb.append(av.getType().toString()).append("\",\"");
-            sb.append(av.getKind().toString()).append("\",\"");
-            if (av.getValue() != null)
-                sb.append(av.getValue().toString().replace('\"', '_')).append("\",\"");
-            else 
-                sb.append("null\", \"");
-            SootClass sc = av.getEnclosingClass();
-//            if (sc == null)
-//                System.err.println("Enclosing class is null: " + av);
-            sb.append(sc != null ? sc.getName() : "").append("\",\"");
-            sb.append(av.getName().replace('\"', '_')).append("\",\"");
-            SootMethod sm = av.getEnclosingMethod();
-            sb.append(sm != null ? sm.getSubSignature() : "").append("\");");
-            out.println(sb.toString());
-
-			
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void insertConstraint(Constraint c) {
-        try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("insert into ").append(CONSTRAINT_TABLE_NAME)
-                .append(" values (");
-            sb.append(c.getId()).append(",\"");
-            sb.append(c.toString().replace('\"', '_')).append("\",");
-            sb.append(c.getLeft().getId()).append(",");
-            sb.append(c.getRight().getId()).append(",");
-            List<Constraint> causes = c.getCauses();
-            for (int i = 0; i < 3; i++) {
-                if (i < causes.size())
-                    sb.append(causes.get(i).getId());
-                else 
-                    sb.append("-1");
-                sb.append(",");
-            }
-            sb.append(c.getKind()).append(");");
-            out.println(sb.toString());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void insertTrace(Trace t) {
-        try {
-
-            StringBuilder sbd = new StringBuilder();
-            sbd.append("delete from ").append(TRACE_TABLE_NAME)
-                .append(" where value_id = ").append(t.avId)
-                .append(" and old = \"").append(t.oldAnnos).append("\";");
-            out.println(sbd.toString());
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("insert into ").append(TRACE_TABLE_NAME)
-                .append(" values (");
-            sb.append(t.avId).append(",\"");
-            sb.append(t.oldAnnos).append("\",\"");
-            sb.append(t.newAnnos).append("\",");
-            sb.append(t.causeId).append(");");
-            out.println(sb.toString());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    protected void insertObject(Object o) {
-        synchronized(queue) {
-            queue.addLast(o);
-            queue.notify();
-        }
-    }
-
-    private void initLog() throws FileNotFoundException {
-        out = new PrintStream(DB_SCRIPT);
-
-        out.println(CREATE_VALUE_TABLE);
-        out.println(CREATE_CONSTRAINT_TABLE);
-        out.println(CREATE_TRACE_TABLE);
-
-        worker = new Thread(new Runnable() {
-            public void run() {
-                while (!stop || !queue.isEmpty()) {
-                    synchronized(queue) {
-                        while (queue.isEmpty() && !stop) {
-                            try {
-                                queue.wait(10);
-                            } catch (Exception e) {}
-                        }
-                        int size = queue.size();
-                        while (size > 0) {
-                            Object o = queue.removeFirst();
-                            if (o instanceof Trace) 
-                                insertTrace((Trace) o);
-                            else if (o instanceof AnnotatedValue)
-                                insertValue((AnnotatedValue) o);
-                            else if (o instanceof Constraint)
-                                insertConstraint((Constraint) o);
-                            size--;
-                        }
-                    }
-                }
-            }
-        });;
-        worker.start();
-    }
+	/**
+	 * Return true if adapting bit with some annotation in others gives an
+	 * annotation in annos. bit is the context if isContext is true,
+	 * otherwise it is the decl.
+	 */
+	private boolean isFeasible(boolean isField, int bit, long others, long annos, 
+			boolean isContext) {
+		for (long b = others; b != 0; b &= b - 1) {
+			int other = Long.numberOfTrailingZeros(b);
+			int contextBit = isContext ? bit : other;
+			int declBit = isContext ? other : bit;
+			int outBit = isField ? hierarchy.adaptFieldBit(contextBit, declBit) 
+				: hierarchy.adaptMethodBit(contextBit, declBit);
+			if (outBit >= 0 && (annos & (1L << outBit)) != 0)
+				return true;
+		}
+		return false;
+	}
 
     private void endLog() {
+        if (traceLog == null)
+            return;
         try {
-        	info(this.getClass().getSimpleName(), "Finished solving. Waiting for log worker thread...");
-            stop = true;
-            worker.join();
-            out.close();    
-        } catch (Exception e) {
+            info(this.getClass().getSimpleName(), "Finished solving. Waiting for log worker thread...");
+            traceLog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        traceLog = null;
     }
 
     public Set<Constraint> solve() {
     	Set<Constraint> set;
         try {
             if (needTrace)
-                initLog();
+                traceLog = new TraceLog(t, TRACE_FILE);
 
             set = solveImpl();
 
             if (needTrace()) {
                 // dump annotated values
                 for (AnnotatedValue av: t.getAnnotatedValues().values()) {
-                    insertObject(av);
+                    traceLog.add(av);
                 }
                 BitSet inserted = new BitSet(AnnotatedValue.maxId());
                 // dump constraints
                 for (Constraint c : t.getConstraints()) {
-                    insertObject(c);
+                    traceLog.add(c);
                     // also insert locals
                     AnnotatedValue[] avs = new AnnotatedValue[]{c.getLeft(), c.getRight()};
                     for (AnnotatedValue av : avs) {
@@ -505,7 +297,7 @@ public abstract class AbstractConstraintSolver implements ConstraintSolver {
                             av = ((AdaptValue) av).getContextValue();
                         }
                         if (av.getKind() == Kind.LOCAL && !inserted.get(av.getId())) {
-                            insertObject(av);
+                            traceLog.add(av);
                             inserted.flip(av.getId());
                         }
                     }
@@ -1,9 +1,10 @@
 package edu.rpi;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
-public class AnnotatedValueMap extends HashMap<String, AnnotatedValue> {
+public class AnnotatedValueMap extends ConcurrentHashMap<String, AnnotatedValue> {
 
     /**
 	 * 
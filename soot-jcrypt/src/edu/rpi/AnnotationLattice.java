@@ -0,0 +1,97 @@
+package edu.rpi;
+
+import java.lang.annotation.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact encoding of qualifier sets. Every qualifier gets a small bit
+ * position the first time it is registered, and a set of qualifiers is
+ * stored as a long mask, so that the solvers can do the set operations
+ * with bitwise ops instead of allocating TreeSets.
+ *
+ * Positions are global because an AnnotatedValue holds the qualifiers of
+ * all hierarchies (e.g. Reim and SFlow) at the same time.
+ *
+ * bitOf is called by the solver threads without a lock, so positions is
+ * concurrent and a qualifier is stored before its position is published.
+ */
+public class AnnotationLattice {
+
+    public static final int MAX_QUALIFIERS = 64;
+
+    private static final Map<Class<? extends Annotation>, Integer> positions
+        = new ConcurrentHashMap<Class<? extends Annotation>, Integer>();
+
+    private static final Annotation[] qualifiers = new Annotation[MAX_QUALIFIERS];
+
+    private static volatile int size = 0;
+
+    private AnnotationLattice() {
+    }
+
+    /**
+     * Return the bit position of anno, registering it if necessary.
+     */
+    public static int bitOf(Annotation anno) {
+        Integer i = positions.get(anno.annotationType());
+        if (i != null)
+            return i;
+        return register(anno);
+    }
+
+    private static synchronized int register(Annotation anno) {
+        Integer i = positions.get(anno.annotationType());
+        if (i != null)
+            return i;
+        if (size == MAX_QUALIFIERS)
+            throw new RuntimeException("Too many qualifiers, cannot register " + anno);
+        qualifiers[size] = anno;
+        positions.put(anno.annotationType(), size);
+        return size++;
+    }
+
+    /**
+     * Register the qualifiers of a hierarchy and return their mask.
+     */
+    public static long register(Set<Annotation> annos) {
+        return toBits(annos);
+    }
+
+    public static Annotation get(int bit) {
+        return qualifiers[bit];
+    }
+
+    public static int size() {
+        return size;
+    }
+
+    public static long toBits(Annotation anno) {
+        return 1L << bitOf(anno);
+    }
+
+    public static long toBits(Set<Annotation> annos) {
+        long bits = 0;
+        for (Annotation anno : annos)
+            bits |= 1L << bitOf(anno);
+        return bits;
+    }
+
+    public static Set<Annotation> fromBits(long bits) {
+        Set<Annotation> annos = AnnotationUtils.createAnnotationSet();
+        for (long b = bits; b != 0; b &= b - 1)
+            annos.add(qualifiers[Long.numberOfTrailingZeros(b)]);
+        return annos;
+    }
+
+    public static boolean contains(long bits, Annotation anno) {
+        return (bits & toBits(anno)) != 0;
+    }
+
+    /**
+     * Same format as toString() of the sets from createAnnotationSet().
+     */
+    public static String toString(long bits) {
+        return fromBits(bits).toString();
+    }
+}
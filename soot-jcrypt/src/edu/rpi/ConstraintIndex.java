@@ -0,0 +1,361 @@
+package edu.rpi;
+
+import java.util.*;
+
+import edu.rpi.Constraint.SubtypeConstraint;
+import edu.rpi.Constraint.EqualityConstraint;
+import edu.rpi.Constraint.UnequalityConstraint;
+import edu.rpi.AnnotatedValue.AdaptValue;
+
+/**
+ * Maps the id of an AnnotatedValue to the constraints that mention it.
+ * This replaces the HashMap<String, Set<Constraint>> maps keyed by
+ * getIdentifier() in the solvers.
+ *
+ * Each mapping is stored in CSR form: offsets[id] .. offsets[id + 1] is
+ * the range of targets that belongs to id, and targets are positions of
+ * constraints (or ids of adapt values) in this index. A mapping is built
+ * in one pass over the constraints the first time it is used. Constraints
+ * added after that (e.g. linear constraints in SFlow) go into small per-id
+ * overflow arrays.
+ */
+public class ConstraintIndex {
+
+    /** value -> constraints on either side, with adapt values split into decl and context */
+    private static final int TOUCHING = 0;
+
+    /** value -> constraints x <: value, or x == value */
+    private static final int LESS = 1;
+
+    /** value -> constraints value <: x, or value == x */
+    private static final int GREATER = 2;
+
+    /** decl value -> adapt values */
+    private static final int DECL = 3;
+
+    /** context value -> adapt values */
+    private static final int CONTEXT = 4;
+
+    private Constraint[] constraints;
+
+    private int size = 0;
+
+    private AnnotatedValue[] values;
+
+    /** Constraint.getId() -> position in this index, plus one */
+    private int[] positions;
+
+    private final Relation[] relations = new Relation[5];
+
+    public ConstraintIndex(Collection<Constraint> cons) {
+        constraints = new Constraint[Math.max(cons.size(), 16)];
+        values = new AnnotatedValue[Math.max(AnnotatedValue.maxId(), 16)];
+        positions = new int[16];
+        for (Constraint c : cons)
+            append(c);
+    }
+
+    /**
+     * Add a constraint after the index is built
+     */
+    public void add(Constraint c) {
+        int pos = append(c);
+        for (int kind = 0; kind < relations.length; kind++) {
+            if (relations[kind] != null)
+                collect(kind, c, pos, relations[kind]);
+        }
+    }
+
+    /**
+     * Build the value -> constraints mapping now. getConstraints() only
+     * reads after that, so several threads can call it as long as no
+     * constraint is added.
+     */
+    public void buildConstraintMapping() {
+        relation(TOUCHING);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Constraint getConstraint(int pos) {
+        return constraints[pos];
+    }
+
+    /**
+     * Return the position of c, or -1 if it is not in this index
+     */
+    public int getPosition(Constraint c) {
+        int id = c.getId();
+        return id < positions.length ? positions[id] - 1 : -1;
+    }
+
+    /**
+     * Return the value with the given id, or null if no constraint in this
+     * index mentions it
+     */
+    public AnnotatedValue getValue(int id) {
+        return id < values.length ? values[id] : null;
+    }
+
+    /**
+     * All value ids in this index are less than this
+     */
+    public int getValueBound() {
+        return values.length;
+    }
+
+    /**
+     * The constraints that mention av, either directly or as the decl or
+     * context of an adapt value
+     */
+    public List<Constraint> getConstraints(AnnotatedValue av) {
+        return constraintList(relation(TOUCHING), av.getId());
+    }
+
+    public List<Constraint> getLessConstraints(AnnotatedValue av) {
+        return constraintList(relation(LESS), av.getId());
+    }
+
+    public List<Constraint> getGreaterConstraints(AnnotatedValue av) {
+        return constraintList(relation(GREATER), av.getId());
+    }
+
+    /**
+     * The adapt values whose decl is av
+     */
+    public List<AdaptValue> getAdaptValuesOfDecl(AnnotatedValue av) {
+        return valueList(relation(DECL), av.getId());
+    }
+
+    /**
+     * The adapt values whose context is av
+     */
+    public List<AdaptValue> getAdaptValuesOfContext(AnnotatedValue av) {
+        return valueList(relation(CONTEXT), av.getId());
+    }
+
+    private int append(Constraint c) {
+        if (size == constraints.length)
+            constraints = Arrays.copyOf(constraints, size * 2);
+        constraints[size] = c;
+        if (c.getId() >= positions.length)
+            positions = Arrays.copyOf(positions, Math.max(c.getId() + 1, positions.length * 2));
+        positions[c.getId()] = size + 1;
+        if (c.getLeft() != null)
+            addValue(c.getLeft());
+        if (c.getRight() != null)
+            addValue(c.getRight());
+        return size++;
+    }
+
+    private void addValue(AnnotatedValue av) {
+        int id = av.getId();
+        if (id >= values.length)
+            values = Arrays.copyOf(values, Math.max(id + 1, values.length * 2));
+        values[id] = av;
+        if (av instanceof AdaptValue) {
+            addValue(((AdaptValue) av).getDeclValue());
+            addValue(((AdaptValue) av).getContextValue());
+        }
+    }
+
+    private Relation relation(int kind) {
+        Relation r = relations[kind];
+        if (r == null) {
+            PairBuffer pairs = new PairBuffer(size * 2);
+            for (int pos = 0; pos < size; pos++)
+                collect(kind, constraints[pos], pos, pairs);
+            r = new Relation(pairs, values.length);
+            relations[kind] = r;
+        }
+        return r;
+    }
+
+    private void collect(int kind, Constraint c, int pos, Sink sink) {
+        if (!(c instanceof SubtypeConstraint
+                    || c instanceof EqualityConstraint
+                    || c instanceof UnequalityConstraint))
+            return;
+        AnnotatedValue left = c.getLeft();
+        AnnotatedValue right = c.getRight();
+        if (left == null || right == null)
+            return;
+        switch (kind) {
+        case TOUCHING:
+            collectTouching(left, pos, sink);
+            collectTouching(right, pos, sink);
+            break;
+        case LESS:
+            if (c instanceof SubtypeConstraint) {
+                sink.put(right.getId(), pos);
+            } else if (c instanceof EqualityConstraint) {
+                sink.put(left.getId(), pos);
+                sink.put(right.getId(), pos);
+            }
+            break;
+        case GREATER:
+            if (c instanceof SubtypeConstraint) {
+                sink.put(left.getId(), pos);
+            } else if (c instanceof EqualityConstraint) {
+                sink.put(left.getId(), pos);
+                sink.put(right.getId(), pos);
+            }
+            break;
+        case DECL:
+        case CONTEXT:
+            collectAdapt(kind, left, sink);
+            collectAdapt(kind, right, sink);
+            break;
+        }
+    }
+
+    private void collectTouching(AnnotatedValue ref, int pos, Sink sink) {
+        if (ref instanceof AdaptValue) {
+            sink.put(((AdaptValue) ref).getDeclValue().getId(), pos);
+            sink.put(((AdaptValue) ref).getContextValue().getId(), pos);
+        } else
+            sink.put(ref.getId(), pos);
+    }
+
+    private void collectAdapt(int kind, AnnotatedValue ref, Sink sink) {
+        if (!(ref instanceof AdaptValue) || !sink.firstSeen(ref.getId()))
+            return;
+        AdaptValue aav = (AdaptValue) ref;
+        AnnotatedValue key = (kind == DECL ? aav.getDeclValue() : aav.getContextValue());
+        sink.put(key.getId(), aav.getId());
+    }
+
+    private List<Constraint> constraintList(final Relation r, final int id) {
+        final int n = r.size(id);
+        if (n == 0)
+            return Collections.<Constraint>emptyList();
+        return new AbstractList<Constraint>() {
+            @Override
+            public Constraint get(int i) {
+                return constraints[r.get(id, i)];
+            }
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+
+    private List<AdaptValue> valueList(final Relation r, final int id) {
+        final int n = r.size(id);
+        if (n == 0)
+            return Collections.<AdaptValue>emptyList();
+        return new AbstractList<AdaptValue>() {
+            @Override
+            public AdaptValue get(int i) {
+                return (AdaptValue) values[r.get(id, i)];
+            }
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+
+    private static abstract class Sink {
+        BitSet seen = new BitSet();
+
+        abstract void put(int key, int target);
+
+        /** For the adapt value mappings, which hold every adapt value once */
+        boolean firstSeen(int id) {
+            if (seen.get(id))
+                return false;
+            seen.set(id);
+            return true;
+        }
+    }
+
+    /** The (key, target) pairs of a relation before it is built */
+    private static class PairBuffer extends Sink {
+        int[] keys;
+        int[] targets;
+        int size = 0;
+
+        PairBuffer(int capacity) {
+            keys = new int[Math.max(capacity, 16)];
+            targets = new int[keys.length];
+        }
+
+        @Override
+        void put(int key, int target) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+            }
+            keys[size] = key;
+            targets[size] = target;
+            size++;
+        }
+    }
+
+    private static class Relation extends Sink {
+        private int[] offsets;
+        private int[] targets;
+
+        /** Targets added after the relation is built, by key */
+        private int[][] extra;
+        private int[] extraSize;
+
+        /**
+         * Counting sort of the pairs by key. It is stable, so the targets
+         * of a key keep the order in which they were added.
+         */
+        Relation(PairBuffer pairs, int numKeys) {
+            for (int i = 0; i < pairs.size; i++)
+                numKeys = Math.max(numKeys, pairs.keys[i] + 1);
+            offsets = new int[numKeys + 1];
+            for (int i = 0; i < pairs.size; i++)
+                offsets[pairs.keys[i] + 1]++;
+            for (int k = 0; k < numKeys; k++)
+                offsets[k + 1] += offsets[k];
+            targets = new int[pairs.size];
+            int[] next = Arrays.copyOf(offsets, numKeys);
+            for (int i = 0; i < pairs.size; i++)
+                targets[next[pairs.keys[i]]++] = pairs.targets[i];
+            extra = new int[numKeys][];
+            extraSize = new int[numKeys];
+            // keep the ids of adapt values that are already in
+            seen = pairs.seen;
+        }
+
+        @Override
+        void put(int key, int target) {
+            if (key >= extra.length) {
+                int n = Math.max(key + 1, extra.length * 2);
+                extra = Arrays.copyOf(extra, n);
+                extraSize = Arrays.copyOf(extraSize, n);
+            }
+            int[] a = extra[key];
+            if (a == null) {
+                a = new int[2];
+                extra[key] = a;
+            } else if (extraSize[key] == a.length) {
+                a = Arrays.copyOf(a, a.length * 2);
+                extra[key] = a;
+            }
+            a[extraSize[key]++] = target;
+        }
+
+        int size(int key) {
+            int n = key < extraSize.length ? extraSize[key] : 0;
+            if (key + 1 < offsets.length)
+                n += offsets[key + 1] - offsets[key];
+            return n;
+        }
+
+        int get(int key, int i) {
+            int base = key + 1 < offsets.length ? offsets[key + 1] - offsets[key] : 0;
+            if (i < base)
+                return targets[offsets[key] + i];
+            return extra[key][i - base];
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package edu.rpi;
+
+import java.util.*;
+
+import edu.rpi.AnnotatedValue.AdaptValue;
+
+/**
+ * Splits the constraints of a ConstraintIndex into weakly connected
+ * components: two constraints are in the same component if they are linked
+ * by values they both read or update. The decl and context of an adapt
+ * value count as the values of a constraint on it. Constraints in different
+ * components share no values, so they can be solved independently.
+ *
+ * Components are numbered in the order of their first constraint, and the
+ * constraints of a component are kept in index order.
+ */
+public class ConstraintPartition {
+
+    /** Union-find over value ids, a negative entry is a root of -size */
+    private final int[] parent;
+
+    /** Component k holds the positions offsets[k] .. offsets[k + 1] */
+    private final int[] offsets;
+
+    private final int[] positions;
+
+    /** Position in the index -> component */
+    private final int[] components;
+
+    /** Position in the index -> position within its component */
+    private final int[] localPositions;
+
+    private int largestComponent = 0;
+
+    public ConstraintPartition(ConstraintIndex index) {
+        int n = index.size();
+        parent = new int[index.getValueBound()];
+        Arrays.fill(parent, -1);
+
+        int[] roots = new int[n];
+        int[] ids = new int[4];
+        for (int pos = 0; pos < n; pos++) {
+            Constraint c = index.getConstraint(pos);
+            int k = addIds(c.getRight(), ids, addIds(c.getLeft(), ids, 0));
+            for (int i = 1; i < k; i++)
+                union(ids[0], ids[i]);
+            roots[pos] = (k == 0 ? -1 : ids[0]);
+        }
+
+        // Number the components by their first constraint. A constraint
+        // without values is a component of its own.
+        int[] compOfRoot = new int[parent.length];
+        Arrays.fill(compOfRoot, -1);
+        components = new int[n];
+        int numComponents = 0;
+        for (int pos = 0; pos < n; pos++) {
+            if (roots[pos] < 0) {
+                components[pos] = numComponents++;
+                continue;
+            }
+            int root = find(roots[pos]);
+            if (compOfRoot[root] < 0)
+                compOfRoot[root] = numComponents++;
+            components[pos] = compOfRoot[root];
+        }
+
+        offsets = new int[numComponents + 1];
+        for (int pos = 0; pos < n; pos++)
+            offsets[components[pos] + 1]++;
+        for (int k = 0; k < numComponents; k++) {
+            largestComponent = Math.max(largestComponent, offsets[k + 1]);
+            offsets[k + 1] += offsets[k];
+        }
+        positions = new int[n];
+        localPositions = new int[n];
+        int[] next = Arrays.copyOf(offsets, numComponents);
+        for (int pos = 0; pos < n; pos++) {
+            int k = components[pos];
+            localPositions[pos] = next[k] - offsets[k];
+            positions[next[k]++] = pos;
+        }
+    }
+
+    private static int addIds(AnnotatedValue av, int[] ids, int k) {
+        if (av instanceof AdaptValue) {
+            ids[k++] = ((AdaptValue) av).getDeclValue().getId();
+            ids[k++] = ((AdaptValue) av).getContextValue().getId();
+        } else if (av != null)
+            ids[k++] = av.getId();
+        return k;
+    }
+
+    private int find(int x) {
+        while (parent[x] >= 0) {
+            if (parent[parent[x]] >= 0)
+                parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private void union(int x, int y) {
+        x = find(x);
+        y = find(y);
+        if (x == y)
+            return;
+        // union by size
+        if (parent[x] > parent[y]) {
+            int tmp = x;
+            x = y;
+            y = tmp;
+        }
+        parent[x] += parent[y];
+        parent[y] = x;
+    }
+
+    public int getNumComponents() {
+        return offsets.length - 1;
+    }
+
+    /** Number of constraints in the largest component */
+    public int getLargestComponent() {
+        return largestComponent;
+    }
+
+    /** Number of constraints in the components from .. to - 1 */
+    public int getNumConstraints(int from, int to) {
+        return offsets[to] - offsets[from];
+    }
+
+    public int getComponentSize(int k) {
+        return offsets[k + 1] - offsets[k];
+    }
+
+    /**
+     * The positions in the index of the constraints in component k, in
+     * increasing order
+     */
+    public int[] getPositions(int k) {
+        return Arrays.copyOfRange(positions, offsets[k], offsets[k + 1]);
+    }
+
+    public int getComponent(int pos) {
+        return components[pos];
+    }
+
+    /**
+     * The position of the constraint at pos within its component
+     */
+    public int getLocalPosition(int pos) {
+        return localPositions[pos];
+    }
+}
@@ -0,0 +1,50 @@
+package edu.rpi;
+
+/**
+ * Visits constraints in the order they are queued. This is the order of
+ * the LinkedHashSet the solvers used before, and is handy for debugging.
+ */
+public class FifoWorklist extends Worklist {
+
+    /** Ring buffer, a constraint is in it at most once */
+    private int[] queue;
+
+    private int head = 0;
+
+    private int count = 0;
+
+    public FifoWorklist(int capacity) {
+        queue = new int[Math.max(capacity, 16)];
+    }
+
+    @Override
+    public String getName() {
+        return "fifo";
+    }
+
+    @Override
+    public Worklist restrict(int[] positions) {
+        return new FifoWorklist(positions.length);
+    }
+
+    @Override
+    protected void push(int pos) {
+        if (count == queue.length) {
+            int[] a = new int[queue.length * 2];
+            for (int i = 0; i < count; i++)
+                a[i] = queue[(head + i) % queue.length];
+            queue = a;
+            head = 0;
+        }
+        queue[(head + count) % queue.length] = pos;
+        count++;
+    }
+
+    @Override
+    protected int pop() {
+        int pos = queue[head];
+        head = (head + 1) % queue.length;
+        count--;
+        return pos;
+    }
+}
@@ -45,6 +45,12 @@ public abstract class InferenceTransformer extends BodyTransformer {
 
 	private ViewpointAdapter vpa = getViewpointAdapter();
 
+	/** Mask of getSourceLevelQualifiers(), registered on first use */
+	private long sourceMask = 0;
+
+	/** Subtype and adaptation tables of the source level qualifiers */
+	private QualifierHierarchy hierarchy;
+
 	public final static String CALLSITE_PREFIX = "callsite-";
 
 	public final static String FAKE_PREFIX = "fake-";
@@ -69,6 +75,18 @@ public abstract class InferenceTransformer extends BodyTransformer {
 
 	public abstract Set<Annotation> getSourceLevelQualifiers();
 
+	public long getSourceLevelMask() {
+		if (sourceMask == 0)
+			sourceMask = AnnotationLattice.register(getSourceLevelQualifiers());
+		return sourceMask;
+	}
+
+	public QualifierHierarchy getQualifierHierarchy() {
+		if (hierarchy == null)
+			hierarchy = new QualifierHierarchy(getSourceLevelQualifiers(), vpa);
+		return hierarchy;
+	}
+
 	public abstract int getAnnotationWeight(Annotation anno);
 
 	public abstract boolean isStrictSubtyping();
@@ -534,39 +552,42 @@ public abstract class InferenceTransformer extends BodyTransformer {
 		return vpa.adaptMethod(contextAnno, declAnno);
 	}
 
+	/**
+	 * Bit position of the adapted qualifier, or -1 if it cannot be adapted
+	 */
+	public int adaptFieldBit(int contextBit, int declBit) {
+		return getQualifierHierarchy().adaptFieldBit(contextBit, declBit);
+	}
+
+	public int adaptMethodBit(int contextBit, int declBit) {
+		return getQualifierHierarchy().adaptMethodBit(contextBit, declBit);
+	}
+
 	/**
 	 * Adapt the declared type of a field from the point of view the receiver
 	 * 
-	 * @param contextSet
-	 *            The set of annotations of the receiver type
-	 * @param declSet
-	 *            The set of annotations of the declared type
+	 * @param contextBits
+	 *            The annotations of the receiver type
+	 * @param declBits
+	 *            The annotations of the declared type
 	 * @return
 	 */
+	public long adaptFieldBits(long contextBits, long declBits) {
+		return getQualifierHierarchy().adaptFieldBits(contextBits, declBits);
+	}
+
+	public long adaptMethodBits(long contextBits, long declBits) {
+		return getQualifierHierarchy().adaptMethodBits(contextBits, declBits);
+	}
+
 	public Set<Annotation> adaptFieldSet(Set<Annotation> contextSet, Set<Annotation> declSet) {
-		ViewpointAdapter vp = getViewpointAdapter();
-		Set<Annotation> outSet = AnnotationUtils.createAnnotationSet();
-		for (Annotation declAnno : declSet) {
-			for (Annotation rcvAnno : contextSet) {
-				Annotation anno = vp.adaptField(rcvAnno, declAnno);
-				if (anno != null)
-					outSet.add(anno);
-			}
-		}
-		return outSet;
+		return AnnotationLattice.fromBits(
+				adaptFieldBits(AnnotationLattice.toBits(contextSet), AnnotationLattice.toBits(declSet)));
 	}
 
 	public Set<Annotation> adaptMethodSet(Set<Annotation> contextSet, Set<Annotation> declSet) {
-		ViewpointAdapter vp = getViewpointAdapter();
-		Set<Annotation> outSet = AnnotationUtils.createAnnotationSet();
-		for (Annotation declAnno : declSet) {
-			for (Annotation rcvAnno : contextSet) {
-				Annotation anno = vp.adaptMethod(rcvAnno, declAnno);
-				if (anno != null)
-					outSet.add(anno);
-			}
-		}
-		return outSet;
+		return AnnotationLattice.fromBits(
+				adaptMethodBits(AnnotationLattice.toBits(contextSet), AnnotationLattice.toBits(declSet)));
 	}
 
 	protected void handleMethodOverride(SootMethod overrider, SootMethod overridden) {
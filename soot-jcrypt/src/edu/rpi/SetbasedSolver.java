@@ -1,6 +1,8 @@
 package edu.rpi;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import static com.esotericsoftware.minlog.Log.info;
 
@@ -11,11 +13,28 @@ import edu.rpi.Constraint.EqualityConstraint;
 import edu.rpi.Constraint.UnequalityConstraint;
 import edu.rpi.AnnotatedValue.*;
 
+/**
+ * With -Dpartition=parallel the constraints are split into connected
+ * components (see ConstraintPartition) that are solved on a fork-join pool.
+ * Each component is visited in the order the sequential worklist visits it,
+ * so the result is the same as solving sequentially. -Dpartition=verify
+ * solves both ways and fails if the results differ.
+ */
 public class SetbasedSolver extends AbstractConstraintSolver {
 
-    private Set<Constraint> worklist = new LinkedHashSet<Constraint>();
+    /** Components are grouped into tasks of at least this many constraints */
+    private static final int TASK_SIZE = 4096;
 
-	private Map<String, Set<Constraint>> refToConstraints = new HashMap<String, Set<Constraint>>(); 
+    private Worklist worklist;
+
+	private ConstraintIndex index;
+
+    private ConstraintPartition partition;
+
+    /** The worklist of the component the current thread is solving */
+    private final ThreadLocal<Worklist> componentWorklist = new ThreadLocal<Worklist>();
+
+    private final AtomicLong componentVisits = new AtomicLong();
 
     public SetbasedSolver(InferenceTransformer t) {
         super(t);
@@ -25,71 +44,212 @@ public class SetbasedSolver extends AbstractConstraintSolver {
         super(t, b);
     }
 
-	private void buildRefToConstraintMapping(Constraint c) {
-        AnnotatedValue left = null, right = null; 
-        if (c instanceof SubtypeConstraint
-                || c instanceof EqualityConstraint
-                || c instanceof UnequalityConstraint) {
-            left = c.getLeft();
-            right = c.getRight();
-        }
-        if (left != null && right != null) {
-            AnnotatedValue[] refs = {left, right};
-            for (AnnotatedValue ref : refs) {
-                List<AnnotatedValue> avs = new ArrayList<AnnotatedValue>(2);
-                if (ref instanceof AdaptValue) {
-                    AnnotatedValue decl = ((AdaptValue) ref).getDeclValue();
-                    AnnotatedValue context = ((AdaptValue) ref).getContextValue();
-                    avs.add(decl);
-                    avs.add(context);
-                } else
-                    avs.add(ref);
-                for (AnnotatedValue av : avs) {
-                    Set<Constraint> set = refToConstraints.get(av.getIdentifier());
-                    if (set == null) {
-                        set = new LinkedHashSet<Constraint>();
-                        refToConstraints.put(av.getIdentifier(), set);
-                    }
-                    set.add(c);
-                }
-            }
-        }
-    }
-	
-	private void buildRefToConstraintMapping(Set<Constraint> cons) {
-		for (Constraint c : cons) {
-            buildRefToConstraintMapping(c);
-		}
-	}
-
-	protected boolean setAnnotations(AnnotatedValue av, Set<Annotation> annos) 
+	protected boolean setAnnotations(AnnotatedValue av, long annos) 
 			throws SolverException {
-        Set<Annotation> oldAnnos = av.getAnnotations(t);
 		if (av instanceof AdaptValue)
 			return setAnnotations((AdaptValue) av, annos);
-		if (oldAnnos.equals(annos))
+		if (av.getAnnotationBits(t) == annos)
 			return false;
 
-        Set<Constraint> relatedConstraints = refToConstraints.get(av.getIdentifier());
-        if (relatedConstraints != null) {
-            worklist.addAll(relatedConstraints);
+        if (partition == null) {
+            for (Constraint c : index.getConstraints(av))
+                worklist.add(index.getPosition(c));
+        } else {
+            Worklist wl = componentWorklist.get();
+            for (Constraint c : index.getConstraints(av))
+                wl.add(partition.getLocalPosition(index.getPosition(c)));
         }
 
         return super.setAnnotations(av, annos);
     }
 
+    /**
+     * The worklist strategy is chosen with -Dworklist=scc|fifo, scc by
+     * default.
+     */
+    protected Worklist createWorklist(ConstraintIndex index) {
+        String kind = System.getProperty("worklist", "scc");
+        if (kind.equals("scc"))
+            return new SccWorklist(index, t.isStrictSubtyping());
+        else if (kind.equals("fifo"))
+            return new FifoWorklist(index.size());
+        else
+            throw new RuntimeException("Unknown worklist: " + kind);
+    }
+
     @Override
     protected Set<Constraint> solveImpl() {
         Set<Constraint> constraints = t.getConstraints();
         info(this.getClass().getSimpleName(), "Solving Reim constraints:  " + constraints.size() + " in total...");
+        index = new ConstraintIndex(constraints);
+
+        String mode = System.getProperty("partition");
+        if (mode != null && needTrace()) {
+            // TraceLog takes the traces of a single solver thread
+            info(this.getClass().getSimpleName(), "Not solving by component because traces are on");
+            mode = null;
+        }
+
+        // With -DworklistStats, solve with FIFO first to count the visits
+        // the chosen strategy saves
+        long fifoVisits = -1;
+        if (System.getProperty("worklistStats") != null) {
+            long[] initAnnos = getAnnotationBits();
+            worklist = new FifoWorklist(index.size());
+            solveWorklist(worklist, null);
+            fifoVisits = worklist.getVisits();
+            setAnnotationBits(initAnnos);
+        }
+
+        worklist = createWorklist(index);
+        Set<Constraint> conflictConstraints;
+        if (mode == null) {
+            conflictConstraints = solveWorklist(worklist, null);
+            info(this.getClass().getSimpleName(), "Worklist " + worklist + " for " + index.size() + " constraints"
+                    + (fifoVisits < 0 ? "" : ", " + (fifoVisits - worklist.getVisits()) 
+                        + " visits saved over fifo"));
+        } else if (mode.equals("parallel")) {
+            conflictConstraints = solvePartitioned();
+        } else if (mode.equals("verify")) {
+            long[] initAnnos = getAnnotationBits();
+            Set<Constraint> expected = solveWorklist(worklist, null);
+            long[] expectedAnnos = getAnnotationBits();
+            setAnnotationBits(initAnnos);
+            conflictConstraints = solvePartitioned();
+            verify(expectedAnnos, expected, conflictConstraints);
+        } else
+            throw new RuntimeException("Unknown partition mode: " + mode);
+        worklist = null;
+        index = null;
+        info(this.getClass().getSimpleName(), "Finish solving Reim constraints. " + conflictConstraints.size() + " error(s)");
+
+        return conflictConstraints;
+    }
+
+    /**
+     * The annotations of the values in the index, by id
+     */
+    private long[] getAnnotationBits() {
+        long[] annos = new long[index.getValueBound()];
+        for (int id = 0; id < annos.length; id++) {
+            AnnotatedValue av = index.getValue(id);
+            if (av != null)
+                annos[id] = av.getAnnotationBits(t);
+        }
+        return annos;
+    }
+
+    private void setAnnotationBits(long[] annos) {
+        for (int id = 0; id < annos.length; id++) {
+            AnnotatedValue av = index.getValue(id);
+            if (av != null)
+                av.setAnnotationBits(annos[id], t);
+        }
+    }
+
+    /**
+     * Solve the components of the index in parallel. worklist is only used
+     * to create the worklist of each component.
+     */
+    private Set<Constraint> solvePartitioned() {
+        long startTime = System.currentTimeMillis();
+        index.buildConstraintMapping();
+        partition = new ConstraintPartition(index);
+        int numComponents = partition.getNumComponents();
+        List<Set<Constraint>> conflicts = new ArrayList<Set<Constraint>>(
+                Collections.<Set<Constraint>>nCopies(numComponents, null));
+        componentVisits.set(0);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new SolveComponents(0, numComponents, conflicts));
+        } finally {
+            pool.shutdown();
+        }
+
+        Set<Constraint> conflictConstraints = new LinkedHashSet<Constraint>();
+        for (Set<Constraint> cs : conflicts)
+            conflictConstraints.addAll(cs);
+        info(this.getClass().getSimpleName(), "Solved " + index.size() + " constraints in " 
+                + numComponents + " components (largest " + partition.getLargestComponent() 
+                + ") on " + threads + " threads, " + componentVisits.get() + " visits in " 
+                + ((float) (System.currentTimeMillis() - startTime) / 1000) + " sec");
+        partition = null;
+        return conflictConstraints;
+    }
+
+    /** Solves the components from .. to - 1 */
+    @SuppressWarnings("serial")
+    private class SolveComponents extends RecursiveAction {
+        private final int from, to;
+        private final List<Set<Constraint>> conflicts;
+
+        SolveComponents(int from, int to, List<Set<Constraint>> conflicts) {
+            this.from = from;
+            this.to = to;
+            this.conflicts = conflicts;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && partition.getNumConstraints(from, to) > TASK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SolveComponents(from, mid, conflicts), 
+                        new SolveComponents(mid, to, conflicts));
+                return;
+            }
+            for (int k = from; k < to; k++) {
+                int[] positions = partition.getPositions(k);
+                Worklist wl = worklist.restrict(positions);
+                componentWorklist.set(wl);
+                try {
+                    conflicts.set(k, solveWorklist(wl, positions));
+                } finally {
+                    componentWorklist.remove();
+                }
+                componentVisits.addAndGet(wl.getVisits());
+            }
+        }
+    }
+
+    private void verify(long[] expectedAnnos, Set<Constraint> expected, 
+            Set<Constraint> conflictConstraints) {
+        int diffs = 0;
+        for (int id = 0; id < expectedAnnos.length; id++) {
+            AnnotatedValue av = index.getValue(id);
+            if (av == null || av.getAnnotationBits(t) == expectedAnnos[id])
+                continue;
+            if (diffs++ < 10)
+                System.out.println("ERROR: " + av.getIdentifier() + " is " 
+                        + AnnotationLattice.toString(av.getAnnotationBits(t)) 
+                        + " by component, " + AnnotationLattice.toString(expectedAnnos[id]) 
+                        + " sequentially");
+        }
+        if (!new HashSet<Constraint>(expected).equals(new HashSet<Constraint>(conflictConstraints))) {
+            System.out.println("ERROR: " + conflictConstraints.size() + " error(s) by component, " 
+                    + expected.size() + " sequentially");
+            diffs++;
+        }
+        if (diffs > 0)
+            throw new RuntimeException("Solving by component differs from sequential solving");
+        info(this.getClass().getSimpleName(), "Solving by component matches sequential solving");
+    }
+
+    /**
+     * Solve the constraints at positions, or all constraints in the index if
+     * positions is null. wl numbers the constraints by their index in
+     * positions.
+     */
+    private Set<Constraint> solveWorklist(Worklist wl, int[] positions) {
 		Set<Constraint> warnConstraints = new HashSet<Constraint>();
-        buildRefToConstraintMapping(constraints);
-        worklist.addAll(constraints);
         Set<Constraint> conflictConstraints = new LinkedHashSet<Constraint>();
-        while(!worklist.isEmpty()) {
-            Iterator<Constraint> it = worklist.iterator();
-            Constraint c = it.next();
-            it.remove();
+        int n = (positions == null ? index.size() : positions.length);
+        for (int i = 0; i < n; i++)
+            wl.add(i);
+        while(!wl.isEmpty()) {
+            int i = wl.poll();
+            Constraint c = index.getConstraint(positions == null ? i : positions[i]);
             try {
                 handleConstraint(c);
             } catch (SolverException e) {
@@ -104,9 +264,6 @@ public class SetbasedSolver extends AbstractConstraintSolver {
                 }
             }
         }
-        refToConstraints.clear();
-        info(this.getClass().getSimpleName(), "Finish solving Reim constraints. " + conflictConstraints.size() + " error(s)");
-
         return conflictConstraints;
     }
 }
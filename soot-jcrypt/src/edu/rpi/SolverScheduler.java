@@ -0,0 +1,237 @@
+package edu.rpi;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Solves the constraints of several analyses on a thread pool. An
+ * analysis is started when all analyses it depends on are solved, e.g.
+ * SFlow reads the Reim qualifiers through AnnotatedValueMap, so it has to
+ * be registered with a dependency on Reim.
+ *
+ * Analyses that do not depend on each other are solved at the same time,
+ * by default on one thread per processor. All hierarchies share one
+ * annotation word per value, and each analysis replaces only the bits of
+ * its own hierarchy with a compare-and-set (see AnnotatedValue).
+ *
+ * The outputs of an analysis (constraints log, JAIF, ...) are written in
+ * the order they were added, on a separate pool, while its dependents
+ * are solved. The qualifiers of the analysis and of the analyses it
+ * depends on do not change any more at that point, so constraint logs
+ * print only those (see getQualifierMask()), and they are the same
+ * whatever else is solved meanwhile.
+ */
+public class SolverScheduler {
+
+    /** Writes the result of an analysis once it is solved */
+    public interface Output {
+        public void write(Set<Constraint> errors) throws Exception;
+    }
+
+    private static class Analysis {
+        final String name;
+        final InferenceTransformer t;
+        final ConstraintSolver solver;
+        final String[] dependsOn;
+        final List<Analysis> dependents = new ArrayList<Analysis>();
+        final List<Output> outputs = new ArrayList<Output>();
+        final AtomicInteger pending = new AtomicInteger();
+        volatile Set<Constraint> errors;
+        volatile boolean failed = false;
+
+        Analysis(String name, InferenceTransformer t, ConstraintSolver solver, String[] dependsOn) {
+            this.name = name;
+            this.t = t;
+            this.solver = solver;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final Map<String, Analysis> analyses = new LinkedHashMap<String, Analysis>();
+
+    private final int solverThreads;
+
+    private final int outputThreads;
+
+    private ExecutorService solverPool;
+
+    private ExecutorService outputPool;
+
+    private CountDownLatch unsolved;
+
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+    public SolverScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), 2);
+    }
+
+    public SolverScheduler(int solverThreads, int outputThreads) {
+        this.solverThreads = solverThreads;
+        this.outputThreads = outputThreads;
+    }
+
+    /**
+     * Register an analysis. The analyses in dependsOn have to be
+     * registered before run() is called.
+     */
+    public void register(String name, InferenceTransformer t, ConstraintSolver solver,
+            String... dependsOn) {
+        if (analyses.containsKey(name))
+            throw new RuntimeException("Analysis " + name + " is already registered");
+        analyses.put(name, new Analysis(name, t, solver, dependsOn));
+    }
+
+    public void addOutput(String name, Output output) {
+        get(name).outputs.add(output);
+    }
+
+    public InferenceTransformer getTransformer(String name) {
+        return get(name).t;
+    }
+
+    /**
+     * The qualifiers of the analysis name and of all analyses it depends
+     * on, which are solved by the time the outputs of name are written
+     */
+    public long getQualifierMask(String name) {
+        Analysis a = get(name);
+        long mask = a.t.getSourceLevelMask();
+        for (String dep : a.dependsOn)
+            mask |= getQualifierMask(dep);
+        return mask;
+    }
+
+    private Analysis get(String name) {
+        Analysis a = analyses.get(name);
+        if (a == null)
+            throw new RuntimeException("Unknown analysis: " + name);
+        return a;
+    }
+
+    /**
+     * Solve all analyses and write their outputs. Return the errors of
+     * each analysis, by name.
+     */
+    public Map<String, Set<Constraint>> run() {
+        for (Analysis a : analyses.values()) {
+            for (String dep : a.dependsOn) {
+                get(dep).dependents.add(a);
+                a.pending.incrementAndGet();
+            }
+        }
+        checkAcyclic();
+
+        // The tables are built lazily, build them before the threads start
+        for (Analysis a : analyses.values())
+            a.t.getQualifierHierarchy();
+
+        solverPool = Executors.newFixedThreadPool(Math.max(1, Math.min(solverThreads, analyses.size())));
+        outputPool = Executors.newFixedThreadPool(Math.max(1, outputThreads));
+        unsolved = new CountDownLatch(analyses.size());
+
+        for (Analysis a : analyses.values()) {
+            if (a.pending.get() == 0)
+                submit(a);
+        }
+        try {
+            unsolved.await();
+            solverPool.shutdown();
+            outputPool.shutdown();
+            outputPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            solverPool.shutdownNow();
+            outputPool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (!failures.isEmpty())
+            throw new RuntimeException("Solving failed", failures.peek());
+
+        Map<String, Set<Constraint>> results = new LinkedHashMap<String, Set<Constraint>>();
+        for (Analysis a : analyses.values())
+            results.put(a.name, a.errors);
+        return results;
+    }
+
+    private void checkAcyclic() {
+        Map<Analysis, Integer> indegree = new HashMap<Analysis, Integer>();
+        Deque<Analysis> ready = new ArrayDeque<Analysis>();
+        for (Analysis a : analyses.values()) {
+            indegree.put(a, a.pending.get());
+            if (a.pending.get() == 0)
+                ready.add(a);
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Analysis a = ready.poll();
+            visited++;
+            for (Analysis d : a.dependents) {
+                int n = indegree.get(d) - 1;
+                indegree.put(d, n);
+                if (n == 0)
+                    ready.add(d);
+            }
+        }
+        if (visited != analyses.size())
+            throw new RuntimeException("Cyclic dependency between analyses: " + analyses.keySet());
+    }
+
+    private void submit(final Analysis a) {
+        solverPool.execute(new Runnable() {
+            public void run() {
+                solve(a);
+            }
+        });
+    }
+
+    private void solve(final Analysis a) {
+        try {
+            if (!a.failed) {
+                System.out.println("INFO: Solving " + a.name + " constraints:  "
+                        + a.t.getConstraints().size() + " in total...");
+                long start = System.currentTimeMillis();
+                a.errors = a.solver.solve();
+                System.out.println("INFO: Solved " + a.name + " in "
+                        + ((float) (System.currentTimeMillis() - start) / 1000) + " sec");
+                outputPool.execute(new Runnable() {
+                    public void run() {
+                        writeOutputs(a);
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            System.out.println("ERROR: Solving " + a.name + " failed: " + e);
+            failures.add(e);
+            a.failed = true;
+        } finally {
+            finish(a);
+        }
+    }
+
+    /**
+     * Start the dependents of a, once it is solved. Dependents of a failed
+     * analysis are skipped, but still counted, so run() does not wait for
+     * them forever. The outputs of a are queued before, so they are
+     * written before run() shuts the output pool down.
+     */
+    private void finish(Analysis a) {
+        for (Analysis d : a.dependents) {
+            if (a.failed)
+                d.failed = true;
+            if (d.pending.decrementAndGet() == 0)
+                submit(d);
+        }
+        unsolved.countDown();
+    }
+
+    private void writeOutputs(Analysis a) {
+        for (Output out : a.outputs) {
+            try {
+                out.write(a.errors);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
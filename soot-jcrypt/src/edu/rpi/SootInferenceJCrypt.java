@@ -6,6 +6,8 @@ import java.util.Set;
 
 import java.io.PrintStream;
 import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 
 import soot.G;
 import soot.PackManager;
@@ -27,8 +29,8 @@ public class SootInferenceJCrypt {
 
 		set(LEVEL_DEBUG);
 
-		InferenceTransformer reimTransformer = new ReimTransformer();
-		InferenceTransformer jcryptTransformer = new JCryptTransformer();
+		final InferenceTransformer reimTransformer = new ReimTransformer();
+		final InferenceTransformer jcryptTransformer = new JCryptTransformer();
 		PackManager.v().getPack("jtp").add(new Transform("jtp.reim", reimTransformer));
 		PackManager.v().getPack("jtp").add(new Transform("jtp.jcrypt", jcryptTransformer));
 
@@ -52,53 +54,51 @@ public class SootInferenceJCrypt {
 		
 		soot.Main.main(args);
 
-		ConstraintSolver cs = new SetbasedSolver(reimTransformer, false);
-		Set<Constraint> errors = cs.solve();
-		try {
-			PrintStream reimOut = new PrintStream(outputDir + File.separator + "reim-constraints.log");
-			for (Constraint c : reimTransformer.getConstraints()) {
-				reimOut.println(c);
+		// JCrypt reads the Reim qualifiers, so it waits for Reim, while the
+		// Reim outputs are written
+		final SolverScheduler scheduler = new SolverScheduler();
+		final JCryptConstraintSolver jcryptSolver = new JCryptConstraintSolver(jcryptTransformer);
+		final String jcryptLog = outputDir + File.separator + "jcrypt-constraints.log";
+		scheduler.register("Reim", reimTransformer, new SetbasedSolver(reimTransformer, false));
+		scheduler.register("JCrypt", jcryptTransformer, jcryptSolver, "Reim");
+
+		scheduler.addOutput("Reim", SootInference.constraintLog(reimTransformer,
+				outputDir + File.separator + "reim-constraints.log", scheduler.getQualifierMask("Reim")));
+		scheduler.addOutput("Reim", new SolverScheduler.Output() {
+			public void write(Set<Constraint> errors) {
+				for (Constraint c : errors)
+					System.out.println(c);
 			}
-			reimOut.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		for (Constraint c : errors)
-			System.out.println(c);
-
-		try {
-			PrintStream reimOut = new PrintStream(outputDir + File.separator + "reim-result.jaif");
-			reimTransformer.printJaif(reimOut);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		ConstraintSolver jcryptSolver = new JCryptConstraintSolver(jcryptTransformer);
-		errors = jcryptSolver.solve();
-		try {
-			PrintStream jcryptOut = new PrintStream(outputDir + File.separator + "jcrypt-constraints.log");
-			for (Constraint c : jcryptTransformer.getConstraints()) {
-				jcryptOut.println(c);
-				jcryptOut.println();
+		});
+		scheduler.addOutput("Reim", SootInference.jaif(reimTransformer,
+				outputDir + File.separator + "reim-result.jaif"));
+
+		scheduler.addOutput("JCrypt", new SolverScheduler.Output() {
+			public void write(Set<Constraint> errors) throws Exception {
+				long mask = scheduler.getQualifierMask("JCrypt");
+				PrintStream jcryptOut = new PrintStream(new BufferedOutputStream(
+						new FileOutputStream(jcryptLog)));
+				for (Constraint c : jcryptTransformer.getConstraints()) {
+					jcryptOut.println(c.toString(mask));
+					jcryptOut.println();
+				}
+				jcryptOut.close();
 			}
-			jcryptOut.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		});
+		scheduler.addOutput("JCrypt", new SolverScheduler.Output() {
+			public void write(Set<Constraint> errors) {
+				System.out.println();
+				for (Constraint c : errors)
+					System.out.println(c + "\n");
+				TypingExtractor extractor = new MaximalTypingExtractor(jcryptTransformer, jcryptSolver);
+				extractor.extract();
+			}
+		});
+		scheduler.addOutput("JCrypt", SootInference.jaif(jcryptTransformer,
+				outputDir + File.separator + "jcrypt-result.jaif"));
+
+		scheduler.run();
 
-		System.out.println();
-		for (Constraint c : errors)
-			System.out.println(c + "\n");
-		TypingExtractor extractor = new MaximalTypingExtractor(jcryptTransformer, jcryptSolver);
-		extractor.extract();
-
-		try {
-			PrintStream jcryptOut = new PrintStream(outputDir + File.separator + "jcrypt-result.jaif");
-			jcryptTransformer.printJaif(jcryptOut);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		
 		List<SootMethod> entryPoints = new ArrayList<>(JCryptTransformer.entryPoints);
 		G.reset();
 		AETransformer aet = new AETransformer(outputDir);
@@ -0,0 +1,489 @@
+package edu.rpi;
+
+import java.io.*;
+import java.util.*;
+
+import edu.rpi.AbstractConstraintSolver.Trace;
+
+/**
+ * Reads a trace log written by TraceLog and answers questions about it.
+ *
+ * <pre>
+ * java edu.rpi.TraceReader sflow-traces.bin                 summary
+ * java edu.rpi.TraceReader sflow-traces.bin sql             SQL script for trace.py
+ * java edu.rpi.TraceReader sflow-traces.bin value 42        updates of value 42
+ * java edu.rpi.TraceReader sflow-traces.bin why 42 @Tainted why 42 became @Tainted
+ * </pre>
+ *
+ * The value of "value" and "why" is either an id or an identifier.
+ *
+ * The log is streamed: a pass over it only keeps the strings and the
+ * qualifier sets, and hands each other record to a Handler. "why" keeps
+ * the traces and the values of the constraints as ints to walk back
+ * through them, everything else is read again when needed.
+ */
+public class TraceReader {
+
+    public static class Value {
+        public int id;
+        public String identifier;
+        public String annos;
+        public String type;
+        public String kind;
+        public String value;
+        public String className;
+        public String name;
+        public String method;
+    }
+
+    public static class ConstraintRecord {
+        public int id;
+        public int kind;
+        public String text;
+        public int leftId;
+        public int rightId;
+        /** The plain values of each side, i.e. context and decl for adapt values */
+        public int[] leftValues;
+        public int[] rightValues;
+        public int[] causes;
+    }
+
+    /** Gets the records of a log in file order */
+    public static class Handler {
+        public void trace(Trace tr) {
+        }
+
+        public void value(Value v) {
+        }
+
+        public void constraint(ConstraintRecord c) {
+        }
+    }
+
+    /** Type and separator in the text of each kind of constraint */
+    private static final String[][] KINDS = {{"SUB", "<:"}, {"EQU", "=="}, {"UNE", "!="}};
+
+    private final String fileName;
+
+    private final List<String> strings = new ArrayList<String>();
+
+    private final List<String> annoSets = new ArrayList<String>();
+
+    private InputStream in;
+
+    public TraceReader(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /** Read the log, passing each record to h */
+    public void read(Handler h) throws IOException {
+        strings.clear();
+        annoSets.clear();
+        in = new BufferedInputStream(new FileInputStream(fileName), 1 << 16);
+        try {
+            int magic = (in.read() << 24) | (in.read() << 16) | (in.read() << 8) | in.read();
+            if (magic != TraceLog.MAGIC)
+                throw new IOException(fileName + " is not a trace log");
+            int version = readVarint();
+            if (version != TraceLog.VERSION)
+                throw new IOException("Unsupported trace log version " + version);
+            int tag;
+            while ((tag = in.read()) >= 0)
+                readRecord(tag, h);
+        } finally {
+            in.close();
+            in = null;
+        }
+    }
+
+    private void readRecord(int tag, Handler h) throws IOException {
+        switch (tag) {
+        case TraceLog.STRING:
+            strings.add(readString());
+            break;
+        case TraceLog.ANNOS:
+            readVarlong();
+            annoSets.add(readString());
+            break;
+        case TraceLog.TRACE: {
+            int avId = readVarint();
+            String oldAnnos = annoSets.get(readVarint());
+            String newAnnos = annoSets.get(readVarint());
+            h.trace(new Trace(avId, oldAnnos, newAnnos, readVarint()));
+            break;
+        }
+        case TraceLog.VALUE: {
+            Value v = new Value();
+            v.id = readVarint();
+            v.identifier = readString();
+            v.annos = annoSets.get(readVarint());
+            v.type = strings.get(readVarint());
+            v.kind = strings.get(readVarint());
+            int n = readVarint();
+            v.value = (n == 0 ? null : readBytes(n - 1));
+            v.className = strings.get(readVarint());
+            v.name = readString();
+            v.method = strings.get(readVarint());
+            h.value(v);
+            break;
+        }
+        case TraceLog.CONSTRAINT: {
+            ConstraintRecord c = new ConstraintRecord();
+            c.id = readVarint();
+            c.kind = readVarint();
+            List<Integer> ids = new ArrayList<Integer>();
+            StringBuilder left = new StringBuilder();
+            c.leftId = readSide(left, ids);
+            c.leftValues = toArray(ids);
+            ids.clear();
+            StringBuilder right = new StringBuilder();
+            c.rightId = readSide(right, ids);
+            c.rightValues = toArray(ids);
+            c.causes = new int[readVarint()];
+            for (int i = 0; i < c.causes.length; i++)
+                c.causes[i] = readVarint();
+            int n = readVarint();
+            if (n > 0) {
+                c.text = readBytes(n - 1);
+            } else {
+                // Same as Constraint.toString()
+                String[] names = KINDS[c.kind];
+                StringBuilder sb = new StringBuilder();
+                sb.append(names[0]).append("-").append(c.id).append(": ").append(left)
+                    .append("  ").append(names[1]).append("  ").append(right);
+                if (c.causes.length > 0) {
+                    sb.append(" caused by [");
+                    for (int i = 0; i < c.causes.length; i++)
+                        sb.append(i == 0 ? "" : ",").append(c.causes[i]);
+                    sb.append("]");
+                }
+                c.text = sb.toString();
+            }
+            h.constraint(c);
+            break;
+        }
+        default:
+            throw new IOException("Unknown record " + tag);
+        }
+    }
+
+    /**
+     * Read a side of a constraint, append its text to sb and the ids of
+     * its plain values to ids. Return the id of the side.
+     */
+    private int readSide(StringBuilder sb, List<Integer> ids) throws IOException {
+        int id = readVarint();
+        int form = readVarint();
+        if (form == 0) {
+            // Same as AnnotatedValue.toString()
+            String identifier = strings.get(readVarint());
+            String type = strings.get(readVarint());
+            String annos = annoSets.get(readVarint());
+            sb.append("(").append(id).append(")").append(identifier).append(": ")
+                .append(annos.replace('[', '{').replace(']', '}'))
+                .append(" [").append(type).append("]");
+            ids.add(id);
+        } else {
+            sb.append("(");
+            readSide(sb, ids);
+            sb.append(form == 1 ? " =f=> " : " =m=> ");
+            readSide(sb, ids);
+            sb.append(")");
+        }
+        return id;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = list.get(i);
+        return a;
+    }
+
+    private int readVarint() throws IOException {
+        return (int) readVarlong();
+    }
+
+    private long readVarlong() throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Truncated trace log");
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+    }
+
+    private String readString() throws IOException {
+        return readBytes(readVarint());
+    }
+
+    private String readBytes(int n) throws IOException {
+        byte[] b = new byte[n];
+        int off = 0;
+        while (off < n) {
+            int r = in.read(b, off, n - off);
+            if (r < 0)
+                throw new EOFException("Truncated trace log");
+            off += r;
+        }
+        return new String(b, "UTF-8");
+    }
+
+    /**
+     * Find a value by identifier, or else by id. Return null if there is
+     * no such value.
+     */
+    public Value findValue(final String s) throws IOException {
+        final Value[] found = new Value[2];
+        read(new Handler() {
+            public void value(Value v) {
+                if (v.identifier.equals(s))
+                    found[0] = v;
+                else if (found[1] == null && String.valueOf(v.id).equals(s))
+                    found[1] = v;
+            }
+        });
+        return found[0] != null ? found[0] : found[1];
+    }
+
+    /**
+     * The traces of a value that are in the traces table, in the order
+     * they were made. A trace replaces an earlier trace of the value with
+     * the same old qualifiers, as in the traces table.
+     */
+    public List<Trace> getTraces(final int avId) throws IOException {
+        final List<Trace> list = new ArrayList<Trace>();
+        read(new Handler() {
+            public void trace(Trace tr) {
+                if (tr.avId != avId)
+                    return;
+                for (Iterator<Trace> it = list.iterator(); it.hasNext(); ) {
+                    if (it.next().oldAnnos.equals(tr.oldAnnos))
+                        it.remove();
+                }
+                list.add(tr);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * The chain of updates that made v end up with qual, starting with the
+     * last update of v. Each step is followed by the latest earlier update
+     * of a value on the other side of the constraint, until a value that
+     * was not updated before. Return an empty list if v does not end up
+     * with qual. qual may be null to explain the final qualifiers.
+     */
+    public List<Trace> why(Value v, String qual) throws IOException {
+        final List<Trace> traces = new ArrayList<Trace>();
+        // Value id -> indexes in traces that are in the traces table
+        final Map<Integer, List<Integer>> valueTraces = new HashMap<Integer, List<Integer>>();
+        // Constraint id -> the plain values of both sides
+        final Map<Integer, int[]> constraintValues = new HashMap<Integer, int[]>();
+        read(new Handler() {
+            public void trace(Trace tr) {
+                List<Integer> list = valueTraces.get(tr.avId);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    valueTraces.put(tr.avId, list);
+                }
+                for (Iterator<Integer> it = list.iterator(); it.hasNext(); ) {
+                    if (traces.get(it.next()).oldAnnos.equals(tr.oldAnnos))
+                        it.remove();
+                }
+                list.add(traces.size());
+                traces.add(tr);
+            }
+
+            public void constraint(ConstraintRecord c) {
+                int[] ids = Arrays.copyOf(c.leftValues, c.leftValues.length + c.rightValues.length);
+                System.arraycopy(c.rightValues, 0, ids, c.leftValues.length, c.rightValues.length);
+                constraintValues.put(c.id, ids);
+            }
+        });
+
+        List<Trace> chain = new ArrayList<Trace>();
+        List<Integer> idx = valueTraces.get(v.id);
+        if (idx == null || idx.isEmpty())
+            return chain;
+        int step = idx.get(idx.size() - 1);
+        if (qual != null && !hasQualifier(traces.get(step).newAnnos, qual))
+            return chain;
+        Set<Integer> visited = new HashSet<Integer>();
+        while (step >= 0 && visited.add(step)) {
+            Trace tr = traces.get(step);
+            chain.add(tr);
+            int[] ids = constraintValues.get(tr.causeId);
+            if (ids == null)
+                break;
+            int next = -1;
+            for (int id : ids) {
+                if (id != tr.avId)
+                    next = Math.max(next, lastTraceBefore(valueTraces.get(id), step));
+            }
+            step = next;
+        }
+        return chain;
+    }
+
+    private static int lastTraceBefore(List<Integer> idx, int step) {
+        if (idx == null)
+            return -1;
+        int last = -1;
+        for (int i : idx) {
+            if (i < step)
+                last = i;
+        }
+        return last;
+    }
+
+    /** qual is a simple name, with or without the @ */
+    private static boolean hasQualifier(String annos, String qual) {
+        if (qual.startsWith("@"))
+            qual = qual.substring(1);
+        return annos.matches(".*[@.]" + java.util.regex.Pattern.quote(qual) + "\\b.*");
+    }
+
+    /**
+     * Print the SQL script the solver used to write, for trace.py
+     */
+    public void printSql(final PrintStream out) throws IOException {
+        out.println("create table avalues(id integer, identifier string, annos string, "
+                + "type string, kind string, value string, class string, name string, "
+                + "method string);");
+        out.println("create index avalues_idx on avalues(id);");
+        out.println("create table constraints(id integer, str string, left_id integer, "
+                + "right_id integer, cause_1 integer, cause_2 integer, cause_3 integer, "
+                + "kind integer);");
+        out.println("create index constraints_idx on constraints(id);");
+        out.println("create table traces(value_id integer,old string,new string,"
+                + "constraint_id integer);");
+        out.println("create index traces_idx on traces(value_id);");
+
+        read(new Handler() {
+            public void trace(Trace tr) {
+                out.println("delete from traces where value_id = " + tr.avId
+                        + " and old = \"" + tr.oldAnnos + "\";");
+                out.println("insert into traces values (" + tr.avId + ",\"" + tr.oldAnnos
+                        + "\",\"" + tr.newAnnos + "\"," + tr.causeId + ");");
+            }
+
+            public void value(Value v) {
+                out.println("insert into avalues values (" + v.id + ",\""
+                        + v.identifier.replace('\"', '_') + "\",\"" + v.annos + "\",\""
+                        + v.type + "\",\"" + v.kind + "\",\""
+                        + (v.value != null ? v.value.replace('\"', '_') + "\",\"" : "null\", \"")
+                        + v.className + "\",\"" + v.name.replace('\"', '_') + "\",\""
+                        + v.method + "\");");
+            }
+
+            public void constraint(ConstraintRecord c) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("insert into constraints values (").append(c.id).append(",\"")
+                    .append(c.text.replace('\"', '_')).append("\",")
+                    .append(c.leftId).append(",").append(c.rightId).append(",");
+                for (int i = 0; i < 3; i++)
+                    sb.append(i < c.causes.length ? c.causes[i] : -1).append(",");
+                sb.append(c.kind).append(");");
+                out.println(sb.toString());
+            }
+        });
+    }
+
+    /**
+     * Print the traces with their values and constraints, which are read
+     * again for the ones in traces only
+     */
+    public void printTraces(PrintStream out, List<Trace> traces) throws IOException {
+        final Map<Integer, Value> values = new HashMap<Integer, Value>();
+        final Map<Integer, ConstraintRecord> constraints = new HashMap<Integer, ConstraintRecord>();
+        for (Trace tr : traces) {
+            values.put(tr.avId, null);
+            constraints.put(tr.causeId, null);
+        }
+        read(new Handler() {
+            public void value(Value v) {
+                if (values.containsKey(v.id))
+                    values.put(v.id, v);
+            }
+
+            public void constraint(ConstraintRecord c) {
+                if (constraints.containsKey(c.id))
+                    constraints.put(c.id, c);
+            }
+        });
+        for (Trace tr : traces)
+            printTrace(out, tr, values.get(tr.avId), constraints.get(tr.causeId));
+    }
+
+    private static void printTrace(PrintStream out, Trace tr, Value v, ConstraintRecord c) {
+        out.println(String.format("%10s = %d", "id", tr.avId));
+        if (v != null) {
+            out.println(String.format("%10s = %s", "name", v.name));
+            out.println(String.format("%10s = %s", "type", v.type));
+            out.println(String.format("%10s = %s", "method", v.method));
+            out.println(String.format("%10s = %s", "class", v.className));
+        }
+        out.println(String.format("%10s = %s", "old", tr.oldAnnos));
+        out.println(String.format("%10s = %s", "new", tr.newAnnos));
+        out.println(String.format("%10s = %s", "constraint", c != null ? c.text : "" + tr.causeId));
+        out.println();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java edu.rpi.TraceReader <traces.bin> "
+                    + "[sql | value <id> | why <id> [@Qualifier]]");
+            System.exit(1);
+        }
+        TraceReader r = new TraceReader(args[0]);
+        String cmd = args.length > 1 ? args[1] : "";
+        if (cmd.equals("sql")) {
+            r.printSql(System.out);
+        } else if (cmd.equals("value") || cmd.equals("why")) {
+            if (args.length < 3) {
+                System.out.println("ERROR: missing value id");
+                System.exit(1);
+            }
+            Value v = r.findValue(args[2]);
+            if (v == null) {
+                System.out.println("ERROR: no value " + args[2]);
+                System.exit(1);
+            }
+            System.out.println(v.id + " " + v.identifier + " " + v.annos);
+            System.out.println();
+            List<Trace> traces;
+            if (cmd.equals("value")) {
+                traces = r.getTraces(v.id);
+            } else {
+                String qual = args.length > 3 ? args[3] : null;
+                traces = r.why(v, qual);
+                if (traces.isEmpty())
+                    System.out.println("INFO: no update of " + v.id + " leads to "
+                            + (qual != null ? qual : "its qualifiers"));
+            }
+            r.printTraces(System.out, traces);
+        } else {
+            final int[] counts = new int[3];
+            r.read(new Handler() {
+                public void trace(Trace tr) {
+                    counts[0]++;
+                }
+
+                public void value(Value v) {
+                    counts[1]++;
+                }
+
+                public void constraint(ConstraintRecord c) {
+                    counts[2]++;
+                }
+            });
+            System.out.println("INFO: " + counts[0] + " traces, " + counts[1]
+                    + " values, " + counts[2] + " constraints, "
+                    + r.annoSets.size() + " qualifier sets");
+        }
+    }
+}
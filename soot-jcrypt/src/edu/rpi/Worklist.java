@@ -0,0 +1,78 @@
+package edu.rpi;
+
+import java.util.*;
+
+/**
+ * The order in which a solver visits its constraints. Constraints are
+ * identified by their position in a ConstraintIndex, and a constraint
+ * that is already queued is not queued again.
+ */
+public abstract class Worklist {
+
+    private final BitSet queued = new BitSet();
+
+    private int size = 0;
+
+    private long visits = 0;
+
+    private long duplicates = 0;
+
+    /**
+     * Queue the constraint at pos, unless it is already queued
+     */
+    public final void add(int pos) {
+        if (queued.get(pos)) {
+            duplicates++;
+            return;
+        }
+        queued.set(pos);
+        size++;
+        push(pos);
+    }
+
+    /**
+     * Remove and return the next constraint, or -1 if there is none
+     */
+    public final int poll() {
+        if (size == 0)
+            return -1;
+        int pos = pop();
+        queued.clear(pos);
+        size--;
+        visits++;
+        return pos;
+    }
+
+    public final boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Number of constraints polled so far */
+    public long getVisits() {
+        return visits;
+    }
+
+    /** Number of add() calls dropped because the constraint was queued */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public abstract String getName();
+
+    /**
+     * Return an empty worklist for the constraints at the given positions,
+     * which are numbered 0 .. positions.length - 1 in it. If no constraint
+     * outside positions ever queues one inside, the new worklist visits
+     * them in the same order as this one would.
+     */
+    public abstract Worklist restrict(int[] positions);
+
+    protected abstract void push(int pos);
+
+    protected abstract int pop();
+
+    @Override
+    public String toString() {
+        return getName() + ": " + visits + " visits, " + duplicates + " duplicates";
+    }
+}
@@ -29,13 +29,7 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 
 	protected Annotation POLYREAD = AnnotationUtils.fromClass(Polyread.class);
 
-	private Map<String, Set<AdaptValue>> declRefToAdaptValue = new HashMap<String, Set<AdaptValue>>();
-
-	private Map<String, Set<AdaptValue>> contextRefToAdaptValue = new HashMap<String, Set<AdaptValue>>();
-
-	private Map<String, Set<Constraint>> lessValues = new HashMap<String, Set<Constraint>>();
-
-	private Map<String, Set<Constraint>> greaterValues = new HashMap<String, Set<Constraint>>();
+	private ConstraintIndex index;
 
 	private Set<Constraint> worklist = new LinkedHashSet<Constraint>();
 
@@ -46,11 +40,11 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 	private BitSet updated = new BitSet(AnnotatedValue.maxId());
 	// private BitSet restored = new BitSet(AnnotatedValue.maxId());
 
-	private byte[] initAnnos = new byte[AnnotatedValue.maxId()];
+	private long[] initAnnos = new long[AnnotatedValue.maxId()];
 
-	private final byte SENSITIVE_MASK = 0x01;
-	private final byte POLY_MASK = 0x02;
-	private final byte CLEAR_MASK = 0x04;
+	private final long SENSITIVE_MASK;
+	private final long POLY_MASK;
+	private final long CLEAR_MASK;
 	// private Set<String> clearLibMethods;
 
 	public JCryptConstraintSolver(InferenceTransformer t) {
@@ -62,6 +56,9 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 		if (!(t instanceof JCryptTransformer))
 			throw new RuntimeException("SFlowConstraintSolver expects JCryptTransformer");
 		this.st = (JCryptTransformer) t;
+		SENSITIVE_MASK = AnnotationLattice.toBits(st.SENSITIVE);
+		POLY_MASK = AnnotationLattice.toBits(st.POLY);
+		CLEAR_MASK = AnnotationLattice.toBits(st.CLEAR);
 		this.preferSource = (System.getProperty("preferSource") != null);
 		this.preferSink = (System.getProperty("preferSink") != null);
 
@@ -70,38 +67,13 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 		}
 	}
 
-	private byte toBits(Set<Annotation> annos) {
-		byte b = 0;
-		for (Annotation anno : annos) {
-			if (anno.equals(st.SENSITIVE))
-				b |= SENSITIVE_MASK;
-			else if (anno.equals(st.POLY))
-				b |= POLY_MASK;
-			else if (anno.equals(st.CLEAR))
-				b |= CLEAR_MASK;
-		}
-		return b;
-	}
-
-	private Set<Annotation> fromBits(byte b) {
-		Set<Annotation> annos = AnnotationUtils.createAnnotationSet();
-		if ((b & SENSITIVE_MASK) > 0)
-			annos.add(st.SENSITIVE);
-		if ((b & POLY_MASK) > 0)
-			annos.add(st.POLY);
-		if ((b & CLEAR_MASK) > 0)
-			annos.add(st.CLEAR);
-		return annos;
-	}
-
 	private void setInitAnnos(AnnotatedValue av) {
 		int id = av.getId();
-		initAnnos[id] = toBits(av.getAnnotations(st));
+		initAnnos[id] = av.getAnnotationBits(st);
 	}
 
-	private Set<Annotation> getInitAnnos(int id) {
-		byte b = initAnnos[id];
-		return fromBits(b);
+	private long getInitAnnos(int id) {
+		return initAnnos[id];
 	}
 
 	private boolean containsReadonly(AnnotatedValue av) {
@@ -117,89 +89,12 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 		return false;
 	}
 
-	private Set<Constraint> getLessConstraints(AnnotatedValue av) {
-		Set<Constraint> set = lessValues.get(av.getIdentifier());
-		if (set == null)
-			return Collections.<Constraint> emptySet();
-		else
-			return set;
+	private List<Constraint> getLessConstraints(AnnotatedValue av) {
+		return index.getLessConstraints(av);
 	}
 
-	private void addLessConstraint(AnnotatedValue av, Constraint less) {
-		Set<Constraint> set = lessValues.get(av.getIdentifier());
-		if (set == null) {
-			set = new HashSet<Constraint>();
-			lessValues.put(av.getIdentifier(), set);
-		}
-		set.add(less);
-	}
-
-	private Set<Constraint> getGreaterConstraints(AnnotatedValue av) {
-		Set<Constraint> set = greaterValues.get(av.getIdentifier());
-		if (set == null)
-			return Collections.<Constraint> emptySet();
-		else
-			return set;
-	}
-
-	private void addGreaterConstraint(AnnotatedValue av, Constraint greater) {
-		Set<Constraint> set = greaterValues.get(av.getIdentifier());
-		if (set == null) {
-			set = new HashSet<Constraint>();
-			greaterValues.put(av.getIdentifier(), set);
-		}
-		set.add(greater);
-	}
-
-	private void buildRefToConstraintMapping(Constraint c) {
-		AnnotatedValue left = null, right = null;
-		if (c instanceof SubtypeConstraint || c instanceof EqualityConstraint || c instanceof UnequalityConstraint) {
-			left = c.getLeft();
-			right = c.getRight();
-		}
-		if (left != null && right != null) {
-			AnnotatedValue[] refs = { left, right };
-			for (AnnotatedValue ref : refs) {
-				if (ref instanceof AdaptValue) {
-					// Add decl and context
-					AnnotatedValue decl = ((AdaptValue) ref).getDeclValue();
-					AnnotatedValue context = ((AdaptValue) ref).getContextValue();
-					// Add mapping from decl -> adaptValue
-					Set<AdaptValue> adaptSet = declRefToAdaptValue.get(decl.getIdentifier());
-					if (adaptSet == null) {
-						adaptSet = new HashSet<AdaptValue>();
-						declRefToAdaptValue.put(decl.getIdentifier(), adaptSet);
-					}
-					adaptSet.add((AdaptValue) ref);
-
-					// Add mapping from context -> adaptValue
-					if (!context.getIdentifier().startsWith(InferenceTransformer.CALLSITE_PREFIX)
-							&& !context.getIdentifier().startsWith(InferenceTransformer.FAKE_PREFIX)) {
-						Set<AdaptValue> adaptSet2 = contextRefToAdaptValue.get(context.getIdentifier());
-						if (adaptSet2 == null) {
-							adaptSet2 = new HashSet<AdaptValue>();
-							contextRefToAdaptValue.put(context.getIdentifier(), adaptSet2);
-						}
-						adaptSet2.add((AdaptValue) ref);
-					}
-				}
-			}
-			if (c instanceof SubtypeConstraint) {
-				addGreaterConstraint(left, c);
-				addLessConstraint(right, c);
-			} else if (c instanceof EqualityConstraint) {
-				addGreaterConstraint(left, c);
-				addLessConstraint(left, c);
-				addGreaterConstraint(right, c);
-				addLessConstraint(right, c);
-			}
-		}
-	}
-
-	private void buildRefToConstraintMapping(Set<Constraint> cons) {
-		for (Constraint c : cons) {
-			buildRefToConstraintMapping(c);
-		}
+	private List<Constraint> getGreaterConstraints(AnnotatedValue av) {
+		return index.getGreaterConstraints(av);
 	}
 
 	private boolean canConnectVia(AnnotatedValue left, AnnotatedValue right) {
@@ -255,7 +150,7 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 			// Nov 26, 2013: add linear constraint for array fields
 			if ((left instanceof FieldAdaptValue)) {
 				if ((ref = ((FieldAdaptValue) left).getDeclValue()) != null
-						&& (ref.getAnnotations(st).size() == 1 && ref.getAnnotations(st).contains(st.POLY)
+						&& (ref.getAnnotationBits(st) == POLY_MASK
 								|| ((FieldAdaptValue) left).getContextValue().getType() instanceof ArrayType)) {
 					Constraint linear = new SubtypeConstraint(((FieldAdaptValue) left).getContextValue(), right);
 					linear.addCause(c);
@@ -275,7 +170,7 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 			// Nov 26, 2013: add linear constraint for array fields
 			else if ((right instanceof FieldAdaptValue)) {
 				if ((ref = ((FieldAdaptValue) right).getDeclValue()) != null
-						&& (ref.getAnnotations(st).size() == 1 && ref.getAnnotations(st).contains(st.POLY)
+						&& (ref.getAnnotationBits(st) == POLY_MASK
 								// || preferSource // FIXED fields on May 7,
 								// 2014
 								|| ((FieldAdaptValue) right).getContextValue().getType() instanceof ArrayType)) {
@@ -323,9 +218,9 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 				if ((isParamOrRetValue(left) || isLocalThis(left))
 						&& (isParamOrRetValue(right) || isLocalThis(right))) {
 					// /return/param/this -> return/param/this
-					Set<AdaptValue> adaptSetLeft = declRefToAdaptValue.get(left.getIdentifier());
-					Set<AdaptValue> adaptSetRight = declRefToAdaptValue.get(right.getIdentifier());
-					if (adaptSetLeft != null && adaptSetRight != null) {
+					List<AdaptValue> adaptSetLeft = index.getAdaptValuesOfDecl(left);
+					List<AdaptValue> adaptSetRight = index.getAdaptValuesOfDecl(right);
+					if (!adaptSetLeft.isEmpty() && !adaptSetRight.isEmpty()) {
 						for (AdaptValue yPar : adaptSetLeft) {
 							// if
 							// (clearLibMethods.contains(yPar.getIdentifier()))
@@ -355,7 +250,7 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 				if (!existingCons.contains(linear) && !newCons.contains(linear)
 						&& canConnectVia(linear.getLeft(), linear.getRight())) {
 					newCons.add(linear);
-					buildRefToConstraintMapping(linear);
+					index.add(linear);
 					queue.add(linear);
 					// System.out.println(linear);
 				}
@@ -408,15 +303,17 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 	 */
 	private boolean makeSatisfiable(Constraint c, boolean beenUpdated) {
 		AnnotatedValue toUpdate = null;
+		long leftAnnos = getAnnotationBits(c.getLeft());
+		long rightAnnos = getAnnotationBits(c.getRight());
 		if (preferSink) {
-			if (getAnnotations(c.getLeft()).contains(st.SENSITIVE) || (getAnnotations(c.getLeft()).contains(st.POLY)
-					&& getAnnotations(c.getRight()).contains(st.CLEAR)))
+			if ((leftAnnos & SENSITIVE_MASK) != 0 || ((leftAnnos & POLY_MASK) != 0
+					&& (rightAnnos & CLEAR_MASK) != 0))
 				toUpdate = c.getRight();
 			else
 				toUpdate = c.getLeft();
 		} else if (preferSource) {
-			if (getAnnotations(c.getRight()).contains(st.CLEAR) || (getAnnotations(c.getRight()).contains(st.POLY)
-					&& getAnnotations(c.getLeft()).contains(st.SENSITIVE)))
+			if ((rightAnnos & CLEAR_MASK) != 0 || ((rightAnnos & POLY_MASK) != 0
+					&& (leftAnnos & SENSITIVE_MASK) != 0))
 				toUpdate = c.getLeft();
 			else
 				toUpdate = c.getRight();
@@ -431,8 +328,7 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 		} else if (toUpdate instanceof FieldAdaptValue) {
 			// skip
 			AnnotatedValue fieldAv = ((AdaptValue) toUpdate).getDeclValue();
-			Set<Annotation> set = fieldAv.getAnnotations(st);
-			if (preferSource && set.size() == 1 && set.contains(st.SENSITIVE))
+			if (preferSource && fieldAv.getAnnotationBits(st) == SENSITIVE_MASK)
 				avs = new AnnotatedValue[] { fieldAv };
 			else
 				avs = new AnnotatedValue[] { ((AdaptValue) toUpdate).getContextValue() };
@@ -445,11 +341,11 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 			if (beenUpdated) {
 				// only restore values that have been updated before
 				if (updated.get(id) && av.getRestoreNum() < 3) {
-					Set<Annotation> initAnnos = getInitAnnos(id);
+					long initAnnos = getInitAnnos(id);
 					// System.out.println("Restoring " + av + " to " +
 					// initAnnos);
 					// restore
-					av.setAnnotations(initAnnos, st);
+					av.setAnnotationBits(initAnnos, st);
 					needSolve = true;
 					restoreCounter++;
 					av.setRestored();
@@ -462,8 +358,8 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 				// here we need to restore all constraints?
 				for (AnnotatedValue v : AnnotatedValueMap.v().values()) {
 					if (updated.get(id)) {
-						Set<Annotation> initAnnos = getInitAnnos(id);
-						v.setAnnotations(initAnnos, st);
+						long initAnnos = getInitAnnos(id);
+						v.setAnnotationBits(initAnnos, st);
 						updated.flip(id);
 					}
 				}
@@ -483,36 +379,23 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 		return b;
 	}
 
-	private void addToWorklist(Set<AnnotatedValue> avs) {
-		for (AnnotatedValue av : avs)
-			addToWorklist(av);
-	}
-
 	private void addToWorklist(AnnotatedValue av) {
 		worklist.addAll(getLessConstraints(av));
 		worklist.addAll(getGreaterConstraints(av));
-		Set<AdaptValue> set = declRefToAdaptValue.get(av.getIdentifier());
-		if (set != null) {
-			Set<AnnotatedValue> avs = new HashSet<AnnotatedValue>();
-			for (AdaptValue a : set)
-				avs.add(a);
-			addToWorklist(avs);
-		}
-		set = contextRefToAdaptValue.get(av.getIdentifier());
-		if (set != null) {
-			Set<AnnotatedValue> avs = new HashSet<AnnotatedValue>();
-			for (AdaptValue a : set)
-				avs.add(a);
-			addToWorklist(avs);
+		for (AdaptValue a : index.getAdaptValuesOfDecl(av))
+			addToWorklist(a);
+		if (!av.getIdentifier().startsWith(InferenceTransformer.CALLSITE_PREFIX)
+				&& !av.getIdentifier().startsWith(InferenceTransformer.FAKE_PREFIX)) {
+			for (AdaptValue a : index.getAdaptValuesOfContext(av))
+				addToWorklist(a);
 		}
 	}
 
 	@Override
-	protected boolean setAnnotations(AnnotatedValue av, Set<Annotation> annos) throws SolverException {
-		Set<Annotation> oldAnnos = av.getAnnotations(st);
+	protected boolean setAnnotations(AnnotatedValue av, long annos) throws SolverException {
 		if (av instanceof AdaptValue)
 			return setAnnotations((AdaptValue) av, annos);
-		if (oldAnnos.equals(annos))
+		if (av.getAnnotationBits(st) == annos)
 			return false;
 		if (av.getKind() == Kind.CONSTANT || av.getIdentifier().startsWith(InferenceTransformer.CALLSITE_PREFIX)
 				|| av.getIdentifier().startsWith(InferenceTransformer.FAKE_PREFIX))
@@ -541,7 +424,7 @@ public class JCryptConstraintSolver extends AbstractConstraintSolver {
 		// add constrains between map output and reduce input
 		addMapReduceConstraints(constraints);
 
-		buildRefToConstraintMapping(constraints);
+		index = new ConstraintIndex(constraints);
 
 		worklist.addAll(constraints);
 
@@ -219,7 +219,7 @@ public class JCryptTransformer extends InferenceTransformer {
 	
 	@Override
 	protected boolean isAnnotated(AnnotatedValue v) {
-		return isAnnotated(v.getRawAnnotations());
+		return (v.getRawAnnotationBits() & getSourceLevelMask()) != 0;
 	}
 
 	private boolean isAnnotated(Set<Annotation> annos) {
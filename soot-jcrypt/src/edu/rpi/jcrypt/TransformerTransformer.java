@@ -1,7 +1,10 @@
 package edu.rpi.jcrypt;
 
 import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -22,9 +25,12 @@ import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
+import soot.SootMethodRef;
 import soot.Type;
 import soot.Unit;
 import soot.Value;
+import soot.ValueBox;
+import soot.VoidType;
 import soot.javaToJimple.LocalGenerator;
 import soot.jimple.AddExpr;
 import soot.jimple.AssignStmt;
@@ -33,6 +39,7 @@ import soot.jimple.CastExpr;
 import soot.jimple.ClassConstant;
 import soot.jimple.DefinitionStmt;
 import soot.jimple.IfStmt;
+import soot.jimple.InstanceInvokeExpr;
 import soot.jimple.IntConstant;
 import soot.jimple.InvokeExpr;
 import soot.jimple.InvokeStmt;
@@ -44,6 +51,8 @@ import soot.jimple.SpecialInvokeExpr;
 import soot.jimple.StaticInvokeExpr;
 import soot.jimple.VirtualInvokeExpr;
 import soot.tagkit.SignatureTag;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
 import soot.util.Chain;
 
 import static com.esotericsoftware.minlog.Log.*;
@@ -348,6 +357,11 @@ public class TransformerTransformer extends BodyTransformer {
 	}
 
 	private void modifyRunMethod(Body body) {
+		// key class settings after which the OPE comparator is set
+		List<Unit> opeKeys = new ArrayList<>();
+		// reducer settings of the jobs, after which a combiner can be set
+		Map<String, InvokeStmt> reducers = new HashMap<>();
+		Set<String> combined = new HashSet<>();
 		for (Unit unit : body.getUnits()) {
 			if (unit instanceof InvokeStmt) {
 				InvokeExpr invoke = ((InvokeStmt) unit).getInvokeExpr();
@@ -369,9 +383,214 @@ public class TransformerTransformer extends BodyTransformer {
 						setOutputKeyValueClass(job.getMok(), invoke);
 					else if (methodName.equals("setMapOutputValueClass"))
 						setOutputKeyValueClass(job.getMov(), invoke);
+					if ((methodName.equals("setOutputKeyClass") || methodName.equals("setMapOutputKeyClass"))
+							&& isOPE(job.getMok()) && invoke.getArg(0).equals(ClassConstant.v("org/apache/hadoop/io/Text")))
+						opeKeys.add(unit);
+					if (methodName.equals("setReducerClass"))
+						reducers.put(jobId, (InvokeStmt) unit);
+					else if (methodName.equals("setCombinerClass"))
+						combined.add(jobId);
 				}
 			}
 		}
+		for (Unit unit : opeKeys)
+			setOPEComparator(body, (InvokeStmt) unit);
+		for (Map.Entry<String, InvokeStmt> reducer : reducers.entrySet()) {
+			Job job = jobs.get(reducer.getKey());
+			if (job != null && !combined.contains(reducer.getKey()) && isAH(job.getMov()))
+				setSumCombiner(body, reducer.getValue());
+		}
+	}
+
+	private boolean isOPE(List<AnnotatedValue> values) {
+		return isEncrypted(values, 0b1);
+	}
+
+	private boolean isAH(List<AnnotatedValue> values) {
+		return isEncrypted(values, 0b100);
+	}
+
+	private boolean isEncrypted(List<AnnotatedValue> values, int scheme) {
+		for (AnnotatedValue av : values) {
+			Byte typeSet = encryptions.get(av.getIdentifier());
+			if (polyValues.contains(av.getIdentifier()) && typeSet != null && (scheme & typeSet) != 0) return true;
+		}
+		return false;
+	}
+
+	private void setSumCombiner(Body body, InvokeStmt unit) {
+		// the map output values are AH ciphertexts in a Text that the reducer adds up:
+		// add them up on the map side too
+		// job.setCombinerClass(encryption.HomomorphicSumCombiner$TextCombiner.class);
+		VirtualInvokeExpr invoke = (VirtualInvokeExpr) unit.getInvokeExpr();
+		SootClass jobClass = invoke.getMethod().getDeclaringClass();
+		// the combiner is an old API Reducer
+		if (jobClass.getName().equals("org.apache.hadoop.mapreduce.Job") || !(invoke.getArg(0) instanceof ClassConstant))
+			return;
+		String reducerName = ((ClassConstant) invoke.getArg(0)).getValue().replace('/', '.');
+		if (!isSumReducer(Scene.v().getSootClass(reducerName)))
+			return;
+		SootMethodRef ref = Scene.v().makeMethodRef(jobClass, "setCombinerClass",
+				Collections.<Type> singletonList(RefType.v("java.lang.Class")), VoidType.v(), false);
+		InvokeExpr setCombiner = Jimple.v().newVirtualInvokeExpr((Local) invoke.getBase(), ref,
+				ClassConstant.v("encryption/HomomorphicSumCombiner$TextCombiner"));
+		body.getUnits().insertAfter(Jimple.v().newInvokeStmt(setCombiner), unit);
+		debug("AH sum combiner: " + setCombiner);
+	}
+
+	private boolean isSumReducer(SootClass reducer) {
+		return isSumReducer(reducer, encryptions);
+	}
+
+	/**
+	 * Whether reduce adds up the AH values of its iterator and collects the sum once they are
+	 * all added: a combiner may then add up part of them before. The values and the sums may
+	 * only be cast, converted, added with EncryptUtil.add or an AH AddExpr, wrapped in a
+	 * Writable and collected. Any other use, such as branching on or comparing a value, other
+	 * arithmetic like counting the values for an average, or collecting inside the loop, which
+	 * emits the values one by one, rejects the reducer.
+	 */
+	static boolean isSumReducer(SootClass reducer, Map<String, Byte> encryptions) {
+		boolean sums = false;
+		for (SootMethod method : reducer.getMethods()) {
+			if (!method.getName().equals("reduce") || !method.isConcrete() || Modifier.isVolatile(method.getModifiers())
+					|| method.getParameterCount() < 3)
+				continue;
+			Body body = method.retrieveActiveBody();
+			// the locals holding values of the iterator (false) or sums of them (true)
+			Map<Local, Boolean> values = trackValues(body);
+			UnitGraph graph = new BriefUnitGraph(body);
+			for (Unit unit : body.getUnits()) {
+				boolean uses = false;
+				for (ValueBox box : unit.getUseBoxes())
+					uses |= values.containsKey(box.getValue());
+				if (!uses)
+					continue;
+				if (unit instanceof AssignStmt && ((AssignStmt) unit).getLeftOp() instanceof Local) {
+					AssignStmt assign = (AssignStmt) unit;
+					Value right = assign.getRightOp();
+					if (right instanceof AddExpr) {
+						Byte typeSet = encryptions.get(TransUtils.getIdenfication(assign.getLeftOp(), method));
+						if (typeSet == null || (0b100 & typeSet) == 0)
+							return false;
+					} else if (!(right instanceof Local || right instanceof CastExpr || isEncryptUtilAdd(right)
+							|| isConversion(right, values)))
+						return false;
+				} else if (unit instanceof InvokeStmt && isWrap(((InvokeStmt) unit).getInvokeExpr())) {
+					// new Text(sum) or text.set(sum)
+				} else if (unit instanceof InvokeStmt && isCollect(((InvokeStmt) unit).getInvokeExpr())) {
+					InvokeExpr collect = ((InvokeStmt) unit).getInvokeExpr();
+					if (values.containsKey(collect.getArg(0)) || !Boolean.TRUE.equals(values.get(collect.getArg(1)))
+							|| inLoop(graph, unit))
+						return false;
+					sums = true;
+				} else
+					return false;
+			}
+		}
+		return sums;
+	}
+
+	private static Map<Local, Boolean> trackValues(Body body) {
+		Map<Local, Boolean> values = new HashMap<>();
+		Set<Value> iterators = new HashSet<>();
+		iterators.add(body.getParameterLocal(1));
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Unit unit : body.getUnits()) {
+				if (unit instanceof AssignStmt && ((AssignStmt) unit).getLeftOp() instanceof Local) {
+					Local left = (Local) ((AssignStmt) unit).getLeftOp();
+					Value right = ((AssignStmt) unit).getRightOp();
+					if (right instanceof CastExpr)
+						right = ((CastExpr) right).getOp();
+					if (iterators.contains(right))
+						changed |= iterators.add(left);
+					else if (right instanceof InstanceInvokeExpr && iterators.contains(((InstanceInvokeExpr) right).getBase())
+							&& ((InstanceInvokeExpr) right).getMethod().getName().equals("next"))
+						changed |= track(values, left, false);
+					else if (values.containsKey(right))
+						changed |= track(values, left, values.get(right));
+					else if (isConversion(right, values))
+						changed |= track(values, left, values.get(((InstanceInvokeExpr) right).getBase()));
+					else if (isEncryptUtilAdd(right) || right instanceof AddExpr) {
+						for (ValueBox box : right.getUseBoxes())
+							if (values.containsKey(box.getValue()))
+								changed |= track(values, left, true);
+					}
+				} else if (unit instanceof InvokeStmt && isWrap(((InvokeStmt) unit).getInvokeExpr())) {
+					InstanceInvokeExpr wrap = (InstanceInvokeExpr) ((InvokeStmt) unit).getInvokeExpr();
+					if (values.containsKey(wrap.getArg(0)))
+						changed |= track(values, (Local) wrap.getBase(), values.get(wrap.getArg(0)));
+				}
+			}
+		}
+		return values;
+	}
+
+	private static boolean track(Map<Local, Boolean> values, Local local, boolean sum) {
+		Boolean old = values.get(local);
+		if (old != null && (old || !sum))
+			return false;
+		values.put(local, sum);
+		return true;
+	}
+
+	private static boolean isEncryptUtilAdd(Value v) {
+		if (!(v instanceof StaticInvokeExpr))
+			return false;
+		SootMethod callee = ((StaticInvokeExpr) v).getMethod();
+		return callee.getDeclaringClass().getName().equals("encryptUtil.EncryptUtil") && callee.getName().equals("add");
+	}
+
+	// value.toString() or value.get(), with no value as an argument
+	private static boolean isConversion(Value v, Map<Local, Boolean> values) {
+		if (!(v instanceof InstanceInvokeExpr))
+			return false;
+		InstanceInvokeExpr invoke = (InstanceInvokeExpr) v;
+		String name = invoke.getMethod().getName();
+		return values.containsKey(invoke.getBase()) && invoke.getArgCount() == 0
+				&& (name.equals("toString") || name.equals("get"));
+	}
+
+	private static boolean isWrap(InvokeExpr invoke) {
+		String name = invoke.getMethod().getName();
+		return invoke instanceof InstanceInvokeExpr && ((InstanceInvokeExpr) invoke).getBase() instanceof Local
+				&& invoke.getArgCount() == 1 && (name.equals("<init>") || name.equals("set"));
+	}
+
+	private static boolean isCollect(InvokeExpr invoke) {
+		String name = invoke.getMethod().getName();
+		return invoke.getArgCount() == 2 && (name.equals("collect") || name.equals("write"));
+	}
+
+	private static boolean inLoop(UnitGraph graph, Unit unit) {
+		Deque<Unit> todo = new ArrayDeque<>(graph.getSuccsOf(unit));
+		Set<Unit> seen = new HashSet<>();
+		while (!todo.isEmpty()) {
+			Unit u = todo.pop();
+			if (u == unit)
+				return true;
+			if (seen.add(u))
+				todo.addAll(graph.getSuccsOf(u));
+		}
+		return false;
+	}
+
+	private void setOPEComparator(Body body, InvokeStmt unit) {
+		// the map output keys are OPE ciphertexts in a Text: sort them as numbers
+		// job.setOutputKeyComparatorClass(encryption.OPEWritable$TextComparator.class);
+		// or job.setSortComparatorClass(...) for a mapreduce Job
+		VirtualInvokeExpr invoke = (VirtualInvokeExpr) unit.getInvokeExpr();
+		SootClass jobClass = invoke.getMethod().getDeclaringClass();
+		String setter = jobClass.getName().equals("org.apache.hadoop.mapreduce.Job") ? "setSortComparatorClass"
+				: "setOutputKeyComparatorClass";
+		SootMethodRef ref = Scene.v().makeMethodRef(jobClass, setter,
+				Collections.<Type> singletonList(RefType.v("java.lang.Class")), VoidType.v(), false);
+		InvokeExpr setComparator = Jimple.v().newVirtualInvokeExpr((Local) invoke.getBase(), ref,
+				ClassConstant.v("encryption/OPEWritable$TextComparator"));
+		body.getUnits().insertAfter(Jimple.v().newInvokeStmt(setComparator), unit);
+		debug("OPE key comparator: " + setComparator);
 	}
 
 	private void setOutputKeyValueClass(List<AnnotatedValue> output, InvokeExpr invoke) {
@@ -69,18 +69,20 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
 
     private BitSet updated = new BitSet(AnnotatedValue.maxId());
 
-    private byte[] initAnnos = new byte[AnnotatedValue.maxId()];
+    private long[] initAnnos = new long[AnnotatedValue.maxId()];
 
-    private final byte TAINTED_MASK = 0x01;
-    private final byte POLY_MASK = 0x02;
-    private final byte SAFE_MASK = 0x04;
-    private final byte BOTTOM_MASK = 0x08;
+    private final long TAINTED_MASK;
+    private final long POLY_MASK;
+    private final long SAFE_MASK;
 
     public SFlowConstraintSolver2(InferenceTransformer t) {
         super(t);
         if (!(t instanceof SFlowTransformer)) 
             throw new RuntimeException("SFlowConstraintSolver2 expects SFlowTransformer");
         this.st = (SFlowTransformer) t;
+        TAINTED_MASK = AnnotationLattice.toBits(st.TAINTED);
+        POLY_MASK = AnnotationLattice.toBits(st.POLY);
+        SAFE_MASK = AnnotationLattice.toBits(st.SAFE);
         this.preferSource = (System.getProperty("preferSource") != null);
         this.preferSink = (System.getProperty("preferSink") != null);
         this.isInteractive = (System.getProperty("interactive") != null);
@@ -92,42 +94,13 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
     }
 
 
-    private byte toBits(Set<Annotation> annos) {
-        byte b = 0;
-        for (Annotation anno : annos) {
-            if (anno.equals(st.TAINTED))
-                b |= TAINTED_MASK;
-            else if (anno.equals(st.POLY))
-                b |= POLY_MASK;
-            else if (anno.equals(st.SAFE))
-                b |= SAFE_MASK;
-            else if (anno.equals(st.BOTTOM))
-                b |= BOTTOM_MASK;
-        }
-        return b;
-    }
-
-    private Set<Annotation> fromBits(byte b) {
-        Set<Annotation> annos = AnnotationUtils.createAnnotationSet();
-        if ((b & TAINTED_MASK) > 0)
-            annos.add(st.TAINTED);
-        if ((b & POLY_MASK) > 0)
-            annos.add(st.POLY);
-        if ((b & SAFE_MASK) > 0)
-            annos.add(st.SAFE);
-        if ((b & BOTTOM_MASK) > 0)
-            annos.add(st.BOTTOM);
-        return annos;
-    }
-
     private void setInitAnnos(AnnotatedValue av) {
         int id = av.getId();
-        initAnnos[id] = toBits(av.getAnnotations(st));
+        initAnnos[id] = av.getAnnotationBits(st);
     }
 
-    private Set<Annotation> getInitAnnos(int id) {
-        byte b = initAnnos[id];
-        return fromBits(b);
+    private long getInitAnnos(int id) {
+        return initAnnos[id];
     }
 
     private boolean containsReadonly(AnnotatedValue av) {
@@ -292,7 +265,7 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
             // Nov 26, 2013: add linear constraint for array fields
             if ((left instanceof FieldAdaptValue)) {
                 if ((ref = ((FieldAdaptValue) left).getDeclValue()) != null
-                    &&(ref.getAnnotations(st).size() == 1 && ref.getAnnotations(st).contains(st.POLY)
+                    &&(ref.getAnnotationBits(st) == POLY_MASK
                         || ((FieldAdaptValue) left).getContextValue().getType() instanceof ArrayType)) {
                     Constraint linear = new SubtypeConstraint(
                                 ((FieldAdaptValue) left).getContextValue(), right);
@@ -313,7 +286,7 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
             // Nov 26, 2013: add linear constraint for array fields
             else if ((right instanceof FieldAdaptValue) ) {
                 if ((ref = ((FieldAdaptValue) right).getDeclValue()) != null
-                    && (ref.getAnnotations(st).size() == 1 && ref.getAnnotations(st).contains(st.POLY)
+                    && (ref.getAnnotationBits(st) == POLY_MASK
                         || preferSource
                         || ((FieldAdaptValue) right).getContextValue().getType() instanceof ArrayType)) {
                     Constraint linear = new SubtypeConstraint(
@@ -437,17 +410,19 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
      */
     private boolean makeSatisfiable(Constraint c, boolean beenUpdated) {
         AnnotatedValue toUpdate = null;
+        long leftAnnos = getAnnotationBits(c.getLeft());
+        long rightAnnos = getAnnotationBits(c.getRight());
         if (preferSink) {
-            if (getAnnotations(c.getLeft()).contains(st.TAINTED) 
-                    || (getAnnotations(c.getLeft()).contains(st.POLY)
-                        && getAnnotations(c.getRight()).contains(st.SAFE)))
+            if ((leftAnnos & TAINTED_MASK) != 0 
+                    || ((leftAnnos & POLY_MASK) != 0
+                        && (rightAnnos & SAFE_MASK) != 0))
                 toUpdate = c.getRight();
             else 
                 toUpdate = c.getLeft();
         } else if (preferSource)  {
-            if (getAnnotations(c.getRight()).contains(st.SAFE) 
-                    || (getAnnotations(c.getRight()).contains(st.POLY)
-                        && getAnnotations(c.getLeft()).contains(st.TAINTED)))
+            if ((rightAnnos & SAFE_MASK) != 0 
+                    || ((rightAnnos & POLY_MASK) != 0
+                        && (leftAnnos & TAINTED_MASK) != 0))
                 toUpdate = c.getLeft();
             else 
                 toUpdate = c.getRight();
@@ -470,10 +445,10 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
             if (beenUpdated) {
                 // only restore values that have been updated before
                 if (updated.get(id)) {
-                    Set<Annotation> initAnnos = getInitAnnos(id);
+                    long initAnnos = getInitAnnos(id);
 //                    System.out.println("Restoring " + av + " to " + initAnnos);
                     // restore
-                    av.setAnnotations(initAnnos, st);
+                    av.setAnnotationBits(initAnnos, st);
                     needSolve = true;
                     restoreCounter++;
                 }
@@ -486,8 +461,8 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
                 for (AnnotatedValue v : AnnotatedValueMap.v().values()) {
                     int vid = v.getId();
                     if (updated.get(id)) {
-                        Set<Annotation> initAnnos = getInitAnnos(id);
-                        v.setAnnotations(initAnnos, st);
+                        long initAnnos = getInitAnnos(id);
+                        v.setAnnotationBits(initAnnos, st);
                         updated.flip(id);
                     }
                 }
@@ -508,12 +483,11 @@ public class SFlowConstraintSolver2 extends AbstractConstraintSolver {
     }
 
     @Override
-	protected boolean setAnnotations(AnnotatedValue av, Set<Annotation> annos) 
+	protected boolean setAnnotations(AnnotatedValue av, long annos) 
 			throws SolverException {
-        Set<Annotation> oldAnnos = av.getAnnotations(st);
 		if (av instanceof AdaptValue)
 			return setAnnotations((AdaptValue) av, annos);
-		if (oldAnnos.equals(annos))
+		if (av.getAnnotationBits(st) == annos)
 			return false;
         if (av.getKind() == Kind.CONSTANT 
                 || av.getIdentifier().startsWith(InferenceTransformer.CALLSITE_PREFIX)
@@ -0,0 +1,129 @@
+package edu.rpi;
+
+import java.lang.annotation.*;
+import java.util.*;
+
+import checkers.inference.reim.quals.*;
+import checkers.inference.sflow.quals.*;
+import checkers.inference.jcrypt.quals.Clear;
+import checkers.inference.jcrypt.quals.Sensitive;
+
+import edu.rpi.jcrypt.JCryptViewpointAdapter;
+import edu.rpi.reim.ReimViewpointAdapter;
+import edu.rpi.sflow.SFlowViewpointAdapter;
+
+/**
+ * Compares the subtype checks and viewpoint adaptation done through
+ * AnnotationUtils.isSubtype and the ViewpointAdapter with the lookups in
+ * QualifierHierarchy, on every subset pair of a hierarchy.
+ *
+ * Usage: QualifierHierarchyBenchmark [iterations]
+ */
+public class QualifierHierarchyBenchmark {
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Set<Annotation> reim = AnnotationUtils.createAnnotationSet();
+        reim.add(AnnotationUtils.fromClass(Readonly.class));
+        reim.add(AnnotationUtils.fromClass(Polyread.class));
+        reim.add(AnnotationUtils.fromClass(Mutable.class));
+        run("reim", reim, new ReimViewpointAdapter(), iterations);
+
+        Set<Annotation> sflow = AnnotationUtils.createAnnotationSet();
+        sflow.add(AnnotationUtils.fromClass(Tainted.class));
+        sflow.add(AnnotationUtils.fromClass(Poly.class));
+        sflow.add(AnnotationUtils.fromClass(Safe.class));
+        run("sflow", sflow, new SFlowViewpointAdapter(), iterations);
+
+        Set<Annotation> jcrypt = AnnotationUtils.createAnnotationSet();
+        jcrypt.add(AnnotationUtils.fromClass(Sensitive.class));
+        jcrypt.add(AnnotationUtils.fromClass(checkers.inference.jcrypt.quals.Poly.class));
+        jcrypt.add(AnnotationUtils.fromClass(Clear.class));
+        run("jcrypt", jcrypt, new JCryptViewpointAdapter(), iterations);
+    }
+
+    private static void run(String name, Set<Annotation> quals,
+            ViewpointAdapter vpa, int iterations) {
+        QualifierHierarchy h = new QualifierHierarchy(quals, vpa);
+        List<Set<Annotation>> sets = subsets(quals);
+        long[] masks = new long[sets.size()];
+        for (int i = 0; i < masks.length; i++)
+            masks[i] = AnnotationLattice.toBits(sets.get(i));
+
+        // Warm up both paths, and check that they agree
+        for (int k = 0; k < 3; k++) {
+            long r = reflective(sets, vpa, iterations / 10);
+            long l = lookup(h, masks, iterations / 10);
+            if (r != l)
+                throw new RuntimeException("Results differ for " + name + ": " + r + " vs " + l);
+        }
+
+        long start = System.nanoTime();
+        long r = reflective(sets, vpa, iterations);
+        long reflectiveTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long l = lookup(h, masks, iterations);
+        long lookupTime = System.nanoTime() - start;
+
+        System.out.println(name + " " + h + ": reflective " + (reflectiveTime / 1000000)
+                + " ms, tables " + (lookupTime / 1000000) + " ms, speedup "
+                + String.format("%.1f", (double) reflectiveTime / Math.max(lookupTime, 1))
+                + "x (" + r + "/" + l + ")");
+    }
+
+    private static long reflective(List<Set<Annotation>> sets, ViewpointAdapter vpa,
+            int iterations) {
+        long sum = 0;
+        for (int it = 0; it < iterations; it++) {
+            for (Set<Annotation> left : sets) {
+                for (Set<Annotation> right : sets) {
+                    for (Annotation sub : left) {
+                        for (Annotation sup : right) {
+                            if (AnnotationUtils.isSubtype(sub, sup)) {
+                                sum++;
+                                break;
+                            }
+                        }
+                    }
+                    Set<Annotation> out = AnnotationUtils.createAnnotationSet();
+                    for (Annotation decl : right)
+                        for (Annotation context : left)
+                            out.add(vpa.adaptField(context, decl));
+                    sum += out.size();
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static long lookup(QualifierHierarchy h, long[] masks, int iterations) {
+        long sum = 0;
+        for (int it = 0; it < iterations; it++) {
+            for (long left : masks) {
+                for (long right : masks) {
+                    for (long b = left; b != 0; b &= b - 1) {
+                        if ((h.getSupertypes(Long.numberOfTrailingZeros(b)) & right) != 0)
+                            sum++;
+                    }
+                    sum += Long.bitCount(h.adaptFieldBits(left, right));
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static List<Set<Annotation>> subsets(Set<Annotation> quals) {
+        Annotation[] array = quals.toArray(new Annotation[quals.size()]);
+        List<Set<Annotation>> sets = new ArrayList<Set<Annotation>>();
+        for (int m = 1; m < (1 << array.length); m++) {
+            Set<Annotation> set = AnnotationUtils.createAnnotationSet();
+            for (int i = 0; i < array.length; i++)
+                if ((m & (1 << i)) != 0)
+                    set.add(array[i]);
+            sets.add(set);
+        }
+        return sets;
+    }
+}
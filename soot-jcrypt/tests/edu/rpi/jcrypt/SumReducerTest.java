@@ -0,0 +1,146 @@
+package edu.rpi.jcrypt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+import soot.BooleanType;
+import soot.G;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Unit;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.NullConstant;
+import soot.jimple.StringConstant;
+import soot.options.Options;
+import soot.util.Chain;
+
+/**
+ * The reducers whose values a combiner may add up before, as Jimple after the AH transformation
+ */
+public class SumReducerTest extends TestCase {
+
+	private static final RefType STRING = RefType.v("java.lang.String"), OBJECT = RefType.v("java.lang.Object"),
+			TEXT = RefType.v("org.apache.hadoop.io.Text"), ITERATOR = RefType.v("java.util.Iterator"),
+			COLLECTOR = RefType.v("org.apache.hadoop.mapred.OutputCollector"),
+			REPORTER = RefType.v("org.apache.hadoop.mapred.Reporter");
+
+	private enum Shape {
+		SUM, CONDITIONAL_SUM, EACH_VALUE, SUM_IN_LOOP
+	}
+
+	@Override
+	protected void setUp() {
+		G.reset();
+		Options.v().set_allow_phantom_refs(true);
+		for (String name : Arrays.asList("java.lang.Object", "java.lang.String", "java.util.Iterator",
+				"org.apache.hadoop.io.Text", "org.apache.hadoop.mapred.OutputCollector",
+				"org.apache.hadoop.mapred.Reporter", "encryptUtil.EncryptUtil")) {
+			SootClass c = new SootClass(name);
+			Scene.v().addClass(c);
+			c.setPhantomClass();
+		}
+	}
+
+	public void testSum() {
+		assertTrue(TransformerTransformer.isSumReducer(reducer(Shape.SUM), new HashMap<String, Byte>()));
+	}
+
+	public void testConditionalSum() {
+		assertFalse(TransformerTransformer.isSumReducer(reducer(Shape.CONDITIONAL_SUM), new HashMap<String, Byte>()));
+	}
+
+	public void testEachValue() {
+		assertFalse(TransformerTransformer.isSumReducer(reducer(Shape.EACH_VALUE), new HashMap<String, Byte>()));
+		assertFalse(TransformerTransformer.isSumReducer(reducer(Shape.SUM_IN_LOOP), new HashMap<String, Byte>()));
+	}
+
+	/*
+	 * sum = ""; while (values.hasNext()) { s = ((Text) values.next()).toString(); [if (s == null) continue;]
+	 * sum = EncryptUtil.add(sum, s); } output.collect(key, new Text(sum));
+	 * EACH_VALUE collects new Text(s) and SUM_IN_LOOP new Text(sum) inside the loop instead.
+	 */
+	private SootClass reducer(Shape shape) {
+		SootClass reducer = new SootClass("Reducer" + shape, Modifier.PUBLIC);
+		reducer.setSuperclass(Scene.v().getSootClass("java.lang.Object"));
+		Scene.v().addClass(reducer);
+		SootMethod reduce = new SootMethod("reduce", Arrays.<Type> asList(TEXT, ITERATOR, COLLECTOR, REPORTER),
+				VoidType.v(), Modifier.PUBLIC);
+		reducer.addMethod(reduce);
+		JimpleBody body = Jimple.v().newBody(reduce);
+		reduce.setActiveBody(body);
+		Jimple j = Jimple.v();
+		Chain<Unit> units = body.getUnits();
+
+		Local self = local(body, "r0", reducer.getType()), key = local(body, "r1", TEXT),
+				values = local(body, "r2", ITERATOR), output = local(body, "r3", COLLECTOR),
+				reporter = local(body, "r4", REPORTER), more = local(body, "z0", BooleanType.v()),
+				next = local(body, "r5", OBJECT), value = local(body, "r6", TEXT), s = local(body, "r7", STRING),
+				sum = local(body, "r8", STRING), out = local(body, "r9", TEXT);
+		units.add(j.newIdentityStmt(self, j.newThisRef(reducer.getType())));
+		Local[] params = { key, values, output, reporter };
+		for (int i = 0; i < params.length; i++)
+			units.add(j.newIdentityStmt(params[i], j.newParameterRef(params[i].getType(), i)));
+		units.add(j.newAssignStmt(sum, StringConstant.v("")));
+
+		Unit end = j.newNopStmt(), head = j.newAssignStmt(more,
+				j.newInterfaceInvokeExpr(values, method("java.util.Iterator", "hasNext", BooleanType.v())));
+		units.add(head);
+		units.add(j.newIfStmt(j.newEqExpr(more, IntConstant.v(0)), end));
+		units.add(j.newAssignStmt(next, j.newInterfaceInvokeExpr(values, method("java.util.Iterator", "next", OBJECT))));
+		units.add(j.newAssignStmt(value, j.newCastExpr(next, TEXT)));
+		units.add(j.newAssignStmt(s,
+				j.newVirtualInvokeExpr(value, method("org.apache.hadoop.io.Text", "toString", STRING))));
+		if (shape == Shape.CONDITIONAL_SUM)
+			units.add(j.newIfStmt(j.newEqExpr(s, NullConstant.v()), head));
+		if (shape == Shape.EACH_VALUE)
+			collect(body, key, s, output, out);
+		else {
+			SootMethodRef add = Scene.v().makeMethodRef(Scene.v().getSootClass("encryptUtil.EncryptUtil"), "add",
+					Arrays.<Type> asList(STRING, STRING), STRING, true);
+			units.add(j.newAssignStmt(sum, j.newStaticInvokeExpr(add, sum, s)));
+			if (shape == Shape.SUM_IN_LOOP)
+				collect(body, key, sum, output, out);
+		}
+		units.add(j.newGotoStmt(head));
+		units.add(end);
+		if (shape == Shape.SUM || shape == Shape.CONDITIONAL_SUM)
+			collect(body, key, sum, output, out);
+		units.add(j.newReturnVoidStmt());
+		return reducer;
+	}
+
+	private static void collect(JimpleBody body, Local key, Local value, Local output, Local out) {
+		Jimple j = Jimple.v();
+		SootMethodRef init = Scene.v().makeMethodRef(Scene.v().getSootClass("org.apache.hadoop.io.Text"), "<init>",
+				Collections.<Type> singletonList(STRING), VoidType.v(), false);
+		SootMethodRef collect = Scene.v().makeMethodRef(
+				Scene.v().getSootClass("org.apache.hadoop.mapred.OutputCollector"), "collect",
+				Arrays.<Type> asList(OBJECT, OBJECT), VoidType.v(), false);
+		body.getUnits().add(j.newAssignStmt(out, j.newNewExpr(TEXT)));
+		body.getUnits().add(j.newInvokeStmt(j.newSpecialInvokeExpr(out, init, value)));
+		body.getUnits().add(j.newInvokeStmt(j.newInterfaceInvokeExpr(output, collect, key, out)));
+	}
+
+	private static SootMethodRef method(String className, String name, Type returnType) {
+		return Scene.v().makeMethodRef(Scene.v().getSootClass(className), name, Collections.<Type> emptyList(),
+				returnType, false);
+	}
+
+	private static Local local(JimpleBody body, String name, Type type) {
+		Local local = Jimple.v().newLocal(name, type);
+		body.getLocals().add(local);
+		return local;
+	}
+
+}
@@ -10,6 +10,8 @@ import checkers.inference.reim.quals.PolyOrMaybe;
 
 import java.io.PrintStream;
 import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 
 import soot.PackManager;
 import soot.PrimType;
@@ -81,7 +83,8 @@ public class SootDefiniteImmutability {
 
 	protected static void printConstraints(String name, InferenceTransformer transformer, String outputDir) {
 		try {
-            PrintStream Out = new PrintStream(outputDir + File.separator + name+"-constraints.log");
+            PrintStream Out = new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(outputDir + File.separator + name+"-constraints.log")));
             for (Constraint c : transformer.getConstraints()) {
                 Out.println(c);                
                 Out.println(c.getLeft().getKind()+"\t"+c.getRight().getKind());
@@ -190,10 +193,12 @@ public class SootDefiniteImmutability {
         ConstraintSolver cs = new SetbasedSolver(reimTransformer, false);
         Set<Constraint> errors = cs.solve();
         try {
-            PrintStream reimOut = new PrintStream(outputDir + File.separator + "reim-constraints.log");
+            PrintStream reimOut = new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(outputDir + File.separator + "reim-constraints.log")));
             for (Constraint c : reimTransformer.getConstraints()) {
                 reimOut.println(c); 
             }
+            reimOut.close();
         } catch (Exception e) {
             e.printStackTrace();
         }